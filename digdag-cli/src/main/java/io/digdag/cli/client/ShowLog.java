@@ -4,14 +4,18 @@ import com.beust.jcommander.Parameter;
 import com.google.common.base.Optional;
 import io.digdag.cli.SystemExitException;
 import io.digdag.client.DigdagClient;
+import io.digdag.client.LogTailStream;
 import io.digdag.client.api.Id;
 import io.digdag.client.api.RestLogFileHandle;
+import io.digdag.client.api.RestLogTailEvent;
 import io.digdag.client.api.RestSessionAttempt;
 import io.digdag.client.api.RestTask;
 import io.digdag.core.log.LogLevel;
 
 import java.io.IOException;
 import java.util.List;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.ServiceUnavailableException;
 
 import static io.digdag.cli.SystemExitException.systemExit;
 
@@ -58,8 +62,35 @@ public class ShowLog
         LogLevel level = verbose ? null : LogLevel.INFO;
         TaskLogWatcher watcher = new TaskLogWatcher(client, attemptId, level, out);
 
+        // Open a tail stream before showing log files so that logs written
+        // while log files are downloaded are not lost. The stream starts from
+        // the oldest log the server still keeps, so that tasks already running
+        // are also streamed if their logs from the beginning are kept.
+        LogTailStream tail = null;
+        long lastId = 0;
+        if (follow) {
+            tail = openTailStream(client, attemptId, taskName, Optional.of(0L));
+            if (tail != null) {
+                RestLogTailEvent head = tail.next();
+                if (head == null) {
+                    tail.close();
+                    tail = null;
+                }
+                else {
+                    lastId = head.getId();
+                }
+            }
+        }
+
         update(client, watcher, attemptId, taskName);
 
+        if (tail != null) {
+            boolean finished = followTail(client, watcher, attemptId, taskName, tail, lastId);
+            if (finished) {
+                return;
+            }
+        }
+
         int interval = 500;
         if (follow) {
             while (true) {
@@ -78,6 +109,82 @@ public class ShowLog
         }
     }
 
+    private LogTailStream openTailStream(DigdagClient client, Id attemptId, Optional<String> taskName, Optional<Long> lastId)
+    {
+        try {
+            return client.tailLogs(attemptId, taskName, lastId);
+        }
+        catch (NotFoundException ex) {
+            // log tailing is not enabled on the server. fallback to polling log files
+            return null;
+        }
+        catch (ServiceUnavailableException ex) {
+            // the server has too many streams. fallback to polling log files
+            return null;
+        }
+    }
+
+    // Returns false if the stream can't be opened again and no task is streamed.
+    // Caller continues by polling log files.
+    private boolean followTail(DigdagClient client, TaskLogWatcher watcher,
+            Id attemptId, Optional<String> taskName, LogTailStream tail, long lastId)
+        throws Exception
+    {
+        int interval = 500;
+        while (true) {
+            boolean received = false;
+            try (LogTailStream stream = tail) {
+                RestLogTailEvent event;
+                while ((event = stream.next()) != null) {
+                    switch (event.getType()) {
+                    case "log":
+                        watcher.showTailData(event.getTaskName().get(), event.getOffset().or(0L), event.getData().get());
+                        received = true;
+                        break;
+                    case "truncated":
+                        // tasks that are not streamed are shown from log files
+                        if (watcher.hasLiveTasks()) {
+                            err.println("Some logs were skipped because they were already removed from the server's buffer");
+                        }
+                        break;
+                    default:
+                    }
+                    lastId = event.getId();
+                }
+            }
+
+            // the stream doesn't include logs of tasks running on other servers
+            boolean updated = update(client, watcher, attemptId, taskName);
+
+            if (isFinished(client, attemptId, taskName)) {
+                return true;
+            }
+            if (received || updated) {
+                interval = 500;
+            }
+            else {
+                Thread.sleep(interval);
+                interval = Math.min(interval * 2, 10000);
+            }
+
+            tail = openTailStream(client, attemptId, taskName, Optional.of(lastId));
+            while (tail == null) {
+                // Log files of streamed tasks are not shown. Fallback to polling
+                // only if no task is streamed. Otherwise, try to reconnect.
+                if (!watcher.hasLiveTasks()) {
+                    return false;
+                }
+                Thread.sleep(interval);
+                interval = Math.min(interval * 2, 10000);
+                update(client, watcher, attemptId, taskName);
+                if (isFinished(client, attemptId, taskName)) {
+                    return true;
+                }
+                tail = openTailStream(client, attemptId, taskName, Optional.of(lastId));
+            }
+        }
+    }
+
     private boolean update(DigdagClient client, TaskLogWatcher watcher,
             Id attemptId, Optional<String> taskName)
         throws IOException
@@ -51,10 +51,10 @@ class TaskLogWatcher
         boolean updatedAtLeastOne = false;
 
         for (Map.Entry<String, List<RestLogFileHandle>> pair : sortHandles(handles).entrySet()) {
-            TaskLogState state = stateMap.get(pair.getKey());
-            if (state == null) {
-                state = new TaskLogState();
-                stateMap.put(pair.getKey(), state);
+            TaskLogState state = getState(pair.getKey());
+            if (state.live) {
+                // logs of this task are shown by showTailData
+                continue;
             }
 
             boolean updated = state.update(pair.getValue());
@@ -66,11 +66,55 @@ class TaskLogWatcher
         return updatedAtLeastOne;
     }
 
+    // Shows log data received from a tail stream. Log files of the task are
+    // not shown any more because they include the same data.
+    //
+    // A task is shown from the stream only if the stream includes its output
+    // from the beginning (offset 0) and no log files of the task are shown
+    // yet. Otherwise, data of the task is ignored here and the task is shown
+    // from log files so that output written before the stream is not lost.
+    void showTailData(String taskName, long offset, String data)
+    {
+        TaskLogState state = getState(taskName);
+        if (!state.live) {
+            if (offset != 0 || state.lastFile != null) {
+                return;
+            }
+            state.live = true;
+        }
+
+        String text = state.partialLine + data;
+        int begin = 0;
+        int end;
+        while ((end = text.indexOf('\n', begin)) >= 0) {
+            state.lastLineFiltered = showOrFilterLine(text.substring(begin, end), state.lastLineFiltered);
+            begin = end + 1;
+        }
+        state.partialLine = text.substring(begin);
+    }
+
+    boolean hasLiveTasks()
+    {
+        return stateMap.values().stream().anyMatch(state -> state.live);
+    }
+
+    private TaskLogState getState(String taskName)
+    {
+        TaskLogState state = stateMap.get(taskName);
+        if (state == null) {
+            state = new TaskLogState();
+            stateMap.put(taskName, state);
+        }
+        return state;
+    }
+
     private class TaskLogState
     {
         private RestLogFileHandle lastFile = null;
         private int lastLineCount = 0;
         private boolean lastLineFiltered = false;
+        private boolean live = false;
+        private String partialLine = "";
 
         boolean update(List<RestLogFileHandle> sortedHandles)
             throws IOException
@@ -12,6 +12,7 @@ import com.github.rholder.retry.Retryer;
 import com.github.rholder.retry.RetryerBuilder;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import io.digdag.client.api.Id;
@@ -52,6 +53,7 @@ import org.jboss.resteasy.plugins.interceptors.encoding.GZIPDecodingInterceptor;
 import org.jboss.resteasy.plugins.interceptors.encoding.GZIPEncodingInterceptor;
 
 import javax.ws.rs.NotFoundException;
+import javax.ws.rs.ServiceUnavailableException;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientRequestContext;
@@ -207,6 +209,7 @@ public class DigdagClient implements AutoCloseable
 
     private final Client client;
     private final ConfigFactory cf;
+    private final ObjectMapper mapper;
     private final boolean disableDirectDownload;
 
     private DigdagClient(Builder builder)
@@ -272,6 +275,7 @@ public class DigdagClient implements AutoCloseable
         this.client = clientBuilder.build();
 
         this.cf = new ConfigFactory(mapper);
+        this.mapper = mapper;
 
         this.disableDirectDownload = builder.disableDirectDownload;
 
@@ -677,6 +681,15 @@ public class DigdagClient implements AutoCloseable
                 .resolveTemplate("id", attemptId));
     }
 
+    public RestTaskCollection getTasks(Id attemptId, Optional<Id> lastId, Optional<Integer> pageSize)
+    {
+        return doGet(RestTaskCollection.class,
+                target("/api/attempts/{id}/tasks")
+                .resolveTemplate("id", attemptId)
+                .queryParam("last_id", lastId.orNull())
+                .queryParam("page_size", pageSize.orNull()));
+    }
+
     public RestLogFileHandleCollection getLogFileHandlesOfAttempt(Id attemptId)
     {
         WebTarget webTarget = target("/api/logs/{id}/files")
@@ -726,6 +739,36 @@ public class DigdagClient implements AutoCloseable
                 .readEntity(InputStream.class);
     }
 
+    /**
+     * Streams logs of tasks running on the server. This returns logs added
+     * after the given id, or logs added after now if lastId is absent.
+     *
+     * Throws NotFoundException if the server doesn't enable log tailing.
+     */
+    public LogTailStream tailLogs(Id attemptId, Optional<String> taskName, Optional<Long> lastId)
+    {
+        WebTarget webTarget = target("/api/logs/{id}/tail")
+                .resolveTemplate("id", attemptId);
+        if (taskName.isPresent()) {
+            try {
+                webTarget = webTarget.queryParam("task", URLEncoder.encode(taskName.get(), "UTF-8"));
+            }
+            catch (UnsupportedEncodingException ex) {
+                throw ThrowablesUtil.propagate(ex);
+            }
+        }
+        if (lastId.isPresent()) {
+            webTarget = webTarget.queryParam("last_id", lastId.get());
+        }
+        Invocation request = webTarget.request("text/event-stream")
+                .headers(this.headers.get())
+                .buildGet();
+
+        // 503 means that the server has too many streams. It's not retried so that clients fall back to polling immediately.
+        Response res = invokeWithRetry(request, ex -> isDeterministicError(ex) || ex instanceof ServiceUnavailableException);
+        return new LogTailStream(res.readEntity(InputStream.class), mapper);
+    }
+
     private WebTarget addDisableDirectDownloadParam(WebTarget target)
     {
         // direct_download is default true
@@ -737,9 +780,14 @@ public class DigdagClient implements AutoCloseable
     }
 
     private Response invokeWithRetry(Invocation request)
+    {
+        return invokeWithRetry(request, DigdagClient::isDeterministicError);
+    }
+
+    private Response invokeWithRetry(Invocation request, Predicate<Throwable> isDeterministicError)
     {
         Retryer<Response> retryer = RetryerBuilder.<Response>newBuilder()
-                .retryIfException(not(DigdagClient::isDeterministicError))
+                .retryIfException(not(isDeterministicError))
                 .withWaitStrategy(exponentialWait())
                 .withStopStrategy(stopAfterAttempt(10))
                 .build();
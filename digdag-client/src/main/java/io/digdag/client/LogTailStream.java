@@ -0,0 +1,65 @@
+package io.digdag.client;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.digdag.client.api.RestLogTailEvent;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Reads server-sent events of GET /api/logs/{id}/tail.
+ */
+public class LogTailStream
+    implements Closeable
+{
+    private final BufferedReader reader;
+    private final ObjectMapper mapper;
+
+    LogTailStream(InputStream in, ObjectMapper mapper)
+    {
+        this.reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+        this.mapper = mapper;
+    }
+
+    /**
+     * Returns the next event, or null if the server closed the stream.
+     * The server closes the stream when no tasks of the attempt are running
+     * on the server or a while passed. Clients should open a new stream
+     * with the id of the last received event to continue.
+     */
+    public RestLogTailEvent next()
+        throws IOException
+    {
+        StringBuilder data = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                if (data != null) {
+                    return mapper.readValue(data.toString(), RestLogTailEvent.class);
+                }
+            }
+            else if (line.startsWith("data:")) {
+                String value = line.substring("data:".length()).trim();
+                if (data == null) {
+                    data = new StringBuilder(value);
+                }
+                else {
+                    data.append('\n').append(value);
+                }
+            }
+            // other fields (event, id) and comments are duplicated in data or ignored
+        }
+        return null;
+    }
+
+    @Override
+    public void close()
+        throws IOException
+    {
+        reader.close();
+    }
+}
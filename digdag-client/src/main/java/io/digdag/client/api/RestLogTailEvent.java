@@ -0,0 +1,30 @@
+package io.digdag.client.api;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.base.Optional;
+import org.immutables.value.Value;
+
+@Value.Immutable
+@JsonDeserialize(as = ImmutableRestLogTailEvent.class)
+public interface RestLogTailEvent
+{
+    // "head" is sent first with the id to resume from.
+    // "log" has log data of a task.
+    // "truncated" means that some logs were dropped from the server's buffer.
+    String getType();
+
+    long getId();
+
+    Optional<String> getTaskName();
+
+    // byte offset of the data in the output of the task execution.
+    // 0 means that the data is the beginning of the output.
+    Optional<Long> getOffset();
+
+    Optional<String> getData();
+
+    static ImmutableRestLogTailEvent.Builder builder()
+    {
+        return ImmutableRestLogTailEvent.builder();
+    }
+}
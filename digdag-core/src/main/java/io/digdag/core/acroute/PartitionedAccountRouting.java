@@ -0,0 +1,71 @@
+package io.digdag.core.acroute;
+
+import io.digdag.spi.AccountRouting;
+
+import static java.util.Locale.ENGLISH;
+
+/**
+ * AccountRouting that narrows another AccountRouting to a partition of
+ * session attempts. An attempt belongs to partition N if attempt_id % count == N.
+ *
+ * The filter is used in "exists (select ... from session_attempts a where ... and FILTER)"
+ * clauses of WorkflowExecutor queries. It refers to the id column of session_attempts.
+ */
+public class PartitionedAccountRouting implements AccountRouting
+{
+    private final AccountRouting base;
+    private final int partitionId;
+    private final int partitionCount;
+
+    public PartitionedAccountRouting(AccountRouting base, int partitionId, int partitionCount)
+    {
+        if (partitionCount <= 0 || partitionId < 0 || partitionId >= partitionCount) {
+            throw new IllegalArgumentException(String.format(ENGLISH,
+                        "Invalid partition %d of %d", partitionId, partitionCount));
+        }
+        this.base = base;
+        this.partitionId = partitionId;
+        this.partitionCount = partitionCount;
+    }
+
+    public static AccountRouting of(AccountRouting base, int partitionId, int partitionCount)
+    {
+        if (partitionCount == 1) {
+            return base;
+        }
+        return new PartitionedAccountRouting(base, partitionId, partitionCount);
+    }
+
+    @Override
+    public Boolean enabled()
+    {
+        return true;
+    }
+
+    @Override
+    public String getFilterSQL(String column)
+    {
+        String partitionFilter = String.format(ENGLISH, "mod(a.id, %d) = %d", partitionCount, partitionId);
+        if (base.enabled()) {
+            return "(" + base.getFilterSQL(column) + ") and " + partitionFilter;
+        }
+        else {
+            return partitionFilter;
+        }
+    }
+
+    public boolean contains(long attemptId)
+    {
+        return attemptId % partitionCount == partitionId;
+    }
+
+    public int getPartitionId()
+    {
+        return partitionId;
+    }
+
+    public int getPartitionCount()
+    {
+        return partitionCount;
+    }
+}
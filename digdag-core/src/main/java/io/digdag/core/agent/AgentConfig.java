@@ -13,6 +13,12 @@ public interface AgentConfig
     static final int DEFAULT_HEARTBEAT_INTERVAL = 60;
     static final int DEFAULT_LOCK_RETENTION_TIME = 300;
     static final int DEFAULT_MAX_TASK_THREADS = 0;
+    static final int DEFAULT_LOCAL_POLLING_MAX_INTERVAL = 0;
+    static final int DEFAULT_LOCAL_POLLING_MAX_DURATION = 600;
+    static final int DEFAULT_LOCAL_POLLING_THREADS = 4;
+    static final boolean DEFAULT_ADAPTIVE_ACQUISITION = false;
+    static final int DEFAULT_MAX_ACQUIRE_BATCH = 100;
+    static final int DEFAULT_MAX_PREFETCH_TASKS = 0;
 
     boolean getEnabled();
 
@@ -22,13 +28,31 @@ public interface AgentConfig
 
     int getMaxThreads();
 
+    int getLocalPollingMaxInterval();
+
+    int getLocalPollingMaxDuration();
+
+    int getLocalPollingThreads();
+
+    boolean getAdaptiveAcquisition();
+
+    int getMaxAcquireBatch();
+
+    int getMaxPrefetchTasks();
+
     static ImmutableAgentConfig.Builder defaultBuilder()
     {
         return ImmutableAgentConfig.builder()
             .enabled(true)
             .heartbeatInterval(DEFAULT_HEARTBEAT_INTERVAL)
             .lockRetentionTime(DEFAULT_LOCK_RETENTION_TIME)
-            .maxThreads(DEFAULT_MAX_TASK_THREADS);
+            .maxThreads(DEFAULT_MAX_TASK_THREADS)
+            .localPollingMaxInterval(DEFAULT_LOCAL_POLLING_MAX_INTERVAL)
+            .localPollingMaxDuration(DEFAULT_LOCAL_POLLING_MAX_DURATION)
+            .localPollingThreads(DEFAULT_LOCAL_POLLING_THREADS)
+            .adaptiveAcquisition(DEFAULT_ADAPTIVE_ACQUISITION)
+            .maxAcquireBatch(DEFAULT_MAX_ACQUIRE_BATCH)
+            .maxPrefetchTasks(DEFAULT_MAX_PREFETCH_TASKS);
     }
 
     static AgentConfig convertFrom(Config config)
@@ -38,6 +62,12 @@ public interface AgentConfig
             .heartbeatInterval(config.get("agent.heartbeat-interval", int.class, DEFAULT_HEARTBEAT_INTERVAL))
             .lockRetentionTime(config.get("agent.lock-retention-time", int.class, DEFAULT_LOCK_RETENTION_TIME))
             .maxThreads(config.get("agent.max-task-threads", int.class, DEFAULT_MAX_TASK_THREADS))
+            .localPollingMaxInterval(config.get("agent.local-polling-max-interval", int.class, DEFAULT_LOCAL_POLLING_MAX_INTERVAL))
+            .localPollingMaxDuration(config.get("agent.local-polling-max-duration", int.class, DEFAULT_LOCAL_POLLING_MAX_DURATION))
+            .localPollingThreads(config.get("agent.local-polling-threads", int.class, DEFAULT_LOCAL_POLLING_THREADS))
+            .adaptiveAcquisition(config.get("agent.adaptive-acquisition", boolean.class, DEFAULT_ADAPTIVE_ACQUISITION))
+            .maxAcquireBatch(config.get("agent.max-acquire-batch", int.class, DEFAULT_MAX_ACQUIRE_BATCH))
+            .maxPrefetchTasks(config.get("agent.max-prefetch-tasks", int.class, DEFAULT_MAX_PREFETCH_TASKS))
             .build();
     }
 }
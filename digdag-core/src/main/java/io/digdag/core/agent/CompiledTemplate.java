@@ -0,0 +1,130 @@
+package io.digdag.core.agent;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * A template that consists only of literal text and simple variable lookups
+ * such as ${session_date} or ${td.last_job_id}.
+ *
+ * Such a template is rendered in Java against the Jackson tree of params without
+ * running JavaScript. render returns absent if the result could be different
+ * from the one of digdag.js (e.g. a variable doesn't exist, or a value is a number
+ * that JavaScript formats differently). Then the template must be evaluated by
+ * the JavaScript engine.
+ */
+class CompiledTemplate
+{
+    // a literal can include "$" unless it's followed by "{" or "$", which have special meaning in digdag.js
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile(
+            "\\$\\{\\s*([A-Za-z_][A-Za-z0-9_]*(?:\\.[A-Za-z_][A-Za-z0-9_]*)*)\\s*\\}|((?:[^$]|\\$(?![{$]))+)");
+
+    private static final Splitter PATH_SPLITTER = Splitter.on('.');
+
+    // keywords and literals of JavaScript are not variables even if params include them
+    private static final ImmutableSet<String> RESERVED_WORDS = ImmutableSet.of(
+            "break", "case", "catch", "class", "const", "continue", "debugger", "default",
+            "delete", "do", "else", "enum", "export", "extends", "false", "finally", "for",
+            "function", "if", "implements", "import", "in", "instanceof", "interface", "let",
+            "new", "null", "package", "private", "protected", "public", "return", "static",
+            "super", "switch", "this", "throw", "true", "try", "typeof", "var", "void",
+            "while", "with", "yield");
+
+    // JavaScript numbers can't represent integers larger than this exactly
+    private static final long MAX_SAFE_INTEGER = (1L << 53) - 1;
+
+    private static class Segment
+    {
+        // either of literal or path is set
+        private final String literal;
+        private final List<String> path;
+
+        Segment(String literal, List<String> path)
+        {
+            this.literal = literal;
+            this.path = path;
+        }
+    }
+
+    private final List<Segment> segments;
+
+    private CompiledTemplate(List<Segment> segments)
+    {
+        this.segments = segments;
+    }
+
+    static Optional<CompiledTemplate> compile(String template)
+    {
+        ImmutableList.Builder<Segment> segments = ImmutableList.builder();
+        Matcher m = SEGMENT_PATTERN.matcher(template);
+        int position = 0;
+        while (position < template.length()) {
+            if (!m.find(position) || m.start() != position) {
+                return Optional.absent();
+            }
+            if (m.group(1) != null) {
+                List<String> path = PATH_SPLITTER.splitToList(m.group(1));
+                if (RESERVED_WORDS.contains(path.get(0))) {
+                    return Optional.absent();
+                }
+                segments.add(new Segment(null, path));
+            }
+            else {
+                segments.add(new Segment(m.group(2), null));
+            }
+            position = m.end();
+        }
+        return Optional.of(new CompiledTemplate(segments.build()));
+    }
+
+    // local overwrites params in the same way with ConfigEvalEngine
+    Optional<String> render(ObjectNode params, ObjectNode local)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Segment segment : segments) {
+            if (segment.literal != null) {
+                sb.append(segment.literal);
+                continue;
+            }
+
+            String first = segment.path.get(0);
+            JsonNode node = local.has(first) ? local.get(first) : params.get(first);
+            for (String name : segment.path.subList(1, segment.path.size())) {
+                if (node == null || !node.isObject()) {
+                    // a global variable, a member of a non-object value or a property of Object.prototype
+                    return Optional.absent();
+                }
+                node = node.get(name);
+            }
+            if (node == null) {
+                return Optional.absent();
+            }
+
+            if (node.isNull()) {
+                // null is rendered as an empty string
+            }
+            else if (node.isTextual()) {
+                sb.append(node.textValue());
+            }
+            else if (node.isBoolean()) {
+                sb.append(node.booleanValue());
+            }
+            else if (node.isIntegralNumber() && node.canConvertToLong()
+                    && node.longValue() >= -MAX_SAFE_INTEGER && node.longValue() <= MAX_SAFE_INTEGER) {
+                sb.append(node.longValue());
+            }
+            else {
+                // JSON.stringify formats floating point numbers, objects and arrays differently from Jackson
+                return Optional.absent();
+            }
+        }
+        return Optional.of(sb.toString());
+    }
+}
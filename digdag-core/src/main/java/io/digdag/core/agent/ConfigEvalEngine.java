@@ -13,6 +13,9 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.CharStreams;
 import com.google.inject.Inject;
@@ -62,6 +65,8 @@ public class ConfigEvalEngine
         }
     }
 
+    private static final long COMPILED_TEMPLATE_CACHE_MAX_CHARS = 1024 * 1024;
+
     private static ImmutableList<String> NO_EVALUATE_PARAMETERS = ImmutableList.of("_do",  "_else_do");
 
     enum JsEngineType
@@ -116,18 +121,29 @@ public class ConfigEvalEngine
     private final GraalJsEngine graal;
     private final ObjectMapper jsonMapper;
 
+    // cache of templates keyed by template text. Value is absent if the template needs JavaScript.
+    private final Optional<Cache<String, Optional<CompiledTemplate>>> compiledTemplateCache;
+
     @Inject
     public ConfigEvalEngine(Config systemConfig)
     {
         this(systemConfig.getOptional("eval.js-engine-type", String.class)
                 .transform(type -> parseJsEngineType(type))
                 .or(() -> defaultJsEngineType()),
-             systemConfig.get("eval.extended-syntax", Boolean.class, true)
+             systemConfig.get("eval.extended-syntax", Boolean.class, true),
+             systemConfig.get("eval.graal-shared-engine", Boolean.class, false),
+             systemConfig.get("eval.compiled-template", Boolean.class, true)
          );
     }
 
     @VisibleForTesting
     ConfigEvalEngine(JsEngineType jsEngineType, boolean extendedSyntax)
+    {
+        this(jsEngineType, extendedSyntax, false, true);
+    }
+
+    @VisibleForTesting
+    ConfigEvalEngine(JsEngineType jsEngineType, boolean extendedSyntax, boolean graalSharedEngine, boolean compiledTemplate)
     {
         logger.debug("Using JavaScript engine: {}", jsEngineType.configName);
         this.jsEngineType = jsEngineType;
@@ -138,16 +154,25 @@ public class ConfigEvalEngine
             break;
         case GRAAL:
             this.nashorn = null;
-            this.graal = new GraalJsEngine(extendedSyntax);
+            this.graal = new GraalJsEngine(extendedSyntax, graalSharedEngine);
             break;
         case NASHORN_GRAAL_CHECK:
             this.nashorn = new NashornJsEngine();
-            this.graal = new GraalJsEngine(extendedSyntax);
+            this.graal = new GraalJsEngine(extendedSyntax, graalSharedEngine);
             break;
         default:
             throw new UnsupportedOperationException();
         }
         this.jsonMapper = new ObjectMapper();
+        if (compiledTemplate) {
+            this.compiledTemplateCache = Optional.of(CacheBuilder.newBuilder()
+                    .maximumWeight(COMPILED_TEMPLATE_CACHE_MAX_CHARS)
+                    .weigher((String template, Optional<CompiledTemplate> compiled) -> template.length())
+                    .build());
+        }
+        else {
+            this.compiledTemplateCache = Optional.absent();
+        }
     }
 
     interface JsEngine
@@ -156,6 +181,19 @@ public class ConfigEvalEngine
         {
             String evaluate(String code, Config scopedParams, ObjectMapper jsonMapper) throws TemplateException;
 
+            // Evaluates code with params overwritten by local. Evaluators that
+            // evaluate many values with the same params can override this to avoid
+            // copying and serializing params for each value.
+            default String evaluate(String code, Config params, ObjectNode local, ObjectMapper jsonMapper)
+                throws TemplateException
+            {
+                Config scopedParams = params.deepCopy();
+                for (Map.Entry<String, JsonNode> pair : ImmutableList.copyOf(local.fields())) {
+                    scopedParams.set(pair.getKey(), pair.getValue());
+                }
+                return evaluate(code, scopedParams, jsonMapper);
+            }
+
             @Override
             default void close() { };
         }
@@ -230,13 +268,15 @@ public class ConfigEvalEngine
         private JsonNode evalValue(ObjectNode local, String code)
             throws TemplateException
         {
-            Config scopedParams = params.deepCopy();
-            for (Map.Entry<String, JsonNode> pair : ImmutableList.copyOf(local.fields())) {
-                scopedParams.set(pair.getKey(), pair.getValue());
-            }
             String resultText = null;
             if (isInvokeTemplateRequired(code)) {
-                resultText = evaluator.evaluate(code, scopedParams, jsonMapper);
+                Optional<String> rendered = renderCompiledTemplate(code, params, local);
+                if (rendered.isPresent()) {
+                    resultText = rendered.get();
+                }
+                else {
+                    resultText = evaluator.evaluate(code, params, local, jsonMapper);
+                }
             }
             else {
                 resultText = code;
@@ -250,6 +290,21 @@ public class ConfigEvalEngine
         }
     }
 
+    // Renders simple templates such as ${session_date} without JavaScript.
+    // Returns absent if the template needs to be evaluated by JavaScript.
+    private Optional<String> renderCompiledTemplate(String code, Config params, ObjectNode local)
+    {
+        if (!compiledTemplateCache.isPresent()) {
+            return Optional.absent();
+        }
+        Optional<CompiledTemplate> compiled = compiledTemplateCache.get().asMap()
+            .computeIfAbsent(code, CompiledTemplate::compile);
+        if (!compiled.isPresent()) {
+            return Optional.absent();
+        }
+        return compiled.get().render(params.getInternalObjectNode(), local);
+    }
+
     private static class CheckingJsEvaluator
         implements JsEngine.Evaluator
     {
@@ -2,6 +2,7 @@ package io.digdag.core.agent;
 
 import com.google.common.base.Optional;
 import com.google.inject.Inject;
+import io.digdag.client.config.Config;
 import io.digdag.commons.ThrowablesUtil;
 import io.digdag.core.TempFileManager.TempDir;
 import io.digdag.core.TempFileManager;
@@ -9,6 +10,8 @@ import io.digdag.core.archive.ProjectArchives;
 import io.digdag.spi.StorageObject;
 import io.digdag.spi.TaskRequest;
 import java.io.IOException;
+import java.nio.file.Path;
+import javax.annotation.PreDestroy;
 
 import io.digdag.util.RetryExecutor;
 import org.slf4j.Logger;
@@ -24,11 +27,36 @@ public class ExtractArchiveWorkspaceManager
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private final TempFileManager tempFiles;
+    private final Optional<ExtractedArchiveCache> archiveCache;
 
-    @Inject
     public ExtractArchiveWorkspaceManager(TempFileManager tempFiles)
+    {
+        this(tempFiles, 0L);
+    }
+
+    @Inject
+    public ExtractArchiveWorkspaceManager(TempFileManager tempFiles, Config systemConfig)
+    {
+        this(tempFiles, systemConfig.get("agent.workspace-cache-size", long.class, 0L));
+    }
+
+    private ExtractArchiveWorkspaceManager(TempFileManager tempFiles, long cacheSize)
     {
         this.tempFiles = tempFiles;
+        if (cacheSize > 0) {
+            this.archiveCache = Optional.of(new ExtractedArchiveCache(tempFiles, cacheSize));
+        }
+        else {
+            this.archiveCache = Optional.absent();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        if (archiveCache.isPresent()) {
+            archiveCache.get().invalidateAll();
+        }
     }
 
     @Override
@@ -55,9 +83,14 @@ public class ExtractArchiveWorkspaceManager
                             TempDir newWorkSpacePath = null;
                             try {
                                 newWorkSpacePath = createNewWorkspace(request);
-                                Optional<StorageObject> in = archiveProvider.open();
-                                if (in.isPresent()) {
-                                    ProjectArchives.extractTarArchive(newWorkSpacePath.get(), in.get().getContentInputStream());
+                                if (archiveCache.isPresent() && request.getRevision().isPresent()) {
+                                    // (project_id, revision name) is unique and archive of a revision never changes
+                                    String key = request.getProjectId() + "_" + request.getRevision().get();
+                                    archiveCache.get().copyTo(key, newWorkSpacePath.get(),
+                                            (dir) -> extractArchive(archiveProvider, dir));
+                                }
+                                else {
+                                    extractArchive(archiveProvider, newWorkSpacePath.get());
                                 }
                                 return newWorkSpacePath;
                             }
@@ -81,6 +114,15 @@ public class ExtractArchiveWorkspaceManager
         }
     }
 
+    private static void extractArchive(ArchiveProvider archiveProvider, Path dir)
+        throws IOException
+    {
+        Optional<StorageObject> in = archiveProvider.open();
+        if (in.isPresent()) {
+            ProjectArchives.extractTarArchive(dir, in.get().getContentInputStream());
+        }
+    }
+
     private TempDir createNewWorkspace(TaskRequest request)
         throws IOException
     {
@@ -0,0 +1,208 @@
+package io.digdag.core.agent;
+
+import io.digdag.core.TempFileManager;
+import io.digdag.core.TempFileManager.TempDir;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Agent-local cache of extracted project archives.
+ *
+ * An archive is downloaded and extracted once for each key, and copied to a
+ * workspace of each task. Archives are evicted in least-recently-used order when
+ * the total size of extracted files exceeds maxBytes. A cached directory is
+ * deleted after all tasks copying it finish.
+ *
+ * Files are copied instead of hard-linked because tasks may modify files in
+ * their workspace in place, which would change the cached files.
+ */
+class ExtractedArchiveCache
+{
+    private static final Logger logger = LoggerFactory.getLogger(ExtractedArchiveCache.class);
+
+    interface Extractor
+    {
+        void extract(Path dir) throws IOException;
+    }
+
+    private static class Entry
+    {
+        private TempDir dir = null;  // null until extracted
+        private long bytes = 0;
+        private int refs = 0;
+        private boolean evicted = false;
+    }
+
+    private final TempFileManager tempFiles;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);  // access order
+    private long totalBytes = 0;
+
+    ExtractedArchiveCache(TempFileManager tempFiles, long maxBytes)
+    {
+        this.tempFiles = tempFiles;
+        this.maxBytes = maxBytes;
+    }
+
+    // Copies files extracted by extractor to workspace. extractor is called only if key is not cached.
+    void copyTo(String key, Path workspace, Extractor extractor)
+            throws IOException
+    {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.computeIfAbsent(key, (k) -> new Entry());
+            entry.refs++;
+        }
+        try {
+            // tasks of the same archive wait for the first one to extract it
+            synchronized (entry) {
+                if (entry.dir == null) {
+                    extract(key, entry, extractor);
+                }
+            }
+            copyRecursively(entry.dir.get(), workspace);
+        }
+        finally {
+            release(key, entry);
+        }
+    }
+
+    private void extract(String key, Entry entry, Extractor extractor)
+            throws IOException
+    {
+        TempDir dir = tempFiles.createTempDir("workspace-cache", key.replaceAll("[^A-Za-z0-9_.-]", "_"));
+        long bytes;
+        try {
+            extractor.extract(dir.get());
+            bytes = sizeOf(dir.get());
+        }
+        catch (IOException | RuntimeException ex) {
+            dir.close();
+            throw ex;
+        }
+        List<TempDir> deleting;
+        synchronized (this) {
+            entry.dir = dir;
+            entry.bytes = bytes;
+            totalBytes += bytes;
+            deleting = evict(maxBytes);
+        }
+        deleteAll(deleting);
+    }
+
+    private void release(String key, Entry entry)
+    {
+        TempDir deleting = null;
+        synchronized (this) {
+            entry.refs--;
+            if (entry.refs == 0) {
+                if (entry.evicted) {
+                    deleting = entry.dir;
+                }
+                else if (entry.dir == null) {
+                    // extraction failed
+                    entries.remove(key, entry);
+                }
+            }
+        }
+        if (deleting != null) {
+            deleting.close();
+        }
+    }
+
+    // Must be called with lock of this. Returns directories to be deleted.
+    private List<TempDir> evict(long limitBytes)
+    {
+        List<TempDir> deleting = new ArrayList<>();
+        Iterator<Map.Entry<String, Entry>> ite = entries.entrySet().iterator();
+        while (totalBytes > limitBytes && ite.hasNext()) {
+            Entry entry = ite.next().getValue();
+            if (entry.dir == null) {
+                continue;
+            }
+            ite.remove();
+            totalBytes -= entry.bytes;
+            entry.evicted = true;
+            if (entry.refs == 0) {
+                deleting.add(entry.dir);
+            }
+        }
+        return deleting;
+    }
+
+    // Deletes all cached archives that are not used by tasks.
+    void invalidateAll()
+    {
+        List<TempDir> deleting;
+        synchronized (this) {
+            deleting = evict(-1);
+        }
+        deleteAll(deleting);
+    }
+
+    private static void deleteAll(List<TempDir> dirs)
+    {
+        for (TempDir dir : dirs) {
+            logger.debug("Deleting cached archive {}", dir.get());
+            dir.close();
+        }
+    }
+
+    private static long sizeOf(Path dir)
+            throws IOException
+    {
+        AtomicLong size = new AtomicLong();
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+            {
+                size.addAndGet(attrs.size());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return size.get();
+    }
+
+    private static void copyRecursively(Path source, Path target)
+            throws IOException
+    {
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                    throws IOException
+            {
+                Path dest = target.resolve(source.relativize(dir).toString());
+                if (!Files.isDirectory(dest)) {
+                    Files.copy(dir, dest, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException
+            {
+                // symlinks are copied as symlinks. ProjectArchives rejects links pointing outside of the project.
+                Files.copy(file, target.resolve(source.relativize(file).toString()),
+                        StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
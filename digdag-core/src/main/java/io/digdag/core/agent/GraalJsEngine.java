@@ -1,13 +1,13 @@
 package io.digdag.core.agent;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.digdag.client.config.Config;
 import io.digdag.core.agent.ConfigEvalEngine.JsEngine;
 import io.digdag.spi.TemplateException;
 import java.io.IOException;
 import java.time.ZoneId;
 import java.util.Optional;
-import java.util.function.Supplier;
 
 import org.graalvm.polyglot.Context;
 import org.graalvm.polyglot.Engine;
@@ -26,13 +26,45 @@ public class GraalJsEngine
 {
     private final Source[] libraryJsSources;
     private final boolean extendedSyntax;
-    private final Engine sharedEngine;
+    private final Optional<Engine> sharedEngine;
 
     private static final HostAccess hostAccess = HostAccess.newBuilder()
             .allowPublicAccess(true)
             .build();
 
+    // Returns a function that restores global variables of a Context to the
+    // state right after digdag.js and moment.js are loaded. Templates may
+    // assign globals (e.g. ${x = 1}) and they must not be visible to other values.
+    private static final Source RESET_GLOBALS_SOURCE = Source.create("js",
+            "(function(global) {\n" +
+            "  var getNames = Object.getOwnPropertyNames;\n" +
+            "  var initial = Object.create(null);\n" +
+            "  var names = getNames(global);\n" +
+            "  for (var i = 0; i < names.length; i++) {\n" +
+            "    initial['$' + names[i]] = global[names[i]];\n" +
+            "  }\n" +
+            "  return function() {\n" +
+            "    var names = getNames(global);\n" +
+            "    for (var i = 0; i < names.length; i++) {\n" +
+            "      if (!(('$' + names[i]) in initial)) {\n" +
+            "        delete global[names[i]];\n" +
+            "      }\n" +
+            "    }\n" +
+            "    for (var key in initial) {\n" +
+            "      var name = key.substring(1);\n" +
+            "      if (global[name] !== initial[key]) {\n" +
+            "        try { global[name] = initial[key]; } catch (e) { }\n" +
+            "      }\n" +
+            "    }\n" +
+            "  };\n" +
+            "})(this)");
+
     public GraalJsEngine(boolean extendedSyntax)
+    {
+        this(extendedSyntax, false);
+    }
+
+    public GraalJsEngine(boolean extendedSyntax, boolean useSharedEngine)
     {
         this.extendedSyntax = extendedSyntax;
         try {
@@ -40,17 +72,18 @@ public class GraalJsEngine
             for (int i = 0; i < LIBRARY_JS_CONTENTS.length; i++) {
                 libraryJsSources[i] = Source.newBuilder("js", LIBRARY_JS_CONTENTS[i][1], LIBRARY_JS_CONTENTS[i][0]).build();
             }
-            this.sharedEngine = createEngine();
         }
         catch (IOException ex) {
             throw new RuntimeException(ex);
         }
+        // Shared engine is disabled by default to avoid possibility of NPE.
+        // If enabled, parsed library sources are cached by the engine and reused by all tasks.
+        this.sharedEngine = useSharedEngine ? Optional.of(createEngine()) : Optional.empty();
     }
 
     public JsEngine.Evaluator newEvaluator(Config params)
     {
-        GraalEvaluatorWithRetry evaluator = new GraalEvaluatorWithRetry(params, sharedEngine, extendedSyntax, libraryJsSources);
-        return evaluator;
+        return new GraalEvaluator(params, sharedEngine, extendedSyntax, libraryJsSources);
     }
 
     private static Engine createEngine()
@@ -66,35 +99,33 @@ public class GraalJsEngine
                 .build();
     }
 
-    private static Supplier<Context> createContextSupplier(Optional<Engine> sharedEngine, Config params, Source[] libraryJsSources)
+    private static ResettableContext createContext(Engine engine, ZoneId zoneId, Source[] libraryJsSources)
     {
-        Engine engine = sharedEngine.isPresent() ? sharedEngine.get(): createEngine();
-        return () -> {
-            Context.Builder contextBuilder = Context.newBuilder()
-                    .engine(engine)
-                    .allowAllAccess(false)
-                    .allowHostAccess(hostAccess) // Need interoperability for String methods (e.g. replaceAll)
-                    .allowHostClassLookup(className -> {
-                        if (className.matches("java\\.lang\\.String")) { // Restrict to java.lang.String
-                            return true;
-                        }
-                        else {
-                            return false;
-                        }
-                    })
-                    .timeZone(getWorkflowZoneId(params));
-            Context context = contextBuilder.build();
-            try {
-                for (Source lib : libraryJsSources) {
-                    context.eval(lib);
-                }
-            }
-            catch (RuntimeException ex) {
-                context.close();
-                throw ex;
+        Context.Builder contextBuilder = Context.newBuilder()
+                .engine(engine)
+                .allowAllAccess(false)
+                .allowHostAccess(hostAccess) // Need interoperability for String methods (e.g. replaceAll)
+                .allowHostClassLookup(className -> {
+                    if (className.matches("java\\.lang\\.String")) { // Restrict to java.lang.String
+                        return true;
+                    }
+                    else {
+                        return false;
+                    }
+                })
+                .timeZone(zoneId);
+        Context context = contextBuilder.build();
+        try {
+            for (Source lib : libraryJsSources) {
+                context.eval(lib);
             }
-            return context;
-        };
+            Value resetGlobals = context.eval(RESET_GLOBALS_SOURCE);
+            return new ResettableContext(zoneId, context, resetGlobals);
+        }
+        catch (RuntimeException ex) {
+            context.close();
+            throw ex;
+        }
     }
 
     private static ZoneId getWorkflowZoneId(Config params)
@@ -102,17 +133,63 @@ public class GraalJsEngine
         return ZoneId.of(params.get("timezone", String.class));
     }
 
-    private static class GraalEvaluatorWithRetry
+    private static class ResettableContext
+    {
+        private final ZoneId zoneId;
+        private final Context context;
+        private final Value resetGlobals;
+
+        ResettableContext(ZoneId zoneId, Context context, Value resetGlobals)
+        {
+            this.zoneId = zoneId;
+            this.context = context;
+            this.resetGlobals = resetGlobals;
+        }
+
+        ZoneId getZoneId()
+        {
+            return zoneId;
+        }
+
+        Value getBindings()
+        {
+            return context.getBindings("js");
+        }
+
+        void resetGlobals()
+        {
+            resetGlobals.executeVoid();
+        }
+
+        void close()
+        {
+            context.close();
+        }
+    }
+
+    // Evaluates all values of a task using one Context. The Context is created
+    // when the first value is evaluated and closed when this evaluator is closed.
+    // Globals are reset after each value so that a value can't see assignments
+    // of another value. A Context is never reused by other tasks because changes
+    // to built-in objects and libraries (e.g. String.prototype or moment.locale)
+    // can't be reset.
+    private static class GraalEvaluator
             implements JsEngine.Evaluator
     {
-        private static Logger logger = LoggerFactory.getLogger(GraalEvaluatorWithRetry.class);
+        private static Logger logger = LoggerFactory.getLogger(GraalEvaluator.class);
 
         private final Config params;
-        private final Engine sharedEngine;
+        private final Optional<Engine> sharedEngine;
         private final boolean extendedSyntax;
         private final Source[] libraryJsSources;
 
-        public GraalEvaluatorWithRetry(Config params, Engine sharedEngine, boolean extendedSyntax, Source[] libraryJsSources)
+        private ResettableContext context = null;
+        private Engine ownEngine = null;
+
+        private Config serializedParams = null;
+        private String serializedParamsJson = null;
+
+        GraalEvaluator(Config params, Optional<Engine> sharedEngine, boolean extendedSyntax, Source[] libraryJsSources)
         {
             this.params = params;
             this.sharedEngine = sharedEngine;
@@ -123,70 +200,116 @@ public class GraalJsEngine
         @Override
         public String evaluate(String code, Config scopedParams, ObjectMapper jsonMapper)
                 throws TemplateException
+        {
+            String paramsJson = toJson(scopedParams, jsonMapper);
+            return execute(code, "template", code, paramsJson, extendedSyntax);
+        }
+
+        @Override
+        public String evaluate(String code, Config params, ObjectNode local, ObjectMapper jsonMapper)
+                throws TemplateException
+        {
+            // params is same during evaluation of a task. Serialize it only once.
+            if (params != serializedParams) {
+                serializedParamsJson = toJson(params, jsonMapper);
+                serializedParams = params;
+            }
+            String localJson = local.size() == 0 ? null : toJson(local, jsonMapper);
+            return execute(code, "templateWithLocals", code, serializedParamsJson, localJson, extendedSyntax);
+        }
+
+        private static String toJson(Object value, ObjectMapper jsonMapper)
+                throws TemplateException
+        {
+            try {
+                return jsonMapper.writeValueAsString(value);
+            }
+            catch (RuntimeException | IOException ex) {
+                throw new TemplateException("Failed to serialize parameters to JSON", ex);
+            }
+        }
+
+        private String execute(String code, String function, Object... args)
+                throws TemplateException
         {
             try {
-                // Disable shared engine to avoid possibility of NPE
-                return new GraalEvaluator(createContextSupplier(Optional.empty(), params, libraryJsSources)
-                        , extendedSyntax).evaluate(code, scopedParams, jsonMapper);
-            }
-            catch (IllegalStateException e) {
-                /**
-                 *  When shutdown sequence started, engine is closed before call and tasks will fail.
-                 *  To avoid it, create new engine and retry.
-                 */
-                if (e.getMessage().equals("Engine is already closed.")) {
-                    logger.debug("Engine is already closed. Retry with new engine");
-                    return new GraalEvaluator(createContextSupplier(Optional.empty(), params, libraryJsSources)
-                            , extendedSyntax).evaluate(code, scopedParams, jsonMapper);
+                Value result = getContext().getBindings().getMember(function).execute(args);
+                return result.asString();
+            }
+            catch (PolyglotException ex) {
+                logger.debug("GraalJS threw an exception: {} {}", ex.toString(), stackTraceAsString(ex));
+                String message;
+                if (ex.getCause() != null) {
+                    message = ex.getCause().getMessage();
                 }
                 else {
-                    throw e;
+                    message = ex.getMessage();
                 }
+                throw new TemplateException("Failed to evaluate a variable " + code + " (" + message + ")");
+            }
+            finally {
+                resetGlobals();
             }
         }
-    }
 
-    private static class GraalEvaluator
-            implements JsEngine.Evaluator
-    {
-        private final Supplier<Context> contextSupplier;
-        private final boolean extendedSyntax;
-        private static Logger logger = LoggerFactory.getLogger(GraalEvaluator.class);
-
-        GraalEvaluator(Supplier<Context> contextSupplier, boolean extendedSyntax)
+        private void resetGlobals()
         {
-            this.contextSupplier = contextSupplier;
-            this.extendedSyntax = extendedSyntax;
+            if (context == null) {
+                return;
+            }
+            try {
+                context.resetGlobals();
+            }
+            catch (RuntimeException ex) {
+                // Globals may be left modified. Don't use this Context any more.
+                logger.debug("Failed to reset globals of GraalJS context. Discarding the context: {}", ex.toString());
+                context.close();
+                context = null;
+            }
         }
 
-        @Override
-        public String evaluate(String code, Config scopedParams, ObjectMapper jsonMapper)
-                throws TemplateException
+        private ResettableContext getContext()
         {
-            try(Context context = contextSupplier.get()) {
-                String paramsJson;
-                try {
-                    paramsJson = jsonMapper.writeValueAsString(scopedParams);
-                }
-                catch (RuntimeException | IOException ex) {
-                    throw new TemplateException("Failed to serialize parameters to JSON", ex);
-                }
+            if (context != null) {
+                return context;
+            }
+            ZoneId zoneId = getWorkflowZoneId(params);
+            if (ownEngine == null && sharedEngine.isPresent()) {
                 try {
-                    Value result = context.getBindings("js").getMember("template").execute(code, paramsJson, extendedSyntax);
-                    return result.asString();
+                    context = createContext(sharedEngine.get(), zoneId, libraryJsSources);
+                    return context;
                 }
-                catch (PolyglotException ex) {
-                    logger.debug("GraalJS threw an exception: {} {}", ex.toString(), stackTraceAsString(ex));
-                    String message;
-                    if (ex.getCause() != null) {
-                        message = ex.getCause().getMessage();
+                catch (IllegalStateException e) {
+                    /**
+                     *  When shutdown sequence started, engine is closed before call and tasks will fail.
+                     *  To avoid it, create new engine and retry.
+                     */
+                    if ("Engine is already closed.".equals(e.getMessage())) {
+                        logger.debug("Engine is already closed. Retry with new engine");
                     }
                     else {
-                        message = ex.getMessage();
+                        throw e;
                     }
-                    throw new TemplateException("Failed to evaluate a variable " + code + " (" + message + ")");
                 }
             }
+            if (ownEngine == null) {
+                ownEngine = createEngine();
+            }
+            context = createContext(ownEngine, zoneId, libraryJsSources);
+            return context;
+        }
+
+        @Override
+        public void close()
+        {
+            if (context != null) {
+                context.close();
+                context = null;
+            }
+            if (ownEngine != null) {
+                ownEngine.close();
+                ownEngine = null;
+            }
         }
     }
 }
@@ -96,7 +96,7 @@ public class InProcessTaskCallbackApi
         catch (ResourceNotFoundException ex) {
             throw new RuntimeException(ex);
         }
-        return lm.newInProcessTaskLogger(agentId, prefix, taskName);
+        return lm.newInProcessTaskLogger(agentId, prefix, attemptId, taskName);
     }
 
     @Override
@@ -201,4 +201,12 @@ public class InProcessTaskCallbackApi
                         },
                 ResourceNotFoundException.class, ResourceLimitExceededException.class, SessionAttemptConflictException.class);
     }
+
+    @Override
+    public boolean addAttemptWaiter(TaskRequest request, long attemptId)
+            throws ResourceNotFoundException
+    {
+        return tm.begin(() -> sm.getSessionStore(request.getSiteId()).addAttemptWaiter(attemptId, request.getTaskId()),
+                ResourceNotFoundException.class);
+    }
 }
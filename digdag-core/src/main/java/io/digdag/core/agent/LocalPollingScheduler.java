@@ -0,0 +1,169 @@
+package io.digdag.core.agent;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.digdag.client.config.Config;
+import io.digdag.spi.TaskRequest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Runs polling operators again in the agent instead of sending them back to the task queue.
+ *
+ * When an operator throws TaskExecutionException.ofNextPolling, OperatorManager
+ * usually calls retryTask. It releases the lock of the queued task, and the task
+ * is enqueued again by WorkflowExecutor and locked by an agent after the interval.
+ * That's several transactions for each poll of s3_wait, td_wait, etc.
+ *
+ * This scheduler keeps the task with the new state params in memory instead. The
+ * lock is kept by heartbeat (OperatorManager includes getScheduledTasks in heartbeats)
+ * and the task runs again on a thread of this scheduler after the interval. A task
+ * goes through the full retry cycle when the interval is longer than maxInterval,
+ * or when it has been polled locally for maxDuration so that state params are
+ * stored and cancel requests are noticed. Tasks scheduled when the agent shuts down
+ * are returned by shutdown and retried through the server. If the agent crashes,
+ * the lock expires and the task runs again from the last stored state params as
+ * it does when an agent crashes during a task.
+ */
+class LocalPollingScheduler
+{
+    static class ScheduledTask
+    {
+        private final TaskRequest request;
+        private final Config stateParams;
+        private final Instant pollingSince;
+        private final Instant runAt;
+        private ScheduledFuture<?> future;
+
+        ScheduledTask(TaskRequest request, Config stateParams, Instant pollingSince, Instant runAt)
+        {
+            this.request = request;
+            this.stateParams = stateParams;
+            this.pollingSince = pollingSince;
+            this.runAt = runAt;
+        }
+
+        TaskRequest getRequest()
+        {
+            return request;
+        }
+
+        Config getStateParams()
+        {
+            return stateParams;
+        }
+
+        int getRemainingSeconds(Instant now)
+        {
+            long millis = Duration.between(now, runAt).toMillis();
+            return (int) Math.max(0, (millis + 999) / 1000);
+        }
+    }
+
+    private final int maxInterval;
+    private final int maxDuration;
+    private final ScheduledThreadPoolExecutor executor;
+    private final ConcurrentHashMap<Long, ScheduledTask> scheduledTasks = new ConcurrentHashMap<>();  // {taskId => ScheduledTask}
+
+    // set while this scheduler runs a task so that the next poll inherits pollingSince
+    private final ThreadLocal<Instant> currentPollingSince = new ThreadLocal<>();
+
+    LocalPollingScheduler(int maxInterval, int maxDuration, int threads)
+    {
+        this.maxInterval = maxInterval;
+        this.maxDuration = maxDuration;
+        this.executor = new ScheduledThreadPoolExecutor(threads,
+                new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("local-polling-%d")
+                .build());
+        executor.setRemoveOnCancelPolicy(true);
+        // threads created lazily by a task thread would inherit its TaskContextLogging
+        executor.prestartAllCoreThreads();
+    }
+
+    // Returns false if the task should be retried through the server.
+    boolean schedule(TaskRequest request, int interval, Config stateParams, Consumer<TaskRequest> runner)
+    {
+        if (interval > maxInterval || executor.isShutdown()) {
+            return false;
+        }
+
+        Instant now = Instant.now();
+        Instant pollingSince = currentPollingSince.get();
+        if (pollingSince == null) {
+            pollingSince = now;
+        }
+        else if (!now.isBefore(pollingSince.plusSeconds(maxDuration))) {
+            return false;
+        }
+
+        TaskRequest next = TaskRequest.builder()
+            .from(request)
+            .lastStateParams(stateParams)
+            .retryCount(request.getRetryCount() + 1)
+            .build();
+        ScheduledTask task = new ScheduledTask(next, stateParams, pollingSince, now.plusSeconds(interval));
+
+        synchronized (task) {
+            scheduledTasks.put(next.getTaskId(), task);
+            try {
+                task.future = executor.schedule(() -> run(task, runner), interval, TimeUnit.SECONDS);
+            }
+            catch (RejectedExecutionException ex) {
+                // shutdown started
+                scheduledTasks.remove(next.getTaskId(), task);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void run(ScheduledTask task, Consumer<TaskRequest> runner)
+    {
+        if (!scheduledTasks.remove(task.request.getTaskId(), task)) {
+            // taken by shutdown
+            return;
+        }
+        currentPollingSince.set(task.pollingSince);
+        try {
+            runner.accept(task.request);
+        }
+        finally {
+            currentPollingSince.remove();
+        }
+    }
+
+    Collection<TaskRequest> getScheduledTasks()
+    {
+        return scheduledTasks.values().stream()
+            .map(ScheduledTask::getRequest)
+            .collect(Collectors.toList());
+    }
+
+    // Stops scheduling and returns tasks that are not started yet. Tasks running
+    // now continue, and they are retried through the server if they poll again.
+    List<ScheduledTask> shutdown()
+    {
+        executor.shutdown();
+        ImmutableList.Builder<ScheduledTask> pending = ImmutableList.builder();
+        for (ScheduledTask task : scheduledTasks.values()) {
+            synchronized (task) {
+                if (scheduledTasks.remove(task.request.getTaskId(), task)) {
+                    task.future.cancel(false);
+                    pending.add(task);
+                }
+            }
+        }
+        return pending.build();
+    }
+}
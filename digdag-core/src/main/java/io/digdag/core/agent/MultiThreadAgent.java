@@ -19,6 +19,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import io.digdag.spi.metrics.DigdagMetrics;
+import io.micrometer.core.instrument.Tags;
 import static io.digdag.spi.metrics.DigdagMetrics.Category;
 
 import org.slf4j.Logger;
@@ -42,9 +43,12 @@ public class MultiThreadAgent
     private final BlockingQueue<Runnable> executorQueue;
     private final ThreadPoolExecutor executor;
     private final AtomicInteger activeTaskCount = new AtomicInteger(0);
+    private final TaskAcquisitionController acquisitionController;
     private final DigdagMetrics metrics;
+    private final AtomicInteger idleThreadsGauge;
 
     private volatile boolean stop = false;
+    private volatile boolean waitingForThreads = false;
 
     public MultiThreadAgent(
             AgentConfig config, AgentId agentId,
@@ -60,6 +64,10 @@ public class MultiThreadAgent
         this.metrics = metrics;
         this.acrouteFactory = acrouteFactory;
         this.accountRouting = this.acrouteFactory.newAccountRouting(AccountRouting.ModuleType.AGENT);
+        this.acquisitionController = new TaskAcquisitionController(config);
+        // micrometer keeps only a weak reference to the number. Register it once and keep updating it.
+        this.idleThreadsGauge = metrics.getRegistry(Category.AGENT).gauge(
+                metrics.mkMetricsName(Category.AGENT, "mtag_IdleThreads"), Tags.empty(), new AtomicInteger(0));
 
         ThreadFactory threadFactory = new ThreadFactoryBuilder()
             .setDaemon(false)  // make them non-daemon threads so that shutting down agent doesn't kill operator execution
@@ -122,18 +130,28 @@ public class MultiThreadAgent
                     if (executor.isShutdown()) {
                         break;
                     }
+                    // Set this flag before reading activeTaskCount so that a task finished after
+                    // the read always wakes up this thread.
+                    waitingForThreads = true;
                     // Because addActiveTaskLock is locked, no one increases activeTaskCount in this synchronized block. Now get the maximum count.
                     int maximumActiveTasks = activeTaskCount.get();
                     // Because the maximum count doesn't increase, here can know that at least N number of threads are idling.
                     int guaranteedAvaialbleThreads = executor.getMaximumPoolSize() - maximumActiveTasks;
-                    // Acquire at most guaranteedAvaialbleThreads or 10. This guarantees that all tasks start immediately.
-                    int maxAcquire = Math.min(guaranteedAvaialbleThreads, 10);
+                    // Acquire at most guaranteedAvaialbleThreads (plus a small number of prefetched tasks if they are short).
+                    // This guarantees that all tasks start immediately or soon.
+                    int maxAcquire = acquisitionController.getAcquireCount(guaranteedAvaialbleThreads);
+                    if (config.getMaxThreads() > 0) {
+                        idleThreadsGauge.set(Math.max(guaranteedAvaialbleThreads, 0));
+                    }
                     if (maxAcquire > 0) {
+                        waitingForThreads = false;
                         metrics.summary(Category.AGENT,"mtag_NumMaxAcquire", maxAcquire);
+                        long startNanos = System.nanoTime();
                         transactionManager.begin(() -> {
                             List<TaskRequest> reqs = taskServer.lockSharedAgentTasks(maxAcquire, agentId, config.getLockRetentionTime(), 1000, accountRouting);
                             for (TaskRequest req : reqs) {
                                 executor.submit(() -> {
+                                    long taskStartNanos = System.nanoTime();
                                     try {
                                         runner.run(req);
                                     }
@@ -145,18 +163,28 @@ public class MultiThreadAgent
                                         metrics.increment(Category.AGENT, "uncaughtErrors");
                                     }
                                     finally {
+                                        acquisitionController.taskFinished(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - taskStartNanos));
                                         activeTaskCount.decrementAndGet();
+                                        if (waitingForThreads) {
+                                            synchronized (addActiveTaskLock) {
+                                                addActiveTaskLock.notifyAll();
+                                            }
+                                        }
                                     }
                                 });
                                 activeTaskCount.incrementAndGet();
                             }
+                            acquisitionController.acquired(maxAcquire, reqs.size());
+                            metrics.summary(Category.AGENT, "mtag_AcquireLatency", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
                             return null;
                         });
                     }
                     else {
                         metrics.increment(Category.AGENT, "mtag_RunWaitCounter");
-                        // no executor thread is available. sleep for a while until a task execution finishes
+                        // no executor thread is available. sleep for a while until a task execution finishes.
+                        // a finished task wakes up this thread.
                         addActiveTaskLock.wait(500);
+                        waitingForThreads = false;
                     }
                 }
             }
@@ -48,6 +48,7 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
 import static io.digdag.spi.TaskExecutionException.buildExceptionErrorConfig;
@@ -68,6 +69,7 @@ public class OperatorManager
 
     private final ScheduledExecutorService heartbeatScheduler;
     private final ConcurrentHashMap<Long, TaskRequest> runningTaskMap = new ConcurrentHashMap<>();  // {taskId => TaskRequest}
+    private final Optional<LocalPollingScheduler> pollingScheduler;
 
     @Inject(optional = true)
     private ErrorReporter errorReporter = ErrorReporter.empty();
@@ -100,6 +102,16 @@ public class OperatorManager
                 .setNameFormat("heartbeat-%d")
                 .build()
                 );
+
+        if (agentConfig.getLocalPollingMaxInterval() > 0) {
+            this.pollingScheduler = Optional.of(new LocalPollingScheduler(
+                        agentConfig.getLocalPollingMaxInterval(),
+                        agentConfig.getLocalPollingMaxDuration(),
+                        agentConfig.getLocalPollingThreads()));
+        }
+        else {
+            this.pollingScheduler = Optional.absent();
+        }
     }
 
     @PostConstruct
@@ -113,6 +125,20 @@ public class OperatorManager
     @PreDestroy
     public void shutdown()
     {
+        if (pollingScheduler.isPresent()) {
+            // tasks waiting for next polling go through the retry cycle so that another agent can run them
+            Instant now = Instant.now();
+            for (LocalPollingScheduler.ScheduledTask task : pollingScheduler.get().shutdown()) {
+                TaskRequest request = task.getRequest();
+                try {
+                    callback.retryTask(request, agentId, task.getRemainingSeconds(now), task.getStateParams(), Optional.absent());
+                }
+                catch (RuntimeException ex) {
+                    // the lock expires and the task will be retried from the last stored state
+                    logger.warn("Failed to retry task {} waiting for next polling", request.getTaskName(), ex);
+                }
+            }
+        }
         heartbeatScheduler.shutdown();
         // TODO wait for shutdown completion?
     }
@@ -154,6 +180,10 @@ public class OperatorManager
                 catch (TaskExecutionException ex) {
                     if (ex.getRetryInterval().isPresent()) {
                         if (!ex.getError(cf).isPresent()) {
+                            if (schedulePolling(request, ex.getRetryInterval().get(), ex.getStateParams(cf).get())) {
+                                logger.debug("Polling task again in this agent {}", ex.toString());
+                                return true;
+                            }
                             logger.debug("Retrying task {}", ex.toString());
                         }
                         else {
@@ -209,6 +239,24 @@ public class OperatorManager
         }
     }
 
+    private boolean schedulePolling(TaskRequest request, int interval, Config stateParams)
+    {
+        if (!pollingScheduler.isPresent()) {
+            return false;
+        }
+        return pollingScheduler.get().schedule(request, interval, stateParams, (next) -> {
+            try {
+                run(next);
+            }
+            catch (Throwable t) {
+                logger.error(
+                        LogMarkers.UNEXPECTED_SERVER_ERROR,
+                        "Uncaught exception. Task queue will detect this failure and this task will be retried later.", t);
+                errorReporter.reportUncaughtError(t);
+            }
+        });
+    }
+
     @DigdagTimed(value = "opm_", category = "agent", appendMethodName = true)
     protected Config evalConfig(TaskRequest request)
             throws RuntimeException, AssertionError
@@ -402,7 +450,12 @@ public class OperatorManager
     private void heartbeat()
     {
         try {
-            Map<Integer, List<TaskRequest>> sites = runningTaskMap.values().stream()
+            Stream<TaskRequest> tasks = runningTaskMap.values().stream();
+            if (pollingScheduler.isPresent()) {
+                // tasks waiting for next polling keep their locks
+                tasks = Stream.concat(tasks, pollingScheduler.get().getScheduledTasks().stream());
+            }
+            Map<Integer, List<TaskRequest>> sites = tasks
                 .collect(Collectors.groupingBy(
                             TaskRequest::getSiteId,
                             Collectors.mapping(Function.identity(), Collectors.toList())
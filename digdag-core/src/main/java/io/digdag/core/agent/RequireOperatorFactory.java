@@ -129,10 +129,11 @@ public class RequireOperatorFactory
                         instant,
                         retryAttemptName,
                         overrideParams);
-                throw nextPolling(request.getLastStateParams().deepCopy()
+                Config nextStateParams = request.getLastStateParams().deepCopy()
                         .set("require_kicked", true)
                         .set("target_session_id", kickedAttempt.getSessionId())
-                        .set("target_attempt_id", kickedAttempt.getId()));
+                        .set("target_attempt_id", kickedAttempt.getId());
+                throw waitForAttempt(kickedAttempt.getId(), nextStateParams);
             }
             catch (SessionAttemptConflictException ex) {
                 return processAttempt(ex.getConflictedSession(), lastStateParams, rerunOn, ignoreFailure);
@@ -174,10 +175,32 @@ public class RequireOperatorFactory
             }
             else {
                 // Wait for finish running attempt
-                throw nextPolling(nextSateParams);
+                throw waitForAttempt(attempt.getId(), nextSateParams);
             }
         }
 
+        /**
+         * Registers this task to be woken up when the attempt is done so that
+         * this task doesn't have to wait for the polling interval. Polling still
+         * works as a fallback if the attempt finishes while this task is running.
+         */
+        private TaskExecutionException waitForAttempt(long attemptId, Config stateParams)
+        {
+            if (stateParams.get("waiting_attempt_id", long.class, 0L) != attemptId) {
+                try {
+                    if (!callback.addAttemptWaiter(request, attemptId)) {
+                        // the attempt finished already. Check the result soon.
+                        return nextPolling(stateParams, 1);
+                    }
+                    stateParams.set("waiting_attempt_id", attemptId);
+                }
+                catch (ResourceNotFoundException ex) {
+                    logger.debug("Failed to wait for attempt {}. Polling it instead", attemptId, ex);
+                }
+            }
+            return nextPolling(stateParams);
+        }
+
         private TaskExecutionException nextPolling(Config stateParams)
         {
             int iteration = stateParams.get("retry", int.class, 0);
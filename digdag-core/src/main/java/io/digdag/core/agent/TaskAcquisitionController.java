@@ -0,0 +1,133 @@
+package io.digdag.core.agent;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Decides how many tasks MultiThreadAgent acquires at once.
+ *
+ * If agent.adaptive-acquisition is disabled, this returns at most 10 tasks
+ * and idle threads. Otherwise:
+ *
+ * - While the queue has more tasks than the agent acquired last time,
+ *   the agent acquires as many tasks as idle threads (up to maxBatch) so
+ *   that it becomes fully utilized in one round trip. Once the queue is
+ *   drained, the batch shrinks so that an agent doesn't take tasks which
+ *   other agents could start earlier.
+ * - If recent tasks are short, it acquires up to maxPrefetch tasks more
+ *   than idle threads so that threads don't wait for the next round trip.
+ *   Prefetched tasks don't send heartbeats until they start. Thus, this is
+ *   disabled unless the backlog finishes well within the lock retention time.
+ * - If CPU or heap memory is exhausted, it acquires only one task at a time.
+ */
+class TaskAcquisitionController
+{
+    private static final int LEGACY_BATCH = 10;
+    private static final double MAX_LOAD_PER_CPU = 2.0;
+    private static final double MAX_HEAP_USAGE = 0.9;
+    private static final double DURATION_WEIGHT = 0.2;
+
+    private final boolean adaptive;
+    private final int maxBatch;
+    private final int maxPrefetch;
+    private final long lockRetentionMillis;
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+    private int batch;
+    private double averageTaskMillis = -1;
+
+    TaskAcquisitionController(AgentConfig config)
+    {
+        // Without agent.max-task-threads, idle threads are unlimited and prefetching is meaningless
+        this(config.getAdaptiveAcquisition(), config.getMaxAcquireBatch(),
+                config.getMaxThreads() > 0 ? config.getMaxPrefetchTasks() : 0,
+                config.getLockRetentionTime());
+    }
+
+    @VisibleForTesting
+    TaskAcquisitionController(boolean adaptive, int maxBatch, int maxPrefetch, int lockRetentionSeconds)
+    {
+        this.adaptive = adaptive;
+        this.maxBatch = Math.max(maxBatch, 1);
+        this.maxPrefetch = Math.max(maxPrefetch, 0);
+        this.lockRetentionMillis = lockRetentionSeconds * 1000L;
+        this.batch = this.maxBatch;
+    }
+
+    synchronized int getAcquireCount(int idleThreads)
+    {
+        if (!adaptive) {
+            return Math.max(Math.min(idleThreads, LEGACY_BATCH), 0);
+        }
+        // idleThreads is Integer.MAX_VALUE if the number of threads is unlimited
+        long capacity = (long) idleThreads + getPrefetchCount();
+        if (capacity <= 0) {
+            return 0;
+        }
+        if (isOverloaded()) {
+            return 1;
+        }
+        return (int) Math.min(capacity, batch);
+    }
+
+    synchronized void acquired(int requested, int acquired)
+    {
+        if (!adaptive || requested <= 0) {
+            return;
+        }
+        if (acquired >= requested) {
+            // more tasks may be waiting in the queue
+            batch = maxBatch;
+        }
+        else {
+            batch = Math.min(Math.max(acquired + 1, LEGACY_BATCH), maxBatch);
+        }
+    }
+
+    synchronized void taskFinished(long millis)
+    {
+        if (averageTaskMillis < 0) {
+            averageTaskMillis = millis;
+        }
+        else {
+            averageTaskMillis = averageTaskMillis * (1 - DURATION_WEIGHT) + millis * DURATION_WEIGHT;
+        }
+    }
+
+    @VisibleForTesting
+    int getPrefetchCount()
+    {
+        if (maxPrefetch == 0 || averageTaskMillis < 0) {
+            return 0;
+        }
+        if (averageTaskMillis * maxPrefetch * 10 > lockRetentionMillis) {
+            return 0;
+        }
+        return maxPrefetch;
+    }
+
+    @VisibleForTesting
+    boolean isOverloaded()
+    {
+        double load = os.getSystemLoadAverage();  // negative if not available
+        if (load > os.getAvailableProcessors() * MAX_LOAD_PER_CPU) {
+            return true;
+        }
+        // usage of the largest heap pool (old generation) after the last GC.
+        // usage before GC is not useful because it's usually close to max.
+        MemoryUsage oldGen = null;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()) {
+                MemoryUsage usage = pool.getCollectionUsage();
+                if (usage != null && usage.getMax() > 0 && (oldGen == null || usage.getMax() > oldGen.getMax())) {
+                    oldGen = usage;
+                }
+            }
+        }
+        return oldGen != null && oldGen.getUsed() > oldGen.getMax() * MAX_HEAP_USAGE;
+    }
+}
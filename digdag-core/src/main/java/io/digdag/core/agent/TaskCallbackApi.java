@@ -42,6 +42,11 @@ public interface TaskCallbackApi
             Config overrideParams)
             throws ResourceNotFoundException, ResourceLimitExceededException, SessionAttemptConflictException;
 
+    // Makes the task ready as soon as the attempt is done instead of waiting for the retry interval.
+    // Returns false if the attempt is already done.
+    boolean addAttemptWaiter(TaskRequest request, long attemptId)
+            throws ResourceNotFoundException;
+
     /**
      *  Identifier of Project: id or name
      *
@@ -71,6 +71,17 @@ public class DataSourceProvider
     }
 
     private void createPooledDataSource()
+    {
+        HikariConfig hikari = buildHikariConfig(config);
+
+        logger.debug("Using database URL {}", hikari.getJdbcUrl());
+
+        HikariDataSource ds = new HikariDataSource(hikari);
+        this.ds = ds;
+        this.closer = ds;
+    }
+
+    static HikariConfig buildHikariConfig(DatabaseConfig config)
     {
         String url = DatabaseConfig.buildJdbcUrl(config);
 
@@ -92,11 +103,7 @@ public class DataSourceProvider
         // ThreadLocalTransactionManager.commit assumes that Connection.isValid returns
         // false when an error happened during a transaction.
 
-        logger.debug("Using database URL {}", hikari.getJdbcUrl());
-
-        HikariDataSource ds = new HikariDataSource(hikari);
-        this.ds = ds;
-        this.closer = ds;
+        return hikari;
     }
 
     @PreDestroy
@@ -1,5 +1,6 @@
 package io.digdag.core.database;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 import io.digdag.client.config.Config;
@@ -31,6 +32,12 @@ public interface DatabaseConfig
 
     boolean getAutoMigrate();
 
+    boolean getCompressTaskArchive();
+
+    int getMetadataCacheSize();
+
+    int getMetadataCacheTtl();  // seconds
+
     ////
     // HikariCP config params
     //
@@ -137,9 +144,42 @@ public interface DatabaseConfig
         builder.expireLockInterval(
                 config.get(keyPrefix + "." + "queue.expireLockInterval", int.class, 10));
 
+        builder.compressTaskArchive(
+                config.get(keyPrefix + "." + "compressTaskArchive", boolean.class, false));
+
+        builder.metadataCacheSize(
+                config.get(keyPrefix + "." + "metadataCacheSize", int.class, 0));
+        builder.metadataCacheTtl(
+                config.get(keyPrefix + "." + "metadataCacheTtl", int.class, 60));
+
         return builder.build();
     }
 
+    /**
+     * Builds the config of a read replica from database.replica.* if database.replica.host
+     * is set. Parameters not set under database.replica are same as the primary database.
+     */
+    static Optional<DatabaseConfig> convertReplicaFrom(Config config)
+    {
+        if (!config.has("database.replica.host")) {
+            return Optional.absent();
+        }
+        if (!config.get("database.type", String.class, "memory").equals("postgresql")) {
+            throw new ConfigException("database.replica is available only when database.type is postgresql");
+        }
+
+        Config merged = config.deepCopy();
+        for (String key : config.getKeys()) {
+            if (key.startsWith("database.") && !key.startsWith("database.replica.")) {
+                String replicaKey = "database.replica." + key.substring("database.".length());
+                if (!merged.has(replicaKey)) {
+                    merged.set(replicaKey, config.get(key, JsonNode.class));
+                }
+            }
+        }
+        return Optional.of(convertFrom(merged, "database.replica"));
+    }
+
     /**
      * If server.jmx.port exists, then JMX is enable
      * TODO this method should move to proper class?
@@ -206,6 +246,8 @@ public interface DatabaseConfig
 
         config.set(keyPrefix + "." + "queue.expireLockInterval", databaseConfig.getExpireLockInterval());
 
+        config.set(keyPrefix + "." + "compressTaskArchive", databaseConfig.getCompressTaskArchive());
+
         return config;
     }
 
@@ -43,6 +43,8 @@ public class DatabaseMigrator
         new Migration_20200716114008_AddLastAttemptIdIndexToSessions(),
         new Migration_20200803184355_ReplacePartialIndexOnSessionAttempts(),
         new Migration_20221021035534_CreateProjectMetadata(),
+        new Migration_20261017093512_CreateAttemptWaiters(),
+        new Migration_20261017150021_CreateTaskArchiveBlocks(),
     })
     .sorted(Comparator.comparing(m -> m.getVersion()))
     .collect(Collectors.toList());
@@ -1,6 +1,8 @@
 package io.digdag.core.database;
 
 import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
 import com.google.inject.Inject;
 import io.digdag.client.config.Config;
@@ -29,8 +31,11 @@ import io.digdag.core.repository.WorkflowDefinition;
 import io.digdag.core.schedule.Schedule;
 import io.digdag.core.schedule.ScheduleStatus;
 import io.digdag.metrics.DigdagTimed;
+import io.digdag.metrics.StdDigdagMetrics;
 import io.digdag.spi.ScheduleTime;
 import io.digdag.spi.ac.AccessController;
+import io.digdag.spi.metrics.DigdagMetrics;
+import io.micrometer.core.instrument.Tags;
 import org.immutables.value.Value;
 import org.skife.jdbi.v2.Handle;
 import org.skife.jdbi.v2.StatementContext;
@@ -53,19 +58,52 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static io.digdag.spi.metrics.DigdagMetrics.Category;
 import static java.util.Locale.ENGLISH;
 
 public class DatabaseProjectStoreManager
         extends BasicDatabaseStoreManager<DatabaseProjectStoreManager.Dao>
         implements ProjectStoreManager
 {
+    // Caches of rows looked up for every task and schedule (database.metadataCacheSize).
+    // Revisions and workflow definitions never change once written. Projects change
+    // only when they're deleted. Entries including a project are invalidated when this
+    // server deletes the project, and expire after database.metadataCacheTtl seconds so
+    // that deletion by other servers is also reflected.
+    private final Cache<Long, StoredRevision> revisionOfWorkflowCache;
+    private final Cache<Long, StoredWorkflowDefinitionWithProject> workflowDetailsCache;
+    private final Cache<Integer, StoredProject> projectCache;
+
+    @Inject
+    private DigdagMetrics metrics = StdDigdagMetrics.empty();  // overwritten by injector
+
     @Inject
     public DatabaseProjectStoreManager(TransactionManager tm, ConfigMapper cfm, DatabaseConfig config)
     {
         super(config.getType(), dao(config.getType()), tm, cfm);
+        int cacheSize = config.getMetadataCacheSize();
+        if (cacheSize > 0) {
+            this.revisionOfWorkflowCache = CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .build();
+            this.workflowDetailsCache = CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(config.getMetadataCacheTtl(), TimeUnit.SECONDS)
+                .build();
+            this.projectCache = CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(config.getMetadataCacheTtl(), TimeUnit.SECONDS)
+                .build();
+        }
+        else {
+            this.revisionOfWorkflowCache = null;
+            this.workflowDetailsCache = null;
+            this.projectCache = null;
+        }
     }
 
     private static Class<? extends Dao> dao(String type)
@@ -91,9 +129,10 @@ public class DatabaseProjectStoreManager
     public StoredWorkflowDefinitionWithProject getWorkflowDetailsById(long wfId)
             throws ResourceNotFoundException
     {
-        return requiredResource(
-                (handle, dao) -> dao.getWorkflowDetailsByIdInternal(wfId),
-                "workflow id=%s", wfId);
+        return cached(workflowDetailsCache, "workflowDetails", wfId, () ->
+                requiredResource(
+                    (handle, dao) -> dao.getWorkflowDetailsByIdInternal(wfId),
+                    "workflow id=%s", wfId));
     }
 
     @DigdagTimed(value = "dpsm_", category = "db", appendMethodName = true)
@@ -101,9 +140,10 @@ public class DatabaseProjectStoreManager
     public StoredProject getProjectByIdInternal(int projId)
         throws ResourceNotFoundException
     {
-        return requiredResource(
-                (handle, dao) -> dao.getProjectByIdInternal(projId),
-                "project id=%s", projId);
+        return cached(projectCache, "project", projId, () ->
+                requiredResource(
+                    (handle, dao) -> dao.getProjectByIdInternal(projId),
+                    "project id=%s", projId));
     }
 
     @DigdagTimed(value = "dpsm_", category = "db", appendMethodName = true)
@@ -111,9 +151,40 @@ public class DatabaseProjectStoreManager
     public StoredRevision getRevisionOfWorkflowDefinition(long wfId)
         throws ResourceNotFoundException
     {
-        return requiredResource(
-                (handle, dao) -> dao.getRevisionOfWorkflowDefinition(wfId),
-                "revision of workflow definition id=%s", wfId);
+        return cached(revisionOfWorkflowCache, "revisionOfWorkflow", wfId, () ->
+                requiredResource(
+                    (handle, dao) -> dao.getRevisionOfWorkflowDefinition(wfId),
+                    "revision of workflow definition id=%s", wfId));
+    }
+
+    private interface CacheLoader <V>
+    {
+        V load() throws ResourceNotFoundException;
+    }
+
+    private <K, V> V cached(Cache<K, V> cache, String name, K key, CacheLoader<V> loader)
+        throws ResourceNotFoundException
+    {
+        if (cache == null) {
+            return loader.load();
+        }
+        V value = cache.getIfPresent(key);
+        if (value != null) {
+            metrics.increment(Category.DB, "metadataCacheHits", Tags.of("cache", name));
+            return value;
+        }
+        metrics.increment(Category.DB, "metadataCacheMisses", Tags.of("cache", name));
+        value = loader.load();
+        cache.put(key, value);
+        return value;
+    }
+
+    private void invalidateProjectCache(int projId)
+    {
+        if (projectCache != null) {
+            projectCache.invalidate(projId);
+            workflowDetailsCache.asMap().values().removeIf(def -> def.getProject().getId() == projId);
+        }
     }
 
     private static String makeLastIdCond(Optional<Long> lastId, boolean ascending)
@@ -230,17 +301,21 @@ public class DatabaseProjectStoreManager
         public <T> T deleteProject(int projId, ProjectObsoleteAction<T> func)
             throws ResourceNotFoundException
         {
-            return transaction((handle, dao) -> {
+            T res = transaction((handle, dao) -> {
                 StoredProject proj = requiredResource(
                         dao.getProjectByIdWithLockForDelete(siteId, projId),
                         "project id=%d", projId);
 
-                T res = func.call(new DatabaseProjectControlStore(handle, siteId), proj);
+                T r = func.call(new DatabaseProjectControlStore(handle, siteId), proj);
 
                 dao.deleteProject(proj.getId());
+                invalidateProjectCache(proj.getId());
 
-                return res;
+                return r;
             }, ResourceNotFoundException.class);
+            // invalidate again in case another thread cached the project before commit
+            invalidateProjectCache(projId);
+            return res;
         }
 
         @DigdagTimed(value = "dpst_", category = "db", appendMethodName = true)
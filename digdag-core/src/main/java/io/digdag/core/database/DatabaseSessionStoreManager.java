@@ -1,10 +1,15 @@
 package io.digdag.core.database;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import io.digdag.client.config.Config;
 import io.digdag.client.config.ConfigFactory;
@@ -62,7 +67,10 @@ import io.digdag.spi.TaskReport;
 import io.digdag.spi.TaskResult;
 import io.digdag.spi.ac.AccessController;
 import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.Query;
+import org.skife.jdbi.v2.ResultIterator;
 import org.skife.jdbi.v2.StatementContext;
+import org.skife.jdbi.v2.Update;
 import org.skife.jdbi.v2.sqlobject.Bind;
 import org.skife.jdbi.v2.sqlobject.GetGeneratedKeys;
 import org.skife.jdbi.v2.sqlobject.SqlQuery;
@@ -71,18 +79,25 @@ import org.skife.jdbi.v2.sqlobject.customizers.Define;
 import org.skife.jdbi.v2.sqlobject.stringtemplate.UseStringTemplate3StatementLocator;
 import org.skife.jdbi.v2.tweak.ResultSetMapper;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.IntFunction;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static java.util.Locale.ENGLISH;
 
@@ -116,10 +131,16 @@ import static java.util.Locale.ENGLISH;
  *
  * Attempt cleanup:
  *   // SessionAttemptControlStore.archiveTasks
- *   aggregateAndInsertTaskArchive, deleteAllTasksOfAttempt, setDoneToAttemptState:
+ *   aggregateAndInsertTaskArchive, deleteAllTasksOfAttempt, setDoneToAttemptState, setWaitersToReady:
  *     locked attempt
  *     and attempt is done yet
  *
+ * Attempt waiters:
+ *   // used by require> to wake up when a required attempt is done
+ *   addAttemptWaiter:
+ *     locked attempt
+ *     and attempt is not done yet
+ *
  */
 public class DatabaseSessionStoreManager
         extends BasicDatabaseStoreManager<DatabaseSessionStoreManager.Dao>
@@ -127,7 +148,14 @@ public class DatabaseSessionStoreManager
 {
     private static final String DEFAULT_ATTEMPT_NAME = "";
 
+    // number of rows inserted by a statement of DatabaseTaskControlStore.addSubtasks
+    private static final int MULTI_ROW_INSERT_SIZE = 1000;
+
+    // number of tasks stored in a row of task_archive_blocks
+    private static final int TASK_ARCHIVE_BLOCK_SIZE = 100;
+
     private final ObjectMapper taskArchiveMapper;
+    private final boolean compressTaskArchive;
     private final ConfigFactory cf;
     private final ConfigKeyListMapper cklm = new ConfigKeyListMapper();
     private final StoredTaskMapper stm;
@@ -141,6 +169,7 @@ public class DatabaseSessionStoreManager
 
         this.taskArchiveMapper = mapper.copy();
         this.taskArchiveMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.compressTaskArchive = config.getCompressTaskArchive();
 
         this.cf = cf;
         this.stm = new StoredTaskMapper(cfm);
@@ -207,6 +236,17 @@ public class DatabaseSessionStoreManager
         }
     }
 
+    private String forUpdateSkipLocked()
+    {
+        switch (databaseType) {
+        case "h2":
+            return "for update";
+        default:
+            // postgresql
+            return "for update skip locked";
+        }
+    }
+
     private String selectTaskDetailsQuery()
     {
         return "select t.*, td.full_name, td.local_config, td.export_config, " +
@@ -474,6 +514,83 @@ public class DatabaseSessionStoreManager
         );
     }
 
+    private static String attemptAccountFilterClause(AccountRouting accountRouting)
+    {
+        return accountRouting.getFilterSQLOpt()
+            .transform(filter ->
+                    " and exists ( select site_id from session_attempts a where t.attempt_id = a.id" +
+                    " and " + filter + " )")
+            .or("");
+    }
+
+    @DigdagTimed(value = "dssm_", category = "db", appendMethodName = true)
+    @Override
+    public List<Long> findDirectParentsOfBlockedTasksOfAttempt(long attemptId, long lastId, AccountRouting accountRouting)
+    {
+        return autoCommit((handle, dao) ->
+                handle.createQuery(
+                    "select distinct parent_id" +
+                    " from tasks t" +
+                    " where attempt_id = :attemptId" +
+                    " and parent_id > :lastId" +
+                    " and state = " + TaskStateCode.BLOCKED_CODE +
+                    attemptAccountFilterClause(accountRouting) +
+                    " order by parent_id" +
+                    " limit :limit"
+                    )
+                .bind("attemptId", attemptId)
+                .bind("lastId", lastId)
+                .bind("limit", 100)
+                .mapTo(Long.class)
+                .list()
+            );
+    }
+
+    @DigdagTimed(value = "dssm_", category = "db", appendMethodName = true)
+    @Override
+    public List<Long> findTasksByStateOfAttempt(TaskStateCode state, long attemptId, long lastId, AccountRouting accountRouting)
+    {
+        return autoCommit((handle, dao) ->
+                handle.createQuery(
+                    "select id" +
+                    " from tasks t" +
+                    " where attempt_id = :attemptId" +
+                    " and state = :state" +
+                    " and id > :lastId" +
+                    attemptAccountFilterClause(accountRouting) +
+                    " order by id asc" +
+                    " limit :limit"
+                    )
+                .bind("attemptId", attemptId)
+                .bind("state", state.get())
+                .bind("lastId", lastId)
+                .bind("limit", 100)
+                .mapTo(Long.class)
+                .list()
+            );
+    }
+
+    @DigdagTimed(value = "dssm_", category = "db", appendMethodName = true)
+    @Override
+    public Optional<TaskAttemptSummary> findRootTaskByStatesOfAttempt(TaskStateCode[] states, long attemptId, AccountRouting accountRouting)
+    {
+        return Optional.fromNullable(autoCommit((handle, dao) ->
+                handle.createQuery(
+                    "select id, attempt_id, state" +
+                    " from tasks t" +
+                    " where attempt_id = :attemptId" +
+                    " and parent_id is null" +
+                    " and state in (" +
+                        Stream.of(states)
+                        .map(it -> Short.toString(it.get())).collect(Collectors.joining(", ")) + ")" +
+                    attemptAccountFilterClause(accountRouting)
+                    )
+                .bind("attemptId", attemptId)
+                .map(tasm)
+                .first()
+            ));
+    }
+
     @DigdagTimed(value = "dssm_", category = "db", appendMethodName = true)
     @Override
     public boolean requestCancelAttempt(long attemptId)
@@ -592,6 +709,84 @@ public class DatabaseSessionStoreManager
         });
     }
 
+    @DigdagTimed(value = "dssm_", category = "db", appendMethodName = true)
+    @Override
+    public <T> T lockReadyTasks(long lastId, int limit, AccountRouting accountRouting, ReadyTaskBatchLockAction<T> func)
+    {
+        return transaction((handle, dao) -> {
+            // Same with lockTaskWithDetails, here locks ids first and then selects details of them
+            List<Long> lockedIds = handle.createQuery(
+                    "select id from tasks t" +
+                    " where state = " + TaskStateCode.READY_CODE +
+                    " and id > :lastId" +
+                    attemptAccountFilterClause(accountRouting) +
+                    " order by id asc" +
+                    " limit :limit" +
+                    " " + forUpdateSkipLocked()
+                )
+                .bind("lastId", lastId)
+                .bind("limit", limit)
+                .mapTo(Long.class)
+                .list();
+            if (lockedIds.isEmpty()) {
+                return func.call(new DatabaseTaskControlStore(handle), ImmutableList.of(), ImmutableMap.of());
+            }
+
+            List<StoredTask> tasks = handle.createQuery(
+                    selectTaskDetailsQuery() + " where t.id " + inLargeIdListExpression(lockedIds) +
+                    " order by t.id asc"
+                )
+                .map(stm)
+                .list();
+
+            Map<Long, Integer> siteIds = handle.createQuery(
+                    "select t.id, sa.site_id from tasks t" +
+                    " join session_attempts sa on sa.id = t.attempt_id" +
+                    " where t.id " + inLargeIdListExpression(lockedIds)
+                )
+                .map((index, r, ctx) -> Maps.immutableEntry(r.getLong("id"), r.getInt("site_id")))
+                .list()
+                .stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+
+            return func.call(new DatabaseTaskControlStore(handle), tasks, siteIds);
+        });
+    }
+
+    @DigdagTimed(value = "dssm_", category = "db", appendMethodName = true)
+    @Override
+    public <T> T lockTasksIfExist(List<Long> taskIds, TaskBatchLockAction<T> func)
+    {
+        return transaction((handle, dao) -> {
+            if (taskIds.isEmpty()) {
+                return func.call(new DatabaseTaskControlStore(handle), ImmutableList.of());
+            }
+
+            // Same with lockTaskWithDetails, here locks ids first and then selects details of them.
+            // Rows are locked in order of id to avoid deadlocks with other batches.
+            List<Long> lockedIds = handle.createQuery(
+                    "select id from tasks" +
+                    " where id " + inLargeIdListExpression(taskIds) +
+                    " order by id asc" +
+                    " for update"
+                )
+                .mapTo(Long.class)
+                .list();
+            if (lockedIds.isEmpty()) {
+                return func.call(new DatabaseTaskControlStore(handle), ImmutableList.of());
+            }
+
+            List<StoredTask> tasks = handle.createQuery(
+                    selectTaskDetailsQuery() + " where t.id " + inLargeIdListExpression(lockedIds) +
+                    " order by t.id asc"
+                )
+                .map(stm)
+                .list();
+
+            return func.call(new DatabaseTaskControlStore(handle), tasks);
+        });
+    }
+
     @DigdagTimed(value = "dssm_", category = "db", appendMethodName = true)
     @Override
     public void lockReadySessionMonitors(Instant currentTime, SessionMonitorAction func)
@@ -644,6 +839,79 @@ public class DatabaseSessionStoreManager
             );
     }
 
+    @DigdagTimed(value = "dssm_", category = "db", appendMethodName = true)
+    @Override
+    public List<TaskRelation> getTaskRelations(long attemptId, long lastId)
+    {
+        return autoCommit((handle, dao) ->
+                handle.createQuery(
+                    "select id, parent_id," +
+                    " (select " + commaGroupConcat("upstream_id") + " from task_dependencies where downstream_id = t.id) as upstream_ids" +
+                    " from tasks t" +
+                    " where attempt_id = :attemptId" +
+                    " and id > :lastId"
+                    )
+                .bind("attemptId", attemptId)
+                .bind("lastId", lastId)
+                .map(new TaskRelationMapper())
+                .list()
+            );
+    }
+
+    @DigdagTimed(value = "dssm_", category = "db", appendMethodName = true)
+    @Override
+    public long getTaskCountOfAttempt(long attemptId)
+    {
+        return autoCommit((handle, dao) ->
+                handle.createQuery(
+                    "select count(*) from tasks" +
+                    " where attempt_id = :attemptId"
+                    )
+                .bind("attemptId", attemptId)
+                .mapTo(Long.class)
+                .first()
+            );
+    }
+
+    @DigdagTimed(value = "dssm_", category = "db", appendMethodName = true)
+    @Override
+    public List<Long> findTasksByStates(List<Long> idList, TaskStateCode[] states)
+    {
+        if (idList.isEmpty()) {
+            return ImmutableList.of();
+        }
+        return autoCommit((handle, dao) ->
+                handle.createQuery(
+                    "select id from tasks" +
+                    " where id " + inLargeIdListExpression(idList) +
+                    " and state in (" +
+                        Stream.of(states)
+                        .map(it -> Short.toString(it.get())).collect(Collectors.joining(", ")) + ")"
+                    )
+                .mapTo(Long.class)
+                .list()
+            );
+    }
+
+    @DigdagTimed(value = "dssm_", category = "db", appendMethodName = true)
+    @Override
+    public List<StoredSessionAttemptWithSession> getAttemptsWithSessionByIds(List<Long> attemptIds)
+    {
+        if (attemptIds.isEmpty()) {
+            return ImmutableList.of();
+        }
+        return autoCommit((handle, dao) ->
+                handle.createQuery(
+                    "select sa.*, s.session_uuid, s.workflow_name, s.session_time" +
+                    " from session_attempts sa" +
+                    " join sessions s on s.id = sa.session_id" +
+                    " where sa.id " + inLargeIdListExpression(attemptIds)
+                )
+                .mapTo(StoredSessionAttemptWithSession.class)
+                .list()
+            );
+    }
+
     @DigdagTimed(value = "dssm_", category = "db", appendMethodName = true)
     @Override
     public List<Config> getExportParams(List<Long> idList)
@@ -758,6 +1026,91 @@ public class DatabaseSessionStoreManager
         }
     }
 
+    private byte[] dumpTaskArchiveBlock(List<ArchivedTask> tasks)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator gen = taskArchiveMapper.getFactory().createGenerator(new GZIPOutputStream(out))) {
+            gen.writeStartArray();
+            for (ArchivedTask task : tasks) {
+                taskArchiveMapper.writeValue(gen, task);
+            }
+            gen.writeEndArray();
+        }
+        catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        return out.toByteArray();
+    }
+
+    // Parses tasks one by one and calls func until it returns false.
+    // Returns false if func returned false.
+    private boolean readTaskArchive(JsonParser parser, Predicate<ArchivedTask> func)
+        throws IOException
+    {
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new IOException("Task archive must be an array");
+        }
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            if (!func.test(taskArchiveMapper.readValue(parser, ArchivedTask.class))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // An empty archive means that tasks are stored in task_archive_blocks
+    // (database.compressTaskArchive). Blocks are read one by one and only
+    // tasks with id larger than lastId are deserialized up to pageSize.
+    private List<ArchivedTask> loadTaskArchivePage(long attemptId, String archive, int pageSize, long lastId)
+    {
+        List<ArchivedTask> tasks = new ArrayList<>();
+        Predicate<ArchivedTask> collector = (task) -> {
+            if (task.getId() > lastId) {
+                tasks.add(task);
+            }
+            return tasks.size() < pageSize;
+        };
+
+        try {
+            if (archive.isEmpty()) {
+                autoCommit((handle, dao) -> {
+                    try (ResultIterator<byte[]> blocks = handle.createQuery(
+                                "select tasks from task_archive_blocks" +
+                                " where attempt_id = :attemptId" +
+                                " and last_task_id > :lastId" +
+                                " order by last_task_id"
+                            )
+                            .bind("attemptId", attemptId)
+                            .bind("lastId", lastId)
+                            .map((index, r, ctx) -> r.getBytes("tasks"))
+                            .iterator()) {
+                        while (blocks.hasNext()) {
+                            try (JsonParser parser = taskArchiveMapper.getFactory().createParser(
+                                        new GZIPInputStream(new ByteArrayInputStream(blocks.next())))) {
+                                if (!readTaskArchive(parser, collector)) {
+                                    break;
+                                }
+                            }
+                        }
+                    }
+                    catch (IOException ex) {
+                        throw new RuntimeException("Failed to load task archive", ex);
+                    }
+                    return null;
+                });
+            }
+            else {
+                try (JsonParser parser = taskArchiveMapper.getFactory().createParser(archive)) {
+                    readTaskArchive(parser, collector);
+                }
+            }
+        }
+        catch (IOException ex) {
+            throw new RuntimeException("Failed to load task archive", ex);
+        }
+        return tasks;
+    }
+
     @DigdagTimed(value = "dssm_", category = "db", appendMethodName = true)
     @Override
     public void lockReadyDelayedAttempts(Instant currentTime, DelayedAttemptAction func)
@@ -836,11 +1189,7 @@ public class DatabaseSessionStoreManager
         @Override
         public int aggregateAndInsertTaskArchive(long attemptId)
         {
-            int count;
-            String archive;
-
-            {
-                List<ArchivedTask> tasks = handle.createQuery(
+            Query<ArchivedTask> query = handle.createQuery(
                         "select t.*, td.full_name, td.local_config, td.export_config, td.resuming_task_id, ts.subtask_config, ts.export_params, ts.store_params, ts.error, ts.report, ts.reset_store_params, " +
                             "(select " + commaGroupConcat("upstream_id") + " from task_dependencies where downstream_id = t.id) as upstream_ids" +
                         " from tasks t" +
@@ -851,8 +1200,17 @@ public class DatabaseSessionStoreManager
                         " order by t.id"
                     )
                     .bind("attemptId", attemptId)
-                    .map(atm)
-                    .list();
+                    .map(atm);
+
+            if (compressTaskArchive) {
+                return insertTaskArchiveBlocks(attemptId, query);
+            }
+
+            int count;
+            String archive;
+
+            {
+                List<ArchivedTask> tasks = query.list();
                 archive = dumpTaskArchive(tasks);
                 count = tasks.size();
             }
@@ -862,6 +1220,30 @@ public class DatabaseSessionStoreManager
             return count;
         }
 
+        // Writes tasks to task_archive_blocks while reading them so that all tasks
+        // of a large attempt are not materialized at once. task_archives.tasks is
+        // left empty to indicate that tasks are in blocks.
+        private int insertTaskArchiveBlocks(long attemptId, Query<ArchivedTask> query)
+        {
+            dao.insertTaskArchive(attemptId, "");
+
+            int count = 0;
+            List<ArchivedTask> block = new ArrayList<>();
+            try (ResultIterator<ArchivedTask> ite = query.setFetchSize(TASK_ARCHIVE_BLOCK_SIZE).iterator()) {
+                while (ite.hasNext()) {
+                    block.add(ite.next());
+                    if (block.size() >= TASK_ARCHIVE_BLOCK_SIZE || !ite.hasNext()) {
+                        long lastTaskId = block.get(block.size() - 1).getId();
+                        dao.insertTaskArchiveBlock(attemptId, lastTaskId, dumpTaskArchiveBlock(block));
+                        count += block.size();
+                        block.clear();
+                    }
+                }
+            }
+
+            return count;
+        }
+
         @Override
         public <T> T lockRootTask(long attemptId, TaskLockActionWithDetails<T> func)
             throws ResourceNotFoundException
@@ -881,6 +1263,7 @@ public class DatabaseSessionStoreManager
             dao.deleteTaskStateDetails(attemptId);
             dao.deleteTaskDetails(attemptId);
             dao.deleteResumingTasks(attemptId);
+            dao.deleteAttemptWaitersOfTasks(attemptId);
             return dao.deleteTasks(attemptId);
         }
 
@@ -900,6 +1283,23 @@ public class DatabaseSessionStoreManager
                 .execute();
             return n > 0;
         }
+
+        @Override
+        public List<Long> setWaitersToReady(long attemptId)
+        {
+            List<Long> attemptIds = handle.createQuery(
+                    "select distinct t.attempt_id from tasks t" +
+                    " where t.state = " + TaskStateCode.RETRY_WAITING_CODE +
+                    " and t.id in (select task_id from attempt_waiters where attempt_id = :attemptId)")
+                .bind("attemptId", attemptId)
+                .mapTo(Long.class)
+                .list();
+            if (!attemptIds.isEmpty()) {
+                dao.setAttemptWaitersToReady(attemptId);
+            }
+            dao.deleteAttemptWaiters(attemptId);
+            return attemptIds;
+        }
     }
 
     private class DatabaseTaskControlStore
@@ -939,6 +1339,87 @@ public class DatabaseSessionStoreManager
             return taskId;
         }
 
+        @DigdagTimed(value = "dtcst_", category = "db", appendMethodName = true)
+        @Override
+        public List<Long> allocateTaskIds(int count)
+        {
+            switch (databaseType) {
+            case "h2":
+                // AUTO_INCREMENT column of H2 uses a sequence with a generated name
+                String sequence = handle.createQuery(
+                        "select sequence_name from information_schema.columns" +
+                        " where table_name = 'TASKS' and column_name = 'ID'")
+                    .mapTo(String.class)
+                    .first();
+                return sortedIds(handle.createQuery(
+                            "select next value for " + sequence + " from system_range(1, :count)")
+                        .bind("count", count)
+                        .mapTo(Long.class)
+                        .list());
+            default:
+                return sortedIds(handle.createQuery(
+                            "select nextval(pg_get_serial_sequence('tasks', 'id')) from generate_series(1, :count)")
+                        .bind("count", count)
+                        .mapTo(Long.class)
+                        .list());
+            }
+        }
+
+        private List<Long> sortedIds(List<Long> ids)
+        {
+            // order of rows is not guaranteed. Tasks must be inserted in ascending order as addSubtask does
+            List<Long> sorted = new ArrayList<>(ids);
+            Collections.sort(sorted);
+            return sorted;
+        }
+
+        @DigdagTimed(value = "dtcst_", category = "db", appendMethodName = true)
+        @Override
+        public void addSubtasks(long attemptId, List<Long> taskIds, List<Task> tasks)
+        {
+            insertMultipleRows("insert into tasks (id, attempt_id, parent_id, task_type, state, state_flags, updated_at)",
+                    "(?, ?, ?, ?, ?, ?, now())", tasks.size(), (i) -> {
+                        Task task = tasks.get(i);
+                        return new Object[] {
+                            taskIds.get(i), attemptId, task.getParentId().get(),
+                            task.getTaskType().get(), task.getState().get(), task.getStateFlags().get()
+                        };
+                    });
+            insertMultipleRows("insert into task_details (id, full_name, local_config, export_config)",
+                    "(?, ?, ?, ?)", tasks.size(), (i) -> {
+                        Task task = tasks.get(i);
+                        return new Object[] {
+                            taskIds.get(i), task.getFullName(), task.getConfig().getLocal(), task.getConfig().getExport()
+                        };
+                    });
+            insertMultipleRows("insert into task_state_details (id)",
+                    "(?)", tasks.size(), (i) -> new Object[] { taskIds.get(i) });
+        }
+
+        // Inserts rows using INSERT statements with multiple VALUES lists, which is
+        // much faster than inserting rows one by one on both PostgreSQL and H2.
+        private void insertMultipleRows(String insert, String valuesList, int rowCount, IntFunction<Object[]> rowValues)
+        {
+            for (int offset = 0; offset < rowCount; offset += MULTI_ROW_INSERT_SIZE) {
+                int end = Math.min(offset + MULTI_ROW_INSERT_SIZE, rowCount);
+                StringBuilder sql = new StringBuilder(insert).append(" values ");
+                for (int i = offset; i < end; i++) {
+                    if (i > offset) {
+                        sql.append(", ");
+                    }
+                    sql.append(valuesList);
+                }
+                Update update = handle.createStatement(sql.toString());
+                int position = 0;
+                for (int i = offset; i < end; i++) {
+                    for (Object value : rowValues.apply(i)) {
+                        update.bind(position++, value);
+                    }
+                }
+                update.execute();
+            }
+        }
+
         @DigdagTimed(value = "dtcst_", category = "db", appendMethodName = true)
         @Override
         public long addResumedSubtask(long attemptId, long parentId,
@@ -1070,6 +1551,20 @@ public class DatabaseSessionStoreManager
             }
         }
 
+        @DigdagTimed(value = "dtcst_", category = "db", appendMethodName = true)
+        @Override
+        public void addAllDependencies(Map<Long, List<Long>> upstreamsByDownstream)
+        {
+            List<long[]> edges = new ArrayList<>();
+            for (Map.Entry<Long, List<Long>> pair : upstreamsByDownstream.entrySet()) {
+                for (long upstream : pair.getValue()) {
+                    edges.add(new long[] { upstream, pair.getKey() });
+                }
+            }
+            insertMultipleRows("insert into task_dependencies (upstream_id, downstream_id)",
+                    "(?, ?)", edges.size(), (i) -> new Object[] { edges.get(i)[0], edges.get(i)[1] });
+        }
+
         @DigdagTimed(value = "dtcst_", category = "db", appendMethodName = true)
         @Override
         public boolean isAnyProgressibleChild(long taskId)
@@ -1166,6 +1661,24 @@ public class DatabaseSessionStoreManager
             return n > 0;
         }
 
+        @DigdagTimed(value = "dtcst_", category = "db", appendMethodName = true)
+        @Override
+        public int setStartedStates(List<Long> taskIds, TaskStateCode beforeState, TaskStateCode afterState)
+        {
+            if (taskIds.isEmpty()) {
+                return 0;
+            }
+            return handle.createStatement(
+                    "update tasks" +
+                    " set started_at = coalesce(started_at, now()), updated_at = now(), state = :newState" +
+                    " where id " + inLargeIdListExpression(taskIds) +
+                    " and state = :oldState"
+                )
+                .bind("oldState", beforeState.get())
+                .bind("newState", afterState.get())
+                .execute();
+        }
+
         @DigdagTimed(value = "dtcst_", category = "db", appendMethodName = true)
         public boolean setDoneState(long taskId, TaskStateCode beforeState, TaskStateCode afterState)
         {
@@ -1535,11 +2048,68 @@ public class DatabaseSessionStoreManager
             if (tasks.isEmpty()) {
                 String archive = autoCommit((handle, dao) -> dao.getTaskArchiveById(siteId, attemptId));
                 if (archive != null) {
+                    if (archive.isEmpty()) {
+                        return loadTaskArchivePage(attemptId, archive, Integer.MAX_VALUE, 0L);
+                    }
                     return loadTaskArchive(archive);
                 }
             }
             return tasks;
         }
+
+        @Override
+        public List<ArchivedTask> getTasksOfAttempt(long attemptId, int pageSize, Optional<Long> lastId)
+        {
+            List<ArchivedTask> tasks = autoCommit((handle, dao) ->
+                    handle.createQuery(
+                        "select t.*, td.full_name, td.local_config, td.export_config, td.resuming_task_id, ts.subtask_config, ts.export_params, ts.store_params, ts.error, ts.report, ts.reset_store_params, " +
+                            "(select " + commaGroupConcat("upstream_id") + " from task_dependencies where downstream_id = t.id) as upstream_ids" +
+                        " from tasks t" +
+                        " join session_attempts sa on sa.id = t.attempt_id" +
+                        " join task_details td on t.id = td.id" +
+                        " join task_state_details ts on t.id = ts.id" +
+                        " where sa.site_id = :siteId" +
+                        " and t.attempt_id = :attemptId" +
+                        " and t.id > :lastId" +
+                        " order by t.id" +
+                        " limit :limit"
+                        )
+                    .bind("siteId", siteId)
+                    .bind("attemptId", attemptId)
+                    .bind("lastId", lastId.or(0L))
+                    .bind("limit", pageSize)
+                    .map(atm)
+                    .list()
+                );
+            if (tasks.isEmpty()) {
+                String archive = autoCommit((handle, dao) -> dao.getTaskArchiveById(siteId, attemptId));
+                if (archive != null) {
+                    return loadTaskArchivePage(attemptId, archive, pageSize, lastId.or(0L));
+                }
+            }
+            return tasks;
+        }
+
+        @DigdagTimed(value = "dsst_", category = "db", appendMethodName = true)
+        @Override
+        public boolean addAttemptWaiter(long attemptId, long taskId)
+            throws ResourceNotFoundException
+        {
+            return transaction((handle, dao) -> {
+                // locks the attempt so that it's not archived until this transaction commits
+                Integer stateFlags = dao.lockAttemptStateFlags(siteId, attemptId);
+                if (stateFlags == null) {
+                    throw new ResourceNotFoundException(String.format(ENGLISH, "session attempt id=%d", attemptId));
+                }
+                if (AttemptStateFlags.of(stateFlags).isDone()) {
+                    return false;
+                }
+                if (dao.getAttemptWaiterCount(attemptId, taskId) == 0) {
+                    dao.insertAttemptWaiter(attemptId, taskId);
+                }
+                return true;
+            }, ResourceNotFoundException.class);
+        }
     }
 
     private class DatabaseSessionControlStore
@@ -2304,6 +2874,11 @@ public class DatabaseSessionStoreManager
                 " values (:attemptId, :tasks, now())")
         void insertTaskArchive(@Bind("attemptId") long attemptId, @Bind("tasks") String tasks);
 
+        @SqlUpdate("insert into task_archive_blocks" +
+                " (attempt_id, last_task_id, tasks)" +
+                " values (:attemptId, :lastTaskId, :tasks)")
+        void insertTaskArchiveBlock(@Bind("attemptId") long attemptId, @Bind("lastTaskId") long lastTaskId, @Bind("tasks") byte[] tasks);
+
         @SqlUpdate("delete from session_monitors" +
                 " where id = :id")
         void deleteSessionMonitor(@Bind("id") long id);
@@ -2331,6 +2906,36 @@ public class DatabaseSessionStoreManager
         @SqlUpdate("delete from delayed_session_attempts" +
                 " where id = :attemptId")
         void deleteDelayedAttempt(@Bind("attemptId") long attemptId);
+
+        @SqlQuery("select state_flags from session_attempts" +
+                " where id = :attemptId" +
+                " and site_id = :siteId" +
+                " for update")
+        Integer lockAttemptStateFlags(@Bind("siteId") int siteId, @Bind("attemptId") long attemptId);
+
+        @SqlQuery("select count(*) from attempt_waiters" +
+                " where attempt_id = :attemptId" +
+                " and task_id = :taskId")
+        long getAttemptWaiterCount(@Bind("attemptId") long attemptId, @Bind("taskId") long taskId);
+
+        @SqlUpdate("insert into attempt_waiters" +
+                " (attempt_id, task_id, created_at)" +
+                " values (:attemptId, :taskId, now())")
+        void insertAttemptWaiter(@Bind("attemptId") long attemptId, @Bind("taskId") long taskId);
+
+        @SqlUpdate("update tasks" +
+                " set updated_at = now(), retry_at = NULL, state = " + TaskStateCode.READY_CODE +
+                " where state = " + TaskStateCode.RETRY_WAITING_CODE +
+                " and id in (select task_id from attempt_waiters where attempt_id = :attemptId)")
+        int setAttemptWaitersToReady(@Bind("attemptId") long attemptId);
+
+        @SqlUpdate("delete from attempt_waiters" +
+                " where attempt_id = :attemptId")
+        int deleteAttemptWaiters(@Bind("attemptId") long attemptId);
+
+        @SqlUpdate("delete from attempt_waiters" +
+                " where task_id in (select id from tasks where attempt_id = :attemptId)")
+        int deleteAttemptWaitersOfTasks(@Bind("attemptId") long attemptId);
     }
 
     static class InstantMapper
@@ -6,15 +6,34 @@ import com.google.inject.Inject;
 public class DatabaseTaskQueueConfig
 {
     private final int defaultMaxConcurrency;
+    private final boolean notifyEnabled;
+    private final boolean fairShareLockEnabled;
 
     @Inject
     public DatabaseTaskQueueConfig(Config systemConfig)
     {
         this.defaultMaxConcurrency = systemConfig.get("queue.db.max_concurrency", int.class, Integer.MAX_VALUE);
+        this.notifyEnabled = systemConfig.get("queue.db.notify", boolean.class, false);
+        this.fairShareLockEnabled = systemConfig.get("queue.db.fair_share_lock", boolean.class, false);
+    }
+
+    public int getDefaultMaxConcurrency()
+    {
+        return defaultMaxConcurrency;
     }
 
     public int getSiteMaxConcurrency(int siteId)
     {
         return defaultMaxConcurrency;
     }
+
+    public boolean isNotifyEnabled()
+    {
+        return notifyEnabled;
+    }
+
+    public boolean isFairShareLockEnabled()
+    {
+        return fairShareLockEnabled;
+    }
 }
@@ -1,11 +1,19 @@
 package io.digdag.core.database;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Instant;
@@ -21,13 +29,20 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import io.digdag.core.ErrorReporter;
 import io.digdag.core.log.LogMarkers;
 import io.digdag.spi.AccountRouting;
+import io.digdag.metrics.StdDigdagMetrics;
 import io.digdag.spi.metrics.DigdagMetrics;
 import static io.digdag.spi.metrics.DigdagMetrics.Category;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
 import org.skife.jdbi.v2.sqlobject.SqlQuery;
 import org.skife.jdbi.v2.sqlobject.SqlUpdate;
 import org.skife.jdbi.v2.sqlobject.Bind;
 import org.skife.jdbi.v2.sqlobject.GetGeneratedKeys;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.Query;
 import org.skife.jdbi.v2.StatementContext;
+import org.skife.jdbi.v2.Update;
+import org.skife.jdbi.v2.exceptions.TransactionFailedException;
 import org.skife.jdbi.v2.sqlobject.customizers.Define;
 import org.skife.jdbi.v2.sqlobject.stringtemplate.UseStringTemplate3StatementLocator;
 import org.skife.jdbi.v2.tweak.ResultSetMapper;
@@ -41,10 +56,14 @@ import io.digdag.core.repository.ResourceConflictException;
 import com.google.common.annotations.VisibleForTesting;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
+import static java.util.Locale.ENGLISH;
+
 public class DatabaseTaskQueueServer
         extends BasicDatabaseStoreManager<DatabaseTaskQueueServer.Dao>
         implements TaskQueueServer
 {
+    private static final int ENQUEUE_INSERT_BATCH_SIZE = 500;
+
     private final DatabaseTaskQueueConfig queueConfig;
     private final ObjectMapper taskObjectMapper;
 
@@ -52,12 +71,19 @@ public class DatabaseTaskQueueServer
     private final LocalLockMap localLockMap = new LocalLockMap();
     private final ScheduledExecutorService expireExecutor;
     private final TransactionManager transactionManager;
+    private final Optional<TaskQueueNotificationListener> notificationListener;
 
     @Inject(optional = true)
     private ErrorReporter errorReporter = ErrorReporter.empty();
 
     @Inject
-    private DigdagMetrics metrics;
+    private DigdagMetrics metrics = StdDigdagMetrics.empty();  // overwritten by injector
+
+    @VisibleForTesting
+    void setMetrics(DigdagMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
 
     @Inject
     public DatabaseTaskQueueServer(DatabaseConfig config, TransactionManager tm, ConfigMapper cfm, DatabaseTaskQueueConfig queueConfig, ObjectMapper taskObjectMapper)
@@ -74,6 +100,13 @@ public class DatabaseTaskQueueServer
                 .setNameFormat("lock-expire-%d")
                 .build()
                 );
+        if (queueConfig.isNotifyEnabled() && !isEmbededDatabase()) {
+            // H2 is always in-process. interruptLocalWait is enough.
+            this.notificationListener = Optional.of(new TaskQueueNotificationListener(config, this::interruptLocalWait));
+        }
+        else {
+            this.notificationListener = Optional.absent();
+        }
     }
 
     private final Object localTaskNoticeHelper = new Object();
@@ -111,12 +144,18 @@ public class DatabaseTaskQueueServer
                         return null;
                     });
                 }, expireLockInterval, expireLockInterval, TimeUnit.SECONDS);
+        if (notificationListener.isPresent()) {
+            notificationListener.get().start();
+        }
     }
 
     @PreDestroy
     public void shutdown()
     {
         expireExecutor.shutdown();
+        if (notificationListener.isPresent()) {
+            notificationListener.get().shutdown();
+        }
         // TODO wait for shutdown completion?
     }
 
@@ -130,11 +169,34 @@ public class DatabaseTaskQueueServer
         }
     }
 
+    // Notifies servers listening the task queue. NOTIFY is delivered when the transaction commits.
+    private void notifyEnqueue(Handle handle)
+    {
+        if (notificationListener.isPresent()) {
+            handle.execute("notify " + TaskQueueNotificationListener.CHANNEL);
+        }
+    }
+
     private String statementUnixTimestampSql()
     {
         return "extract(epoch from now())";
     }
 
+    // Milliseconds from enqueue to now, computed by the database so that clock skew
+    // between servers doesn't matter. Null for retried tasks because created_at is the
+    // time when it's enqueued first.
+    private String enqueueToLockMillisSql()
+    {
+        String millis;
+        if (isEmbededDatabase()) {
+            millis = "datediff('MS', qt.created_at, now())";
+        }
+        else {
+            millis = "cast(extract(epoch from now() - qt.created_at) * 1000 as bigint)";
+        }
+        return "case when ql.retry_count = 0 then " + millis + " end as enqueue_to_lock_millis";
+    }
+
     @Override
     public void enqueueDefaultQueueTask(int siteId, TaskQueueRequest request)
         throws TaskConflictException
@@ -165,6 +227,92 @@ public class DatabaseTaskQueueServer
         }
     }
 
+    @Override
+    public List<String> enqueueDefaultQueueTasks(Map<Integer, List<TaskQueueRequest>> requests)
+    {
+        if (isEmbededDatabase()) {
+            // H2 doesn't support "on conflict do nothing". Insert one by one.
+            return TaskQueueServer.super.enqueueDefaultQueueTasks(requests);
+        }
+
+        List<Map.Entry<Integer, TaskQueueRequest>> entries = requests.entrySet().stream()
+            .flatMap(pair -> pair.getValue().stream().map(request -> Maps.immutableEntry(pair.getKey(), request)))
+            .collect(Collectors.toList());
+        if (entries.isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        List<String> conflicts = transaction((handle, dao) -> {
+            ImmutableList.Builder<String> builder = ImmutableList.builder();
+            for (List<Map.Entry<Integer, TaskQueueRequest>> chunk : Lists.partition(entries, ENQUEUE_INSERT_BATCH_SIZE)) {
+                builder.addAll(insertQueuedTasks(handle, chunk));
+            }
+            notifyEnqueue(handle);
+            return builder.build();
+        });
+
+        interruptLocalWait();
+
+        return conflicts;
+    }
+
+    // Inserts rows to queued_tasks and queued_task_locks using one multi-row INSERT for each.
+    // Returns unique names of requests that are skipped because they're already queued.
+    private List<String> insertQueuedTasks(Handle handle, List<Map.Entry<Integer, TaskQueueRequest>> chunk)
+    {
+        String sql = "insert into queued_tasks" +
+                " (site_id, queue_id, unique_name, data, created_at)" +
+                " values " +
+                IntStream.range(0, chunk.size())
+                    .mapToObj(i -> String.format(ENGLISH, "(:siteId%d, null, :uniqueName%d, :data%d, now())", i, i, i))
+                    .collect(Collectors.joining(", ")) +
+                " on conflict do nothing" +
+                " returning id, site_id, unique_name";
+
+        Query<Map<String, Object>> insertTasks = handle.createQuery(sql);
+        for (int i = 0; i < chunk.size(); i++) {
+            TaskQueueRequest request = chunk.get(i).getValue();
+            insertTasks.bind("siteId" + i, chunk.get(i).getKey())
+                .bind("uniqueName" + i, request.getUniqueName())
+                .bind("data" + i, request.getData().orNull());
+        }
+        Map<String, Long> insertedIds = new HashMap<>();
+        for (Map<String, Object> row : insertTasks.list()) {
+            insertedIds.put(row.get("site_id") + ":" + row.get("unique_name"), ((Number) row.get("id")).longValue());
+        }
+
+        ImmutableList.Builder<String> conflicts = ImmutableList.builder();
+        List<Long> lockIds = new ArrayList<>();
+        List<Map.Entry<Integer, TaskQueueRequest>> locked = new ArrayList<>();
+        for (Map.Entry<Integer, TaskQueueRequest> pair : chunk) {
+            Long id = insertedIds.get(pair.getKey() + ":" + pair.getValue().getUniqueName());
+            if (id == null) {
+                conflicts.add(pair.getValue().getUniqueName());
+            }
+            else {
+                lockIds.add(id);
+                locked.add(pair);
+            }
+        }
+
+        if (!lockIds.isEmpty()) {
+            Update insertLocks = handle.createStatement(
+                    "insert into queued_task_locks" +
+                    " (id, site_id, queue_id, priority)" +
+                    " values " +
+                    IntStream.range(0, lockIds.size())
+                        .mapToObj(i -> String.format(ENGLISH, "(:id%d, :siteId%d, null, :priority%d)", i, i, i))
+                        .collect(Collectors.joining(", ")));
+            for (int i = 0; i < lockIds.size(); i++) {
+                insertLocks.bind("id" + i, (long) lockIds.get(i))
+                    .bind("siteId" + i, (int) locked.get(i).getKey())
+                    .bind("priority" + i, locked.get(i).getValue().getPriority());
+            }
+            insertLocks.execute();
+        }
+        return conflicts.build();
+    }
+
     private long enqueue(
             @Nullable Integer siteId, @Nullable Integer queueId,
             int priority, String uniqueName,
@@ -176,6 +324,7 @@ public class DatabaseTaskQueueServer
                 dao.insertQueuedTask(siteId, queueId, uniqueName, data),
                 "lock of task name=%s in site id = %d and queue id=%d", uniqueName, siteId, queueId);
             dao.insertQueuedTaskLock(queuedTaskId, siteId, queueId, priority);
+            notifyEnqueue(handle);
             return queuedTaskId;
         }, ResourceConflictException.class);
 
@@ -259,52 +408,120 @@ public class DatabaseTaskQueueServer
 
     public List<String> taskHeartbeat(int siteId, List<String> lockedIds, String agentId, int lockSeconds)
     {
-        ImmutableList.Builder<String> notFoundList = ImmutableList.builder();
-        for (String formatted : lockedIds) {
-            boolean success;
-            if (isSharedTaskLockId(formatted)) {
-                success = taskHeartbeat0(siteId, null, parseTaskLockId(formatted), agentId, lockSeconds);
+        Timer.Sample sample = metrics.timerStart(Category.DB);
+        try {
+            // shared task locks are extended by one statement. queue-bound task locks are
+            // extended by one statement for each queue.
+            List<Long> sharedTaskLockIds = new ArrayList<>();
+            Map<Integer, List<Long>> queueBoundTaskLockIds = new HashMap<>();
+            for (String formatted : lockedIds) {
+                if (isSharedTaskLockId(formatted)) {
+                    sharedTaskLockIds.add(parseTaskLockId(formatted));
+                }
+                else {
+                    queueBoundTaskLockIds.computeIfAbsent(parseQueueId(formatted), (key) -> new ArrayList<>())
+                        .add(parseTaskLockId(formatted));
+                }
             }
-            else {
-                success = taskHeartbeat0(siteId, parseQueueId(formatted), parseTaskLockId(formatted), agentId, lockSeconds);
+
+            Set<String> succeeded = new HashSet<>();
+            if (!sharedTaskLockIds.isEmpty()) {
+                for (long id : taskHeartbeat0(siteId, null, sharedTaskLockIds, agentId, lockSeconds)) {
+                    succeeded.add(formatSharedTaskLockId(id));
+                }
             }
-            if (!success) {
-                notFoundList.add(formatted);
+            for (Map.Entry<Integer, List<Long>> pair : queueBoundTaskLockIds.entrySet()) {
+                int queueId = pair.getKey();
+                for (long id : taskHeartbeat0(siteId, queueId, pair.getValue(), agentId, lockSeconds)) {
+                    succeeded.add(formatQueueBoundTaskLockId(id, queueId));
+                }
             }
+
+            return lockedIds.stream()
+                .filter(formatted -> !succeeded.contains(formatted))
+                .collect(ImmutableList.toImmutableList());
+        }
+        finally {
+            metrics.timerStop(Category.DB, metrics.mkMetricsName(Category.DB, "taskHeartbeatLatency"), Tags.empty(), sample);
+            metrics.summary(Category.DB, "taskHeartbeatBatchSize", lockedIds.size());
         }
-        return notFoundList.build();
     }
 
-    private boolean taskHeartbeat0(int siteId, Integer queueId, long taskLockId, String agentId, int lockSeconds)
+    // Extends locks and returns ids of the extended locks.
+    private List<Long> taskHeartbeat0(int siteId, Integer queueId, List<Long> taskLockIds, String agentId, int lockSeconds)
     {
-        return autoCommit((handle, dao) -> {
-            String lockExpireTimeSql;
-            if (isEmbededDatabase()) {
-                lockExpireTimeSql = Long.toString(Instant.now().getEpochSecond() + lockSeconds);
-            }
-            else {
-                lockExpireTimeSql = statementUnixTimestampSql() + " + " + Integer.toString(lockSeconds);
-            }
-            return handle.createStatement(
-                    "update queued_task_locks" +
-                    " set lock_expire_time = " + lockExpireTimeSql +
-                    " where id = :id" +
-                    " and lock_agent_id = :agentId" +
-                    " and coalesce(site_id, (select site_id from queue_settings where id = :queueId)) = :siteId"
-                )
-                .bind("expireTime", Instant.now().getEpochSecond() + lockSeconds)
-                .bind("id", taskLockId)
-                .bind("agentId", agentId)
-                .bind("queueId", queueId)
-                .bind("siteId", siteId)
-                .execute();
-        }) > 0;
+        String siteIdCondition =
+            " and coalesce(site_id, (select site_id from queue_settings where id = :queueId)) = :siteId";
+        if (isEmbededDatabase()) {
+            // H2 doesn't support UPDATE ... RETURNING
+            return transaction((handle, dao) -> {
+                List<Long> ids = handle.createQuery(
+                        "select id from queued_task_locks" +
+                        " where id " + inLargeIdListExpression(taskLockIds) +
+                        " and lock_agent_id = :agentId" +
+                        siteIdCondition +
+                        " for update"
+                    )
+                    .bind("agentId", agentId)
+                    .bind("queueId", queueId)
+                    .bind("siteId", siteId)
+                    .mapTo(long.class)
+                    .list();
+                if (!ids.isEmpty()) {
+                    handle.createStatement(
+                            "update queued_task_locks" +
+                            " set lock_expire_time = :expireTime" +
+                            " where id " + inLargeIdListExpression(ids)
+                        )
+                        .bind("expireTime", Instant.now().getEpochSecond() + lockSeconds)
+                        .execute();
+                }
+                return ids;
+            });
+        }
+        else {
+            return autoCommit((handle, dao) ->
+                    handle.createQuery(
+                        "update queued_task_locks" +
+                        " set lock_expire_time = " + statementUnixTimestampSql() + " + " + Integer.toString(lockSeconds) +
+                        " where id " + inLargeIdListExpression(taskLockIds) +
+                        " and lock_agent_id = :agentId" +
+                        siteIdCondition +
+                        " returning id"
+                    )
+                    .bind("agentId", agentId)
+                    .bind("queueId", queueId)
+                    .bind("siteId", siteId)
+                    .mapTo(long.class)
+                    .list()
+                );
+        }
     }
 
     @Override
     public List<TaskQueueLock> lockSharedAgentTasks(int count, String agentId, int lockSeconds, long maxSleepMillis, AccountRouting accountRouting)
     {
         Optional<String> accountFilter = accountRouting.getFilterSQLOpt();
+        List<TaskQueueLock> locks;
+        if (queueConfig.isFairShareLockEnabled()) {
+            locks = lockSharedAgentTasksAcrossSites(count, agentId, lockSeconds, accountFilter);
+        }
+        else {
+            locks = lockSharedAgentTasksSiteBySite(count, agentId, lockSeconds, accountFilter);
+        }
+        if (!locks.isEmpty()) {
+            return locks;
+        }
+
+        // no tasks are ready to lock. sleep.
+        if (maxSleepMillis >= 0) {
+            sleepForEnqueue(maxSleepMillis);
+        }
+        return ImmutableList.of();
+    }
+
+    private List<TaskQueueLock> lockSharedAgentTasksSiteBySite(int count, String agentId, int lockSeconds, Optional<String> accountFilter)
+    {
         List<Integer> siteIds = autoCommit((handle, dao) ->
                 accountFilter.isPresent()?
                         dao.getActiveSiteIdListWithAccountFilter(accountFilter.get()):
@@ -317,28 +534,293 @@ public class DatabaseTaskQueueServer
             List<Long> taskLockIds = tryLockSharedAgentTasks(siteId, count, agentId, lockSeconds);
             if (!taskLockIds.isEmpty()) {
                 ImmutableList.Builder<TaskQueueLock> builder = ImmutableList.builder();
+                List<Long> enqueueToLockMillisList = new ArrayList<>();
                 for (long taskLockId : taskLockIds) {
-                    ImmutableTaskQueueLock data = autoCommit((handle, dao) -> dao.getTaskData(taskLockId));
-                    if (data == null) {
+                    Map<String, Object> row = autoCommit((handle, dao) ->
+                            handle.createQuery(
+                                "select qt.unique_name, qt.data, " + enqueueToLockMillisSql() +
+                                " from queued_tasks qt" +
+                                " join queued_task_locks ql on ql.id = qt.id" +
+                                " where qt.id = :taskLockId"
+                            )
+                            .bind("taskLockId", taskLockId)
+                            .first()
+                        );
+                    if (row == null) {
                         // queued_task is deleted after tryLockSharedAgentTasks call.
                         // it is possible just because there are 2 different transactions.
                     }
                     else {
-                        String lockId = formatSharedTaskLockId(taskLockId);
-                        builder.add(data.withLockId(lockId));
+                        builder.add(ImmutableTaskQueueLock.builder()
+                                .lockId(formatSharedTaskLockId(taskLockId))
+                                .uniqueName((String) row.get("unique_name"))
+                                .data(Optional.fromNullable((byte[]) row.get("data")))
+                                .build());
+                        addEnqueueToLockMillis(enqueueToLockMillisList, row);
                     }
                 }
+                recordEnqueueToLockMillis(enqueueToLockMillisList);
                 return builder.build();
             }
         }
+        return ImmutableList.of();
+    }
 
-        // no tasks are ready to lock. sleep.
-        if (maxSleepMillis >= 0) {
-            sleepForEnqueue(maxSleepMillis);
+    private static void addEnqueueToLockMillis(List<Long> enqueueToLockMillisList, Map<String, Object> row)
+    {
+        Number millis = (Number) row.get("enqueue_to_lock_millis");
+        if (millis != null) {
+            enqueueToLockMillisList.add(millis.longValue());
         }
-        return ImmutableList.of();
     }
 
+    private void recordEnqueueToLockMillis(List<Long> enqueueToLockMillisList)
+    {
+        for (long millis : enqueueToLockMillisList) {
+            metrics.summary(Category.DB, "enqueueToLockMillis", Math.max(0, millis));
+        }
+    }
+
+    // Locks tasks of multiple sites at once instead of trying sites one by one.
+    //
+    // Tasks are picked in deficit round robin order across sites: the n-th waiting task
+    // of a site that is running r tasks has score r + n, and tasks with smaller scores
+    // are picked first. Thus sites running fewer tasks are served first, and a site
+    // doesn't get another task until other sites get as many as it has. Ties are
+    // broken randomly.
+    private List<TaskQueueLock> lockSharedAgentTasksAcrossSites(int count, String agentId, int lockSeconds, Optional<String> accountFilter)
+    {
+        List<Map<String, Object>> rows;
+        if (isEmbededDatabase()) {
+            synchronized (embeddedLockHelper) {
+                rows = transaction((handle, dao) ->
+                        lockFairShareTasks(handle, Optional.absent(), count, agentId, lockSeconds, accountFilter));
+            }
+        }
+        else {
+            rows = transaction((handle, dao) -> {
+                // Site locks are released when the transaction ends. If the handle is in
+                // auto-commit mode, begin a transaction here so that the locks are held
+                // until tasks are locked.
+                boolean localTransaction = isAutoCommit(handle);
+                if (localTransaction) {
+                    handle.begin();
+                }
+                try {
+                    // Tasks are picked once without locks only to choose sites to lock. Running
+                    // tasks must be counted again after taking site locks. Otherwise, another
+                    // server may lock tasks of the same site between counting and locking, and
+                    // site max concurrency is exceeded. lock_shared_tasks takes the same lock.
+                    List<Map<String, Object>> locked;
+                    List<Integer> lockedSiteIds = tryLockPickedSites(handle, count, accountFilter);
+                    if (lockedSiteIds.isEmpty()) {
+                        locked = ImmutableList.of();
+                    }
+                    else {
+                        locked = lockFairShareTasks(handle, Optional.of(lockedSiteIds), count, agentId, lockSeconds, accountFilter);
+                    }
+                    if (localTransaction) {
+                        handle.commit();
+                    }
+                    return locked;
+                }
+                finally {
+                    if (localTransaction && handle.isInTransaction()) {
+                        handle.rollback();
+                    }
+                }
+            });
+        }
+
+        ImmutableList.Builder<TaskQueueLock> builder = ImmutableList.builder();
+        List<Long> enqueueToLockMillisList = new ArrayList<>();
+        for (Map<String, Object> row : rows) {
+            builder.add(ImmutableTaskQueueLock.builder()
+                    .lockId(formatSharedTaskLockId(((Number) row.get("id")).longValue()))
+                    .uniqueName((String) row.get("unique_name"))
+                    .data(Optional.fromNullable((byte[]) row.get("data")))
+                    .build());
+            addEnqueueToLockMillis(enqueueToLockMillisList, row);
+        }
+        recordEnqueueToLockMillis(enqueueToLockMillisList);
+        return builder.build();
+    }
+
+    private static boolean isAutoCommit(Handle handle)
+    {
+        try {
+            return handle.getConnection().getAutoCommit();
+        }
+        catch (SQLException ex) {
+            throw new TransactionFailedException("Failed to get auto commit", ex);
+        }
+    }
+
+    // Takes pg_try_advisory_xact_lock of the sites of tasks picked for this round, and
+    // returns ids of the locked sites. The locks are held until the transaction ends.
+    // A site locked by another server is skipped and the next picked tasks are tried
+    // instead, so that servers lock tasks of different sites in parallel.
+    private List<Integer> tryLockPickedSites(Handle handle, int count, Optional<String> accountFilter)
+    {
+        Set<Integer> lockedSiteIds = new LinkedHashSet<>();
+        Set<Integer> skippedSiteIds = new HashSet<>();
+        int picked = 0;
+        for (FairShareCandidate candidate : pickFairShareTasks(handle, Optional.absent(), count, accountFilter)) {
+            if (picked >= count) {
+                break;
+            }
+            if (skippedSiteIds.contains(candidate.siteId)) {
+                continue;
+            }
+            if (!lockedSiteIds.contains(candidate.siteId)) {
+                boolean locked = handle.createQuery("select pg_try_advisory_xact_lock(23300, :siteId)")
+                    .bind("siteId", candidate.siteId)
+                    .mapTo(boolean.class)
+                    .first();
+                if (!locked) {
+                    skippedSiteIds.add(candidate.siteId);
+                    continue;
+                }
+                lockedSiteIds.add(candidate.siteId);
+            }
+            picked++;
+        }
+        return new ArrayList<>(lockedSiteIds);
+    }
+
+    private static class FairShareCandidate
+    {
+        final long id;
+        final int siteId;
+        final long score;
+
+        FairShareCandidate(long id, int siteId, long score)
+        {
+            this.id = id;
+            this.siteId = siteId;
+            this.score = score;
+        }
+    }
+
+    private List<Map<String, Object>> lockFairShareTasks(Handle handle, Optional<List<Integer>> lockedSiteIds,
+            int count, String agentId, int lockSeconds, Optional<String> accountFilter)
+    {
+        List<Long> taskLockIds = pickFairShareTasks(handle, lockedSiteIds, count, accountFilter).stream()
+            .limit(count)
+            .map(candidate -> candidate.id)
+            .collect(Collectors.toList());
+        if (taskLockIds.isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        if (isEmbededDatabase()) {
+            handle.createStatement(
+                    "update queued_task_locks" +
+                    " set lock_expire_time = :expireTime, lock_agent_id = :agentId" +
+                    " where id " + inLargeIdListExpression(taskLockIds)
+                )
+                .bind("expireTime", Instant.now().getEpochSecond() + lockSeconds)
+                .bind("agentId", agentId)
+                .execute();
+        }
+        else {
+            handle.createStatement(
+                    "update queued_task_locks" +
+                    " set lock_expire_time = cast(" + statementUnixTimestampSql() + " as bigint) + :lockExpireSeconds, lock_agent_id = :agentId" +
+                    " where id " + inLargeIdListExpression(taskLockIds)
+                )
+                .bind("lockExpireSeconds", lockSeconds)
+                .bind("agentId", agentId)
+                .execute();
+        }
+        return handle.createQuery(
+                "select ql.id, qt.unique_name, qt.data, " + enqueueToLockMillisSql() + " " +
+                "from queued_task_locks ql " +
+                "join queued_tasks qt on qt.id = ql.id " +
+                "where ql.id " + inLargeIdListExpression(taskLockIds) + " " +
+                "order by ql.priority desc, ql.id")
+            .list();
+    }
+
+    // Returns waiting tasks of the sites (or all sites if absent) in the order to lock.
+    // At most count tasks of each site are returned.
+    private List<FairShareCandidate> pickFairShareTasks(Handle handle, Optional<List<Integer>> lockedSiteIds,
+            int count, Optional<String> accountFilter)
+    {
+        String siteFilter = lockedSiteIds.isPresent()
+            ? "site_id " + inLargeIdListExpression(lockedSiteIds.get())
+            : "site_id is not null";
+
+        Map<Integer, Long> runningCounts = new HashMap<>();
+        for (Map<String, Object> row : handle.createQuery(
+                    "select site_id, count(*) as count " +
+                    "from queued_task_locks " +
+                    "where lock_expire_time is not null " +
+                    "and " + siteFilter + " " +
+                    "group by site_id")
+                .list()) {
+            runningCounts.put(((Number) row.get("site_id")).intValue(), ((Number) row.get("count")).longValue());
+        }
+
+        // H2 doesn't support window functions. Candidates beyond the limit of each site
+        // are fetched and skipped below.
+        String siteRank = isEmbededDatabase()
+            ? ""
+            : ", row_number() over (partition by site_id order by queue_id, priority desc, id) as site_rank";
+        String waitingTasks =
+                "select id, site_id, queue_id, priority" + siteRank + " " +
+                "from queued_task_locks " +
+                "where lock_expire_time is null " +
+                "and " + siteFilter + " " +
+                (accountFilter.isPresent() ? "and " + accountFilter.get() + " " : "") +
+                "and not exists (" +
+                    "select * from (" +
+                        "select site_id, queue_id, count(*) as count " +
+                        "from queued_task_locks " +
+                        "where lock_expire_time is not null " +
+                        "group by site_id, queue_id" +
+                    ") runnings " +
+                    "join queues on queues.id = runnings.queue_id " +
+                    "where runnings.count >= queues.max_concurrency " +
+                    "and runnings.site_id = queued_task_locks.site_id " +
+                    "and runnings.queue_id = queued_task_locks.queue_id" +
+                ")";
+        List<Map<String, Object>> candidates;
+        if (isEmbededDatabase()) {
+            candidates = handle.createQuery(
+                    "select id, site_id from (" + waitingTasks + ") c " +
+                    "order by site_id, queue_id, priority desc, id")
+                .list();
+        }
+        else {
+            candidates = handle.createQuery(
+                    "select id, site_id from (" + waitingTasks + ") c " +
+                    "where site_rank <= :limit " +
+                    "order by site_id, queue_id, priority desc, id")
+                .bind("limit", count)
+                .list();
+        }
+
+        List<FairShareCandidate> scored = new ArrayList<>();
+        Map<Integer, Integer> siteRanks = new HashMap<>();
+        for (Map<String, Object> row : candidates) {
+            int siteId = ((Number) row.get("site_id")).intValue();
+            int siteRank = siteRanks.merge(siteId, 1, Integer::sum);
+            long score = runningCounts.getOrDefault(siteId, 0L) + siteRank;
+            if (siteRank <= count && score <= queueConfig.getSiteMaxConcurrency(siteId)) {
+                scored.add(new FairShareCandidate(((Number) row.get("id")).longValue(), siteId, score));
+            }
+        }
+        Collections.shuffle(scored);
+        return scored.stream()
+            .sorted(Comparator.comparingLong(candidate -> candidate.score))
+            .collect(Collectors.toList());
+    }
+
+    // H2 doesn't support advisory locks. Fair share locking is serialized in this process
+    // instead, which is enough because H2 is embedded.
+    private final Object embeddedLockHelper = new Object();
+
     private List<Long> tryLockSharedAgentTasks(int siteId,
             int count, String agentId, int lockSeconds)
     {
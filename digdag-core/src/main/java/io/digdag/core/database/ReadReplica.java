@@ -0,0 +1,214 @@
+package io.digdag.core.database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.digdag.client.config.Config;
+import io.digdag.client.config.ConfigException;
+import io.digdag.metrics.StdDigdagMetrics;
+import io.digdag.spi.metrics.DigdagMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static io.digdag.spi.metrics.DigdagMetrics.Category;
+
+/**
+ * A read-only replica of the PostgreSQL database configured by database.replica.*.
+ *
+ * TransactionManager.beginReadOnly uses this replica so that listing APIs don't use
+ * connections and CPU of the primary database. Replication lag is checked by a
+ * background thread every lagCheckInterval seconds so that getDataSource doesn't
+ * wait for the replica. Until the first check succeeds, when the lag is larger than
+ * maxLag seconds, or when the replica is not reachable, getDataSource returns absent
+ * and transactions use the primary database.
+ *
+ * The connection pool is named "digdag-replica" so that its metrics and MBeans are
+ * distinguished from the ones of the primary pool.
+ */
+public class ReadReplica
+        implements AutoCloseable
+{
+    private static final Logger logger = LoggerFactory.getLogger(ReadReplica.class);
+
+    static final String POOL_NAME = "digdag-replica";
+
+    // lag is 0 if the replica has replayed everything it received, because
+    // pg_last_xact_replay_timestamp doesn't advance while the primary is idle.
+    private static final String LAG_QUERY =
+        "select case" +
+        " when not pg_is_in_recovery() then 0" +
+        " when pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() then 0" +
+        " else coalesce(extract(epoch from now() - pg_last_xact_replay_timestamp()), 0)" +
+        " end";
+
+    private final Optional<DatabaseConfig> config;
+    private final int maxLag;
+    private final long lagCheckIntervalMillis;
+
+    private volatile DataSource ds;
+    private volatile boolean available = false;
+    private volatile boolean started = false;
+    private HikariDataSource closer;
+    private ScheduledExecutorService lagChecker;
+
+    @Inject
+    private DigdagMetrics metrics = StdDigdagMetrics.empty();  // overwritten by injector
+
+    @Inject
+    public ReadReplica(Config systemConfig)
+    {
+        this(DatabaseConfig.convertReplicaFrom(systemConfig),
+                systemConfig.get("database.replica.maxLag", int.class, 10),
+                getLagCheckInterval(systemConfig));
+    }
+
+    private static int getLagCheckInterval(Config systemConfig)
+    {
+        int interval = systemConfig.get("database.replica.lagCheckInterval", int.class, 5);
+        if (interval <= 0) {
+            throw new ConfigException("database.replica.lagCheckInterval must be larger than 0: " + interval);
+        }
+        return interval;
+    }
+
+    ReadReplica(Optional<DatabaseConfig> config, int maxLag, int lagCheckInterval)
+    {
+        this.config = config;
+        this.maxLag = maxLag;
+        this.lagCheckIntervalMillis = lagCheckInterval * 1000L;
+    }
+
+    @VisibleForTesting
+    ReadReplica(DataSource ds, int maxLag, int lagCheckInterval)
+    {
+        this(Optional.absent(), maxLag, lagCheckInterval);
+        this.ds = ds;
+    }
+
+    // Returns absent if the primary database should be used.
+    public Optional<DataSource> getDataSource()
+    {
+        if (!started) {
+            start();
+        }
+
+        DataSource ds = this.ds;
+        if (ds == null) {
+            return Optional.absent();
+        }
+
+        if (available) {
+            metrics.increment(Category.DB, "readReplicaTransactions");
+            return Optional.of(ds);
+        }
+        else {
+            metrics.increment(Category.DB, "readReplicaFallbacks");
+            return Optional.absent();
+        }
+    }
+
+    private synchronized void start()
+    {
+        if (started) {
+            return;
+        }
+        if (ds == null && config.isPresent()) {
+            createPooledDataSource(config.get());
+        }
+        // lagCheckInterval 0 is only for testing. Tests call refreshLag directly.
+        if (ds != null && lagCheckIntervalMillis > 0) {
+            lagChecker = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("read-replica-lag-check-%d")
+                    .build());
+            lagChecker.scheduleWithFixedDelay(this::refreshLag, 0, lagCheckIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        started = true;
+    }
+
+    @VisibleForTesting
+    void refreshLag()
+    {
+        boolean wasAvailable = available;
+        boolean nextAvailable;
+        try {
+            nextAvailable = checkLag();
+        }
+        catch (RuntimeException ex) {
+            // don't stop the scheduled check
+            logger.warn("Unexpected error during checking replication lag of read replica", ex);
+            nextAvailable = false;
+        }
+        available = nextAvailable;
+        if (nextAvailable && !wasAvailable) {
+            logger.info("Using read replica for read-only transactions");
+        }
+    }
+
+    private void createPooledDataSource(DatabaseConfig config)
+    {
+        HikariConfig hikari = DataSourceProvider.buildHikariConfig(config);
+        hikari.setPoolName(POOL_NAME);
+        hikari.setReadOnly(true);
+        hikari.setMetricRegistry(metrics.getRegistry(Category.DB));
+
+        logger.debug("Using read replica database URL {}", hikari.getJdbcUrl());
+
+        HikariDataSource ds = new HikariDataSource(hikari);
+        this.ds = ds;
+        this.closer = ds;
+    }
+
+    @VisibleForTesting
+    boolean checkLag()
+    {
+        double lag;
+        try (Connection conn = ds.getConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(LAG_QUERY)) {
+            rs.next();
+            lag = rs.getDouble(1);
+        }
+        catch (SQLException | RuntimeException ex) {
+            logger.warn("Failed to check replication lag of read replica. Using primary database for {} seconds", lagCheckIntervalMillis / 1000, ex);
+            return false;
+        }
+
+        metrics.summary(Category.DB, "readReplicaLagSeconds", lag);
+        if (lag > maxLag) {
+            if (available) {
+                logger.warn("Replication lag of read replica is {} seconds. Using primary database until it gets smaller than {} seconds", lag, maxLag);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @PreDestroy
+    @Override
+    public synchronized void close()
+    {
+        if (lagChecker != null) {
+            lagChecker.shutdownNow();
+            lagChecker = null;
+        }
+        available = false;
+        if (closer != null) {
+            closer.close();
+            closer = null;
+            ds = null;
+        }
+    }
+}
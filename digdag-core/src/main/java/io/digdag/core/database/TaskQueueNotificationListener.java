@@ -0,0 +1,95 @@
+package io.digdag.core.database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Listens to notifications of PostgreSQL that are sent when a task is enqueued
+ * by any server, and calls the given callback to wake up agents waiting on this server.
+ *
+ * This uses a dedicated connection that is not a part of the connection pool because
+ * LISTEN is bound to a session. When the connection is lost, this reconnects and
+ * calls the callback once because notifications may have been missed.
+ */
+class TaskQueueNotificationListener
+{
+    private static final Logger logger = LoggerFactory.getLogger(TaskQueueNotificationListener.class);
+
+    static final String CHANNEL = "digdag_task_queue";
+
+    private static final int POLL_TIMEOUT_MILLIS = 1000;
+    private static final long RECONNECT_INTERVAL_MILLIS = 5000;
+
+    private final DatabaseConfig config;
+    private final Runnable callback;
+    private final ExecutorService executor;
+    private volatile boolean stop = false;
+
+    TaskQueueNotificationListener(DatabaseConfig config, Runnable callback)
+    {
+        this.config = config;
+        this.callback = callback;
+        this.executor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("task-queue-listener-%d")
+                .build()
+                );
+    }
+
+    void start()
+    {
+        executor.submit(this::run);
+    }
+
+    void shutdown()
+    {
+        stop = true;
+        executor.shutdownNow();
+    }
+
+    private void run()
+    {
+        while (!stop) {
+            try (Connection connection = DriverManager.getConnection(
+                        DatabaseConfig.buildJdbcUrl(config),
+                        DatabaseConfig.buildJdbcProperties(config))) {
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("LISTEN " + CHANNEL);
+                }
+                logger.debug("Listening task queue notifications");
+                callback.run();
+
+                PGConnection pg = connection.unwrap(PGConnection.class);
+                while (!stop) {
+                    PGNotification[] notifications = pg.getNotifications(POLL_TIMEOUT_MILLIS);
+                    if (notifications != null && notifications.length > 0) {
+                        callback.run();
+                    }
+                }
+            }
+            catch (SQLException | RuntimeException ex) {
+                if (stop) {
+                    break;
+                }
+                logger.warn("Failed to listen task queue notifications. Retrying after {} milliseconds", RECONNECT_INTERVAL_MILLIS, ex);
+                try {
+                    Thread.sleep(RECONNECT_INTERVAL_MILLIS);
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package io.digdag.core.database;
 
 import com.google.inject.Inject;
+import com.google.common.base.Optional;
 import io.digdag.commons.ThrowablesUtil;
 import org.skife.jdbi.v2.DBI;
 import org.skife.jdbi.v2.Handle;
@@ -9,7 +10,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.stream.Collectors;
 
 import javax.sql.DataSource;
@@ -25,6 +28,7 @@ public class ThreadLocalTransactionManager
     private final ThreadLocal<Transaction> threadLocalTransaction = new ThreadLocal<>();
     private final ThreadLocal<Transaction> threadLocalAutoCommitTransaction = new ThreadLocal<>();
     private final DataSource ds;
+    private final Optional<ReadReplica> replica;
 
     private static class LazyTransaction
             implements Transaction
@@ -38,9 +42,12 @@ public class ThreadLocalTransactionManager
 
         private final DataSource ds;
         private final boolean autoAutoCommit;
+        private final boolean readOnly;
         private Handle handle;
         private State state = State.ACTIVE;
         private final StackTraceElement[] stackTrace;
+        private final List<Runnable> afterCommitActions = new ArrayList<>();
+        private int savepointSequence = 0;
 
         LazyTransaction(DataSource ds)
         {
@@ -48,9 +55,15 @@ public class ThreadLocalTransactionManager
         }
 
         LazyTransaction(DataSource ds, boolean autoAutoCommit)
+        {
+            this(ds, autoAutoCommit, false);
+        }
+
+        LazyTransaction(DataSource ds, boolean autoAutoCommit, boolean readOnly)
         {
             this.ds = checkNotNull(ds);
             this.autoAutoCommit = autoAutoCommit;
+            this.readOnly = readOnly;
             this.stackTrace = Thread.currentThread().getStackTrace();
         }
 
@@ -100,6 +113,15 @@ public class ThreadLocalTransactionManager
                 catch (SQLException ex) {
                     throw new TransactionFailedException("Failed to set auto commit: " + autoAutoCommit, ex);
                 }
+                if (readOnly) {
+                    try {
+                        // HikariCP resets this flag when the connection is returned to the pool
+                        handle.getConnection().setReadOnly(true);
+                    }
+                    catch (SQLException ex) {
+                        throw new TransactionFailedException("Failed to set read only", ex);
+                    }
+                }
                 if (!autoAutoCommit) {
                     handle.begin();
                 }
@@ -145,9 +167,70 @@ public class ThreadLocalTransactionManager
             state = State.COMMITTED;
         }
 
+        <T> T savepoint(SupplierInTransaction<T, RuntimeException, RuntimeException, RuntimeException, RuntimeException> func)
+        {
+            if (state != State.ACTIVE) {
+                throw new IllegalStateException("Transaction is already " + state.name().toLowerCase(ENGLISH));
+            }
+            if (autoAutoCommit) {
+                // changes are committed by each statement. Nothing to roll back.
+                return func.get();
+            }
+            if (handle == null) {
+                // there are no earlier changes to keep
+                try {
+                    return func.get();
+                }
+                catch (RuntimeException ex) {
+                    reset();
+                    throw ex;
+                }
+            }
+
+            String name = "digdag_savepoint_" + (savepointSequence++);
+            int actionCount = afterCommitActions.size();
+            handle.checkpoint(name);
+            try {
+                T result = func.get();
+                handle.release(name);
+                return result;
+            }
+            catch (RuntimeException ex) {
+                handle.rollback(name);
+                // actions registered by the function are discarded with its changes
+                afterCommitActions.subList(actionCount, afterCommitActions.size()).clear();
+                throw ex;
+            }
+        }
+
+        void afterCommit(Runnable action)
+        {
+            if (autoAutoCommit) {
+                // changes are already committed
+                action.run();
+            }
+            else {
+                afterCommitActions.add(action);
+            }
+        }
+
+        void runAfterCommitActions()
+        {
+            for (Runnable action : afterCommitActions) {
+                try {
+                    action.run();
+                }
+                catch (RuntimeException ex) {
+                    logger.warn("Failed to run an action after commit", ex);
+                }
+            }
+            afterCommitActions.clear();
+        }
+
         @Override
         public void abort()
         {
+            afterCommitActions.clear();
             if (handle == null) {
                 return;
             }
@@ -188,15 +271,26 @@ public class ThreadLocalTransactionManager
         }
     }
 
-    @Inject
     public ThreadLocalTransactionManager(DataSource ds)
     {
         this(ds, false);
     }
 
+    @Inject
+    public ThreadLocalTransactionManager(DataSource ds, ReadReplica replica)
+    {
+        this(ds, Optional.of(replica), false);
+    }
+
     ThreadLocalTransactionManager(DataSource ds, boolean autoAutoCommit)
+    {
+        this(ds, Optional.absent(), autoAutoCommit);
+    }
+
+    ThreadLocalTransactionManager(DataSource ds, Optional<ReadReplica> replica, boolean autoAutoCommit)
     {
         this.ds = checkNotNull(ds);
+        this.replica = replica;
         if (autoAutoCommit) {
             LazyTransaction transaction = new LazyTransaction(ds, true);
             threadLocalTransaction.set(transaction);
@@ -251,18 +345,50 @@ public class ThreadLocalTransactionManager
     public <T, E1 extends Exception, E2 extends Exception, E3 extends Exception, E4 extends Exception>
     T begin(SupplierInTransaction<T, E1, E2, E3, E4> func, Class<E1> e1, Class<E2> e2, Class<E3> e3, Class<E4> e4)
             throws E1, E2, E3, E4
+    {
+        return begin(new LazyTransaction(ds), func, e1, e2, e3, e4);
+    }
+
+    @Override
+    public <T> T beginReadOnly(SupplierInTransaction<T, RuntimeException, RuntimeException, RuntimeException, RuntimeException> func)
+    {
+        return beginReadOnly(func, RuntimeException.class, RuntimeException.class);
+    }
+
+    @Override
+    public <T, E1 extends Exception> T beginReadOnly(SupplierInTransaction<T, E1, RuntimeException, RuntimeException, RuntimeException> func, Class<E1> e1)
+            throws E1
+    {
+        return beginReadOnly(func, e1, RuntimeException.class);
+    }
+
+    @Override
+    public <T, E1 extends Exception, E2 extends Exception>
+    T beginReadOnly(SupplierInTransaction<T, E1, E2, RuntimeException, RuntimeException> func, Class<E1> e1, Class<E2> e2)
+            throws E1, E2
+    {
+        DataSource readDs = ds;
+        if (replica.isPresent()) {
+            readDs = replica.get().getDataSource().or(ds);
+        }
+        return begin(new LazyTransaction(readDs, false, true), func, e1, e2, RuntimeException.class, RuntimeException.class);
+    }
+
+    private <T, E1 extends Exception, E2 extends Exception, E3 extends Exception, E4 extends Exception>
+    T begin(LazyTransaction transaction, SupplierInTransaction<T, E1, E2, E3, E4> func, Class<E1> e1, Class<E2> e2, Class<E3> e3, Class<E4> e4)
+            throws E1, E2, E3, E4
     {
         if (threadLocalTransaction.get() != null) {
             throw new IllegalStateException("Nested transaction is not allowed: " + threadLocalTransaction.get());
         }
 
         boolean committed = false;
-        LazyTransaction transaction = new LazyTransaction(ds);
         try {
             threadLocalTransaction.set(transaction);
             T result = func.get();
             transaction.commit();
             committed = true;
+            transaction.runAfterCommitActions();
             return result;
         }
         catch (Exception e) {
@@ -335,6 +461,28 @@ public class ThreadLocalTransactionManager
         }
     }
 
+    @Override
+    public <T> T savepoint(SupplierInTransaction<T, RuntimeException, RuntimeException, RuntimeException, RuntimeException> func)
+    {
+        Transaction transaction = threadLocalTransaction.get();
+        if (transaction == null) {
+            throw new IllegalStateException("Not in transaction");
+        }
+        return ((LazyTransaction) transaction).savepoint(func);
+    }
+
+    @Override
+    public void afterCommit(Runnable action)
+    {
+        Transaction transaction = threadLocalTransaction.get();
+        if (transaction == null) {
+            action.run();
+        }
+        else {
+            ((LazyTransaction) transaction).afterCommit(action);
+        }
+    }
+
     @Override
     public void reset()
     {
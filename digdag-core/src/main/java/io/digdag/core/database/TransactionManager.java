@@ -42,6 +42,28 @@ public interface TransactionManager
             SupplierInTransaction<T, E1, E2, E3, E4> func, Class<E1> e1, Class<E2> e2, Class<E3> e3, Class<E4> e4)
             throws E1, E2, E3, E4;
 
+    /**
+     * Create a new read-only transaction and set it as the current transaction object.
+     * It uses the read replica if it's configured and not lagging, otherwise the primary database.
+     */
+    <T> T beginReadOnly(SupplierInTransaction<T, RuntimeException, RuntimeException, RuntimeException, RuntimeException> func);
+
+    /**
+     * Create a new read-only transaction and set it as the current transaction object.
+     * It uses the read replica if it's configured and not lagging, otherwise the primary database.
+     */
+    <T, E1 extends Exception> T beginReadOnly(
+            SupplierInTransaction<T, E1, RuntimeException, RuntimeException, RuntimeException> func, Class<E1> e1)
+        throws E1;
+
+    /**
+     * Create a new read-only transaction and set it as the current transaction object.
+     * It uses the read replica if it's configured and not lagging, otherwise the primary database.
+     */
+    <T, E1 extends Exception, E2 extends Exception> T beginReadOnly(
+            SupplierInTransaction<T, E1, E2, RuntimeException, RuntimeException> func, Class<E1> e1, Class<E2> e2)
+        throws E1, E2;
+
     /**
      * Get the current transaction object if exists, otherwise uses a temporary transaction object with auto-commit mode.
      */
@@ -73,6 +95,20 @@ public interface TransactionManager
      */
     void reset();
 
+    /**
+     * Run the function in a savepoint of the current transaction. If the function throws
+     * an exception, only changes made by the function are rolled back, and the current
+     * transaction keeps its earlier changes and can be used continuously.
+     */
+    <T> T savepoint(SupplierInTransaction<T, RuntimeException, RuntimeException, RuntimeException, RuntimeException> func);
+
+    /**
+     * Run the action after the current transaction is committed. The action is
+     * discarded if the transaction is aborted. If there is no current transaction,
+     * the action runs immediately.
+     */
+    void afterCommit(Runnable action);
+
     @FunctionalInterface
     interface SupplierInTransaction<T, E1 extends Exception, E2 extends Exception, E3 extends Exception, E4 extends Exception>
     {
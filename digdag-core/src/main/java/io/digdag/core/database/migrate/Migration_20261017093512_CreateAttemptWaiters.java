@@ -0,0 +1,22 @@
+package io.digdag.core.database.migrate;
+
+import org.skife.jdbi.v2.Handle;
+
+public class Migration_20261017093512_CreateAttemptWaiters
+        implements Migration
+{
+    @Override
+    public void migrate(Handle handle, MigrationContext context)
+    {
+        handle.update(
+                context.newCreateTableBuilder("attempt_waiters")
+                .addLongId("id")
+                .addLong("attempt_id", "not null references session_attempts (id)")
+                .addLong("task_id", "not null")
+                .addTimestamp("created_at", "not null")
+                .build());
+
+        handle.update("create unique index attempt_waiters_on_attempt_id_and_task_id on attempt_waiters (attempt_id, task_id)");
+        handle.update("create index attempt_waiters_on_task_id on attempt_waiters (task_id)");
+    }
+}
@@ -0,0 +1,21 @@
+package io.digdag.core.database.migrate;
+
+import org.skife.jdbi.v2.Handle;
+
+public class Migration_20261017150021_CreateTaskArchiveBlocks
+        implements Migration
+{
+    @Override
+    public void migrate(Handle handle, MigrationContext context)
+    {
+        handle.update(
+                context.newCreateTableBuilder("task_archive_blocks")
+                .addLongId("id")
+                .addLong("attempt_id", "not null references task_archives (id)")
+                .addLong("last_task_id", "not null")
+                .addLongBinary("tasks", "not null")  // gzip-compressed JSON array of tasks
+                .build());
+
+        handle.update("create unique index task_archive_blocks_on_attempt_id_and_last_task_id on task_archive_blocks (attempt_id, last_task_id)");
+    }
+}
@@ -3,6 +3,7 @@ package io.digdag.core.log;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.zip.GZIPOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.IOException;
@@ -16,6 +17,7 @@ import com.google.inject.Inject;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
 import com.google.common.io.ByteStreams;
+import io.digdag.commons.ThrowablesUtil;
 import io.digdag.spi.LogServer;
 import io.digdag.spi.LogServerFactory;
 import io.digdag.spi.LogFilePrefix;
@@ -23,7 +25,9 @@ import io.digdag.spi.LogFileHandle;
 import io.digdag.spi.ImmutableLogFileHandle;
 import io.digdag.spi.DirectDownloadHandle;
 import io.digdag.spi.DirectUploadHandle;
+import io.digdag.spi.Storage;
 import io.digdag.spi.StorageFileNotFoundException;
+import io.digdag.spi.StorageObject;
 import io.digdag.client.config.Config;
 import java.time.format.DateTimeFormatter;
 import static java.util.Locale.ENGLISH;
@@ -34,9 +38,10 @@ public abstract class AbstractFileLogServer
 {
     public abstract Optional<DirectUploadHandle> getDirectUploadHandle(String dateDir, String attemptDir, String fileName);
 
-    protected abstract void putFile(String dateDir, String attemptDir, String fileName, byte[] gzData);
+    protected abstract void putFile(String dateDir, String attemptDir, String fileName, long gzDataLength, Storage.UploadStreamProvider gzData)
+            throws IOException;
 
-    protected abstract byte[] getFile(String dateDir, String attemptDir, String fileName)
+    protected abstract StorageObject openFile(String dateDir, String attemptDir, String fileName)
             throws StorageFileNotFoundException;
 
     protected abstract void listFiles(String dateDir, String attemptDir, boolean enableDirectDownload, FileMetadataConsumer fileNameConsumer);
@@ -57,12 +62,25 @@ public abstract class AbstractFileLogServer
 
     @Override
     public String putFile(LogFilePrefix prefix, String taskName, Instant firstLogTime, String agentId, byte[] gzData)
+    {
+        try {
+            return putFile(prefix, taskName, firstLogTime, agentId, gzData.length, () -> new ByteArrayInputStream(gzData));
+        }
+        catch (IOException ex) {
+            throw ThrowablesUtil.propagate(ex);
+        }
+    }
+
+    @Override
+    public String putFile(LogFilePrefix prefix, String taskName, Instant firstLogTime, String agentId,
+            long gzDataLength, Storage.UploadStreamProvider gzData)
+        throws IOException
     {
         String dateDir = LogFiles.formatDataDir(prefix);
         String attemptDir = LogFiles.formatSessionAttemptDir(prefix);
         String fileName = LogFiles.formatFileName(taskName, firstLogTime, agentId);
 
-        putFile(dateDir, attemptDir, fileName, gzData);
+        putFile(dateDir, attemptDir, fileName, gzDataLength, gzData);
 
         return fileName;
     }
@@ -70,10 +88,28 @@ public abstract class AbstractFileLogServer
     @Override
     public byte[] getFile(LogFilePrefix prefix, String fileName)
             throws StorageFileNotFoundException
+    {
+        StorageObject obj = openFile(prefix, fileName);
+        try (InputStream in = obj.getContentInputStream()) {
+            if (obj.getContentLength() > 512*1024*1024) {
+                throw new RuntimeException("Non-direct downloding log files larger than 512MB is not supported");
+            }
+            byte[] data = new byte[(int) obj.getContentLength()];
+            ByteStreams.readFully(in, data);
+            return data;
+        }
+        catch (IOException ex) {
+            throw ThrowablesUtil.propagate(ex);
+        }
+    }
+
+    @Override
+    public StorageObject openFile(LogFilePrefix prefix, String fileName)
+            throws StorageFileNotFoundException
     {
         String dateDir = LogFiles.formatDataDir(prefix);
         String attemptDir = LogFiles.formatSessionAttemptDir(prefix);
-        return getFile(dateDir, attemptDir, fileName);
+        return openFile(dateDir, attemptDir, fileName);
     }
 
     @Override
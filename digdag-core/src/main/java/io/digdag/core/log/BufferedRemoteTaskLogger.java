@@ -1,7 +1,6 @@
 package io.digdag.core.log;
 
 import java.time.Instant;
-import java.io.InputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -9,7 +8,6 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
 
-import com.google.common.io.ByteStreams;
 import io.digdag.commons.ThrowablesUtil;
 import io.digdag.core.TempFileManager;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -19,13 +17,15 @@ public class BufferedRemoteTaskLogger
 {
     public static interface Uploader
     {
-        void upload(Instant firstLogTime, byte[] gzData);
+        void upload(Instant firstLogTime, Path gzFile)
+            throws IOException;
     }
 
     private static final int UPLOAD_THRESHOLD = 16 * 1024 * 1024;
 
     private final TempFileManager tempFiles;
     private final String tempFilePrefix;
+    private final long uploadIntervalMillis;
     private final Uploader uploader;
     private final ReentrantReadWriteLock lock;
     private final ReadLock logAppendLock;
@@ -33,11 +33,15 @@ public class BufferedRemoteTaskLogger
     private volatile CountingLogOutputStream currentFile = null;
     private volatile boolean closed;
 
+    // if uploadInterval is larger than 0, buffered logs are uploaded when the
+    // oldest buffered log is older than uploadInterval seconds so that clients
+    // can see progress of long-running tasks before UPLOAD_THRESHOLD is reached.
     public BufferedRemoteTaskLogger(TempFileManager tempFiles, String tempFilePrefix,
-            Uploader uploader)
+            int uploadInterval, Uploader uploader)
     {
         this.tempFiles = tempFiles;
         this.tempFilePrefix = tempFilePrefix;
+        this.uploadIntervalMillis = uploadInterval * 1000L;
         this.uploader = uploader;
         this.lock = new ReentrantReadWriteLock();
         this.logAppendLock = lock.readLock();
@@ -60,7 +64,7 @@ public class BufferedRemoteTaskLogger
             try {
                 openCurrentFile();
                 currentFile.write(data, off, len);
-                if (currentFile.getUncompressedSize() > UPLOAD_THRESHOLD) {
+                if (isUploadRequired(currentFile)) {
                     uploadAfterUnlock = true;
                 }
             }
@@ -94,23 +98,27 @@ public class BufferedRemoteTaskLogger
         }
     }
 
+    private boolean isUploadRequired(CountingLogOutputStream file)
+    {
+        if (file.getUncompressedSize() > UPLOAD_THRESHOLD) {
+            return true;
+        }
+        return uploadIntervalMillis > 0 &&
+            System.currentTimeMillis() - file.getOpenTime().toEpochMilli() >= uploadIntervalMillis;
+    }
+
     private void tryUpload(boolean atClose)
         throws IOException
     {
         logUploadLock.lock();
         try {
-            if (currentFile != null && (atClose || currentFile.getUncompressedSize() > UPLOAD_THRESHOLD)) {
+            if (currentFile != null && (atClose || isUploadRequired(currentFile))) {
                 currentFile.close();
                 Path path = currentFile.getPath();
                 Instant firstLogTime = currentFile.getOpenTime();
                 currentFile = null;
 
-                byte[] gzData;
-                try (InputStream in = Files.newInputStream(path)) {
-                    gzData = ByteStreams.toByteArray(in);
-                }
-
-                uploader.upload(firstLogTime, gzData);
+                uploader.upload(firstLogTime, path);
                 Files.deleteIfExists(path);
             }
             if (atClose) {
@@ -11,16 +11,18 @@ import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.nio.file.Files;
 import java.nio.file.DirectoryStream;
+import java.nio.file.StandardCopyOption;
 import com.google.inject.Inject;
 import com.google.common.base.Optional;
-import com.google.common.io.ByteStreams;
 import io.digdag.commons.ThrowablesUtil;
 import io.digdag.core.agent.AgentId;
 import io.digdag.spi.LogServer;
 import io.digdag.spi.LogServerFactory;
 import io.digdag.spi.LogFilePrefix;
 import io.digdag.spi.DirectUploadHandle;
+import io.digdag.spi.Storage;
 import io.digdag.spi.StorageFileNotFoundException;
+import io.digdag.spi.StorageObject;
 import io.digdag.client.config.Config;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -83,18 +85,14 @@ public class LocalFileLogServerFactory
         }
 
         @Override
-        protected void putFile(String dateDir, String attemptDir, String fileName, byte[] gzData)
+        protected void putFile(String dateDir, String attemptDir, String fileName, long gzDataLength, Storage.UploadStreamProvider gzData)
+            throws IOException
         {
             Path dir = getPrefixDir(dateDir, attemptDir);
-            try {
-                Files.createDirectories(dir);
-                Path path = dir.resolve(fileName);
-                try (OutputStream out = Files.newOutputStream(path)) {
-                    out.write(gzData);
-                }
-            }
-            catch (IOException ex) {
-                throw ThrowablesUtil.propagate(ex);
+            Files.createDirectories(dir);
+            Path path = dir.resolve(fileName);
+            try (InputStream in = gzData.open()) {
+                Files.copy(in, path, StandardCopyOption.REPLACE_EXISTING);
             }
         }
 
@@ -120,7 +118,7 @@ public class LocalFileLogServerFactory
         }
 
         @Override
-        protected byte[] getFile(String dateDir, String attemptDir, String fileName)
+        protected StorageObject openFile(String dateDir, String attemptDir, String fileName)
             throws StorageFileNotFoundException
         {
             Path prefixDir = getPrefixDir(dateDir, attemptDir);
@@ -128,8 +126,9 @@ public class LocalFileLogServerFactory
             if (!path.startsWith(prefixDir)) {
                 throw new IllegalArgumentException("Invalid file name: " + fileName);
             }
-            try (InputStream in = Files.newInputStream(path)) {
-                return ByteStreams.toByteArray(in);
+            try {
+                long size = Files.size(path);
+                return new StorageObject(Files.newInputStream(path), size);
             }
             catch (FileNotFoundException | NoSuchFileException ex) {
                 throw new StorageFileNotFoundException(ex);
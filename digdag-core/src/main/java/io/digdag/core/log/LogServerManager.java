@@ -1,5 +1,6 @@
 package io.digdag.core.log;
 
+import java.nio.file.Files;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.Locale;
@@ -27,10 +28,12 @@ public class LogServerManager
 
     private final LogServer logServer;
     private final TempFileManager tempFiles;
+    private final LogTailBuffer tailBuffer;
+    private final int uploadInterval;
 
     @Inject
     public LogServerManager(Set<LogServerFactory> factories, Config systemConfig, TempFileManager tempFiles,
-            StorageManager storageManager)
+            StorageManager storageManager, LogTailBuffer tailBuffer)
     {
         String type = systemConfig.get("log-server.type", String.class, "null");
         LogServerFactory factory = findLogServer(factories, type);
@@ -41,6 +44,8 @@ public class LogServerManager
             this.logServer = factory.getLogServer();
         }
         this.tempFiles = tempFiles;
+        this.tailBuffer = tailBuffer;
+        this.uploadInterval = systemConfig.get("log-server.upload_interval", int.class, 0);
     }
 
     private static LogServerFactory findLogServer(Set<LogServerFactory> factories, String type)
@@ -75,8 +80,18 @@ public class LogServerManager
         return logServer;
     }
 
+    public LogTailBuffer getTailBuffer()
+    {
+        return tailBuffer;
+    }
+
     // this is called when server == agent (server runs a local agent).
-    public TaskLogger newInProcessTaskLogger(AgentId agentId, LogFilePrefix prefix, String taskName)
+    public TaskLogger newInProcessTaskLogger(AgentId agentId, LogFilePrefix prefix, long attemptId, String taskName)
+    {
+        return tailBuffer.wrap(attemptId, taskName, newTaskLogger(agentId, prefix, taskName));
+    }
+
+    private TaskLogger newTaskLogger(AgentId agentId, LogFilePrefix prefix, String taskName)
     {
         if (logServer instanceof NullLogServer) {
             return new NullTaskLogger();
@@ -91,9 +106,10 @@ public class LogServerManager
                     .append(prefix.getWorkflowName()).append("_") // workflow name is normalized before it's submitted.
                     .append(ISO8601_SHORT.format(prefix.getSessionTime())) // yyyyMMdd'T'HHmmss'Z'
                     .toString();
-            return new BufferedRemoteTaskLogger(tempFiles, tempFilePrefix,
-                    (firstLogTime, gzData) -> {
-                        logServer.putFile(prefix, taskName, firstLogTime, agentId.toString(), gzData);
+            return new BufferedRemoteTaskLogger(tempFiles, tempFilePrefix, uploadInterval,
+                    (firstLogTime, gzFile) -> {
+                        logServer.putFile(prefix, taskName, firstLogTime, agentId.toString(),
+                                Files.size(gzFile), () -> Files.newInputStream(gzFile));
                     });
         }
     }
@@ -0,0 +1,331 @@
+package io.digdag.core.log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import com.google.common.base.Optional;
+import com.google.inject.Inject;
+import io.digdag.client.config.Config;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Keeps recent log data of tasks running on this process in memory so that
+ * clients can follow them without waiting for log files to be uploaded.
+ *
+ * Log data is buffered per attempt up to log-server.tail.buffer_size bytes.
+ * Older data is dropped when the buffer is full. Every chunk has an id that
+ * increases monotonically in this process so that a client can resume from
+ * the last id it received. Buffers are removed log-server.tail.retention
+ * seconds after the last task logger of the attempt is closed.
+ *
+ * A chunk also has the byte offset of its data in the output of the task
+ * logger so that a client can tell whether it received logs of the task
+ * from the beginning.
+ *
+ * Each stream holds a server thread. At most log-server.tail.max_streams
+ * streams are served at once.
+ */
+public class LogTailBuffer
+{
+    private final int bufferSize;
+    private final long retentionMillis;
+    private final AtomicLong lastId = new AtomicLong(0);
+    private final Map<Long, AttemptTail> tails = new HashMap<>();
+    private final Semaphore streams;
+
+    @Inject
+    public LogTailBuffer(Config systemConfig)
+    {
+        this(systemConfig.get("log-server.tail.buffer_size", int.class, 0),
+                systemConfig.get("log-server.tail.retention", int.class, 60),
+                systemConfig.get("log-server.tail.max_streams", int.class, 32));
+    }
+
+    LogTailBuffer(int bufferSize, int retention)
+    {
+        this(bufferSize, retention, 32);
+    }
+
+    LogTailBuffer(int bufferSize, int retention, int maxStreams)
+    {
+        this.bufferSize = bufferSize;
+        this.retentionMillis = retention * 1000L;
+        this.streams = new Semaphore(maxStreams);
+    }
+
+    public boolean isEnabled()
+    {
+        return bufferSize > 0;
+    }
+
+    public TaskLogger wrap(long attemptId, String taskName, TaskLogger logger)
+    {
+        if (!isEnabled()) {
+            return logger;
+        }
+        AttemptTail tail;
+        synchronized (tails) {
+            removeExpiredTails();
+            tail = tails.get(attemptId);
+            if (tail == null) {
+                tail = new AttemptTail();
+                tails.put(attemptId, tail);
+            }
+            tail.openLogger();
+        }
+        return new TailTaskLogger(tail, taskName, logger);
+    }
+
+    /**
+     * Returns log data of an attempt added after the given id. If no data is
+     * available, waits until new data is added, no task logger of the
+     * attempt is open, or timeout elapses.
+     */
+    public Chunks read(long attemptId, long after, Optional<String> taskNamePrefix, long timeoutMillis)
+        throws InterruptedException
+    {
+        AttemptTail tail;
+        synchronized (tails) {
+            tail = tails.get(attemptId);
+        }
+        if (tail == null) {
+            return new Chunks(new ArrayList<>(), after, false, true);
+        }
+        return tail.read(after, taskNamePrefix, timeoutMillis);
+    }
+
+    public long getLastId()
+    {
+        return lastId.get();
+    }
+
+    /**
+     * Reserves a stream. Returns false if log-server.tail.max_streams streams
+     * are already open. Call releaseStream when the stream is closed.
+     */
+    public boolean tryAcquireStream()
+    {
+        return streams.tryAcquire();
+    }
+
+    public void releaseStream()
+    {
+        streams.release();
+    }
+
+    private void removeExpiredTails()
+    {
+        long now = System.currentTimeMillis();
+        Iterator<AttemptTail> ite = tails.values().iterator();
+        while (ite.hasNext()) {
+            if (ite.next().isExpired(now, retentionMillis)) {
+                ite.remove();
+            }
+        }
+    }
+
+    public static class Chunk
+    {
+        private final long id;
+        private final String taskName;
+        private final long offset;
+        private final byte[] data;
+
+        Chunk(long id, String taskName, long offset, byte[] data)
+        {
+            this.id = id;
+            this.taskName = taskName;
+            this.offset = offset;
+            this.data = data;
+        }
+
+        public long getId()
+        {
+            return id;
+        }
+
+        public String getTaskName()
+        {
+            return taskName;
+        }
+
+        // byte offset of the data in the output of the task logger. 0 if
+        // this is the first chunk written by the logger.
+        public long getOffset()
+        {
+            return offset;
+        }
+
+        public byte[] getData()
+        {
+            return data;
+        }
+    }
+
+    public static class Chunks
+    {
+        private final List<Chunk> chunks;
+        private final long lastId;
+        private final boolean truncated;
+        private final boolean idle;
+
+        Chunks(List<Chunk> chunks, long lastId, boolean truncated, boolean idle)
+        {
+            this.chunks = chunks;
+            this.lastId = lastId;
+            this.truncated = truncated;
+            this.idle = idle;
+        }
+
+        public List<Chunk> getChunks()
+        {
+            return chunks;
+        }
+
+        // id to resume from. This can be larger than the id of the last chunk
+        // if chunks of other tasks are skipped.
+        public long getLastId()
+        {
+            return lastId;
+        }
+
+        // true if some data after the requested id was already dropped from the buffer
+        public boolean isTruncated()
+        {
+            return truncated;
+        }
+
+        // true if no task logger of the attempt is open on this process
+        public boolean isIdle()
+        {
+            return idle;
+        }
+    }
+
+    private class AttemptTail
+    {
+        private final ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+        private long bytes = 0;
+        private long droppedId = 0;
+        private int openLoggers = 0;
+        private long idleSince = 0;
+
+        synchronized void openLogger()
+        {
+            openLoggers++;
+        }
+
+        synchronized void closeLogger()
+        {
+            openLoggers--;
+            if (openLoggers == 0) {
+                idleSince = System.currentTimeMillis();
+            }
+            notifyAll();
+        }
+
+        synchronized boolean isExpired(long now, long retentionMillis)
+        {
+            return openLoggers == 0 && now - idleSince > retentionMillis;
+        }
+
+        synchronized void add(String taskName, long offset, byte[] data)
+        {
+            chunks.addLast(new Chunk(lastId.incrementAndGet(), taskName, offset, data));
+            bytes += data.length;
+            while (bytes > bufferSize && chunks.size() > 1) {
+                Chunk dropped = chunks.removeFirst();
+                bytes -= dropped.getData().length;
+                droppedId = dropped.getId();
+            }
+            notifyAll();
+        }
+
+        synchronized Chunks read(long after, Optional<String> taskNamePrefix, long timeoutMillis)
+            throws InterruptedException
+        {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (true) {
+                boolean truncated = after < droppedId;
+                List<Chunk> found = new ArrayList<>();
+                long last = Math.max(after, droppedId);
+                for (Chunk chunk : chunks) {
+                    if (chunk.getId() > after) {
+                        last = chunk.getId();
+                        if (!taskNamePrefix.isPresent() || chunk.getTaskName().startsWith(taskNamePrefix.get())) {
+                            found.add(chunk);
+                        }
+                    }
+                }
+                boolean idle = openLoggers == 0;
+                long wait = deadline - System.currentTimeMillis();
+                if (!found.isEmpty() || truncated || idle || wait <= 0) {
+                    return new Chunks(found, last, truncated, idle);
+                }
+                // chunks of other tasks are skipped
+                after = last;
+                wait(wait);
+            }
+        }
+    }
+
+    private static class TailTaskLogger
+        implements TaskLogger
+    {
+        private final AttemptTail tail;
+        private final String taskName;
+        private final TaskLogger next;
+        private long written = 0;
+        private boolean closed = false;
+
+        TailTaskLogger(AttemptTail tail, String taskName, TaskLogger next)
+        {
+            this.tail = tail;
+            this.taskName = taskName;
+            this.next = next;
+        }
+
+        // synchronized so that offsets of chunks match the order of data written to the next logger
+        @Override
+        public synchronized void log(LogLevel level, long timestamp, String message)
+        {
+            next.log(level, timestamp, message);
+            add(message.getBytes(UTF_8));
+        }
+
+        @Override
+        public synchronized void log(byte[] data, int off, int len)
+        {
+            next.log(data, off, len);
+            byte[] copy = new byte[len];
+            System.arraycopy(data, off, copy, 0, len);
+            add(copy);
+        }
+
+        private void add(byte[] data)
+        {
+            tail.add(taskName, written, data);
+            written += data.length;
+        }
+
+        @Override
+        public synchronized void close()
+        {
+            try {
+                next.close();
+            }
+            finally {
+                if (!closed) {
+                    closed = true;
+                    tail.closeLogger();
+                }
+            }
+        }
+    }
+}
@@ -11,6 +11,7 @@ import io.digdag.spi.LogServerFactory;
 import io.digdag.spi.LogFilePrefix;
 import io.digdag.spi.LogFileHandle;
 import io.digdag.spi.DirectUploadHandle;
+import io.digdag.spi.Storage;
 import io.digdag.spi.StorageFileNotFoundException;
 import io.digdag.client.config.Config;
 
@@ -42,6 +43,13 @@ public class NullLogServerFactory
             return "null";
         }
 
+        @Override
+        public String putFile(LogFilePrefix prefix, String taskName, Instant fileTime, String nodeId,
+                long gzDataLength, Storage.UploadStreamProvider gzData)
+        {
+            return "null";
+        }
+
         @Override
         public Optional<DirectUploadHandle> getDirectUploadHandle(LogFilePrefix prefix, String taskName, Instant fileTime, String nodeId)
         {
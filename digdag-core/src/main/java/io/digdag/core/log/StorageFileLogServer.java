@@ -1,11 +1,7 @@
 package io.digdag.core.log;
 
-import java.io.InputStream;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import com.google.common.io.ByteStreams;
 import com.google.common.base.Optional;
-import io.digdag.commons.ThrowablesUtil;
 import io.digdag.spi.DirectUploadHandle;
 import io.digdag.spi.Storage;
 import io.digdag.spi.StorageObject;
@@ -38,36 +34,19 @@ public class StorageFileLogServer
     }
 
     @Override
-    protected void putFile(String dateDir, String attemptDir, String fileName, byte[] gzData)
+    protected void putFile(String dateDir, String attemptDir, String fileName, long gzDataLength, Storage.UploadStreamProvider gzData)
+        throws IOException
     {
         String path = getPrefixDir(dateDir, attemptDir) + fileName;
-        try {
-            storage.put(path, gzData.length, () -> new ByteArrayInputStream(gzData));
-        }
-        catch (Throwable ex) {
-            throw ThrowablesUtil.propagate(ex);
-        }
+        storage.put(path, gzDataLength, gzData);
     }
 
     @Override
-    protected byte[] getFile(String dateDir, String attemptDir, String fileName)
+    protected StorageObject openFile(String dateDir, String attemptDir, String fileName)
         throws StorageFileNotFoundException
     {
         String path = getPrefixDir(dateDir, attemptDir) + fileName;
-        try {
-            StorageObject obj = storage.open(path);
-            try (InputStream in = obj.getContentInputStream()) {
-                if (obj.getContentLength() > 512*1024*1024) {
-                    throw new RuntimeException("Non-direct downloding log files larger than 512MB is not supported");
-                }
-                byte[] data = new byte[(int) obj.getContentLength()];
-                ByteStreams.readFully(in, data);
-                return data;
-            }
-        }
-        catch (IOException ex) {
-            throw ThrowablesUtil.propagate(ex);
-        }
+        return storage.open(path);
     }
 
     @Override
@@ -12,6 +12,8 @@ import io.digdag.core.repository.ResourceNotFoundException;
 import io.digdag.core.repository.ResourceConflictException;
 import io.digdag.core.workflow.TaskQueueDispatcher;
 import org.weakref.jmx.Managed;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class QueueTaskQueueDispatcher
@@ -52,6 +54,14 @@ public class QueueTaskQueueDispatcher
         }
     }
 
+    @Override
+    public List<String> dispatchAll(Map<Integer, List<TaskQueueRequest>> requests)
+    {
+        enqueueCount.addAndGet(requests.values().stream().mapToInt(List::size).sum());
+
+        return taskQueueServer.enqueueDefaultQueueTasks(requests);
+    }
+
     @Override
     public void taskFinished(int siteId, String lockId, AgentId agentId)
         throws TaskConflictException, TaskNotFoundException
@@ -1,6 +1,7 @@
 package io.digdag.core.schedule;
 
 import io.digdag.client.config.Config;
+import io.digdag.client.config.ConfigException;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import org.immutables.value.Value;
@@ -12,16 +13,31 @@ public interface ScheduleConfig
 {
     boolean getEnabled();
 
+    // number of threads that start schedules
+    int getThreads();
+
+    // max number of schedules locked and started in a transaction
+    int getBatchSize();
+
     static ImmutableScheduleConfig.Builder defaultBuilder()
     {
         return ImmutableScheduleConfig.builder()
-            .enabled(true);
+            .enabled(true)
+            .threads(1)
+            .batchSize(1);
     }
 
     static ScheduleConfig convertFrom(Config config)
     {
+        int threads = config.get("schedule.threads", int.class, 1);
+        if (threads > 1 && !config.get("database.type", String.class, "memory").equals("postgresql")) {
+            // H2 database doesn't support FOR UPDATE SKIP LOCKED. Threads would wait for each other.
+            throw new ConfigException("schedule.threads larger than 1 is available only when database.type is postgresql");
+        }
         return defaultBuilder()
             .enabled(config.get("schedule.enabled", boolean.class, true))
+            .threads(threads)
+            .batchSize(config.get("schedule.batch_size", int.class, 1))
             .build();
     }
 }
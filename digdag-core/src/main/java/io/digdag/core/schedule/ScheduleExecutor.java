@@ -33,6 +33,7 @@ import io.digdag.spi.ScheduleTime;
 import io.digdag.spi.Scheduler;
 import io.digdag.core.session.ImmutableStoredSessionAttempt;
 import io.digdag.client.config.ConfigFactory;
+import io.digdag.metrics.StdDigdagMetrics;
 import io.digdag.spi.metrics.DigdagMetrics;
 import static io.digdag.spi.metrics.DigdagMetrics.Category;
 import io.digdag.util.DurationParam;
@@ -77,7 +78,7 @@ public class ScheduleExecutor
     private ErrorReporter errorReporter = ErrorReporter.empty();
 
     @Inject
-    private DigdagMetrics metrics;
+    private DigdagMetrics metrics = StdDigdagMetrics.empty();  // overwritten by injector
 
     @Inject
     public ScheduleExecutor(
@@ -116,17 +117,22 @@ public class ScheduleExecutor
     public synchronized void start()
     {
         if (scheduleConfig.getEnabled()) {
+            int threads = Math.max(scheduleConfig.getThreads(), 1);
             if (executor == null) {
-                executor = Executors.newScheduledThreadPool(1,
+                executor = Executors.newScheduledThreadPool(threads,
                         new ThreadFactoryBuilder()
                         .setDaemon(true)
                         .setNameFormat("scheduler-%d")
                         .build()
                         );
             }
+            // Each thread locks ready schedules with SKIP LOCKED. Thus threads
+            // (and servers) start different schedules in parallel.
             // TODO make interval configurable?
-            executor.scheduleWithFixedDelay(() -> runSchedules(),
-                    1, 1, TimeUnit.SECONDS);
+            for (int i = 0; i < threads; i++) {
+                executor.scheduleWithFixedDelay(() -> runSchedules(),
+                        1, 1, TimeUnit.SECONDS);
+            }
             // TODO make interval configurable?
             executor.scheduleWithFixedDelay(() -> runDelayedAttempts(),
                     1, 1, TimeUnit.SECONDS);
@@ -174,10 +180,13 @@ public class ScheduleExecutor
     @VisibleForTesting
     boolean runScheduleOnce(Instant now)
     {
+        // schedule.batch_size is 1 by default because selecting multiple rows
+        // with FOR UPDATE has risk of too often deadlock unless SKIP LOCKED is
+        // supported. Also, if starting one of the schedules fails, all
+        // schedules in the batch are retried.
+        int batchSize = Math.max(scheduleConfig.getBatchSize(), 1);
         int count = tm.begin(() -> {
-            // here uses limit=1 because selecting multiple rows with FOR UPDATE
-            // has risk of too often deadlock.
-            return sm.lockReadySchedules(now, 1, accountRouting, (store, storedSchedule) -> {
+            return sm.lockReadySchedules(now, batchSize, accountRouting, (store, storedSchedule) -> {
                 runSchedule(new ScheduleControl(store, storedSchedule), now);
             });
         });
@@ -213,6 +222,9 @@ public class ScheduleExecutor
     {
         StoredSchedule sched = lockedSched.get();
 
+        metrics.summary(Category.DEFAULT, "scheduleLagSeconds",
+                Math.max(Instant.now().toEpochMilli() - sched.getNextRunTime().toEpochMilli(), 0) / 1000.0);
+
         // TODO If a workflow has wait-until-last-schedule attribute, don't start
         //      new session and return a ScheduleTime with delayed nextRunTime and
         //      same nextScheduleTime
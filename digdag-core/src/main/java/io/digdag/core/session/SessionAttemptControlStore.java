@@ -16,4 +16,7 @@ public interface SessionAttemptControlStore
     int deleteAllTasksOfAttempt(long attemptId);
 
     boolean setDoneToAttemptState(long attemptId, boolean success);
+
+    // sets RETRY_WAITING tasks registered by addAttemptWaiter to READY. Returns attempt ids of the tasks.
+    List<Long> setWaitersToReady(long attemptId);
 }
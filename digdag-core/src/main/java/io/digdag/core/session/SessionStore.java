@@ -42,6 +42,15 @@ public interface SessionStore
 
     List<ArchivedTask> getTasksOfAttempt(long attemptId);
 
+    // Returns tasks whose id is larger than lastId in the order of id. Tasks of an
+    // archived attempt are read from the archive without loading all of them.
+    List<ArchivedTask> getTasksOfAttempt(long attemptId, int pageSize, Optional<Long> lastId);
+
+    // Registers a task in RETRY_WAITING state to be set to READY when the attempt is done.
+    // Returns false without registering it if the attempt is already done.
+    boolean addAttemptWaiter(long attemptId, long taskId)
+        throws ResourceNotFoundException;
+
     interface SessionTransactionAction <T>
     {
         T call(SessionTransaction transaction)
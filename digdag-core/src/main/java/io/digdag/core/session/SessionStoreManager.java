@@ -1,6 +1,7 @@
 package io.digdag.core.session;
 
 import java.util.List;
+import java.util.Map;
 import java.time.Instant;
 import com.google.common.base.*;
 import io.digdag.client.config.Config;
@@ -61,6 +62,15 @@ public interface SessionStoreManager
     // for WorkflowExecutor.propagateBlockedChildrenToReady
     List<Long> findDirectParentsOfBlockedTasks(long lastId, AccountRouting accountRouting);
 
+    // for WorkflowExecutor.propagateBlockedChildrenToReady with incremental propagation
+    List<Long> findDirectParentsOfBlockedTasksOfAttempt(long attemptId, long lastId, AccountRouting accountRouting);
+
+    // for WorkflowExecutor.propagateAllPlannedToDone with incremental propagation
+    List<Long> findTasksByStateOfAttempt(TaskStateCode state, long attemptId, long lastId, AccountRouting accountRouting);
+
+    // for WorkflowExecutor.propagateSessionArchive with incremental propagation
+    Optional<TaskAttemptSummary> findRootTaskByStatesOfAttempt(TaskStateCode[] states, long attemptId, AccountRouting accountRouting);
+
     boolean requestCancelAttempt(long attemptId);
 
     int trySetRetryWaitingToReady(AccountRouting accountRouting);
@@ -83,6 +93,26 @@ public interface SessionStoreManager
 
     <T> Optional<T> lockTaskIfNotLocked(long taskId, TaskLockActionWithDetails<T> func);
 
+    interface ReadyTaskBatchLockAction <T>
+    {
+        // siteIds is a map from task id to site id
+        T call(TaskControlStore lockedTasks, List<StoredTask> storedTasks, Map<Long, Integer> siteIds);
+    }
+
+    // for WorkflowExecutor.enqueueReadyTasks with executor.enqueue_batch_size.
+    // locks READY tasks whose id is larger than lastId skipping tasks locked by others.
+    <T> T lockReadyTasks(long lastId, int limit, AccountRouting accountRouting, ReadyTaskBatchLockAction<T> func);
+
+    interface TaskBatchLockAction <T>
+    {
+        // storedTasks doesn't include tasks that don't exist
+        T call(TaskControlStore lockedTasks, List<StoredTask> storedTasks);
+    }
+
+    // for WorkflowExecutor.getTaskRequests.
+    // locks all existing tasks of the list in a transaction.
+    <T> T lockTasksIfExist(List<Long> taskIds, TaskBatchLockAction<T> func);
+
     interface SessionMonitorAction
     {
         // returns next run time
@@ -93,6 +123,17 @@ public interface SessionStoreManager
 
     List<TaskRelation> getTaskRelations(long attemptId);
 
+    // for TaskTreeCache. returns relations of tasks whose id is larger than lastId
+    List<TaskRelation> getTaskRelations(long attemptId, long lastId);
+
+    long getTaskCountOfAttempt(long attemptId);
+
+    // for TaskTreeCache. returns ids of tasks that are in one of the states
+    List<Long> findTasksByStates(List<Long> idList, TaskStateCode[] states);
+
+    // returns attempts that exist. missing ids are ignored
+    List<StoredSessionAttemptWithSession> getAttemptsWithSessionByIds(List<Long> attemptIds);
+
     List<Config> getExportParams(List<Long> idList);
 
     List<ParameterUpdate> getStoreParams(List<Long> idList);
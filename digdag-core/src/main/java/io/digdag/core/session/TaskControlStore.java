@@ -13,6 +13,12 @@ public interface TaskControlStore
 
     long addSubtask(long attemptId, Task task);
 
+    // allocates ids in ascending order for addSubtasks
+    List<Long> allocateTaskIds(int count);
+
+    // inserts tasks with ids allocated by allocateTaskIds. parent of a task must precede the task.
+    void addSubtasks(long attemptId, List<Long> taskIds, List<Task> tasks);
+
     long addResumedSubtask(long attemptId, long parentId,
             TaskType taskType, TaskStateCode state, TaskStateFlags flags,
             ResumingTask resumingTask);
@@ -31,6 +37,9 @@ public interface TaskControlStore
 
     void addDependencies(long downstream, List<Long> upstreams);
 
+    // same as addDependencies for each entry of {downstream => upstreams}
+    void addAllDependencies(Map<Long, List<Long>> upstreamsByDownstream);
+
     // return true if one or more child task is progressible.
     boolean isAnyProgressibleChild(long taskId);
 
@@ -46,6 +55,9 @@ public interface TaskControlStore
 
     boolean setStartedState(long taskId, TaskStateCode beforeState, TaskStateCode afterState);
 
+    // returns number of updated tasks
+    int setStartedStates(List<Long> taskIds, TaskStateCode beforeState, TaskStateCode afterState);
+
     boolean setDoneState(long taskId, TaskStateCode beforeState, TaskStateCode afterState);
 
     // running to success
@@ -0,0 +1,120 @@
+package io.digdag.core.storage;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import com.google.common.base.Optional;
+import io.digdag.spi.DirectDownloadHandle;
+import io.digdag.spi.DirectUploadHandle;
+import io.digdag.spi.Storage;
+import io.digdag.spi.StorageFileNotFoundException;
+import io.digdag.spi.StorageObject;
+import io.digdag.spi.metrics.DigdagMetrics;
+import io.micrometer.core.instrument.Tags;
+
+import static io.digdag.spi.metrics.DigdagMetrics.Category;
+
+// Records size and throughput of downloaded objects when their streams are closed.
+class MeteredStorage
+    implements Storage
+{
+    private final Storage storage;
+    private final DigdagMetrics metrics;
+    private final Tags tags;
+
+    MeteredStorage(Storage storage, DigdagMetrics metrics, String usage, String type)
+    {
+        this.storage = storage;
+        this.metrics = metrics;
+        this.tags = Tags.of("usage", usage, "type", type);
+    }
+
+    @Override
+    public StorageObject open(String key)
+        throws StorageFileNotFoundException
+    {
+        StorageObject obj = storage.open(key);
+        return new StorageObject(
+                new MeteredInputStream(obj.getContentInputStream()),
+                obj.getContentLength());
+    }
+
+    @Override
+    public String put(String key, long contentLength, UploadStreamProvider payload)
+        throws IOException
+    {
+        return storage.put(key, contentLength, payload);
+    }
+
+    @Override
+    public void list(String keyPrefix, FileListing callback)
+    {
+        storage.list(keyPrefix, callback);
+    }
+
+    @Override
+    public Optional<DirectDownloadHandle> getDirectDownloadHandle(String key)
+    {
+        return storage.getDirectDownloadHandle(key);
+    }
+
+    @Override
+    public Optional<DirectUploadHandle> getDirectUploadHandle(String key)
+    {
+        return storage.getDirectUploadHandle(key);
+    }
+
+    private class MeteredInputStream
+        extends FilterInputStream
+    {
+        private final long startNanos = System.nanoTime();
+        private long bytes = 0;
+        private boolean closed = false;
+
+        MeteredInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read()
+            throws IOException
+        {
+            int b = super.read();
+            if (b >= 0) {
+                bytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+            throws IOException
+        {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                bytes += n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            try {
+                super.close();
+            }
+            finally {
+                if (!closed) {
+                    closed = true;
+                    double seconds = (System.nanoTime() - startNanos) / 1e9;
+                    metrics.summary(Category.DEFAULT, "storageDownloadBytes", tags, bytes);
+                    if (bytes > 0 && seconds > 0) {
+                        metrics.summary(Category.DEFAULT, "storageDownloadThroughput", tags, bytes / seconds);
+                    }
+                }
+            }
+        }
+    }
+}
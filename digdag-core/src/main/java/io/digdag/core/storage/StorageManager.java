@@ -13,11 +13,16 @@ import io.digdag.client.config.Config;
 import io.digdag.client.config.ConfigException;
 import io.digdag.spi.Storage;
 import io.digdag.spi.StorageFactory;
+import io.digdag.spi.metrics.DigdagMetrics;
+import io.digdag.metrics.StdDigdagMetrics;
 
 public class StorageManager
 {
     private final Map<String, StorageFactory> registry;  // TODO this should be extracted to a class named StorageRegistry as like OperatorRegistry to support system plugins
 
+    @Inject
+    private DigdagMetrics metrics = StdDigdagMetrics.empty();  // overwritten by injector
+
     @Inject
     public StorageManager(Set<StorageFactory> factories)
     {
@@ -41,7 +46,8 @@ public class StorageManager
         if (factory == null) {
             throw new ConfigException("Unknown storage type: " + type);
         }
-        return factory.newStorage(config);
+        String usage = configKeyPrefix.endsWith(".") ? configKeyPrefix.substring(0, configKeyPrefix.length() - 1) : configKeyPrefix;
+        return new MeteredStorage(factory.newStorage(config), metrics, usage, type);
     }
 
     public static Config extractKeyPrefix(Config config, String configKeyPrefix)
@@ -0,0 +1,160 @@
+package io.digdag.core.workflow;
+
+import com.google.common.collect.ImmutableList;
+import io.digdag.client.config.Config;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.LongSupplier;
+
+/**
+ * Set of attempt ids whose task state was changed by this process.
+ *
+ * WorkflowExecutor records an attempt here when taskSucceeded, taskFailed,
+ * retryTask, subtask generation or a cancel request touches it so that
+ * runWhile can revisit only those attempts instead of scanning all tasks.
+ *
+ * This journal is in-memory. Changes made by other servers, or recorded
+ * before a restart, are not visible here. Thus a full scan still runs
+ * when the journal is disabled, periodically (executor.propagation_full_scan_interval),
+ * and when the number of dirty attempts exceeds executor.propagation_journal_size.
+ *
+ * When executor.threads is larger than 1, the journal keeps one slot per
+ * executor thread so that each thread drains and scans only its own partition.
+ */
+class PropagationJournal
+{
+    private static class Slot
+    {
+        private final Set<Long> dirtyAttemptIds = new LinkedHashSet<>();
+        private boolean fullScanRequested = true;  // first loop always runs a full scan
+        private long lastFullScanMillis = 0;
+    }
+
+    private final boolean enabled;
+    private final long fullScanIntervalMillis;
+    private final int maxEntries;
+    private final LongSupplier clock;
+    private final Slot[] slots;
+
+    PropagationJournal(boolean enabled, long fullScanIntervalMillis, int maxEntries, int slotCount, LongSupplier clock)
+    {
+        this.enabled = enabled;
+        this.fullScanIntervalMillis = fullScanIntervalMillis;
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+        this.slots = new Slot[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    static PropagationJournal of(Config systemConfig, int slotCount)
+    {
+        return new PropagationJournal(
+                systemConfig.get("executor.incremental_propagation", boolean.class, false),
+                systemConfig.get("executor.propagation_full_scan_interval", long.class, 60L) * 1000,
+                systemConfig.get("executor.propagation_journal_size", int.class, 10000),
+                slotCount,
+                System::currentTimeMillis);
+    }
+
+    boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Records an attempt to a slot. Negative slot means that the attempt
+     * is not handled by this process and it's ignored.
+     */
+    synchronized void record(int slot, long attemptId)
+    {
+        if (!enabled || slot < 0) {
+            return;
+        }
+        Slot s = slots[slot];
+        if (s.fullScanRequested) {
+            // next loop scans everything anyway
+            return;
+        }
+        s.dirtyAttemptIds.add(attemptId);
+        if (s.dirtyAttemptIds.size() > maxEntries) {
+            s.fullScanRequested = true;
+            s.dirtyAttemptIds.clear();
+        }
+    }
+
+    synchronized void requestFullScan()
+    {
+        for (Slot s : slots) {
+            s.fullScanRequested = true;
+            s.dirtyAttemptIds.clear();
+        }
+    }
+
+    /**
+     * Returns true if the caller should scan all tasks of the slot at this loop.
+     * Dirty attempts recorded so far are covered by the scan and discarded.
+     */
+    synchronized boolean startFullScanIfNecessary(int slot)
+    {
+        return startFullScanIfNecessary(slots[slot], clock.getAsLong());
+    }
+
+    /**
+     * Same as startFullScanIfNecessary(int) but for all slots. This is used
+     * by a loop that is not partitioned.
+     */
+    synchronized boolean startFullScanIfNecessary()
+    {
+        long now = clock.getAsLong();
+        boolean fullScan = false;
+        for (Slot s : slots) {
+            fullScan |= isFullScanNecessary(s, now);
+        }
+        if (fullScan) {
+            for (Slot s : slots) {
+                s.fullScanRequested = false;
+                s.lastFullScanMillis = now;
+                s.dirtyAttemptIds.clear();
+            }
+        }
+        return fullScan;
+    }
+
+    private boolean startFullScanIfNecessary(Slot s, long now)
+    {
+        if (isFullScanNecessary(s, now)) {
+            s.fullScanRequested = false;
+            s.lastFullScanMillis = now;
+            s.dirtyAttemptIds.clear();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isFullScanNecessary(Slot s, long now)
+    {
+        return !enabled || s.fullScanRequested || now - s.lastFullScanMillis >= fullScanIntervalMillis;
+    }
+
+    synchronized List<Long> drain(int slot)
+    {
+        Slot s = slots[slot];
+        List<Long> list = ImmutableList.copyOf(s.dirtyAttemptIds);
+        s.dirtyAttemptIds.clear();
+        return list;
+    }
+
+    synchronized List<Long> drain()
+    {
+        ImmutableList.Builder<Long> builder = ImmutableList.builder();
+        for (Slot s : slots) {
+            builder.addAll(s.dirtyAttemptIds);
+            s.dirtyAttemptIds.clear();
+        }
+        return builder.build();
+    }
+}
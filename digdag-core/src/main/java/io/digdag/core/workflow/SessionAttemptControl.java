@@ -26,4 +26,10 @@ public class SessionAttemptControl
         }
         store.setDoneToAttemptState(attemptId, success);
     }
+
+    // Wakes up tasks waiting for this attempt. Returns attempt ids of the tasks.
+    public List<Long> readyWaitingTasks()
+    {
+        return store.setWaitersToReady(attemptId);
+    }
 }
@@ -4,6 +4,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.ArrayList;
 import java.util.stream.Collectors;
 import com.google.common.base.Optional;
@@ -25,6 +26,9 @@ import io.digdag.client.config.Config;
 
 public class TaskControl
 {
+    // addTasks stores fewer tasks one by one because bulk insertion needs a few more statements
+    private static final int BULK_INSERT_MIN_TASKS = 4;
+
     private final TaskControlStore store;
     private final StoredTask task;
     private TaskStateCode state;
@@ -126,6 +130,14 @@ public class TaskControl
             .stream()
             .collect(Collectors.toMap(t -> t.getFullName(), t -> t));
 
+        int storedTaskCount = firstTaskIsRootStoredParentTask ? tasks.size() - 1 : tasks.size();
+        boolean anyResumed = tasks.stream()
+            .anyMatch(wt -> resumingTaskMap.containsKey(wt.getFullName()));
+        if (storedTaskCount >= BULK_INSERT_MIN_TASKS && !anyResumed) {
+            return addTasksInBulk(store, attemptId, parentTaskId, tasks, rootUpstreamIds,
+                    firstTaskIsRootStoredParentTask, isInitialTask);
+        }
+
         boolean firstTask = true;
         for (WorkflowTask wt : tasks) {
 
@@ -151,16 +163,7 @@ public class TaskControl
                         resumingTaskMap.get(wt.getFullName()));
             }
             else {
-                Task task = Task.taskBuilder()
-                    .parentId(Optional.of(parentId))
-                    .fullName(wt.getFullName())
-                    .config(TaskConfig.validate(wt.getConfig()))
-                    .taskType(wt.getTaskType())
-                    .state(TaskStateCode.BLOCKED)
-                    .stateFlags(isInitialTask ? TaskStateFlags.empty().withInitialTask() : TaskStateFlags.empty())
-                    .build();
-
-                id = store.addSubtask(attemptId, task);
+                id = store.addSubtask(attemptId, newTask(wt, parentId, isInitialTask));
             }
 
             indexToId.add(id);
@@ -185,6 +188,62 @@ public class TaskControl
         return rootTaskId;
     }
 
+    // Stores tasks using a few statements regardless of the number of tasks
+    // instead of inserting tasks and dependencies one by one.
+    private static long addTasksInBulk(TaskControlStore store,
+            long attemptId, long parentTaskId, WorkflowTaskList tasks, List<Long> rootUpstreamIds,
+            boolean firstTaskIsRootStoredParentTask, boolean isInitialTask)
+    {
+        int firstIndex = firstTaskIsRootStoredParentTask ? 1 : 0;
+        List<Long> ids = store.allocateTaskIds(tasks.size() - firstIndex);
+
+        List<Long> indexToId = new ArrayList<>();
+        if (firstTaskIsRootStoredParentTask) {
+            // tasks.get(0) == parentTask == root task
+            indexToId.add(parentTaskId);
+        }
+        indexToId.addAll(ids);
+
+        List<Task> newTasks = new ArrayList<>();
+        Map<Long, List<Long>> dependencies = new LinkedHashMap<>();
+        for (int i = firstIndex; i < tasks.size(); i++) {
+            WorkflowTask wt = tasks.get(i);
+            long parentId = wt.getParentIndex()
+                .transform(index -> indexToId.get(index))
+                .or(parentTaskId);
+            newTasks.add(newTask(wt, parentId, isInitialTask));
+
+            List<Long> upstreams = new ArrayList<>();
+            for (int index : wt.getUpstreamIndexes()) {
+                upstreams.add(indexToId.get(index));
+            }
+            if (i == 0) {
+                // the root task
+                upstreams.addAll(rootUpstreamIds);
+            }
+            if (!upstreams.isEmpty()) {
+                dependencies.put(indexToId.get(i), upstreams);
+            }
+        }
+
+        store.addSubtasks(attemptId, ids, newTasks);
+        store.addAllDependencies(dependencies);
+
+        return indexToId.get(0);
+    }
+
+    private static Task newTask(WorkflowTask wt, long parentId, boolean isInitialTask)
+    {
+        return Task.taskBuilder()
+            .parentId(Optional.of(parentId))
+            .fullName(wt.getFullName())
+            .config(TaskConfig.validate(wt.getConfig()))
+            .taskType(wt.getTaskType())
+            .state(TaskStateCode.BLOCKED)
+            .stateFlags(isInitialTask ? TaskStateFlags.empty().withInitialTask() : TaskStateFlags.empty())
+            .build();
+    }
+
     private static void addResumingTasks(TaskControlStore store, long attemptId, List<ResumingTask> resumingTasks)
     {
         // store only dynamically-generated tasks
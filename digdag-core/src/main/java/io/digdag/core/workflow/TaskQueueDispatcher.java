@@ -1,6 +1,9 @@
 package io.digdag.core.workflow;
 
+import java.util.List;
+import java.util.Map;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import io.digdag.spi.TaskQueueRequest;
 import io.digdag.spi.TaskConflictException;
 import io.digdag.spi.TaskNotFoundException;
@@ -12,6 +15,25 @@ public interface TaskQueueDispatcher
     void dispatch(int siteId, Optional<String> queueName, TaskQueueRequest request)
         throws ResourceNotFoundException, TaskConflictException;
 
+    // Dispatches requests to the default queue of each site. Key of the map is site id.
+    // Returns unique names of requests that are already queued.
+    default List<String> dispatchAll(Map<Integer, List<TaskQueueRequest>> requests)
+        throws ResourceNotFoundException
+    {
+        ImmutableList.Builder<String> conflicts = ImmutableList.builder();
+        for (Map.Entry<Integer, List<TaskQueueRequest>> pair : requests.entrySet()) {
+            for (TaskQueueRequest request : pair.getValue()) {
+                try {
+                    dispatch(pair.getKey(), Optional.absent(), request);
+                }
+                catch (TaskConflictException ex) {
+                    conflicts.add(request.getUniqueName());
+                }
+            }
+        }
+        return conflicts.build();
+    }
+
     void taskFinished(int siteId, String lockId, AgentId agentId)
         throws TaskConflictException, TaskNotFoundException;
 
@@ -0,0 +1,203 @@
+package io.digdag.core.workflow;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import io.digdag.client.config.Config;
+import io.digdag.core.session.ParameterUpdate;
+import io.digdag.core.session.SessionStoreManager;
+import io.digdag.core.session.TaskRelation;
+import io.digdag.core.session.TaskStateCode;
+import io.digdag.spi.metrics.DigdagMetrics;
+import static io.digdag.spi.metrics.DigdagMetrics.Category;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Cache of TaskTree and params of ancestor tasks keyed by attempt id.
+ *
+ * Building a TaskTree needs all task rows of an attempt. WorkflowExecutor builds
+ * it for each task when it creates a TaskRequest, retries a group or collects
+ * error params, and that is O(tasks^2) for an attempt with many tasks.
+ *
+ * Tasks of an attempt are only added (by addGeneratedSubtasks, addErrorTasksIfAny,
+ * copyInitialTasksForRetry, etc.) and their parent and upstreams never change.
+ * Thus a cached tree is validated by comparing the number of tasks. If tasks
+ * were added, only the tasks with larger ids are loaded and appended to the tree.
+ * Otherwise (a transaction that allocated smaller ids committed later), the whole
+ * tree is reloaded. This works even if the tasks are added by another server.
+ *
+ * Export and store params are written when a task finishes successfully. A task
+ * that is not done yet (e.g. a PLANNED parent) may run again with _retry and
+ * overwrite them. Thus only params of tasks in done states are cached.
+ *
+ * The cache is disabled when executor.task_tree_cache_size is 0 (default).
+ */
+class TaskTreeCache
+{
+    private static class Entry
+    {
+        private List<TaskRelation> relations = ImmutableList.of();
+        private TaskTree tree = null;
+        private long lastTaskId = 0;
+        private final Map<Long, Config> exportParams = new HashMap<>();
+        private final Map<Long, ParameterUpdate> storeParams = new HashMap<>();
+    }
+
+    private final SessionStoreManager sm;
+    private final DigdagMetrics metrics;
+    private final Optional<Cache<Long, Entry>> cache;
+
+    TaskTreeCache(SessionStoreManager sm, DigdagMetrics metrics, int maxAttempts)
+    {
+        this.sm = sm;
+        this.metrics = metrics;
+        if (maxAttempts > 0) {
+            this.cache = Optional.of(CacheBuilder.newBuilder()
+                    .maximumSize(maxAttempts)
+                    .build());
+        }
+        else {
+            this.cache = Optional.absent();
+        }
+    }
+
+    static TaskTreeCache of(Config systemConfig, SessionStoreManager sm, DigdagMetrics metrics)
+    {
+        return new TaskTreeCache(sm, metrics,
+                systemConfig.get("executor.task_tree_cache_size", int.class, 0));
+    }
+
+    TaskTree getTaskTree(long attemptId)
+    {
+        if (!cache.isPresent()) {
+            return new TaskTree(sm.getTaskRelations(attemptId));
+        }
+
+        Entry entry = getEntry(attemptId);
+        synchronized (entry) {
+            if (entry.tree != null) {
+                long count = sm.getTaskCountOfAttempt(attemptId);
+                if (count == entry.relations.size()) {
+                    metrics.increment(Category.EXECUTOR, "taskTreeCacheHit");
+                    return entry.tree;
+                }
+
+                List<TaskRelation> added = sm.getTaskRelations(attemptId, entry.lastTaskId);
+                if (entry.relations.size() + added.size() == count) {
+                    metrics.increment(Category.EXECUTOR, "taskTreeCacheUpdate");
+                    setRelations(entry, ImmutableList.<TaskRelation>builder()
+                            .addAll(entry.relations)
+                            .addAll(added)
+                            .build());
+                    return entry.tree;
+                }
+            }
+
+            metrics.increment(Category.EXECUTOR, "taskTreeCacheMiss");
+            setRelations(entry, sm.getTaskRelations(attemptId));
+            return entry.tree;
+        }
+    }
+
+    private static void setRelations(Entry entry, List<TaskRelation> relations)
+    {
+        entry.relations = relations;
+        entry.tree = new TaskTree(relations);
+        entry.lastTaskId = relations.stream()
+            .mapToLong(TaskRelation::getId)
+            .max()
+            .orElse(0L);
+    }
+
+    // returns a map from task id to export params. idsByAttemptId is a map from attempt id to task ids.
+    Map<Long, Config> getExportParams(Map<Long, ? extends Collection<Long>> idsByAttemptId)
+    {
+        return getParams(idsByAttemptId, entry -> entry.exportParams, sm::getExportParams);
+    }
+
+    // returns a map from task id to store params. idsByAttemptId is a map from attempt id to task ids.
+    Map<Long, ParameterUpdate> getStoreParams(Map<Long, ? extends Collection<Long>> idsByAttemptId)
+    {
+        return getParams(idsByAttemptId, entry -> entry.storeParams, sm::getStoreParams);
+    }
+
+    private <T> Map<Long, T> getParams(Map<Long, ? extends Collection<Long>> idsByAttemptId,
+            Function<Entry, Map<Long, T>> cached, Function<List<Long>, List<T>> loader)
+    {
+        Map<Long, T> result = new HashMap<>();
+        List<Long> missingIds = new ArrayList<>();
+        Map<Long, Long> attemptIdOfMissingIds = new HashMap<>();
+        for (Map.Entry<Long, ? extends Collection<Long>> pair : idsByAttemptId.entrySet()) {
+            if (!cache.isPresent()) {
+                missingIds.addAll(pair.getValue());
+                continue;
+            }
+            Entry entry = getEntry(pair.getKey());
+            synchronized (entry) {
+                Map<Long, T> map = cached.apply(entry);
+                for (long id : pair.getValue()) {
+                    T value = map.get(id);
+                    if (value != null) {
+                        result.put(id, value);
+                    }
+                    else {
+                        missingIds.add(id);
+                        attemptIdOfMissingIds.put(id, pair.getKey());
+                    }
+                }
+            }
+        }
+
+        if (cache.isPresent()) {
+            if (missingIds.isEmpty()) {
+                metrics.increment(Category.EXECUTOR, "taskParamsCacheHit");
+            }
+            else {
+                metrics.increment(Category.EXECUTOR, "taskParamsCacheMiss");
+            }
+        }
+        if (missingIds.isEmpty()) {
+            return result;
+        }
+
+        // states are checked before loading params because params are immutable only after tasks are done
+        Set<Long> doneIds = cache.isPresent()
+            ? ImmutableSet.copyOf(sm.findTasksByStates(missingIds, TaskStateCode.doneStates()))
+            : ImmutableSet.of();
+        List<T> loaded = loader.apply(missingIds);
+        for (int i = 0; i < missingIds.size(); i++) {
+            long id = missingIds.get(i);
+            T value = loaded.get(i);
+            result.put(id, value);
+            Long attemptId = attemptIdOfMissingIds.get(id);
+            if (attemptId != null && doneIds.contains(id)) {
+                Entry entry = getEntry(attemptId);
+                synchronized (entry) {
+                    cached.apply(entry).put(id, value);
+                }
+            }
+        }
+        return result;
+    }
+
+    void invalidate(long attemptId)
+    {
+        if (cache.isPresent()) {
+            cache.get().invalidate(attemptId);
+        }
+    }
+
+    private Entry getEntry(long attemptId)
+    {
+        return cache.get().asMap().computeIfAbsent(attemptId, (id) -> new Entry());
+    }
+}
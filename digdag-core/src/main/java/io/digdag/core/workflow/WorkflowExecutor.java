@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import io.digdag.client.config.Config;
@@ -11,6 +12,7 @@ import io.digdag.client.config.ConfigException;
 import io.digdag.client.config.ConfigFactory;
 import io.digdag.commons.ThrowablesUtil;
 import io.digdag.core.Limits;
+import io.digdag.core.acroute.PartitionedAccountRouting;
 import io.digdag.core.agent.AgentId;
 import io.digdag.core.database.TransactionManager;
 import io.digdag.core.log.LogMarkers;
@@ -33,6 +35,7 @@ import io.digdag.core.session.StoredSessionAttemptWithSession;
 import io.digdag.core.session.StoredTask;
 import io.digdag.core.session.Task;
 import io.digdag.core.session.TaskAttemptSummary;
+import io.digdag.core.session.TaskControlStore;
 import io.digdag.core.session.TaskStateCode;
 import io.digdag.core.session.TaskStateFlags;
 import io.digdag.metrics.DigdagTimed;
@@ -46,6 +49,8 @@ import io.digdag.spi.TaskConflictException;
 import io.digdag.spi.TaskNotFoundException;
 import io.digdag.spi.metrics.DigdagMetrics;
 import static io.digdag.spi.metrics.DigdagMetrics.Category;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
 import io.digdag.util.RetryControl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,14 +58,20 @@ import org.slf4j.LoggerFactory;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -180,9 +191,16 @@ public class WorkflowExecutor
     private final AccountRouting accountRouting;
     private final Lock propagatorLock = new ReentrantLock();
     private final Condition propagatorCondition = propagatorLock.newCondition();
-    private volatile boolean propagatorNotice = false;
+    private final boolean[] propagatorNotices;  // indexed by local partition. guarded by propagatorLock
     private final boolean enqueueRandomFetch;
     private final Integer enqueueFetchSize;
+    private final int enqueueBatchSize;
+    private final int executorThreads;
+    private final int partitionCount;
+    private final int partitionOffset;
+    private final PropagationJournal propagationJournal;
+    private final Map<Tags, AtomicLong> loopBacklogGauges = new ConcurrentHashMap<>();  // keyed by partition tags
+    private final TaskTreeCache taskTreeCache;
 
     @Inject
     public WorkflowExecutor(
@@ -212,6 +230,21 @@ public class WorkflowExecutor
         this.accountRouting = this.acroaccountRoutingFactoryuteFactory.newAccountRouting(AccountRouting.ModuleType.EXECUTOR);
         this.enqueueRandomFetch = systemConfig.get("executor.enqueue_random_fetch", Boolean.class, false);
         this.enqueueFetchSize = systemConfig.get("executor.enqueue_fetch_size", Integer.class, 100);
+        this.enqueueBatchSize = systemConfig.get("executor.enqueue_batch_size", int.class, 0);
+        this.executorThreads = systemConfig.get("executor.threads", int.class, 1);
+        this.partitionCount = systemConfig.get("executor.partitions", int.class, executorThreads);
+        this.partitionOffset = systemConfig.get("executor.partition_offset", int.class, 0);
+        if (executorThreads < 1) {
+            throw new ConfigException("executor.threads must be larger than 0: " + executorThreads);
+        }
+        if (partitionOffset < 0 || partitionOffset + executorThreads > partitionCount) {
+            throw new ConfigException(String.format(ENGLISH,
+                        "executor.partition_offset (%d) + executor.threads (%d) must not be larger than executor.partitions (%d)",
+                        partitionOffset, executorThreads, partitionCount));
+        }
+        this.propagatorNotices = new boolean[executorThreads];
+        this.propagationJournal = PropagationJournal.of(systemConfig, executorThreads);
+        this.taskTreeCache = TaskTreeCache.of(systemConfig, sm, metrics);
     }
 
     public StoredSessionAttemptWithSession submitWorkflow(int siteId,
@@ -345,7 +378,7 @@ public class WorkflowExecutor
             throw new SessionAttemptConflictException("Session already exists", sessionAlreadyExists, conflicted);
         }
 
-        noticeStatusPropagate();
+        noticeStatusPropagate(stored.getId());
 
         return stored;
     }
@@ -434,17 +467,34 @@ public class WorkflowExecutor
         boolean updated = sm.requestCancelAttempt(attempt.getId());
 
         if (updated) {
-            noticeStatusPropagate();
+            noticeStatusPropagate(attempt.getId());
         }
 
         return updated;
     }
 
-    private void noticeStatusPropagate()
+    private void noticeStatusPropagate(long attemptId)
     {
+        // Changes made by the current transaction are not visible to the
+        // loop until commit. Notify after commit so that the loop doesn't
+        // consume the notice without seeing the changes.
+        tm.afterCommit(() -> noticeStatusPropagateNow(attemptId));
+    }
+
+    private void noticeStatusPropagateNow(long attemptId)
+    {
+        int localPartition = localPartitionOf(attemptId);
+        propagationJournal.record(localPartition, attemptId);
         propagatorLock.lock();
         try {
-            propagatorNotice = true;
+            if (localPartition >= 0) {
+                propagatorNotices[localPartition] = true;
+            }
+            else {
+                // attempt of a partition handled by another server. Loops that are
+                // not partitioned (runUntilDone, etc.) still need to notice it.
+                Arrays.fill(propagatorNotices, true);
+            }
             propagatorCondition.signalAll();
         }
         finally {
@@ -452,11 +502,34 @@ public class WorkflowExecutor
         }
     }
 
+    private void recordDirtyAttempt(long attemptId)
+    {
+        tm.afterCommit(() -> propagationJournal.record(localPartitionOf(attemptId), attemptId));
+    }
+
+    /**
+     * Returns index of the executor thread that handles the attempt, or -1
+     * if the attempt belongs to a partition of another server.
+     */
+    private int localPartitionOf(long attemptId)
+    {
+        int local = (int) (attemptId % partitionCount) - partitionOffset;
+        if (local < 0 || local >= executorThreads) {
+            return -1;
+        }
+        return local;
+    }
+
+    public int getExecutorThreads()
+    {
+        return executorThreads;
+    }
+
     public void noticeRunWhileConditionChange()
     {
         propagatorLock.lock();
         try {
-            // don't set propagatorNotice but break wait in runWhile
+            // don't set propagatorNotices but break wait in runWhile
             propagatorCondition.signalAll();
         }
         finally {
@@ -503,12 +576,49 @@ public class WorkflowExecutor
     public void runWhile(BooleanSupplier cond)
             throws InterruptedException
     {
+        runWhile(cond, -1);
+    }
+
+    /**
+     * Runs the loop only for attempts of a partition. WorkflowExecutorLoop
+     * calls this method from executor.threads threads so that each thread
+     * handles attempts where attempt_id % executor.partitions is
+     * executor.partition_offset + localPartition.
+     */
+    public void runPartitionWhile(int localPartition, BooleanSupplier cond)
+            throws InterruptedException
+    {
+        if (localPartition < 0 || localPartition >= executorThreads) {
+            throw new IllegalArgumentException("Invalid local partition: " + localPartition);
+        }
+        runWhile(cond, localPartition);
+    }
+
+    private void runWhile(BooleanSupplier cond, int localPartition)
+            throws InterruptedException
+    {
+        AccountRouting routing;
+        Tags partitionTags;
+        if (localPartition >= 0) {
+            int partitionId = partitionOffset + localPartition;
+            routing = PartitionedAccountRouting.of(accountRouting, partitionId, partitionCount);
+            partitionTags = Tags.of("partition", Integer.toString(partitionId));
+        }
+        else {
+            routing = accountRouting;
+            partitionTags = Tags.empty();
+        }
+        // micrometer keeps only a weak reference to the number. Register it once per partition and keep updating it.
+        AtomicLong loopBacklog = loopBacklogGauges.computeIfAbsent(partitionTags, tags ->
+                metrics.getRegistry(Category.EXECUTOR).gauge(
+                    metrics.mkMetricsName(Category.EXECUTOR, "loopBacklog"), tags, new AtomicLong(0)));
+
         try (TaskQueuer queuer = new TaskQueuer()) {
-            propagateBlockedChildrenToReady();
-            retryRetryWaitingTasks();
-            enqueueReadyTasks(queuer);  // TODO enqueue all (not only first 100)
-            propagateAllPlannedToDone();
-            propagateSessionArchive();
+            propagateBlockedChildrenToReady(routing);
+            retryRetryWaitingTasks(routing);
+            enqueueReadyTasks(queuer, routing);  // TODO enqueue all (not only first 100)
+            propagateAllPlannedToDone(routing);
+            propagateSessionArchive(routing);
 
             final AtomicInteger waitMsec = new AtomicInteger(INITIAL_INTERVAL);
             while (true) {
@@ -516,6 +626,7 @@ public class WorkflowExecutor
                     break;
                 }
                 metrics.increment(Category.EXECUTOR, "loopCount");
+                Timer.Sample loopSample = metrics.timerStart(Category.EXECUTOR);
                 //boolean inced = prop.run();
                 //boolean retried = retryRetryWaitingTasks();
                 //if (inced || retried) {
@@ -523,9 +634,32 @@ public class WorkflowExecutor
                 //    propagatorNotice = true;
                 //}
 
-                propagateBlockedChildrenToReady();
-                retryRetryWaitingTasks();
-                enqueueReadyTasks(queuer);
+                // With executor.incremental_propagation, most loops revisit only
+                // the attempts recorded in propagationJournal. See PropagationJournal.
+                boolean fullScan;
+                List<Long> dirtyAttemptIds;
+                if (localPartition >= 0) {
+                    fullScan = propagationJournal.startFullScanIfNecessary(localPartition);
+                    dirtyAttemptIds = fullScan ? ImmutableList.of() : propagationJournal.drain(localPartition);
+                }
+                else {
+                    fullScan = propagationJournal.startFullScanIfNecessary();
+                    dirtyAttemptIds = fullScan ? ImmutableList.of() : propagationJournal.drain();
+                }
+                if (!fullScan) {
+                    metrics.summary(Category.EXECUTOR, "propagationDirtyAttempts", dirtyAttemptIds.size());
+                }
+
+                boolean hasModification;
+                if (fullScan) {
+                    propagateBlockedChildrenToReady(routing);
+                    hasModification = false;
+                }
+                else {
+                    hasModification = propagateBlockedChildrenToReady(dirtyAttemptIds, routing);
+                }
+                retryRetryWaitingTasks(routing);
+                int readyTasks = enqueueReadyTasks(queuer, routing);
 
                 /**
                  *  propagateSessionArchive() should be always called.
@@ -535,23 +669,31 @@ public class WorkflowExecutor
                  *  If there is only the session, never archived.
                  *  Checked by WorkflowExecutorCatchingTest.testPropagateSessionArchive()
                  */
-                boolean hasModification = propagateAllPlannedToDone();
-                propagateSessionArchive();
+                if (fullScan) {
+                    hasModification |= propagateAllPlannedToDone(routing);
+                    propagateSessionArchive(routing);
+                }
+                else {
+                    hasModification |= propagateAllPlannedToDone(dirtyAttemptIds, routing);
+                    propagateSessionArchive(dirtyAttemptIds, routing);
+                }
+
+                metrics.timerStop(Category.EXECUTOR, metrics.mkMetricsName(Category.EXECUTOR, "loopLatency"), partitionTags, loopSample);
+                loopBacklog.set(dirtyAttemptIds.size() + readyTasks);
+
                 if (hasModification) {
                     //propagateSessionArchive();
                 }
                 else {
                     propagatorLock.lock();
                     try {
-                        if (propagatorNotice) {
-                            propagatorNotice = false;
+                        if (consumePropagatorNotice(localPartition)) {
                             waitMsec.set(INITIAL_INTERVAL);
                         }
                         else {
                             metrics.summary(Category.EXECUTOR, "loopWaitMsec", waitMsec.get());
                             boolean noticed = propagatorCondition.await(waitMsec.get(), TimeUnit.MILLISECONDS);
-                            if (noticed && propagatorNotice) {
-                                propagatorNotice = false;
+                            if (noticed && consumePropagatorNotice(localPartition)) {
                                 waitMsec.set(INITIAL_INTERVAL);
                             }
                             else {
@@ -567,6 +709,24 @@ public class WorkflowExecutor
         }
     }
 
+    // must be called with propagatorLock
+    private boolean consumePropagatorNotice(int localPartition)
+    {
+        if (localPartition >= 0) {
+            boolean noticed = propagatorNotices[localPartition];
+            propagatorNotices[localPartition] = false;
+            return noticed;
+        }
+        else {
+            boolean noticed = false;
+            for (int i = 0; i < propagatorNotices.length; i++) {
+                noticed |= propagatorNotices[i];
+                propagatorNotices[i] = false;
+            }
+            return noticed;
+        }
+    }
+
     /**
      * If catch exception then return defaultValue
      * @param func
@@ -600,6 +760,21 @@ public class WorkflowExecutor
     @VisibleForTesting
     protected Function<Long, Optional<Boolean>> funcPropagateBlockedChildrenToReady()
     {
+        if (propagationJournal.isEnabled()) {
+            // grouping-only children may become PLANNED with BLOCKED children.
+            // Record the attempt so that next loop propagates them without a full scan.
+            return (pId) ->
+                    tm.begin(()-> sm.lockTaskIfNotLocked(
+                            pId,
+                            (store, task) -> {
+                                boolean updated = store.trySetChildrenBlockedToReadyOrShortCircuitPlannedOrCanceled(pId) > 0;
+                                if (updated) {
+                                    recordDirtyAttempt(task.getAttemptId());
+                                }
+                                return updated;
+                            })
+                    );
+        }
         return (pId) ->
                 tm.begin(()-> sm.lockTaskIfNotLocked(
                         pId,
@@ -607,8 +782,13 @@ public class WorkflowExecutor
                 );
     }
 
-    @DigdagTimed(category = "executor", appendMethodName = true)
     public boolean propagateBlockedChildrenToReady()
+    {
+        return propagateBlockedChildrenToReady(accountRouting);
+    }
+
+    @DigdagTimed(category = "executor", appendMethodName = true)
+    protected boolean propagateBlockedChildrenToReady(AccountRouting accountRouting)
     {
         boolean anyChanged = false;
         long lastParentId = 0;
@@ -636,16 +816,51 @@ public class WorkflowExecutor
         return anyChanged;
     }
 
+    @DigdagTimed(category = "executor", appendMethodName = true)
+    protected boolean propagateBlockedChildrenToReady(List<Long> attemptIds, AccountRouting accountRouting)
+    {
+        boolean anyChanged = false;
+        for (long attemptId : attemptIds) {
+            long lastParentId = 0;
+            while (true) {
+                long finalLastParentId = lastParentId;
+                List<Long> parentIds = tm.begin(() -> sm.findDirectParentsOfBlockedTasksOfAttempt(attemptId, finalLastParentId, accountRouting));
+                if (parentIds.isEmpty()) {
+                    break;
+                }
+                anyChanged = parentIds
+                        .stream()
+                        .map(parentId ->
+                                catching(
+                                        ()->funcPropagateBlockedChildrenToReady().apply(parentId),
+                                        Optional.<Boolean>absent(),
+                                        "Failed to set children to ready. paretId:" + parentId
+                                )
+                                .or(false)
+                        )
+                        .reduce(anyChanged, (a, b) -> a || b);
+                lastParentId = parentIds.get(parentIds.size() - 1);
+            }
+        }
+        return anyChanged;
+    }
+
     protected Function<Long, Optional<Boolean>> funcSetDoneFromDoneChildren()
     {
         return (tId) ->
                 tm.begin(() ->
-                        sm.lockTaskIfNotLocked(tId, (store, storedTask) ->
-                                setDoneFromDoneChildren(new TaskControl(store, storedTask, limits))));
+                        sm.lockTaskIfNotLocked(tId, (store, storedTask) -> {
+                            boolean updated = setDoneFromDoneChildren(new TaskControl(store, storedTask, limits));
+                            if (updated) {
+                                // parent task or the attempt may be able to progress
+                                recordDirtyAttempt(storedTask.getAttemptId());
+                            }
+                            return updated;
+                        }));
     }
 
     @DigdagTimed(category = "executor", appendMethodName = true)
-    protected boolean propagateAllPlannedToDone()
+    protected boolean propagateAllPlannedToDone(AccountRouting accountRouting)
     {
         boolean anyChanged = false;
         long lastTaskId = 0;
@@ -671,6 +886,35 @@ public class WorkflowExecutor
         return anyChanged;
     }
 
+    @DigdagTimed(category = "executor", appendMethodName = true)
+    protected boolean propagateAllPlannedToDone(List<Long> attemptIds, AccountRouting accountRouting)
+    {
+        boolean anyChanged = false;
+        for (long attemptId : attemptIds) {
+            long lastTaskId = 0;
+            while (true) {
+                long finalLastTaskId = lastTaskId;
+                List<Long> taskIds = tm.begin(() -> sm.findTasksByStateOfAttempt(TaskStateCode.PLANNED, attemptId, finalLastTaskId, accountRouting));
+                if (taskIds.isEmpty()) {
+                    break;
+                }
+                anyChanged = taskIds
+                        .stream()
+                        .map(taskId ->
+                                catching(
+                                        ()->funcSetDoneFromDoneChildren().apply(taskId),
+                                        Optional.<Boolean>absent(),
+                                        "Failed to call setDoneFromDoneChildren. taskId:" + taskId
+                                )
+                                .or(false)
+                        )
+                        .reduce(anyChanged, (a, b) -> a || b);
+                lastTaskId = taskIds.get(taskIds.size() - 1);
+            }
+        }
+        return anyChanged;
+    }
+
     private boolean setDoneFromDoneChildren(TaskControl lockedTask)
     {
         if (lockedTask.getState() != TaskStateCode.PLANNED) {
@@ -814,7 +1058,7 @@ public class WorkflowExecutor
     {
         List<Long> childrenFromThis;
         {
-            TaskTree tree = new TaskTree(sm.getTaskRelations(task.getAttemptId()));
+            TaskTree tree = taskTreeCache.getTaskTree(task.getAttemptId());
             childrenFromThis = tree.getRecursiveChildrenIdList(task.getId());
         }
 
@@ -849,13 +1093,18 @@ public class WorkflowExecutor
                             else {
                                 SessionAttemptControl control = new SessionAttemptControl(store, t.getAttemptId());
                                 control.archiveTasks(archiveMapper, t.getState() == TaskStateCode.SUCCESS);
+                                taskTreeCache.invalidate(t.getAttemptId());
+                                // require> tasks waiting for this attempt are ready now
+                                for (long waitingAttemptId : control.readyWaitingTasks()) {
+                                    noticeStatusPropagate(waitingAttemptId);
+                                }
                                 return true;
                             }
                         }));
     }
 
     @DigdagTimed(category = "executor", appendMethodName = true)
-    protected boolean propagateSessionArchive()
+    protected boolean propagateSessionArchive(AccountRouting accountRouting)
     {
         boolean anyChanged = false;
         long lastTaskId = 0;
@@ -883,7 +1132,26 @@ public class WorkflowExecutor
     }
 
     @DigdagTimed(category = "executor", appendMethodName = true)
-    protected boolean retryRetryWaitingTasks()
+    protected boolean propagateSessionArchive(List<Long> attemptIds, AccountRouting accountRouting)
+    {
+        boolean anyChanged = false;
+        for (long attemptId : attemptIds) {
+            Optional<TaskAttemptSummary> task =
+                    tm.begin(() -> sm.findRootTaskByStatesOfAttempt(TaskStateCode.doneStates(), attemptId, accountRouting));
+            if (task.isPresent()) {
+                anyChanged = catching(
+                        ()->funcArchiveTasks().apply(task.get()),
+                        Optional.<Boolean>absent(),
+                        "Failed to call archiveTasks. taskId:" + task.get().getId()
+                )
+                .or(false) || anyChanged;
+            }
+        }
+        return anyChanged;
+    }
+
+    @DigdagTimed(category = "executor", appendMethodName = true)
+    protected boolean retryRetryWaitingTasks(AccountRouting accountRouting)
     {
         return tm.begin(() -> sm.trySetRetryWaitingToReady(accountRouting) > 0);
     }
@@ -945,14 +1213,98 @@ public class WorkflowExecutor
     }
 
     @DigdagTimed(category = "executor", appendMethodName = true)
-    protected void enqueueReadyTasks(TaskQueuer queuer)
+    protected int enqueueReadyTasks(TaskQueuer queuer, AccountRouting accountRouting)
     {
+        if (enqueueBatchSize > 0) {
+            Optional<Integer> enqueued = catching(
+                    () -> Optional.of(enqueueAllReadyTasksInBatches(accountRouting)),
+                    Optional.absent(),
+                    "Failed to enqueue ready tasks in batches. Falling back to enqueue tasks one by one");
+            if (enqueued.isPresent()) {
+                return enqueued.get();
+            }
+        }
+
         List<Long> readyTaskIds = tm.begin(() -> sm.findAllReadyTaskIds(enqueueFetchSize, enqueueRandomFetch, accountRouting));
         logger.trace("readyTaskIds:{}", readyTaskIds);
         for (long taskId : readyTaskIds) {  // TODO randomize this result to achieve concurrency
             catching(()->funcEnqueueTask().apply(taskId), true, "Failed to call enqueueTask. taskId:" + taskId);
             //queuer.asyncEnqueueTask(taskId);  // TODO async queuing is probably unnecessary but not sure
         }
+        return readyTaskIds.size();
+    }
+
+    /**
+     * Enqueues all READY tasks. Each batch of executor.enqueue_batch_size tasks is
+     * locked, dispatched and set to RUNNING in one transaction. If a batch fails,
+     * the transaction is rolled back and enqueueReadyTasks falls back to the
+     * per-task path, which handles errors of each task.
+     */
+    private int enqueueAllReadyTasksInBatches(AccountRouting accountRouting)
+    {
+        int total = 0;
+        long lastTaskId = 0;
+        while (true) {
+            long finalLastTaskId = lastTaskId;
+            List<Long> lockedTaskIds = tm.begin(() -> sm.lockReadyTasks(finalLastTaskId, enqueueBatchSize, accountRouting, this::enqueueLockedTasks));
+            if (lockedTaskIds.isEmpty()) {
+                break;
+            }
+            total += lockedTaskIds.size();
+            lastTaskId = lockedTaskIds.get(lockedTaskIds.size() - 1);
+        }
+        return total;
+    }
+
+    // returns ids of the locked tasks
+    private List<Long> enqueueLockedTasks(TaskControlStore store, List<StoredTask> tasks, Map<Long, Integer> siteIds)
+    {
+        Map<Integer, List<TaskQueueRequest>> requests = new HashMap<>();
+        List<Long> dispatchedTaskIds = new ArrayList<>();
+        for (StoredTask task : tasks) {
+            if (task.getTaskType().isGroupingOnly()) {
+                retryGroupingTask(new TaskControl(store, task, limits));
+                continue;
+            }
+
+            Integer siteId = siteIds.get(task.getId());
+            if (siteId == null) {
+                Exception error = new IllegalStateException("Task id=" + task.getId() + " is ready to run but associated session attempt does not exist.");
+                logger.error("Database state error enqueuing task.", error);
+                continue;
+            }
+
+            TaskQueueRequest request = TaskQueueRequest.builder()
+                .priority(0)  // TODO make this configurable
+                .uniqueName(encodeUniqueQueuedTaskName(task))
+                .data(Optional.absent())
+                .build();
+            requests.computeIfAbsent(siteId, (key) -> new ArrayList<>()).add(request);
+            dispatchedTaskIds.add(task.getId());
+            logger.debug("Queuing task of attempt_id={}: id={} {}", task.getAttemptId(), task.getId(), task.getFullName());
+        }
+
+        if (!dispatchedTaskIds.isEmpty()) {
+            List<String> conflicts;
+            try {
+                conflicts = dispatcher.dispatchAll(requests);
+            }
+            catch (ResourceNotFoundException ex) {
+                throw ThrowablesUtil.propagate(ex);
+            }
+            for (String encodedUnique : conflicts) {
+                logger.warn("Task name {} is already queued in queue=<shared>. Skipped enqueuing", encodedUnique);
+            }
+
+            int updated = store.setStartedStates(dispatchedTaskIds, TaskStateCode.READY, TaskStateCode.RUNNING);
+            if (updated != dispatchedTaskIds.size()) {
+                // all tasks are locked and confirmed that current state is READY.
+                logger.warn("Unexpected state change failure from READY to RUNNING: {} of {} tasks are updated",
+                        updated, dispatchedTaskIds.size());
+            }
+        }
+
+        return tasks.stream().map(StoredTask::getId).collect(Collectors.toList());
     }
 
     @DigdagTimed(category="executor", appendMethodName = true)
@@ -1055,12 +1407,34 @@ public class WorkflowExecutor
 
     // called by InProcessTaskServerApi
     public List<TaskRequest> getTaskRequests(List<TaskQueueLock> locks)
+    {
+        Timer.Sample sample = metrics.timerStart(Category.EXECUTOR);
+        try {
+            // Task queue locks are taken in the current transaction. Failures are rolled
+            // back to a savepoint instead of resetting the transaction so that the locks
+            // of the returned tasks are kept and committed.
+            try {
+                return tm.savepoint(() -> getTaskRequestsInBatch(locks));
+            }
+            catch (RuntimeException ex) {
+                logger.warn("Failed to build task requests in a batch. Falling back to build them one by one", ex);
+                metrics.increment(Category.EXECUTOR, "getTaskRequestsBatchErrors");
+            }
+            return getTaskRequestsOneByOne(locks);
+        }
+        finally {
+            metrics.timerStop(Category.EXECUTOR, metrics.mkMetricsName(Category.EXECUTOR, "getTaskRequestsLatency"), Tags.empty(), sample);
+            metrics.summary(Category.EXECUTOR, "getTaskRequestsBatchSize", locks.size());
+        }
+    }
+
+    private List<TaskRequest> getTaskRequestsOneByOne(List<TaskQueueLock> locks)
     {
         ImmutableList.Builder<TaskRequest> builder = ImmutableList.builder();
         for (TaskQueueLock lock : locks) {
             try {
                 long taskId = parseTaskIdFromEncodedQueuedTaskName(lock.getUniqueName());
-                Optional<TaskRequest> request = getTaskRequest(taskId, lock.getLockId());
+                Optional<TaskRequest> request = tm.savepoint(() -> getTaskRequest(taskId, lock.getLockId()));
                 if (request.isPresent()) {
                     builder.add(request.get());
                 }
@@ -1069,7 +1443,7 @@ public class WorkflowExecutor
                 }
             }
             catch (RuntimeException ex) {
-                tm.reset();
+                // The lock of this task is kept until it expires. The task is retried after that.
                 logger.error(
                         LogMarkers.UNEXPECTED_SERVER_ERROR,
                         "Invalid association of task queue lock id: {}", lock, ex);
@@ -1078,6 +1452,126 @@ public class WorkflowExecutor
         return builder.build();
     }
 
+    /**
+     * Builds TaskRequests of all locks with a fixed number of queries per attempt
+     * instead of per task. Tasks are locked together, attempts are loaded in one
+     * query, and TaskTree, revision and project are loaded once per attempt.
+     * Export and store params of ancestors of all tasks are loaded in one query each.
+     */
+    private List<TaskRequest> getTaskRequestsInBatch(List<TaskQueueLock> locks)
+    {
+        Map<Long, TaskQueueLock> locksByTaskId = new LinkedHashMap<>();
+        for (TaskQueueLock lock : locks) {
+            locksByTaskId.put(parseTaskIdFromEncodedQueuedTaskName(lock.getUniqueName()), lock);
+        }
+
+        Map<Long, TaskRequest> requests = sm.lockTasksIfExist(ImmutableList.copyOf(locksByTaskId.keySet()), (store, tasks) -> {
+            Map<Long, TaskRequest> built = new HashMap<>();
+            Set<Long> lockedTaskIds = tasks.stream().map(StoredTask::getId).collect(Collectors.toSet());
+            for (long taskId : locksByTaskId.keySet()) {
+                if (!lockedTaskIds.contains(taskId)) {
+                    Exception error = new IllegalStateException("Task id="+taskId+" is in the task queue but associated task is deleted.");
+                    logger.error("Database state error enqueuing task.", error);
+                }
+            }
+            if (tasks.isEmpty()) {
+                return built;
+            }
+
+            List<Long> attemptIds = tasks.stream().map(StoredTask::getAttemptId).distinct().collect(Collectors.toList());
+            Map<Long, StoredSessionAttemptWithSession> attempts = new HashMap<>();
+            for (StoredSessionAttemptWithSession attempt : sm.getAttemptsWithSessionByIds(attemptIds)) {
+                attempts.put(attempt.getId(), attempt);
+            }
+
+            Map<Long, TaskTree> trees = new HashMap<>();
+            Map<Long, Optional<StoredRevision>> revisions = new HashMap<>();
+            Map<Integer, Optional<StoredProject>> projects = new HashMap<>();
+            Map<Long, List<Long>> parentsFromRoot = new HashMap<>();
+            Map<Long, List<Long>> parentsUpstreamChildrenFromFar = new HashMap<>();
+            Map<Long, Set<Long>> exportIds = new HashMap<>();
+            Map<Long, Set<Long>> storeIds = new HashMap<>();
+            for (StoredTask task : tasks) {
+                StoredSessionAttemptWithSession attempt = attempts.get(task.getAttemptId());
+                if (attempt == null) {
+                    continue;
+                }
+                TaskTree tree = trees.computeIfAbsent(attempt.getId(), (id) -> taskTreeCache.getTaskTree(id));
+                List<Long> fromRoot = tree.getRecursiveParentIdListFromRoot(task.getId());
+                List<Long> fromFar = tree.getRecursiveParentsUpstreamChildrenIdListFromFar(task.getId());
+                parentsFromRoot.put(task.getId(), fromRoot);
+                parentsUpstreamChildrenFromFar.put(task.getId(), fromFar);
+                exportIds.computeIfAbsent(attempt.getId(), (id) -> new LinkedHashSet<>()).addAll(fromRoot);
+                storeIds.computeIfAbsent(attempt.getId(), (id) -> new LinkedHashSet<>()).addAll(fromFar);
+            }
+            Map<Long, Config> exports = taskTreeCache.getExportParams(exportIds);
+            Map<Long, ParameterUpdate> stores = taskTreeCache.getStoreParams(storeIds);
+
+            for (StoredTask task : tasks) {
+                long taskId = task.getId();
+                StoredSessionAttemptWithSession attempt = attempts.get(task.getAttemptId());
+                if (attempt == null) {
+                    Exception error = new IllegalStateException("Task id="+taskId+" is in the task queue but associated session attempt does not exist.");
+                    logger.error("Database state error enqueuing task.", error);
+                    continue;
+                }
+
+                Optional<StoredRevision> rev = Optional.absent();
+                if (attempt.getWorkflowDefinitionId().isPresent()) {
+                    rev = revisions.computeIfAbsent(attempt.getWorkflowDefinitionId().get(), (id) -> {
+                        try {
+                            return Optional.of(rm.getRevisionOfWorkflowDefinition(id));
+                        }
+                        catch (ResourceNotFoundException ex) {
+                            return Optional.absent();
+                        }
+                    });
+                    if (!rev.isPresent()) {
+                        Exception error = new IllegalStateException("Task id="+taskId+" is in the task queue but associated workflow definition does not exist.");
+                        logger.error("Database state error enqueuing task.", error);
+                        continue;
+                    }
+                }
+
+                Optional<StoredProject> project = projects.computeIfAbsent(attempt.getSession().getProjectId(), (id) -> {
+                    try {
+                        return Optional.of(rm.getProjectByIdInternal(id));
+                    }
+                    catch (ResourceNotFoundException ex) {
+                        return Optional.absent();
+                    }
+                });
+                if (!project.isPresent()) {
+                    Exception error = new IllegalStateException("Task id=" + taskId + " is in the task queue but associated project does not exist.");
+                    logger.error("Database state error enqueuing task.", error);
+                    continue;
+                }
+
+                Config params = buildTaskRequestParams(rev, attempt);
+                List<Long> fromRoot = parentsFromRoot.get(taskId);
+                List<Long> fromFar = parentsUpstreamChildrenFromFar.get(taskId);
+                collectParams(params, task,
+                        fromRoot, fromRoot.stream().map(exports::get).collect(Collectors.toList()),
+                        fromFar, fromFar.stream().map(stores::get).collect(Collectors.toList()));
+
+                built.put(taskId, buildTaskRequest(task, attempt, rev, project.get(), params, locksByTaskId.get(taskId).getLockId()));
+            }
+            return built;
+        });
+
+        ImmutableList.Builder<TaskRequest> builder = ImmutableList.builder();
+        for (Map.Entry<Long, TaskQueueLock> pair : locksByTaskId.entrySet()) {
+            TaskRequest request = requests.get(pair.getKey());
+            if (request != null) {
+                builder.add(request);
+            }
+            else {
+                dispatcher.deleteInconsistentTask(pair.getValue().getLockId());
+            }
+        }
+        return builder.build();
+    }
+
     private Optional<TaskRequest> getTaskRequest(long taskId, String lockId)
     {
         return sm.<Optional<TaskRequest>>lockTaskIfExists(taskId, (store, task) -> {
@@ -1116,59 +1610,10 @@ public class WorkflowExecutor
                 return Optional.absent();
             }
 
-            // merge order is:
-            //   revision default < attempt < task < runtime
-            Config params = cf.fromJsonString(systemConfig.get("digdag.defaultParams", String.class, "{}"));
-            if (rev.isPresent()) {
-                params.merge(rev.get().getDefaultParams());
-            }
-            params.merge(attempt.getParams());
+            Config params = buildTaskRequestParams(rev, attempt);
             collectParams(params, task, attempt);
 
-            // remove conditional subtasks that may cause JavaScript evaluation error if they include reference to a nested field such as
-            // this_will_be_set_at_this_task.this_is_null.this_access_causes_error.
-            // _do is another conditional subtsaks but they are kept remained here and removed later in ConfigEvalEngine because
-            // operator factory needs _do while _check and _error are used only by WorkflowExecutor.
-            Config localConfig = task.getConfig().getLocal().deepCopy();
-            params.remove("_check");
-            params.remove("_error");
-            localConfig.remove("_check");
-            localConfig.remove("_error");
-
-            // TODO what should here do if the task is canceled? Add another flag field to TaskRequest
-            //      so that Operator can handle it? Skipping task silently is probably not good idea
-            //      because Operator may want to run cleanup process.
-
-            // create TaskRequest for OperatorManager.
-            // OperatorManager will ignore localConfig because it reloads config from dagfile_path with using the lates params.
-            // TaskRequest.config usually stores params merged with local config. but here passes only params (local config is not merged)
-            // so that OperatorManager can build it using the reloaded local config.
-            TaskRequest request = TaskRequest.builder()
-                .siteId(attempt.getSiteId())
-                .projectId(attempt.getSession().getProjectId())
-                .projectName(project.getName())
-                .workflowName(attempt.getSession().getWorkflowName())
-                .revision(rev.transform(it -> it.getName()))
-                .taskId(task.getId())
-                .attemptId(attempt.getId())
-                .sessionId(attempt.getSessionId())
-                .retryAttemptName(attempt.getRetryAttemptName())
-                .isCancelRequested(task.getStateFlags().isCancelRequested())
-                .taskName(task.getFullName())
-                .lockId(lockId)
-                .timeZone(attempt.getTimeZone())
-                .sessionUuid(attempt.getSessionUuid())
-                .sessionTime(attempt.getSession().getSessionTime())
-                .createdAt(Instant.now())
-                .localConfig(localConfig)
-                .config(params)
-                .lastStateParams(task.getStateParams())
-                .workflowDefinitionId(attempt.getWorkflowDefinitionId())
-                .retryCount(task.getRetryCount())
-                .startedAt(task.getStartedAt())
-                .build();
-
-            return Optional.of(request);
+            return Optional.of(buildTaskRequest(task, attempt, rev, project, params, lockId));
         })
         .or(() -> {
             Exception error = new IllegalStateException("Task id="+taskId+" is in the task queue but associated task is deleted.");
@@ -1177,17 +1622,78 @@ public class WorkflowExecutor
         });
     }
 
+    private Config buildTaskRequestParams(Optional<StoredRevision> rev, StoredSessionAttempt attempt)
+    {
+        // merge order is:
+        //   revision default < attempt < task < runtime
+        Config params = cf.fromJsonString(systemConfig.get("digdag.defaultParams", String.class, "{}"));
+        if (rev.isPresent()) {
+            params.merge(rev.get().getDefaultParams());
+        }
+        params.merge(attempt.getParams());
+        return params;
+    }
+
+    private TaskRequest buildTaskRequest(StoredTask task, StoredSessionAttemptWithSession attempt,
+            Optional<StoredRevision> rev, StoredProject project, Config params, String lockId)
+    {
+        // remove conditional subtasks that may cause JavaScript evaluation error if they include reference to a nested field such as
+        // this_will_be_set_at_this_task.this_is_null.this_access_causes_error.
+        // _do is another conditional subtsaks but they are kept remained here and removed later in ConfigEvalEngine because
+        // operator factory needs _do while _check and _error are used only by WorkflowExecutor.
+        Config localConfig = task.getConfig().getLocal().deepCopy();
+        params.remove("_check");
+        params.remove("_error");
+        localConfig.remove("_check");
+        localConfig.remove("_error");
+
+        // TODO what should here do if the task is canceled? Add another flag field to TaskRequest
+        //      so that Operator can handle it? Skipping task silently is probably not good idea
+        //      because Operator may want to run cleanup process.
+
+        // create TaskRequest for OperatorManager.
+        // OperatorManager will ignore localConfig because it reloads config from dagfile_path with using the lates params.
+        // TaskRequest.config usually stores params merged with local config. but here passes only params (local config is not merged)
+        // so that OperatorManager can build it using the reloaded local config.
+        return TaskRequest.builder()
+            .siteId(attempt.getSiteId())
+            .projectId(attempt.getSession().getProjectId())
+            .projectName(project.getName())
+            .workflowName(attempt.getSession().getWorkflowName())
+            .revision(rev.transform(it -> it.getName()))
+            .taskId(task.getId())
+            .attemptId(attempt.getId())
+            .sessionId(attempt.getSessionId())
+            .retryAttemptName(attempt.getRetryAttemptName())
+            .isCancelRequested(task.getStateFlags().isCancelRequested())
+            .taskName(task.getFullName())
+            .lockId(lockId)
+            .timeZone(attempt.getTimeZone())
+            .sessionUuid(attempt.getSessionUuid())
+            .sessionTime(attempt.getSession().getSessionTime())
+            .createdAt(Instant.now())
+            .localConfig(localConfig)
+            .config(params)
+            .lastStateParams(task.getStateParams())
+            .workflowDefinitionId(attempt.getWorkflowDefinitionId())
+            .retryCount(task.getRetryCount())
+            .startedAt(task.getStartedAt())
+            .build();
+    }
+
     private boolean retryGroupingTask(TaskControl lockedTask)
     {
         // rest task state of subtasks
         StoredTask task = lockedTask.get();
 
-        TaskTree tree = new TaskTree(sm.getTaskRelations(task.getAttemptId()));
+        TaskTree tree = taskTreeCache.getTaskTree(task.getAttemptId());
         List<Long> childrenIdList = tree.getRecursiveChildrenIdList(task.getId());
         lockedTask.copyInitialTasksForRetry(task.getFullName(), childrenIdList);
 
         lockedTask.setGroupRetryReadyToPlanned();
 
+        noticeStatusPropagate(task.getAttemptId());
+
         return true;
     }
 
@@ -1303,7 +1809,7 @@ public class WorkflowExecutor
             updated = lockedTask.setRunningToShortCircuitError(error);
         }
 
-        noticeStatusPropagate();
+        noticeStatusPropagate(lockedTask.get().getAttemptId());
 
         if (!updated) {
             // return value of setRunningToRetryWaiting, setRunningToPlannedSuccessful, or setRunningToShortCircuitError
@@ -1360,7 +1866,7 @@ public class WorkflowExecutor
             updated = lockedTask.setRunningToShortCircuitSuccess(result);
         }
 
-        noticeStatusPropagate();
+        noticeStatusPropagate(lockedTask.get().getAttemptId());
 
         if (!updated) {
             // return value of setRunningToPlannedSuccessful or setRunningToShortCircuitSuccess
@@ -1388,7 +1894,7 @@ public class WorkflowExecutor
 
         boolean updated = lockedTask.setRunningToRetryWaiting(retryStateParams, retryInterval);
 
-        noticeStatusPropagate();
+        noticeStatusPropagate(lockedTask.get().getAttemptId());
 
         if (!updated) {
             // return value of setRunningToRetryWaiting must be true because this task is locked
@@ -1404,15 +1910,24 @@ public class WorkflowExecutor
         List<Long> parentsFromRoot;
         List<Long> parentsUpstreamChildrenFromFar;
         {
-            TaskTree tree = new TaskTree(sm.getTaskRelations(attempt.getId()));
+            TaskTree tree = taskTreeCache.getTaskTree(attempt.getId());
             parentsFromRoot = tree.getRecursiveParentIdListFromRoot(task.getId());
             parentsUpstreamChildrenFromFar = tree.getRecursiveParentsUpstreamChildrenIdListFromFar(task.getId());
         }
 
+        Map<Long, Config> exports = taskTreeCache.getExportParams(ImmutableMap.of(attempt.getId(), parentsFromRoot));
+        Map<Long, ParameterUpdate> stores = taskTreeCache.getStoreParams(ImmutableMap.of(attempt.getId(), parentsUpstreamChildrenFromFar));
+        collectParams(params, task,
+                parentsFromRoot, parentsFromRoot.stream().map(exports::get).collect(Collectors.toList()),
+                parentsUpstreamChildrenFromFar, parentsUpstreamChildrenFromFar.stream().map(stores::get).collect(Collectors.toList()));
+    }
+
+    private static void collectParams(Config params, StoredTask task,
+            List<Long> parentsFromRoot, List<Config> exports,
+            List<Long> parentsUpstreamChildrenFromFar, List<ParameterUpdate> stores)
+    {
         // task merge order is:
         //   export < store < local
-        List<Config> exports = sm.getExportParams(parentsFromRoot);
-        List<ParameterUpdate> stores = sm.getStoreParams(parentsUpstreamChildrenFromFar);
         for (int si=0; si < parentsUpstreamChildrenFromFar.size(); si++) {
             ParameterUpdate stored = stores.get(si);
             long taskId = parentsUpstreamChildrenFromFar.get(si);
@@ -1514,6 +2029,7 @@ public class WorkflowExecutor
 
         logger.trace("Adding {} tasks: {}", type, tasks);
         long rootTaskId = lockedTask.addGeneratedSubtasksWithoutLimit(tasks, ImmutableList.of(), false);
+        recordDirtyAttempt(lockedTask.get().getAttemptId());
         return Optional.of(rootTaskId);
     }
 
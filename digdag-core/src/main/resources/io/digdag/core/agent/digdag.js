@@ -21,6 +21,7 @@ function template(input, variables, extendedSyntax)
 
     var position = 0;
     var source = "__p+='";
+    var m, all, match;
     while (position < input.length) {
       m = input.slice(position).match(matcher);
       if (m) {
@@ -95,7 +96,17 @@ function template(input, variables, extendedSyntax)
   if (typeof variables == "string") {
     variables = JSON.parse(variables);
   }
-  vs = func.call(variables);
+  return func.call(variables);
+}
 
-  return vs;
+function templateWithLocals(input, variables, locals, extendedSyntax)
+{
+  variables = JSON.parse(variables);
+  if (locals != null) {
+    locals = JSON.parse(locals);
+    for (var key in locals) {
+      variables[key] = locals[key];
+    }
+  }
+  return template(input, variables, extendedSyntax);
 }
@@ -0,0 +1,65 @@
+package io.digdag.core.acroute;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import io.digdag.client.config.Config;
+import io.digdag.client.config.ConfigFactory;
+import io.digdag.spi.AccountRouting;
+import io.digdag.spi.AccountRouting.ModuleType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionedAccountRoutingTest
+{
+    private final ConfigFactory configFactory = new ConfigFactory(new ObjectMapper());
+
+    @Test
+    public void filterWithoutBaseRouting()
+    {
+        AccountRouting base = DefaultAccountRoutingFactory.fromConfig(configFactory.create(), Optional.of(ModuleType.EXECUTOR.toString()));
+        AccountRouting ac = PartitionedAccountRouting.of(base, 1, 4);
+        assertTrue("Account routing must be enabled", ac.enabled());
+        assertEquals("mod(a.id, 4) = 1", ac.getFilterSQL());
+    }
+
+    @Test
+    public void filterWithBaseRouting()
+    {
+        Config systemConfig = configFactory.create()
+                .set("executor.account_routing.enabled", "true")
+                .set("executor.account_routing.include", "1,2");
+        AccountRouting base = DefaultAccountRoutingFactory.fromConfig(systemConfig, Optional.of(ModuleType.EXECUTOR.toString()));
+        AccountRouting ac = PartitionedAccountRouting.of(base, 0, 2);
+        assertEquals("(site_id in (1,2)) and mod(a.id, 2) = 0", ac.getFilterSQL());
+    }
+
+    @Test
+    public void singlePartition()
+    {
+        AccountRouting base = DefaultAccountRoutingFactory.fromConfig(configFactory.create(), Optional.of(ModuleType.EXECUTOR.toString()));
+        assertSame(base, PartitionedAccountRouting.of(base, 0, 1));
+        assertFalse(PartitionedAccountRouting.of(base, 0, 1).enabled());
+    }
+
+    @Test
+    public void contains()
+    {
+        AccountRouting base = DefaultAccountRoutingFactory.fromConfig(configFactory.create(), Optional.of(ModuleType.EXECUTOR.toString()));
+        PartitionedAccountRouting ac = new PartitionedAccountRouting(base, 2, 3);
+        assertTrue(ac.contains(5));
+        assertFalse(ac.contains(6));
+    }
+
+    @Test
+    public void invalidPartition()
+    {
+        AccountRouting base = DefaultAccountRoutingFactory.fromConfig(configFactory.create(), Optional.of(ModuleType.EXECUTOR.toString()));
+        assertThrows(IllegalArgumentException.class, () -> new PartitionedAccountRouting(base, 3, 3));
+        assertThrows(IllegalArgumentException.class, () -> new PartitionedAccountRouting(base, 0, 0));
+    }
+}
@@ -0,0 +1,71 @@
+package io.digdag.core.agent;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Optional;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class CompiledTemplateTest
+{
+    private final ObjectNode params = JsonNodeFactory.instance.objectNode();
+    private final ObjectNode local = JsonNodeFactory.instance.objectNode();
+
+    @Test
+    public void compileSimpleLookups()
+    {
+        assertThat(CompiledTemplate.compile("${a}").isPresent(), is(true));
+        assertThat(CompiledTemplate.compile("${ a.b_c.D1 }").isPresent(), is(true));
+        assertThat(CompiledTemplate.compile("x-${a}-y $ z").isPresent(), is(true));
+    }
+
+    @Test
+    public void rejectExpressions()
+    {
+        assertThat(CompiledTemplate.compile("${a + 1}").isPresent(), is(false));
+        assertThat(CompiledTemplate.compile("${a[0]}").isPresent(), is(false));
+        assertThat(CompiledTemplate.compile("${a.b()}").isPresent(), is(false));
+        assertThat(CompiledTemplate.compile("${moment(session_time).format()}").isPresent(), is(false));
+        assertThat(CompiledTemplate.compile("${true}").isPresent(), is(false));
+        assertThat(CompiledTemplate.compile("${secret:a.b}").isPresent(), is(false));
+        assertThat(CompiledTemplate.compile("$${a}").isPresent(), is(false));
+        assertThat(CompiledTemplate.compile("${a").isPresent(), is(false));
+    }
+
+    @Test
+    public void render()
+    {
+        params.put("a", "x");
+        params.put("n", 1);
+        params.putObject("o").put("k", "v");
+        local.put("a", "y");
+
+        assertThat(render("${a}"), is(Optional.of("y")));
+        assertThat(render("${n}-${o.k}"), is(Optional.of("1-v")));
+    }
+
+    @Test
+    public void fallbackToJavaScript()
+    {
+        params.put("a", "x");
+        params.put("f", 1.5);
+        params.put("large", 1L << 60);
+        params.putObject("o");
+        params.putArray("l");
+
+        assertThat(render("${missing}"), is(Optional.absent()));
+        assertThat(render("${o.missing}"), is(Optional.absent()));
+        assertThat(render("${a.length}"), is(Optional.absent()));
+        assertThat(render("${f}"), is(Optional.absent()));
+        assertThat(render("${large}"), is(Optional.absent()));
+        assertThat(render("${o}"), is(Optional.absent()));
+        assertThat(render("${l}"), is(Optional.absent()));
+    }
+
+    private Optional<String> render(String template)
+    {
+        return CompiledTemplate.compile(template).get().render(params, local);
+    }
+}
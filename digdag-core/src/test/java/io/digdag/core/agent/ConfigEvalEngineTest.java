@@ -33,13 +33,15 @@ public class ConfigEvalEngineTest
     {
         if (ConfigEvalEngine.getJavaVersionMajor() >= 11) { // Nashorn is deprecated from Java11
             engines = Arrays.asList(
-                new ConfigEvalEngine(ConfigEvalEngine.JsEngineType.GRAAL, false)
+                new ConfigEvalEngine(ConfigEvalEngine.JsEngineType.GRAAL, false),
+                new ConfigEvalEngine(ConfigEvalEngine.JsEngineType.GRAAL, false, true, true)
             );
         }
         else {
             engines = Arrays.asList(
                 new ConfigEvalEngine(ConfigEvalEngine.JsEngineType.NASHORN, false),
-                new ConfigEvalEngine(ConfigEvalEngine.JsEngineType.GRAAL, false)
+                new ConfigEvalEngine(ConfigEvalEngine.JsEngineType.GRAAL, false),
+                new ConfigEvalEngine(ConfigEvalEngine.JsEngineType.GRAAL, false, true, true)
             );
         }
     }
@@ -201,6 +203,114 @@ public class ConfigEvalEngineTest
         );
     }
 
+    @Test
+    public void testParamsAreNotSharedAcrossValues()
+            throws Exception
+    {
+        for (ConfigEvalEngine engine : engines) {
+            Config evaluated = engine.eval(
+                    newConfig()
+                        .set("k1", "${v1.push(4)}")
+                        .set("k2", "${v1.length}")
+                        .set("k3", "${k1}"),
+                    params().set("v1", Arrays.asList(1, 2, 3)));
+            assertThat(evaluated.get("k1", String.class), is("4"));
+            assertThat(evaluated.get("k2", String.class), is("3"));
+            assertThat(evaluated.get("k3", String.class), is("4"));
+        }
+    }
+
+    @Test
+    public void testGlobalsAreNotSharedAcrossValues()
+            throws Exception
+    {
+        for (ConfigEvalEngine engine : engines) {
+            Config evaluated = engine.eval(
+                    newConfig()
+                        .set("k1", "${x = 1}")
+                        .set("k2", "${typeof x}")
+                        .set("k3", "${typeof all}/${typeof m}/${typeof vs}"),
+                    params());
+            assertThat(evaluated.get("k1", String.class), is("1"));
+            assertThat(evaluated.get("k2", String.class), is("undefined"));
+            assertThat(evaluated.get("k3", String.class), is("undefined/undefined/undefined"));
+        }
+    }
+
+    @Test
+    public void testGlobalsAreNotSharedAcrossTasks()
+            throws Exception
+    {
+        for (ConfigEvalEngine engine : engines) {
+            engine.eval(newConfig().set("key", "${(y = 1, JSON = null, 'done')}"), params());
+            Config evaluated = engine.eval(
+                    newConfig().set("key", "${typeof y}/${JSON.stringify([1])}"),
+                    params());
+            assertThat(evaluated.get("key", String.class), is("undefined/[1]"));
+        }
+    }
+
+    @Test
+    public void testBuiltInsAreNotSharedAcrossTasks()
+            throws Exception
+    {
+        for (ConfigEvalEngine engine : engines) {
+            engine.eval(
+                    newConfig().set("key",
+                        "${(JSON.stringify = function() { return 'changed'; }," +
+                        " String.prototype.changed = 1," +
+                        " Array.prototype.changed = 1," +
+                        " moment.locale('fr'), 'done')}"),
+                    params());
+            Config evaluated = engine.eval(
+                    newConfig()
+                        .set("json", "${JSON.stringify([1])}")
+                        .set("string", "${typeof 'a'.changed}")
+                        .set("array", "${typeof [].changed}")
+                        .set("locale", "${moment.locale()}"),
+                    params());
+            assertThat(evaluated.get("json", String.class), is("[1]"));
+            assertThat(evaluated.get("string", String.class), is("undefined"));
+            assertThat(evaluated.get("array", String.class), is("undefined"));
+            assertThat(evaluated.get("locale", String.class), is("en"));
+        }
+    }
+
+    @Test
+    public void testCompiledTemplateIsSameWithJavaScript()
+            throws Exception
+    {
+        ConfigEvalEngine js = new ConfigEvalEngine(ConfigEvalEngine.JsEngineType.GRAAL, false, false, false);
+        Config params = params()
+            .set("str", "abc")
+            .set("num", 12)
+            .set("float", 1.0)
+            .set("bool", true)
+            .set("empty", null)
+            .set("obj", newConfig().set("k", "v").set("nested", newConfig().set("k", 3)))
+            .set("arr", Arrays.asList(1, 2));
+        params.getInternalObjectNode().putNull("nil");
+        Config config = newConfig()
+            .set("str", "${str}")
+            .set("spaces", "a ${ str } b$c $")
+            .set("num", "${num}")
+            .set("float", "${float}")
+            .set("bool", "${bool}")
+            .set("nil", "${nil}")
+            .set("member", "${obj.k}-${obj.nested.k}")
+            .set("missing_member", "[${obj.missing}]")
+            .set("obj", "${obj}")
+            .set("arr", "${arr}")
+            .set("length", "${str.length}")
+            .set("local", "${str}/${member}")
+            .set("escaped", "$${str}");
+
+        Config expected = js.eval(config, params);
+        for (ConfigEvalEngine engine : engines) {
+            assertThat(engine.eval(config, params), is(expected));
+        }
+    }
+
     @Test
     public void testStackTraceAsString()
     {
@@ -1,6 +1,7 @@
 package io.digdag.core.agent;
 
 import com.google.common.base.Optional;
+import io.digdag.client.config.Config;
 import io.digdag.core.TempFileManager;
 import io.digdag.spi.StorageObject;
 import io.digdag.spi.TaskRequest;
@@ -19,6 +20,7 @@ import java.nio.file.StandardOpenOption;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPOutputStream;
 
+import static io.digdag.client.config.ConfigUtils.newConfig;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.Mockito.mock;
@@ -121,6 +123,78 @@ public class ExtractArchiveWorkspaceManagerTest
         assertEmptyWorkspace();
     }
 
+    @Test
+    public void withExtractedArchiveCache()
+            throws Exception
+    {
+        Config systemConfig = newConfig().set("agent.workspace-cache-size", 1024 * 1024);
+        ExtractArchiveWorkspaceManager cachingManager = new ExtractArchiveWorkspaceManager(new TempFileManager(temporaryFolder.getRoot().toPath()), systemConfig);
+        when(taskRequest.getProjectId()).thenReturn(1);
+        when(taskRequest.getRevision()).thenReturn(Optional.of("r1"));
+
+        WorkspaceManager.ArchiveProvider archiveProvider = mock(WorkspaceManager.ArchiveProvider.class);
+        byte[] archive = archiveWithDigFile();
+        when(archiveProvider.open()).thenAnswer((invocation) -> Optional.of(newStorageObject(archive)));
+
+        // archive is downloaded only once
+        for (int i = 0; i < 3; i++) {
+            boolean extracted = cachingManager.withExtractedArchive(taskRequest, archiveProvider,
+                    (path) -> Files.exists(path.resolve("mydig.dig")));
+            assertThat(extracted, is(true));
+        }
+        verify(archiveProvider, times(1)).open();
+        assertEmptyWorkspace();
+
+        // another revision is downloaded
+        when(taskRequest.getRevision()).thenReturn(Optional.of("r2"));
+        cachingManager.withExtractedArchive(taskRequest, archiveProvider, (path) -> path);
+        verify(archiveProvider, times(2)).open();
+
+        cachingManager.shutdown();
+        assertThat(temporaryFolder.getRoot().toPath().resolve("workspace-cache").toFile().listFiles().length, is(0));
+    }
+
+    @Test
+    public void evictExtractedArchiveCache()
+            throws Exception
+    {
+        // cache is smaller than the archive
+        Config systemConfig = newConfig().set("agent.workspace-cache-size", 1);
+        ExtractArchiveWorkspaceManager cachingManager = new ExtractArchiveWorkspaceManager(new TempFileManager(temporaryFolder.getRoot().toPath()), systemConfig);
+        when(taskRequest.getProjectId()).thenReturn(1);
+        when(taskRequest.getRevision()).thenReturn(Optional.of("r1"));
+
+        WorkspaceManager.ArchiveProvider archiveProvider = mock(WorkspaceManager.ArchiveProvider.class);
+        byte[] archive = archiveWithDigFile();
+        when(archiveProvider.open()).thenAnswer((invocation) -> Optional.of(newStorageObject(archive)));
+
+        cachingManager.withExtractedArchive(taskRequest, archiveProvider, (path) -> path);
+        cachingManager.withExtractedArchive(taskRequest, archiveProvider, (path) -> path);
+        verify(archiveProvider, times(2)).open();
+        assertEmptyWorkspace();
+        assertThat(temporaryFolder.getRoot().toPath().resolve("workspace-cache").toFile().listFiles().length, is(0));
+    }
+
+    private byte[] archiveWithDigFile()
+            throws IOException
+    {
+        File digFile = temporaryFolder.newFile();
+        Files.write(digFile.toPath(), "+task:\n  echo>: hello\n".getBytes());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new GZIPOutputStream(outputStream))) {
+            tar.putArchiveEntry(tar.createArchiveEntry(digFile, "mydig.dig"));
+            Files.copy(digFile.toPath(), tar);
+            tar.closeArchiveEntry();
+        }
+        return outputStream.toByteArray();
+    }
+
+    private static StorageObject newStorageObject(byte[] data)
+    {
+        return new StorageObject(new ByteArrayInputStream(data), data.length);
+    }
+
     private void assertEmptyWorkspace()
     {
         assertThat(temporaryFolder.getRoot().toPath().resolve("workspace").toFile().listFiles().length, is(0));
@@ -11,6 +11,7 @@ import io.digdag.core.Limits;
 import io.digdag.core.workflow.OperatorTestingUtils;
 import io.digdag.spi.ImmutableTaskRequest;
 import io.digdag.spi.Operator;
+import io.digdag.spi.OperatorContext;
 import io.digdag.spi.OperatorFactory;
 import io.digdag.spi.SecretStoreManager;
 import io.digdag.spi.TaskExecutionException;
@@ -19,6 +20,7 @@ import io.digdag.spi.TaskResult;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
@@ -30,6 +32,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -38,6 +41,7 @@ import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.intThat;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.atMost;
 import static org.mockito.Mockito.doAnswer;
@@ -45,6 +49,7 @@ import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -191,6 +196,85 @@ public class OperatorManagerTest
         verify(callback, times(0)).retryTask(any(), any(), anyInt(), any(), any());
     }
 
+    @Test
+    public void testLocalPolling()
+    {
+        OperatorManager om = newLocalPollingOperatorManager();
+        TaskRequest taskRequest = OperatorTestingUtils.newTaskRequest(simpleConfig);
+
+        TaskResult result = mock(TaskResult.class);
+        Operator op = mock(Operator.class);
+        OperatorFactory of = mock(OperatorFactory.class);
+        doReturn(of).when(registry).get(any(), any());
+        doReturn(op).when(of).newOperator(any());
+        doThrow(TaskExecutionException.ofNextPolling(0, ConfigElement.copyOf(cf.create().set("n", 1))))
+            .doReturn(result)
+            .when(op).run();
+
+        om.run(taskRequest);
+
+        // the task runs again in this agent without going through the retry cycle
+        verify(callback, timeout(10000)).taskSucceeded(any(), any(), eq(result));
+        verify(callback, times(0)).retryTask(any(), any(), anyInt(), any(), any());
+
+        ArgumentCaptor<OperatorContext> contexts = ArgumentCaptor.forClass(OperatorContext.class);
+        verify(of, times(2)).newOperator(contexts.capture());
+        TaskRequest polled = contexts.getAllValues().get(1).getTaskRequest();
+        assertEquals(taskRequest.getLockId(), polled.getLockId());
+        assertEquals(1, polled.getRetryCount());
+        assertEquals(cf.create().set("n", 1), polled.getLastStateParams());
+        om.shutdown();
+    }
+
+    @Test
+    public void testLocalPollingIsRetriedOnShutdown()
+    {
+        OperatorManager om = newLocalPollingOperatorManager();
+        TaskRequest taskRequest = OperatorTestingUtils.newTaskRequest(simpleConfig);
+
+        Operator op = mock(Operator.class);
+        OperatorFactory of = mock(OperatorFactory.class);
+        doReturn(of).when(registry).get(any(), any());
+        doReturn(op).when(of).newOperator(any());
+        Config stateParams = cf.create().set("n", 1);
+        doThrow(TaskExecutionException.ofNextPolling(30, ConfigElement.copyOf(stateParams))).when(op).run();
+
+        om.run(taskRequest);
+        verify(callback, times(0)).retryTask(any(), any(), anyInt(), any(), any());
+
+        // a task waiting for next polling goes through the retry cycle
+        om.shutdown();
+        verify(callback, times(1)).retryTask(any(), any(), intThat(lessThanOrEqualTo(30)), eq(stateParams), eq(Optional.absent()));
+        verify(op, times(1)).run();
+    }
+
+    @Test
+    public void testLocalPollingWithLongInterval()
+    {
+        OperatorManager om = newLocalPollingOperatorManager();
+        TaskRequest taskRequest = OperatorTestingUtils.newTaskRequest(simpleConfig);
+
+        Operator op = mock(Operator.class);
+        OperatorFactory of = mock(OperatorFactory.class);
+        doReturn(of).when(registry).get(any(), any());
+        doReturn(op).when(of).newOperator(any());
+        doThrow(TaskExecutionException.ofNextPolling(120, ConfigElement.empty())).when(op).run();
+
+        om.run(taskRequest);
+        verify(callback, times(1)).retryTask(eq(taskRequest), any(), eq(120), any(), any());
+        om.shutdown();
+    }
+
+    private OperatorManager newLocalPollingOperatorManager()
+    {
+        AgentConfig config = AgentConfig.defaultBuilder()
+            .localPollingMaxInterval(60)
+            .build();
+        return new OperatorManager(
+                config, agentId, callback, new LocalWorkspaceManager(), cf,
+                new ConfigEvalEngine(ConfigUtils.newConfig()), registry, secretStoreManager, limits);
+    }
+
     @Test
     public void testCheckTaskLogPrintable()
     {
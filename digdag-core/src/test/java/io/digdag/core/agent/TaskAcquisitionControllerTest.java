@@ -0,0 +1,97 @@
+package io.digdag.core.agent;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TaskAcquisitionControllerTest
+{
+    private static class TestController
+            extends TaskAcquisitionController
+    {
+        boolean overloaded = false;
+
+        TestController(boolean adaptive, int maxBatch, int maxPrefetch, int lockRetentionSeconds)
+        {
+            super(adaptive, maxBatch, maxPrefetch, lockRetentionSeconds);
+        }
+
+        @Override
+        boolean isOverloaded()
+        {
+            return overloaded;
+        }
+    }
+
+    @Test
+    public void acquireAtMost10IfDisabled()
+    {
+        TestController c = new TestController(false, 100, 10, 300);
+        assertThat(c.getAcquireCount(50), is(10));
+        assertThat(c.getAcquireCount(3), is(3));
+        assertThat(c.getAcquireCount(0), is(0));
+        assertThat(c.getAcquireCount(-1), is(0));
+    }
+
+    @Test
+    public void fillIdleThreadsAtOnce()
+    {
+        TestController c = new TestController(true, 100, 0, 300);
+        assertThat(c.getAcquireCount(64), is(64));
+        assertThat(c.getAcquireCount(500), is(100));
+        assertThat(c.getAcquireCount(0), is(0));
+    }
+
+    @Test
+    public void shrinkBatchWhenQueueIsDrained()
+    {
+        TestController c = new TestController(true, 100, 0, 300);
+
+        c.acquired(64, 3);
+        assertThat(c.getAcquireCount(64), is(10));
+
+        c.acquired(10, 10);
+        assertThat(c.getAcquireCount(64), is(64));
+
+        c.acquired(64, 30);
+        assertThat(c.getAcquireCount(64), is(31));
+    }
+
+    @Test
+    public void acquireOneIfOverloaded()
+    {
+        TestController c = new TestController(true, 100, 0, 300);
+        c.overloaded = true;
+        assertThat(c.getAcquireCount(64), is(1));
+        assertThat(c.getAcquireCount(0), is(0));
+    }
+
+    @Test
+    public void prefetchOnlyShortTasks()
+    {
+        TestController c = new TestController(true, 100, 8, 300);
+        assertThat(c.getPrefetchCount(), is(0));
+        assertThat(c.getAcquireCount(0), is(0));
+
+        c.taskFinished(500);
+        assertThat(c.getPrefetchCount(), is(8));
+        assertThat(c.getAcquireCount(0), is(8));
+        assertThat(c.getAcquireCount(4), is(12));
+
+        // average duration becomes 0.8 * 500 + 0.2 * 60000 = 12400ms
+        c.taskFinished(60000);
+        assertThat(c.getPrefetchCount(), is(0));
+        assertThat(c.getAcquireCount(4), is(4));
+    }
+
+    @Test
+    public void doNotOverflowWithUnlimitedThreads()
+    {
+        TestController c = new TestController(true, 100, 8, 300);
+        c.taskFinished(500);
+        assertThat(c.getPrefetchCount(), is(8));
+        assertThat(c.getAcquireCount(Integer.MAX_VALUE), is(100));
+        assertThat(c.getAcquireCount(Integer.MAX_VALUE - 1), is(100));
+    }
+}
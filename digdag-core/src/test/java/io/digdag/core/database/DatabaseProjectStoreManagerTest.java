@@ -34,6 +34,7 @@ import static io.digdag.core.database.DatabaseTestingUtils.assertConflict;
 import static io.digdag.core.database.DatabaseTestingUtils.assertEmpty;
 import static io.digdag.core.database.DatabaseTestingUtils.assertNotConflict;
 import static io.digdag.core.database.DatabaseTestingUtils.assertNotFound;
+import static io.digdag.core.database.DatabaseTestingUtils.createConfigMapper;
 import static io.digdag.core.database.DatabaseTestingUtils.createRevision;
 import static io.digdag.core.database.DatabaseTestingUtils.createWorkflow;
 import static io.digdag.core.database.DatabaseTestingUtils.setupDatabase;
@@ -465,6 +466,50 @@ public class DatabaseProjectStoreManagerTest
         });
     }
 
+    @Test
+    public void testMetadataCache()
+        throws Exception
+    {
+        DatabaseProjectStoreManager cached = new DatabaseProjectStoreManager(
+                factory.get(), createConfigMapper(),
+                ImmutableDatabaseConfig.copyOf(factory.getConfig()).withMetadataCacheSize(100));
+        ProjectStore cachedStore = cached.getProjectStore(0);
+
+        factory.begin(() -> {
+            WorkflowDefinition srcWf1 = createWorkflow("wf1");
+            AtomicReference<StoredWorkflowDefinition> wfRef = new AtomicReference<>();
+
+            StoredRevision rev = cachedStore.putAndLockProject(
+                    Project.of("proj1"),
+                    (store, stored) -> {
+                        ProjectControl lock = new ProjectControl(store, stored);
+                        StoredRevision storedRev = lock.insertRevision(createRevision("rev1"));
+                        wfRef.set(lock.insertWorkflowDefinitions(storedRev, ImmutableList.of(srcWf1), sm, Instant.now()).get(0));
+                        return storedRev;
+                    });
+            long wfId = wfRef.get().getId();
+
+            // cached objects are returned
+            StoredProject proj = cached.getProjectByIdInternal(rev.getProjectId());
+            assertTrue(proj == cached.getProjectByIdInternal(rev.getProjectId()));
+            StoredWorkflowDefinitionWithProject details = cached.getWorkflowDetailsById(wfId);
+            assertTrue(details == cached.getWorkflowDetailsById(wfId));
+            StoredRevision revOfWf = cached.getRevisionOfWorkflowDefinition(wfId);
+            assertTrue(revOfWf == cached.getRevisionOfWorkflowDefinition(wfId));
+            assertEquals(rev, revOfWf);
+
+            // not found is not cached
+            assertNotFound(() -> cached.getWorkflowDetailsById(wfId + 10));
+
+            ProjectControl.deleteProject(cachedStore, rev.getProjectId(), (control, p) -> p);
+
+            // deleting a project invalidates caches including the project
+            assertTrue(cached.getProjectByIdInternal(rev.getProjectId()).getDeletedAt().isPresent());
+            assertTrue(cached.getWorkflowDetailsById(wfId).getProject().getDeletedAt().isPresent());
+            assertTrue(revOfWf == cached.getRevisionOfWorkflowDefinition(wfId));
+        });
+    }
+
     @Test
     public void testGetProjects()
             throws Exception
@@ -1,7 +1,13 @@
 package io.digdag.core.database;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 import io.digdag.client.config.Config;
 import io.digdag.core.acroute.DefaultAccountRoutingFactory;
 import io.digdag.spi.AccountRouting;
@@ -10,17 +16,30 @@ import io.digdag.spi.TaskQueueRequest;
 import io.digdag.spi.TaskQueueLock;
 import io.digdag.spi.TaskConflictException;
 import io.digdag.spi.TaskNotFoundException;
+import io.digdag.spi.metrics.DigdagMetrics;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.Before;
 import org.junit.After;
 import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentCaptor;
+import org.skife.jdbi.v2.Handle;
 
 import static io.digdag.client.config.ConfigUtils.newConfig;
 import static io.digdag.core.database.DatabaseTestingUtils.createConfigMapper;
+import static io.digdag.spi.metrics.DigdagMetrics.Category;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assume.assumeThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static io.digdag.client.DigdagClient.objectMapper;
 import static io.digdag.core.database.DatabaseTestingUtils.createConfigFactory;
 import static io.digdag.core.database.DatabaseTestingUtils.setupDatabase;
@@ -110,6 +129,122 @@ public class DatabaseQueueTest
         assertThat(poll4, is(Arrays.asList(withLockId(req3, poll4.get(0).getLockId()))));
     }
 
+    @Test
+    public void enqueueDefaultQueueTasks()
+        throws Exception
+    {
+        TaskQueueRequest req1 = generateRequest("1");
+        TaskQueueRequest req2 = generateRequest("2");
+        TaskQueueRequest req3 = generateRequest("3");
+
+        taskQueue.enqueueDefaultQueueTask(siteId, req1);
+
+        // req1 is already queued
+        List<String> conflicts = taskQueue.enqueueDefaultQueueTasks(ImmutableMap.of(siteId, Arrays.asList(req1, req2, req3)));
+        assertThat(conflicts, is(Arrays.asList("1")));
+
+        List<TaskQueueLock> poll = taskQueue.lockSharedAgentTasks(3, "agent1", 300, 10, accountRoutingDisabled);
+        assertThat(poll.size(), is(3));
+        assertThat(poll.get(0).getUniqueName(), is("1"));
+        assertThat(poll.get(1).getUniqueName(), is("2"));
+        assertThat(poll.get(2).getUniqueName(), is("3"));
+    }
+
+    @Test
+    public void notifyWakesUpWaitingServer()
+        throws Exception
+    {
+        // LISTEN/NOTIFY is available only on PostgreSQL
+        assumeThat(factory.getConfig().getType(), is("postgresql"));
+
+        Config systemConfig = createConfigFactory()
+            .create()
+            .set("queue.db.notify", true);
+        DatabaseTaskQueueServer server1 = new DatabaseTaskQueueServer(
+                factory.getConfig(), factory.get(), createConfigMapper(),
+                new DatabaseTaskQueueConfig(systemConfig), objectMapper());
+        DatabaseTaskQueueServer server2 = new DatabaseTaskQueueServer(
+                factory.getConfig(), factory.get(), createConfigMapper(),
+                new DatabaseTaskQueueConfig(systemConfig), objectMapper());
+        server1.start();
+        server2.start();
+        try {
+            Thread.sleep(1000);  // wait for LISTEN
+
+            Thread enqueuer = new Thread(() -> {
+                try {
+                    Thread.sleep(500);
+                    server1.enqueueDefaultQueueTask(siteId, generateRequest("1"));
+                }
+                catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            });
+            enqueuer.start();
+
+            // server2 sleeps until server1 enqueues a task
+            long start = System.currentTimeMillis();
+            server2.lockSharedAgentTasks(1, "agent1", 300, 10000, accountRoutingDisabled);
+            long elapsed = System.currentTimeMillis() - start;
+            enqueuer.join();
+
+            assertThat(elapsed < 5000, is(true));
+        }
+        finally {
+            server1.shutdown();
+            server2.shutdown();
+        }
+    }
+
+    @Test
+    public void enqueueToLockMillisIsComputedByDatabase()
+        throws Exception
+    {
+        assertEnqueueToLockMillis(taskQueue);
+    }
+
+    @Test
+    public void enqueueToLockMillisIsComputedByDatabaseWithFairShareLock()
+        throws Exception
+    {
+        Config systemConfig = createConfigFactory()
+            .create()
+            .set("queue.db.fair_share_lock", true);
+        DatabaseTaskQueueServer fairShareQueue = new DatabaseTaskQueueServer(
+                factory.getConfig(), factory.get(), createConfigMapper(),
+                new DatabaseTaskQueueConfig(systemConfig), objectMapper());
+        assertEnqueueToLockMillis(fairShareQueue);
+    }
+
+    private void assertEnqueueToLockMillis(DatabaseTaskQueueServer queue)
+        throws Exception
+    {
+        DigdagMetrics metrics = mock(DigdagMetrics.class);
+        queue.setMetrics(metrics);
+
+        queue.enqueueDefaultQueueTask(siteId, generateRequest("1"));
+        queue.enqueueDefaultQueueTask(siteId, generateRequest("2"));
+
+        // task 1 was enqueued 10 minutes ago. task 2 was retried.
+        Handle handle = factory.get().getHandle(createConfigMapper());
+        if (factory.getConfig().getType().equals("postgresql")) {
+            handle.execute("update queued_tasks set created_at = created_at - interval '600 seconds' where unique_name = '1'");
+        }
+        else {
+            handle.execute("update queued_tasks set created_at = dateadd('SECOND', -600, created_at) where unique_name = '1'");
+        }
+        handle.execute("update queued_task_locks set retry_count = 1 where id = (select id from queued_tasks where unique_name = '2')");
+
+        List<TaskQueueLock> locks = queue.lockSharedAgentTasks(2, "agent1", 300, 10, accountRoutingDisabled);
+        assertThat(locks.size(), is(2));
+
+        // retried task is not recorded
+        ArgumentCaptor<Double> millis = ArgumentCaptor.forClass(Double.class);
+        verify(metrics, times(1)).summary(eq(Category.DB), eq("enqueueToLockMillis"), millis.capture());
+        assertThat(millis.getValue(), greaterThanOrEqualTo(600000.0));
+        assertThat(millis.getValue(), lessThan(660000.0));
+    }
+
     @Test
     public void batchPollOrder()
         throws Exception
@@ -139,6 +274,171 @@ public class DatabaseQueueTest
         assertThat(poll2.get(1).getUniqueName(), is("4"));
     }
 
+    @Test
+    public void fairShareLockAcrossSites()
+        throws Exception
+    {
+        Config systemConfig = createConfigFactory()
+            .create()
+            .set("queue.db.max_concurrency", 2)
+            .set("queue.db.fair_share_lock", true);
+        DatabaseTaskQueueServer fairQueue = new DatabaseTaskQueueServer(
+                factory.getConfig(), factory.get(), createConfigMapper(),
+                new DatabaseTaskQueueConfig(systemConfig), objectMapper());
+
+        fairQueue.enqueueDefaultQueueTask(1, generateRequest("a1"));
+        fairQueue.enqueueDefaultQueueTask(1, generateRequest("a2"));
+        fairQueue.enqueueDefaultQueueTask(1, generateRequest("a3"));
+        fairQueue.enqueueDefaultQueueTask(2, generateRequest("b1"));
+        fairQueue.enqueueDefaultQueueTask(3, generateRequest("c1"));
+
+        // every site gets its first task before site 1 gets the second one
+        List<TaskQueueLock> poll1 = fairQueue.lockSharedAgentTasks(3, "agent1", 300, 10, accountRoutingDisabled);
+        assertThat(poll1.size(), is(3));
+        assertThat(poll1.get(0).getUniqueName(), is("a1"));
+        assertThat(poll1.get(1).getUniqueName(), is("b1"));
+        assertThat(poll1.get(2).getUniqueName(), is("c1"));
+
+        // max concurrency of site 1 is 2. a3 is not acquired.
+        List<TaskQueueLock> poll2 = fairQueue.lockSharedAgentTasks(3, "agent1", 300, 10, accountRoutingDisabled);
+        assertThat(poll2.size(), is(1));
+        assertThat(poll2.get(0).getUniqueName(), is("a2"));
+
+        fairQueue.deleteTask(1, poll1.get(0).getLockId(), "agent1");
+
+        List<TaskQueueLock> poll3 = fairQueue.lockSharedAgentTasks(3, "agent1", 300, 10, accountRoutingDisabled);
+        assertThat(poll3.size(), is(1));
+        assertThat(poll3, is(Arrays.asList(withLockId(generateRequest("a3"), poll3.get(0).getLockId()))));
+    }
+
+    @Test
+    public void fairShareLockAppliesSiteMaxConcurrencyOfEachSite()
+        throws Exception
+    {
+        Config systemConfig = createConfigFactory()
+            .create()
+            .set("queue.db.max_concurrency", 2)
+            .set("queue.db.fair_share_lock", true);
+        DatabaseTaskQueueConfig queueConfig = new DatabaseTaskQueueConfig(systemConfig)
+        {
+            @Override
+            public int getSiteMaxConcurrency(int siteId)
+            {
+                return siteId == 1 ? 1 : super.getSiteMaxConcurrency(siteId);
+            }
+        };
+        DatabaseTaskQueueServer fairQueue = new DatabaseTaskQueueServer(
+                factory.getConfig(), factory.get(), createConfigMapper(),
+                queueConfig, objectMapper());
+
+        fairQueue.enqueueDefaultQueueTask(1, generateRequest("a1"));
+        fairQueue.enqueueDefaultQueueTask(1, generateRequest("a2"));
+        fairQueue.enqueueDefaultQueueTask(2, generateRequest("b1"));
+        fairQueue.enqueueDefaultQueueTask(2, generateRequest("b2"));
+        fairQueue.enqueueDefaultQueueTask(2, generateRequest("b3"));
+
+        // max concurrency of site 1 is 1 and site 2 is 2
+        List<TaskQueueLock> poll = fairQueue.lockSharedAgentTasks(10, "agent1", 300, 10, accountRoutingDisabled);
+        assertThat(poll.stream().map(TaskQueueLock::getUniqueName).sorted().collect(Collectors.toList()),
+                is(Arrays.asList("a1", "b1", "b2")));
+    }
+
+    @Test
+    public void fairShareLockKeepsSiteMaxConcurrencyAcrossServers()
+        throws Exception
+    {
+        // concurrent locking by multiple servers happens only on PostgreSQL
+        assumeThat(factory.getConfig().getType(), is("postgresql"));
+
+        Config systemConfig = createConfigFactory()
+            .create()
+            .set("queue.db.max_concurrency", 3)
+            .set("queue.db.fair_share_lock", true);
+        List<DatabaseTaskQueueServer> servers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            servers.add(new DatabaseTaskQueueServer(
+                    factory.getConfig(), factory.get(), createConfigMapper(),
+                    new DatabaseTaskQueueConfig(systemConfig), objectMapper()));
+        }
+
+        for (int i = 0; i < 20; i++) {
+            servers.get(0).enqueueDefaultQueueTask(1, generateRequest("a" + i));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(servers.size());
+        try {
+            List<Future<List<TaskQueueLock>>> futures = new ArrayList<>();
+            for (int round = 0; round < 5; round++) {
+                for (DatabaseTaskQueueServer server : servers) {
+                    futures.add(executor.submit(() ->
+                                factory.begin(() -> server.lockSharedAgentTasks(2, "agent1", 300, 10, accountRoutingDisabled))));
+                }
+            }
+            int locked = 0;
+            for (Future<List<TaskQueueLock>> future : futures) {
+                locked += future.get().size();
+            }
+            assertThat(locked, is(3));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void fairShareLockLetsServersLockTasksInParallel()
+        throws Exception
+    {
+        // concurrent locking by multiple servers happens only on PostgreSQL
+        assumeThat(factory.getConfig().getType(), is("postgresql"));
+
+        Config systemConfig = createConfigFactory()
+            .create()
+            .set("queue.db.max_concurrency", 3)
+            .set("queue.db.fair_share_lock", true);
+        DatabaseTaskQueueServer server1 = new DatabaseTaskQueueServer(
+                factory.getConfig(), factory.get(), createConfigMapper(),
+                new DatabaseTaskQueueConfig(systemConfig), objectMapper());
+        DatabaseTaskQueueServer server2 = new DatabaseTaskQueueServer(
+                factory.getConfig(), factory.get(), createConfigMapper(),
+                new DatabaseTaskQueueConfig(systemConfig), objectMapper());
+
+        for (int i = 0; i < 3; i++) {
+            server1.enqueueDefaultQueueTask(1, generateRequest("a" + i));
+            server1.enqueueDefaultQueueTask(2, generateRequest("b" + i));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch locked1 = new CountDownLatch(1);
+        CountDownLatch commit1 = new CountDownLatch(1);
+        try {
+            // agent1 keeps its transaction open as an agent does until it commits
+            // the locked tasks. agent2 locks tasks of the other site meanwhile.
+            Future<List<TaskQueueLock>> future1 = executor.submit(() ->
+                    factory.begin(() -> {
+                        List<TaskQueueLock> locks = server1.lockSharedAgentTasks(1, "agent1", 300, 10, accountRoutingDisabled);
+                        locked1.countDown();
+                        commit1.await();
+                        return locks;
+                    }));
+            locked1.await();
+            List<TaskQueueLock> locks2 = executor.submit(() ->
+                    factory.begin(() -> server2.lockSharedAgentTasks(1, "agent2", 300, 10, accountRoutingDisabled)))
+                .get();
+            commit1.countDown();
+            List<TaskQueueLock> locks1 = future1.get();
+
+            assertThat(locks1.size(), is(1));
+            assertThat(locks2.size(), is(1));
+            // tasks of different sites
+            assertThat(locks1.get(0).getUniqueName().charAt(0), not(locks2.get(0).getUniqueName().charAt(0)));
+        }
+        finally {
+            commit1.countDown();
+            executor.shutdownNow();
+        }
+    }
+
     @Test
     public void enqueueRejectedIfDuplicatedTaskId()
         throws Exception
@@ -228,6 +528,24 @@ public class DatabaseQueueTest
         assertThat(poll2.get(0).getUniqueName(), is("2"));
     }
 
+    @Test
+    public void heartbeatReturnsNotFoundLocksInBatch()
+        throws Exception
+    {
+        taskQueue.enqueueDefaultQueueTask(siteId, generateRequest("1"));
+        taskQueue.enqueueDefaultQueueTask(siteId, generateRequest("2"));
+
+        List<TaskQueueLock> poll1 = taskQueue.lockSharedAgentTasks(2, "agent1", 300, 10, accountRoutingDisabled);
+        assertThat(poll1.size(), is(2));
+
+        taskQueue.deleteTask(siteId, poll1.get(0).getLockId(), "agent1");
+
+        // req1 is deleted and lock s999999 doesn't exist
+        List<String> failedLockIdList = taskQueue.taskHeartbeat(siteId,
+                Arrays.asList(poll1.get(0).getLockId(), poll1.get(1).getLockId(), "s999999"), "agent1", 3);
+        assertThat(failedLockIdList, is(Arrays.asList(poll1.get(0).getLockId(), "s999999")));
+    }
+
     @Test
     public void heartbeatRejectedIfAgentIdMismatch()
         throws Exception
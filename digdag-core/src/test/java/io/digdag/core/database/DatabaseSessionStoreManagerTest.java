@@ -20,6 +20,7 @@ import io.digdag.spi.TaskReport;
 import io.digdag.client.config.Config;
 import org.skife.jdbi.v2.Handle;
 
+import static io.digdag.client.DigdagClient.objectMapper;
 import static io.digdag.core.database.DatabaseTestingUtils.*;
 import static io.digdag.client.config.ConfigUtils.newConfig;
 import static org.hamcrest.Matchers.containsInAnyOrder;
@@ -335,6 +336,8 @@ public class DatabaseSessionStoreManagerTest
             assertThat(attempt2, is(manager.getAttemptWithSessionById(attempt2.getId())));
             assertThat(attempt3, is(manager.getAttemptWithSessionById(attempt3.getId())));
             assertNotFound(() -> manager.getAttemptWithSessionById(attempt3.getId() + 10));
+            assertThat(manager.getAttemptsWithSessionByIds(ImmutableList.of(attempt1.getId(), attempt3.getId(), attempt3.getId() + 10)),
+                    containsInAnyOrder(attempt1, attempt3));
 
             ////
             // public sessions listings
@@ -553,6 +556,27 @@ public class DatabaseSessionStoreManagerTest
                     ));
     }
 
+    @Test
+    public void testLockTasksIfExist()
+        throws Exception
+    {
+        exec.propagateBlockedChildrenToReady(); // Move state of tasks to ready.
+        factory.begin(() -> {
+            List<Long> ids = Ordering.natural().sortedCopy(manager.findAllReadyTaskIds(100, false, this.accountRoutingDisabled));
+            assertThat(ids.size(), greaterThan(0));
+
+            long missingId = ids.get(ids.size() - 1) + 1000;
+            List<Long> lockedIds = manager.lockTasksIfExist(
+                    ImmutableList.<Long>builder().add(missingId).addAll(Lists.reverse(ids)).build(),
+                    (store, tasks) -> tasks.stream().map(task -> task.getId()).collect(Collectors.toList()));
+            assertThat(lockedIds, is(ids));
+
+            List<Long> empty = manager.lockTasksIfExist(ImmutableList.of(missingId),
+                    (store, tasks) -> tasks.stream().map(task -> task.getId()).collect(Collectors.toList()));
+            assertThat(empty, is(ImmutableList.of()));
+        });
+    }
+
     @Test
     public void testAccountRouting_findAllReadyTaskIds()
         throws Exception
@@ -647,4 +671,165 @@ public class DatabaseSessionStoreManagerTest
             handle.rollback(); // Rollback for next test.
         });
     }
+
+    @Test
+    public void setAttemptWaitersToReady()
+            throws Exception
+    {
+        DatabaseSessionStoreManager dssm = (DatabaseSessionStoreManager) manager;
+        factory.begin(() -> {
+            Handle handle = factory.get().getHandle(dssm.configMapper);
+
+            AttemptRequest ar = attemptBuilder.buildFromStoredWorkflow(
+                    rev,
+                    wf1,
+                    newConfig(),
+                    ScheduleTime.runNow(Instant.ofEpochSecond(Instant.now().getEpochSecond())));
+            StoredSessionAttemptWithSession required = exec.submitWorkflow(0, ar, wf1);
+
+            // a task of otherProjAttempt1 waits for the required attempt
+            long waitingTaskId = handle.createQuery("select id from tasks where attempt_id = :attemptId and task_type = 0 order by id limit 1")
+                .bind("attemptId", otherProjAttempt1.getId())
+                .mapTo(Long.class)
+                .first();
+            assertThat(store.addAttemptWaiter(required.getId(), waitingTaskId), is(true));
+            assertThat(store.addAttemptWaiter(required.getId(), waitingTaskId), is(true));
+            assertNotFound(() -> manager.getSessionStore(1).addAttemptWaiter(required.getId(), waitingTaskId));
+            dssm.createTaskControlStore(handle).setRetryWaitingState(waitingTaskId, TaskStateCode.BLOCKED, TaskStateCode.RETRY_WAITING, 3600, createConfig(), Optional.absent());
+
+            List<Long> readyAttemptIds = manager.lockAttemptIfExists(required.getId(), (store, summary) -> {
+                store.setDoneToAttemptState(required.getId(), true);
+                return store.setWaitersToReady(required.getId());
+            }).get();
+            assertThat(readyAttemptIds, is(ImmutableList.of(otherProjAttempt1.getId())));
+            assertThat(manager.findTasksByStates(ImmutableList.of(waitingTaskId), new TaskStateCode[] {TaskStateCode.READY}),
+                    is(ImmutableList.of(waitingTaskId)));
+
+            // waiters are woken up only once
+            assertThat(manager.lockAttemptIfExists(required.getId(), (store, summary) -> store.setWaitersToReady(required.getId())).get(),
+                    is(ImmutableList.of()));
+
+            // the attempt is already done
+            assertThat(store.addAttemptWaiter(required.getId(), waitingTaskId), is(false));
+        });
+    }
+
+    @Test
+    public void addSubtasksInBulk()
+            throws Exception
+    {
+        DatabaseSessionStoreManager dssm = (DatabaseSessionStoreManager) manager;
+        factory.begin(() -> {
+            Handle handle = factory.get().getHandle(dssm.configMapper);
+            TaskControlStore control = dssm.createTaskControlStore(handle);
+            long attemptId = otherProjAttempt1.getId();
+            long rootId = manager.getTaskRelations(attemptId).get(0).getId();
+
+            // more than rows of a statement
+            int count = 2500;
+            List<Long> ids = control.allocateTaskIds(count);
+            assertThat(ids.size(), is(count));
+            assertThat(Ordering.natural().isStrictlyOrdered(ids), is(true));
+            assertThat(ids.get(0), greaterThan(rootId));
+
+            List<Task> tasks = new ArrayList<>();
+            Map<Long, List<Long>> dependencies = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                // task i is a child of the root task if i is even. Otherwise, a child of task i - 1.
+                long parentId = (i % 2 == 0) ? rootId : ids.get(i - 1);
+                tasks.add(Task.taskBuilder()
+                        .parentId(Optional.of(parentId))
+                        .fullName("+bulk+t" + i)
+                        .config(TaskConfig.validate(newConfig().set("echo>", i)))
+                        .taskType(TaskType.of(0))
+                        .state(TaskStateCode.BLOCKED)
+                        .stateFlags(TaskStateFlags.empty())
+                        .build());
+                if (i >= 2 && i % 2 == 0) {
+                    dependencies.put(ids.get(i), ImmutableList.of(ids.get(i - 2)));
+                }
+            }
+            control.addSubtasks(attemptId, ids, tasks);
+            control.addAllDependencies(dependencies);
+
+            Map<Long, TaskRelation> relations = manager.getTaskRelations(attemptId).stream()
+                .collect(Collectors.toMap(TaskRelation::getId, r -> r));
+            for (int i = 0; i < count; i++) {
+                TaskRelation relation = relations.get(ids.get(i));
+                assertThat(relation.getParentId(), is(tasks.get(i).getParentId()));
+                assertThat(relation.getUpstreams(), is(dependencies.getOrDefault(ids.get(i), ImmutableList.of())));
+            }
+            assertThat(manager.getTaskCountOfAttempt(attemptId), is((long) relations.size()));
+
+            ArchivedTask last = store.getTasksOfAttempt(attemptId).stream()
+                .filter(t -> t.getId() == ids.get(count - 1))
+                .findFirst().get();
+            assertThat(last.getFullName(), is("+bulk+t" + (count - 1)));
+            assertThat(last.getConfig().getLocal(), is(newConfig().set("echo>", count - 1)));
+
+            // a task added later gets a larger id
+            long nextId = control.addSubtask(attemptId, tasks.get(0));
+            assertThat(nextId, greaterThan(ids.get(count - 1)));
+        });
+    }
+
+    @Test
+    public void pageCompressedTaskArchive()
+            throws Exception
+    {
+        DatabaseSessionStoreManager compressed = new DatabaseSessionStoreManager(
+                createConfigFactory(), factory.get(), createConfigMapper(), objectMapper(),
+                ImmutableDatabaseConfig.copyOf(factory.getConfig()).withCompressTaskArchive(true));
+        SessionStore compressedStore = compressed.getSessionStore(0);
+        long attemptId = otherProjAttempt1.getId();
+
+        factory.begin(() -> {
+            Handle handle = factory.get().getHandle(compressed.configMapper);
+            TaskControlStore control = compressed.createTaskControlStore(handle);
+            long rootId = manager.getTaskRelations(attemptId).get(0).getId();
+
+            // more than 2 blocks
+            int count = 250;
+            List<Task> tasks = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                tasks.add(Task.taskBuilder()
+                        .parentId(Optional.of(rootId))
+                        .fullName("+archive+t" + i)
+                        .config(TaskConfig.validate(newConfig().set("echo>", i)))
+                        .taskType(TaskType.of(0))
+                        .state(TaskStateCode.SUCCESS)
+                        .stateFlags(TaskStateFlags.empty())
+                        .build());
+            }
+            control.addSubtasks(attemptId, control.allocateTaskIds(count), tasks);
+        });
+
+        factory.begin(() -> {
+            List<ArchivedTask> all = store.getTasksOfAttempt(attemptId);
+            int total = all.size();
+            assertThat(total, greaterThan(250));
+            assertThat(store.getTasksOfAttempt(attemptId, 30, Optional.of(all.get(69).getId())), is(all.subList(70, 100)));
+
+            compressed.lockAttemptIfExists(attemptId, (control, summary) -> {
+                assertThat(control.aggregateAndInsertTaskArchive(attemptId), is(total));
+                control.deleteAllTasksOfAttempt(attemptId);
+                return summary;
+            });
+
+            // archives written by a manager with compressTaskArchive can be read by any manager.
+            // updatedAt of archived tasks is truncated to seconds.
+            List<ArchivedTask> archived = store.getTasksOfAttempt(attemptId);
+            assertThat(archived.stream().map(ArchivedTask::getFullName).collect(Collectors.toList()),
+                    is(all.stream().map(ArchivedTask::getFullName).collect(Collectors.toList())));
+            assertThat(archived.get(total - 1).getConfig(), is(all.get(total - 1).getConfig()));
+            assertThat(compressedStore.getTasksOfAttempt(attemptId), is(archived));
+            assertThat(store.getTasksOfAttempt(attemptId, 1000, Optional.absent()), is(archived));
+            assertThat(store.getTasksOfAttempt(attemptId, 50, Optional.absent()), is(archived.subList(0, 50)));
+            // across blocks
+            assertThat(store.getTasksOfAttempt(attemptId, 100, Optional.of(all.get(149).getId())), is(archived.subList(150, 250)));
+            assertThat(store.getTasksOfAttempt(attemptId, 100, Optional.of(all.get(199).getId())), is(archived.subList(200, total)));
+            assertThat(store.getTasksOfAttempt(attemptId, 100, Optional.of(all.get(total - 1).getId())), is(ImmutableList.of()));
+            assertThat(manager.getSessionStore(1).getTasksOfAttempt(attemptId, 100, Optional.absent()), is(ImmutableList.of()));
+        });
+    }
 }
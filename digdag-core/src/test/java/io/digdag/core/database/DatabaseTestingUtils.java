@@ -53,6 +53,9 @@ public class DatabaseTestingUtils
                 .options(ImmutableMap.of())
                 .expireLockInterval(10)
                 .autoMigrate(true)
+                .compressTaskArchive(false)
+                .metadataCacheSize(0)
+                .metadataCacheTtl(60)
                 .connectionTimeout(30)
                 .idleTimeout(600)
                 .keepaliveTime(0)
@@ -95,6 +98,7 @@ public class DatabaseTestingUtils
         "sessions",
         "session_attempts",
         "task_archives",
+        "task_archive_blocks",
         "session_monitors",
         "task_dependencies",
         "queue_settings",
@@ -1,20 +1,29 @@
 package io.digdag.core.database;
 
+import com.google.common.base.Optional;
 import io.digdag.core.repository.Project;
 import io.digdag.core.repository.ResourceConflictException;
 import io.digdag.core.repository.ResourceNotFoundException;
 import io.digdag.core.repository.StoredProject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import javax.sql.DataSource;
+import org.h2.jdbcx.JdbcDataSource;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static io.digdag.core.database.DatabaseTestingUtils.createConfigMapper;
 import static org.junit.Assert.fail;
 
 public class ThreadLocalTransactionManagerTest
@@ -104,4 +113,118 @@ public class ThreadLocalTransactionManagerTest
             assertThat(ex, is(nullValue()));
         }
     }
+
+    @Test
+    public void readOnlyTransactionUsesReplica()
+            throws Exception
+    {
+        DataSource primary = createDatabase("primary");
+        DataSource replica = createDatabase("replica");
+        ConfigMapper cfm = createConfigMapper();
+
+        boolean[] lagging = new boolean[] { false };
+        ReadReplica readReplica = new ReadReplica(replica, 10, 0)
+        {
+            @Override
+            boolean checkLag()
+            {
+                return !lagging[0];
+            }
+        };
+        TransactionManager tm = new ThreadLocalTransactionManager(primary, Optional.of(readReplica), false);
+
+        // uses the primary database until lag is checked
+        assertThat(tm.beginReadOnly(() -> readName(tm.getHandle(cfm))), is("primary"));
+
+        readReplica.refreshLag();
+        assertThat(tm.begin(() -> readName(tm.getHandle(cfm))), is("primary"));
+        assertThat(tm.beginReadOnly(() -> readName(tm.getHandle(cfm))), is("replica"));
+
+        // falls back to the primary database while the replica is lagging
+        lagging[0] = true;
+        readReplica.refreshLag();
+        assertThat(tm.beginReadOnly(() -> readName(tm.getHandle(cfm))), is("primary"));
+
+        lagging[0] = false;
+        readReplica.refreshLag();
+        assertThat(tm.beginReadOnly(() -> readName(tm.getHandle(cfm))), is("replica"));
+    }
+
+    @Test
+    public void readOnlyTransactionUsesPrimaryIfLagCheckFails()
+            throws Exception
+    {
+        DataSource primary = createDatabase("primary");
+        DataSource replica = createDatabase("replica");
+        ConfigMapper cfm = createConfigMapper();
+
+        // H2 doesn't have functions to get replication lag
+        TransactionManager tm = new ThreadLocalTransactionManager(primary, Optional.of(new ReadReplica(replica, 10, 60)), false);
+        assertThat(tm.beginReadOnly(() -> readName(tm.getHandle(cfm))), is("primary"));
+    }
+
+    @Test
+    public void savepointRollsBackOnlyChangesOfFailedFunction()
+            throws Exception
+    {
+        DataSource ds = createDatabase("savepoint");
+        ConfigMapper cfm = createConfigMapper();
+        TransactionManager tm = new ThreadLocalTransactionManager(ds, Optional.absent(), false);
+
+        List<String> committed = new ArrayList<>();
+        tm.begin(() -> {
+            tm.getHandle(cfm).execute("insert into names (name) values (?)", "a");
+            tm.afterCommit(() -> committed.add("a"));
+            try {
+                tm.savepoint(() -> {
+                    tm.getHandle(cfm).execute("insert into names (name) values (?)", "b");
+                    tm.afterCommit(() -> committed.add("b"));
+                    throw new IllegalStateException("failed");
+                });
+                fail();
+            }
+            catch (IllegalStateException ex) {
+                assertThat(ex.getMessage(), is("failed"));
+            }
+            // the transaction is still usable
+            tm.savepoint(() -> tm.getHandle(cfm).execute("insert into names (name) values (?)", "c"));
+            return null;
+        });
+
+        try (Handle handle = new DBI(ds).open()) {
+            List<String> names = handle.createQuery("select name from names order by name")
+                .mapTo(String.class)
+                .list();
+            assertThat(names, is(Arrays.asList("a", "c", "savepoint")));
+        }
+        assertThat(committed, is(Arrays.asList("a")));
+    }
+
+    @Test
+    public void savepointIsNotAllowedOutsideOfTransaction()
+            throws Exception
+    {
+        exception.expectMessage(containsString("Not in transaction"));
+        exception.expect(IllegalStateException.class);
+        factory.get().savepoint(() -> null);
+    }
+
+    private static DataSource createDatabase(String name)
+            throws Exception
+    {
+        JdbcDataSource ds = new JdbcDataSource();
+        ds.setUrl("jdbc:h2:mem:" + name + "-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        try (Handle handle = new DBI(ds).open()) {
+            handle.execute("create table names (name varchar(32))");
+            handle.execute("insert into names (name) values (?)", name);
+        }
+        return ds;
+    }
+
+    private static String readName(Handle handle)
+    {
+        return handle.createQuery("select name from names")
+            .mapTo(String.class)
+            .first();
+    }
 }
@@ -7,6 +7,7 @@ import io.digdag.core.agent.AgentId;
 import io.digdag.core.config.PropertyUtils;
 import io.digdag.spi.LogFilePrefix;
 import io.digdag.spi.StorageFileNotFoundException;
+import io.digdag.spi.StorageObject;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -15,12 +16,15 @@ import static org.hamcrest.Matchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.time.ZoneId;
 import com.google.common.base.Optional;
+import com.google.common.io.ByteStreams;
 import java.util.Properties;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -154,6 +158,21 @@ public class LocalFileLogServerFactoryTest
         assertThat(new String(data, UTF_8), is("foo"));
     }
 
+    @Test
+    public void testOpenFile() throws IOException, StorageFileNotFoundException
+    {
+        setUpTaskLogger(Optional.absent());
+        byte[] gzData = "foobar".getBytes(UTF_8);
+        String fileName = localServer.putFile(prefix, "+task", Instant.now(), "agent",
+                gzData.length, () -> new ByteArrayInputStream(gzData));
+        StorageObject obj = localServer.openFile(prefix, fileName);
+        assertThat(obj.getContentLength(), is(6L));
+        try (InputStream in = obj.getContentInputStream()) {
+            assertThat(new String(ByteStreams.toByteArray(in), UTF_8), is("foobar"));
+        }
+        assertThrows(StorageFileNotFoundException.class, () -> localServer.openFile(prefix, "foo"));
+    }
+
     @Test
     public void testGetFileNotFound()
     {
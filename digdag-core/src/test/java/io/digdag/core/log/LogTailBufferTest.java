@@ -0,0 +1,141 @@
+package io.digdag.core.log;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import com.google.common.base.Optional;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+public class LogTailBufferTest
+{
+    @Test
+    public void disabledByDefault()
+    {
+        LogTailBuffer buffer = new LogTailBuffer(0, 60);
+        TaskLogger logger = new NullTaskLogger();
+        assertThat(buffer.isEnabled(), is(false));
+        assertThat(buffer.wrap(1L, "+wf+a", logger) == logger, is(true));
+    }
+
+    @Test
+    public void readLogsAfterId()
+        throws Exception
+    {
+        LogTailBuffer buffer = new LogTailBuffer(1024, 60);
+        long head = buffer.getLastId();
+
+        TaskLogger a = buffer.wrap(1L, "+wf+a", new NullTaskLogger());
+        TaskLogger b = buffer.wrap(1L, "+wf+b", new NullTaskLogger());
+        a.log(LogLevel.INFO, 0, "a1\n");
+        b.log(LogLevel.INFO, 0, "b1\n");
+        a.log("a2\n".getBytes(UTF_8), 0, 3);
+
+        LogTailBuffer.Chunks all = buffer.read(1L, head, Optional.absent(), 0);
+        assertThat(data(all), contains("a1\n", "b1\n", "a2\n"));
+        assertThat(all.isTruncated(), is(false));
+        assertThat(all.isIdle(), is(false));
+
+        LogTailBuffer.Chunks onlyA = buffer.read(1L, head, Optional.of("+wf+a"), 0);
+        assertThat(data(onlyA), contains("a1\n", "a2\n"));
+
+        LogTailBuffer.Chunks next = buffer.read(1L, all.getLastId(), Optional.absent(), 0);
+        assertThat(next.getChunks(), is(empty()));
+
+        // other attempts are not affected
+        assertThat(buffer.read(2L, head, Optional.absent(), 0).getChunks(), is(empty()));
+
+        a.close();
+        b.close();
+        assertThat(buffer.read(1L, all.getLastId(), Optional.absent(), 1000).isIdle(), is(true));
+    }
+
+    @Test
+    public void offsetsOfEachTaskLogger()
+        throws Exception
+    {
+        LogTailBuffer buffer = new LogTailBuffer(1024, 60);
+        long head = buffer.getLastId();
+
+        TaskLogger a = buffer.wrap(1L, "+wf+a", new NullTaskLogger());
+        TaskLogger b = buffer.wrap(1L, "+wf+b", new NullTaskLogger());
+        a.log(LogLevel.INFO, 0, "a1\n");
+        b.log(LogLevel.INFO, 0, "b1\n");
+        a.log("a2\n".getBytes(UTF_8), 0, 3);
+        a.close();
+
+        // a retried task starts from offset 0 again
+        TaskLogger retry = buffer.wrap(1L, "+wf+a", new NullTaskLogger());
+        retry.log(LogLevel.INFO, 0, "a3\n");
+
+        LogTailBuffer.Chunks chunks = buffer.read(1L, head, Optional.absent(), 0);
+        assertThat(chunks.getChunks().stream().map(LogTailBuffer.Chunk::getOffset).collect(Collectors.toList()),
+                contains(0L, 0L, 3L, 0L));
+        b.close();
+        retry.close();
+    }
+
+    @Test
+    public void limitConcurrentStreams()
+    {
+        LogTailBuffer buffer = new LogTailBuffer(1024, 60, 2);
+        assertThat(buffer.tryAcquireStream(), is(true));
+        assertThat(buffer.tryAcquireStream(), is(true));
+        assertThat(buffer.tryAcquireStream(), is(false));
+        buffer.releaseStream();
+        assertThat(buffer.tryAcquireStream(), is(true));
+    }
+
+    @Test
+    public void dropOldLogs()
+        throws Exception
+    {
+        LogTailBuffer buffer = new LogTailBuffer(8, 60);
+        long head = buffer.getLastId();
+
+        TaskLogger logger = buffer.wrap(1L, "+wf+a", new NullTaskLogger());
+        logger.log(LogLevel.INFO, 0, "1234\n");
+        logger.log(LogLevel.INFO, 0, "5678\n");
+
+        LogTailBuffer.Chunks chunks = buffer.read(1L, head, Optional.absent(), 0);
+        assertThat(data(chunks), contains("5678\n"));
+        assertThat(chunks.isTruncated(), is(true));
+        logger.close();
+    }
+
+    @Test
+    public void waitForNewLogs()
+        throws Exception
+    {
+        LogTailBuffer buffer = new LogTailBuffer(1024, 60);
+        long head = buffer.getLastId();
+        TaskLogger logger = buffer.wrap(1L, "+wf+a", new NullTaskLogger());
+
+        Thread writer = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            }
+            catch (InterruptedException ex) {
+                throw new RuntimeException(ex);
+            }
+            logger.log(LogLevel.INFO, 0, "hello\n");
+        });
+        writer.start();
+
+        LogTailBuffer.Chunks chunks = buffer.read(1L, head, Optional.absent(), 10000);
+        assertThat(data(chunks), contains("hello\n"));
+        writer.join();
+        logger.close();
+    }
+
+    private static List<String> data(LogTailBuffer.Chunks chunks)
+    {
+        return chunks.getChunks().stream()
+            .map(chunk -> new String(chunk.getData(), UTF_8))
+            .collect(Collectors.toList());
+    }
+}
@@ -251,4 +251,21 @@ public class ScheduleExecutorTest
         // Executor is not started.
         assertFalse(scheduleExecutor.isStarted());
     }
+
+    @Test
+    public void testBatchSize()
+            throws Exception
+    {
+        when(scheduleConfig.getBatchSize()).thenReturn(10);
+        workflowConfig.getNestedOrSetEmpty("schedule")
+                .set("daily>", "12:00:00");
+
+        when(sessionStore.getActiveAttemptsOfWorkflow(eq(PROJECT_ID), eq(WORKFLOW_NAME), anyInt(), any(Optional.class)))
+                .thenReturn(ImmutableList.of());
+
+        scheduleExecutor.runScheduleOnce(now);
+
+        // Verify that up to 10 schedules are locked at once
+        verify(scheduleStoreManager).lockReadySchedules(any(Instant.class), eq(10), any(AccountRouting.class), any(ScheduleStoreManager.ScheduleAction.class));
+    }
 }
@@ -0,0 +1,141 @@
+package io.digdag.core.workflow;
+
+import java.util.List;
+import java.util.Map;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.digdag.client.config.Config;
+import io.digdag.client.config.ConfigFactory;
+import io.digdag.core.session.SessionStoreManager;
+import io.digdag.core.session.TaskRelation;
+import io.digdag.core.session.TaskStateCode;
+import io.digdag.spi.metrics.DigdagMetrics;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static io.digdag.core.database.DatabaseTestingUtils.createConfigFactory;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TaskTreeCacheTest
+{
+    private static final ConfigFactory CONFIG_FACTORY = createConfigFactory();
+
+    @Mock SessionStoreManager sm;
+    @Mock DigdagMetrics metrics;
+
+    @Before
+    public void setUp()
+    {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @Test
+    public void disabledCacheLoadsTreeEveryTime()
+    {
+        TaskTreeCache cache = new TaskTreeCache(sm, metrics, 0);
+        when(sm.getTaskRelations(1L)).thenReturn(ImmutableList.of(root(1), relation(1, 2)));
+
+        assertThat(cache.getTaskTree(1L).getRecursiveChildrenIdList(1L), is(list(2)));
+        assertThat(cache.getTaskTree(1L).getRecursiveChildrenIdList(1L), is(list(2)));
+
+        verify(sm, times(2)).getTaskRelations(1L);
+        verify(sm, never()).getTaskCountOfAttempt(1L);
+    }
+
+    @Test
+    public void reuseTreeIfNoTasksAreAdded()
+    {
+        TaskTreeCache cache = new TaskTreeCache(sm, metrics, 10);
+        when(sm.getTaskRelations(1L)).thenReturn(ImmutableList.of(root(1), relation(1, 2)));
+        when(sm.getTaskCountOfAttempt(1L)).thenReturn(2L);
+
+        assertThat(cache.getTaskTree(1L).getRecursiveChildrenIdList(1L), is(list(2)));
+        assertThat(cache.getTaskTree(1L).getRecursiveChildrenIdList(1L), is(list(2)));
+
+        verify(sm, times(1)).getTaskRelations(1L);
+        verify(metrics).increment(DigdagMetrics.Category.EXECUTOR, "taskTreeCacheMiss");
+        verify(metrics).increment(DigdagMetrics.Category.EXECUTOR, "taskTreeCacheHit");
+    }
+
+    @Test
+    public void appendAddedTasks()
+    {
+        TaskTreeCache cache = new TaskTreeCache(sm, metrics, 10);
+        when(sm.getTaskRelations(1L)).thenReturn(ImmutableList.of(root(1), relation(1, 2)));
+        assertThat(cache.getTaskTree(1L).getRecursiveChildrenIdList(1L), is(list(2)));
+
+        // subtasks 3 and 4 are generated
+        when(sm.getTaskCountOfAttempt(1L)).thenReturn(4L);
+        when(sm.getTaskRelations(1L, 2L)).thenReturn(ImmutableList.of(relation(2, 3), relation(2, 4, 3)));
+        assertThat(cache.getTaskTree(1L).getRecursiveChildrenIdList(1L), is(list(2, 3, 4)));
+
+        verify(sm, times(1)).getTaskRelations(1L);
+        verify(metrics).increment(DigdagMetrics.Category.EXECUTOR, "taskTreeCacheUpdate");
+    }
+
+    @Test
+    public void reloadTreeIfTasksWithSmallerIdsAreAdded()
+    {
+        TaskTreeCache cache = new TaskTreeCache(sm, metrics, 10);
+        when(sm.getTaskRelations(1L)).thenReturn(ImmutableList.of(root(1), relation(1, 3)));
+        assertThat(cache.getTaskTree(1L).getRecursiveChildrenIdList(1L), is(list(3)));
+
+        // task 2 is committed after task 3
+        when(sm.getTaskCountOfAttempt(1L)).thenReturn(3L);
+        when(sm.getTaskRelations(1L, 3L)).thenReturn(ImmutableList.of());
+        when(sm.getTaskRelations(1L)).thenReturn(ImmutableList.of(root(1), relation(1, 2), relation(1, 3)));
+        assertThat(cache.getTaskTree(1L).getRecursiveChildrenIdList(1L), is(list(2, 3)));
+
+        verify(sm, times(2)).getTaskRelations(1L);
+    }
+
+    @Test
+    public void cacheParamsOfDoneTasksOnly()
+    {
+        TaskTreeCache cache = new TaskTreeCache(sm, metrics, 10);
+        Config done = CONFIG_FACTORY.create().set("k", "done");
+        Config planned = CONFIG_FACTORY.create().set("k", "planned");
+        when(sm.findTasksByStates(any(), any())).thenReturn(ImmutableList.of(2L));
+        when(sm.getExportParams(list(1, 2))).thenReturn(ImmutableList.of(planned, done));
+        when(sm.getExportParams(list(1))).thenReturn(ImmutableList.of(planned));
+
+        Map<Long, Config> first = cache.getExportParams(ImmutableMap.of(1L, list(1, 2)));
+        assertThat(first.get(1L), is(planned));
+        assertThat(first.get(2L), is(done));
+
+        // params of task 1 are loaded again because it's not done yet
+        Map<Long, Config> second = cache.getExportParams(ImmutableMap.of(1L, list(1, 2)));
+        assertThat(second.get(1L), is(planned));
+        assertThat(second.get(2L), is(done));
+
+        verify(sm, times(1)).getExportParams(list(1, 2));
+        verify(sm, times(1)).getExportParams(list(1));
+    }
+
+    private static TaskRelation root(long id)
+    {
+        return TaskRelation.ofRoot(id);
+    }
+
+    private static TaskRelation relation(long parent, long id, long... upstreams)
+    {
+        return TaskRelation.of(id, parent, list(upstreams));
+    }
+
+    private static List<Long> list(long... prims)
+    {
+        ImmutableList.Builder<Long> b = ImmutableList.builder();
+        for (long prim : prims) {
+            b.add(prim);
+        }
+        return b.build();
+    }
+}
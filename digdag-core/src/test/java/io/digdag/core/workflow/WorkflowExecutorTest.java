@@ -23,7 +23,9 @@ import io.digdag.client.config.ConfigException;
 import io.digdag.client.config.ConfigUtils;
 import io.digdag.core.DigdagEmbed;
 import io.digdag.core.repository.ProjectStoreManager;
+import io.digdag.core.repository.ResourceNotFoundException;
 import io.digdag.core.session.SessionStoreManager;
+import io.digdag.core.session.StoredSessionAttemptWithSession;
 import io.digdag.core.session.StoredTask;
 import io.digdag.metrics.StdDigdagMetrics;
 import io.digdag.spi.metrics.DigdagMetrics;
@@ -437,6 +439,163 @@ public class WorkflowExecutorTest
         }
     }
 
+    @Test
+    public void incrementalPropagation()
+            throws Exception
+    {
+        Config sysConfig = configFactory.create();
+
+        sysConfig.set("executor.incremental_propagation", true);
+        // disable periodic full scan so that only dirty attempts are propagated
+        sysConfig.set("executor.propagation_full_scan_interval", 3600);
+        DigdagEmbed embed2 = WorkflowTestingUtils.setupEmbed(b -> {
+            return b.setSystemConfig(ConfigElement.copyOf(sysConfig));
+        });
+        try {
+            {
+                runWorkflow(embed2, "random_enqueue_simple", loadYamlResource("/io/digdag/core/workflow/random_enqueue_simple.dig"));
+                Optional<String> result = getResult("out", folder);
+                assertThat(result.get(), is("step1step2step3"));
+            }
+            {
+                runWorkflow(embed2, "random_enqueue_parallel", loadYamlResource("/io/digdag/core/workflow/random_enqueue_parallel.dig"));
+                Optional<String> result = getResult("out", folder);
+                assertThat(result.isPresent(), not(false));
+                String out = result.get();
+                for (int i = 0; i < 8; i++) {
+                    assertThat(out, containsString("idx:" + i));
+                }
+            }
+        }
+        finally {
+            embed2.close();
+        }
+    }
+
+    @Test
+    public void batchedEnqueue()
+            throws Exception
+    {
+        Config sysConfig = configFactory.create();
+
+        // smaller than number of parallel tasks so that multiple batches are necessary
+        sysConfig.set("executor.enqueue_batch_size", 3);
+        DigdagEmbed embed2 = WorkflowTestingUtils.setupEmbed(b -> {
+            return b.setSystemConfig(ConfigElement.copyOf(sysConfig));
+        });
+        try {
+            {
+                runWorkflow(embed2, "random_enqueue_simple", loadYamlResource("/io/digdag/core/workflow/random_enqueue_simple.dig"));
+                Optional<String> result = getResult("out", folder);
+                assertThat(result.get(), is("step1step2step3"));
+            }
+            {
+                runWorkflow(embed2, "random_enqueue_parallel", loadYamlResource("/io/digdag/core/workflow/random_enqueue_parallel.dig"));
+                Optional<String> result = getResult("out", folder);
+                assertThat(result.isPresent(), not(false));
+                String out = result.get();
+                for (int i = 0; i < 8; i++) {
+                    assertThat(out, containsString("idx:" + i));
+                }
+            }
+        }
+        finally {
+            embed2.close();
+        }
+    }
+
+    @Test
+    public void taskTreeCache()
+            throws Exception
+    {
+        Config sysConfig = configFactory.create();
+        sysConfig.set("executor.task_tree_cache_size", 10);
+        DigdagEmbed embed2 = WorkflowTestingUtils.setupEmbed(b -> {
+            return b.setSystemConfig(ConfigElement.copyOf(sysConfig));
+        });
+        try {
+            // tasks are added to cached trees by loop> and retries
+            {
+                String content = Resources.toString(WorkflowExecutorTest.class.getResource("/io/digdag/core/workflow/retry_in_loop.dig"), UTF_8);
+                Config config = new YamlConfigLoader().loadString(content).toConfig(ConfigUtils.configFactory);
+                runWorkflow(embed2, "retry_in_loop", config);
+                Path outPath = folder.getRoot().toPath().resolve("out");
+                assertThat(new String(Files.readAllBytes(outPath), UTF_8), is("loop0:try1try2succeeded.loop1:try1try2succeeded.loop2:try1try2try1try2try1try2"));
+                Files.delete(outPath);
+            }
+            {
+                runWorkflow(embed2, "retry_on_group", loadYamlResource("/io/digdag/core/workflow/retry_on_group.dig"));
+                assertThat(new String(Files.readAllBytes(folder.getRoot().toPath().resolve("out")), UTF_8), is("try1try2try1try2try1try2try1try2"));
+            }
+        }
+        finally {
+            embed2.close();
+        }
+    }
+
+    @Test
+    public void partitionedExecutorThreads()
+            throws Exception
+    {
+        Config sysConfig = configFactory.create();
+
+        sysConfig.set("executor.threads", 2);
+        sysConfig.set("executor.incremental_propagation", true);
+        DigdagEmbed embed2 = WorkflowTestingUtils.setupEmbed(b -> {
+            return b.setSystemConfig(ConfigElement.copyOf(sysConfig));
+        });
+        try {
+            TransactionManager tm = embed2.getTransactionManager();
+            LocalSite localSite = embed2.getLocalSite();
+            WorkflowExecutor exec = embed2.getInjector().getInstance(WorkflowExecutor.class);
+            assertThat(exec.getExecutorThreads(), is(2));
+
+            List<StoredSessionAttemptWithSession> attempts = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                // use different workflow names to create different sessions
+                String workflowName = "partitioned_" + i;
+                attempts.add(tm.begin(() -> WorkflowTestingUtils.submitWorkflow(localSite, folder.getRoot().toPath(),
+                                workflowName, loadYamlResource("/io/digdag/core/workflow/random_enqueue_parallel.dig")),
+                            Exception.class));
+            }
+
+            // each thread runs only attempts of its partition
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                int localPartition = i;
+                Thread thread = new Thread(() -> {
+                    try {
+                        exec.runPartitionWhile(localPartition, () -> attempts.stream().anyMatch(attempt -> {
+                            try {
+                                return !localSite.getSessionStore().getAttemptById(attempt.getId()).getStateFlags().isDone();
+                            }
+                            catch (ResourceNotFoundException ex) {
+                                throw new RuntimeException(ex);
+                            }
+                        }));
+                    }
+                    catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join(60000);
+                assertFalse(thread.isAlive());
+            }
+
+            for (StoredSessionAttemptWithSession attempt : attempts) {
+                assertTrue(tm.begin(() -> localSite.getSessionStore().getAttemptById(attempt.getId()), ResourceNotFoundException.class)
+                        .getStateFlags().isSuccess());
+            }
+        }
+        finally {
+            embed2.close();
+        }
+    }
+
     private Optional<String> getResult(String fileName, TemporaryFolder folder)
     {
         try {
@@ -11,8 +11,11 @@ import io.digdag.guice.rs.server.undertow.UndertowServerConfig.ListenAddress;
 import io.undertow.Handlers;
 import io.undertow.Undertow;
 import io.undertow.UndertowOptions;
+import io.undertow.attribute.ExchangeAttributes;
 import io.undertow.conduits.GzipStreamSourceConduit;
 import io.undertow.conduits.InflatingStreamSourceConduit;
+import io.undertow.predicate.Predicate;
+import io.undertow.predicate.Predicates;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.OpenListener;
@@ -32,6 +35,7 @@ import io.undertow.servlet.api.FilterInfo;
 import io.undertow.servlet.api.ServletContainerInitializerInfo;
 import io.undertow.servlet.spec.HttpServletRequestImpl;
 import io.undertow.util.AttachmentKey;
+import io.undertow.util.Headers;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.net.InetSocketAddress;
@@ -192,11 +196,15 @@ public class UndertowServer
             handler = new RequestEncodingHandler(handler)
                 .addEncoding("deflate", InflatingStreamSourceConduit.WRAPPER)
                 .addEncoding("gzip", GzipStreamSourceConduit.WRAPPER);
-            // support "Accept-Encoding: gzip | deflate" (response content encoding)
+            // support "Accept-Encoding: gzip | deflate" (response content encoding).
+            // server-sent events are not compressed because compression buffers
+            // events until enough data is written.
+            Predicate notEventStream = Predicates.not(Predicates.regex(
+                        ExchangeAttributes.responseHeader(Headers.CONTENT_TYPE), "^text/event-stream"));
             handler = new EncodingHandler(handler,
                     new ContentEncodingRepository()
-                    .addEncodingHandler("deflate", new DeflateEncodingProvider(), 50)
-                    .addEncodingHandler("gzip", new GzipEncodingProvider(), 60));
+                    .addEncodingHandler("deflate", new DeflateEncodingProvider(), 50, notEventStream)
+                    .addEncodingHandler("gzip", new GzipEncodingProvider(), 60, notEventStream));
 
             appHandler = handler;
         }
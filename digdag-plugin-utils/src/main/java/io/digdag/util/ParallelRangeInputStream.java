@@ -0,0 +1,174 @@
+package io.digdag.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * An InputStream that reads an object by fetching fixed-size parts with
+ * ranged requests. Up to {@code parallelism} parts are fetched ahead of
+ * the reader concurrently. Memory usage is bounded to
+ * {@code (parallelism + 1) * partSize} bytes because buffers of consumed
+ * parts are reused.
+ */
+public class ParallelRangeInputStream
+        extends InputStream
+{
+    private static final Logger logger = LoggerFactory.getLogger(ParallelRangeInputStream.class);
+
+    public interface RangeReader
+    {
+        // Reads exactly length bytes from offset into buffer. Implementations
+        // should retry transient errors.
+        void read(long offset, byte[] buffer, int length) throws IOException;
+    }
+
+    private final String name;
+    private final long size;
+    private final int partSize;
+    private final int parallelism;
+    private final ExecutorService executor;
+    private final RangeReader reader;
+
+    private final Deque<Future<byte[]>> fetching = new ArrayDeque<>();
+    private final Deque<byte[]> freeBuffers = new ArrayDeque<>();
+    private final long startNanos;
+    private long nextFetchOffset = 0;
+    private byte[] current = null;
+    private int currentPos = 0;
+    private int currentLength = 0;
+    private long position = 0;
+    private boolean closed = false;
+
+    public ParallelRangeInputStream(String name, long size, int partSize, int parallelism,
+            ExecutorService executor, RangeReader reader)
+    {
+        checkArgument(partSize > 0, "partSize must be positive");
+        checkArgument(parallelism > 0, "parallelism must be positive");
+        this.name = name;
+        this.size = size;
+        this.partSize = partSize;
+        this.parallelism = parallelism;
+        this.executor = executor;
+        this.reader = reader;
+        this.startNanos = System.nanoTime();
+        fillFetchQueue();
+    }
+
+    private void fillFetchQueue()
+    {
+        while (fetching.size() < parallelism && nextFetchOffset < size) {
+            long offset = nextFetchOffset;
+            int length = (int) Math.min(partSize, size - offset);
+            byte[] buffer = freeBuffers.isEmpty() ? new byte[partSize] : freeBuffers.removeFirst();
+            fetching.addLast(executor.submit(() -> {
+                reader.read(offset, buffer, length);
+                return buffer;
+            }));
+            nextFetchOffset += length;
+        }
+    }
+
+    private boolean nextPart()
+        throws IOException
+    {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (current != null) {
+            freeBuffers.addLast(current);
+            current = null;
+        }
+        if (fetching.isEmpty()) {
+            return false;
+        }
+        Future<byte[]> future = fetching.removeFirst();
+        try {
+            current = future.get();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to read " + name + " at offset " + position, cause);
+        }
+        currentPos = 0;
+        currentLength = (int) Math.min(partSize, size - position);
+        fillFetchQueue();
+        return true;
+    }
+
+    @Override
+    public int read()
+        throws IOException
+    {
+        if (currentPos >= currentLength || current == null) {
+            if (position >= size || !nextPart()) {
+                return -1;
+            }
+        }
+        position++;
+        return current[currentPos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+        throws IOException
+    {
+        if (len == 0) {
+            return 0;
+        }
+        if (currentPos >= currentLength || current == null) {
+            if (position >= size || !nextPart()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, currentLength - currentPos);
+        System.arraycopy(current, currentPos, b, off, n);
+        currentPos += n;
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available()
+    {
+        return current == null ? 0 : currentLength - currentPos;
+    }
+
+    @Override
+    public void close()
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Future<byte[]> future : fetching) {
+            future.cancel(true);
+        }
+        fetching.clear();
+        freeBuffers.clear();
+        current = null;
+
+        if (logger.isDebugEnabled()) {
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            logger.debug("Read {} bytes of {} in {} seconds ({} MB/s, {} parts in parallel)",
+                    position, name, String.format("%.3f", seconds),
+                    String.format("%.1f", position / 1048576.0 / Math.max(seconds, 0.001)), parallelism);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package io.digdag.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.google.common.io.ByteStreams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThrows;
+
+public class ParallelRangeInputStreamTest
+{
+    private ExecutorService executor;
+
+    @Before
+    public void setUp()
+    {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void readAllParts()
+        throws Exception
+    {
+        byte[] data = new byte[1000];
+        new Random(0).nextBytes(data);
+
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        ParallelRangeInputStream.RangeReader reader = (offset, buffer, length) -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(5);
+            }
+            catch (InterruptedException ex) {
+                throw new IOException(ex);
+            }
+            System.arraycopy(data, (int) offset, buffer, 0, length);
+            running.decrementAndGet();
+        };
+
+        try (InputStream in = new ParallelRangeInputStream("test", data.length, 64, 4, executor, reader)) {
+            assertThat(in.read(), is(data[0] & 0xff));
+            byte[] rest = ByteStreams.toByteArray(in);
+            assertThat(rest.length, is(data.length - 1));
+            for (int i = 0; i < rest.length; i++) {
+                assertThat(rest[i], is(data[i + 1]));
+            }
+            assertThat(in.read(), is(-1));
+        }
+        assertThat(maxRunning.get(), lessThanOrEqualTo(4));
+    }
+
+    @Test
+    public void emptyObject()
+        throws Exception
+    {
+        try (InputStream in = new ParallelRangeInputStream("test", 0, 64, 4, executor, (offset, buffer, length) -> {
+                    throw new AssertionError("should not be called");
+                })) {
+            assertThat(in.read(), is(-1));
+        }
+    }
+
+    @Test
+    public void propagateReadError()
+        throws Exception
+    {
+        ParallelRangeInputStream.RangeReader reader = (offset, buffer, length) -> {
+            if (offset >= 128) {
+                throw new IOException("failed");
+            }
+        };
+        try (InputStream in = new ParallelRangeInputStream("test", 1000, 64, 2, executor, reader)) {
+            ByteStreams.skipFully(in, 128);
+            assertThrows(IOException.class, () -> in.read());
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package io.digdag.server;
 
 import com.google.inject.Inject;
+import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import io.digdag.core.BackgroundExecutor;
@@ -13,7 +14,8 @@ import static io.digdag.spi.metrics.DigdagMetrics.Category;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.function.Supplier;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
@@ -22,10 +24,10 @@ public class WorkflowExecutorLoop
 {
     private static final Logger logger = LoggerFactory.getLogger(WorkflowExecutorLoop.class);
 
-    private final Supplier<Thread> threadFactory;
+    private final ThreadFactory threadFactory;
     private final WorkflowExecutor workflowExecutor;
 
-    private volatile Thread thread = null;
+    private volatile List<Thread> threads = null;
     private volatile boolean stop = false;
 
     @Inject(optional = true)
@@ -40,11 +42,10 @@ public class WorkflowExecutorLoop
             WorkflowExecutor workflowExecutor)
     {
         if (serverConfig.getExecutorEnabled()) {
-            this.threadFactory = () -> new ThreadFactoryBuilder()
+            this.threadFactory = new ThreadFactoryBuilder()
                 .setDaemon(true)
                 .setNameFormat("workflow-executor-%d")
-                .build()
-                .newThread(this::run);
+                .build();
         }
         else {
             this.threadFactory = null;
@@ -52,11 +53,11 @@ public class WorkflowExecutorLoop
         this.workflowExecutor = workflowExecutor;
     }
 
-    private void run()
+    private void run(int localPartition)
     {
         while (!stop) {
             try {
-                workflowExecutor.runWhile(() -> !stop);
+                workflowExecutor.runPartitionWhile(localPartition, () -> !stop);
             }
             catch (Throwable t) {
                 logger.error(
@@ -78,10 +79,15 @@ public class WorkflowExecutorLoop
     @PostConstruct
     public synchronized void start()
     {
-        if (threadFactory != null && thread == null) {
-            Thread thread = threadFactory.get();
-            thread.start();
-            this.thread = thread;
+        if (threadFactory != null && threads == null) {
+            ImmutableList.Builder<Thread> builder = ImmutableList.builder();
+            for (int i = 0; i < workflowExecutor.getExecutorThreads(); i++) {
+                int localPartition = i;
+                Thread thread = threadFactory.newThread(() -> run(localPartition));
+                thread.start();
+                builder.add(thread);
+            }
+            this.threads = builder.build();
         }
     }
 
@@ -91,16 +97,18 @@ public class WorkflowExecutorLoop
     {
         startShutdown();
 
-        if (thread != null) {
-            thread.join(100);
-            if (thread.isAlive()) {
-                logger.info("Waiting for completion of workflow executor loop...");
-                do {
-                    workflowExecutor.noticeRunWhileConditionChange();
-                    thread.join(1000);
-                } while (thread.isAlive());
+        if (threads != null) {
+            for (Thread thread : threads) {
+                thread.join(100);
+                if (thread.isAlive()) {
+                    logger.info("Waiting for completion of workflow executor loop {}...", thread.getName());
+                    do {
+                        workflowExecutor.noticeRunWhileConditionChange();
+                        thread.join(1000);
+                    } while (thread.isAlive());
+                }
             }
-            thread = null;
+            threads = null;
         }
     }
 
@@ -69,6 +69,8 @@ public class AttemptResource
     private final ConfigFactory cf;
     private static final int DEFAULT_ATTEMPTS_PAGE_SIZE = 100;
     private static int MAX_ATTEMPTS_PAGE_SIZE;
+    private static final int DEFAULT_TASKS_PAGE_SIZE = 1000;
+    private static int MAX_TASKS_PAGE_SIZE;
     private final DigdagMetrics metrics;
 
     @Inject
@@ -94,6 +96,7 @@ public class AttemptResource
         this.cf = cf;
         this.metrics = metrics;
         MAX_ATTEMPTS_PAGE_SIZE = systemConfig.get("api.max_attempts_page_size", Integer.class, DEFAULT_ATTEMPTS_PAGE_SIZE);
+        MAX_TASKS_PAGE_SIZE = systemConfig.get("api.max_tasks_page_size", Integer.class, DEFAULT_TASKS_PAGE_SIZE);
     }
 
 
@@ -115,7 +118,7 @@ public class AttemptResource
             throws ResourceNotFoundException, AccessControlException
     {
         int validPageSize = QueryParamValidator.validatePageSize(Optional.fromNullable(pageSize), MAX_ATTEMPTS_PAGE_SIZE, DEFAULT_ATTEMPTS_PAGE_SIZE);
-        return tm.<RestSessionAttemptCollection, ResourceNotFoundException, AccessControlException>begin(() -> {
+        return tm.<RestSessionAttemptCollection, ResourceNotFoundException, AccessControlException>beginReadOnly(() -> {
             List<StoredSessionAttemptWithSession> attempts;
 
             ProjectStore rs = rm.getProjectStore(getSiteId());
@@ -214,10 +217,18 @@ public class AttemptResource
     @ApiOperation("List tasks of an attempt")
     public RestTaskCollection getTasks(
             @ApiParam(value="attempt id", required=true)
-            @PathParam("id") long id)
+            @PathParam("id") long id,
+            @ApiParam(value="list tasks whose id is greater than this id for pagination", required=false)
+            @QueryParam("last_id") Long lastId,
+            @ApiParam(value="number of tasks to return. all tasks are returned if neither of this nor last_id is set", required=false)
+            @QueryParam("page_size") Integer pageSize)
             throws ResourceNotFoundException, AccessControlException
     {
-        return tm.<RestTaskCollection, ResourceNotFoundException, AccessControlException>begin(() -> {
+        // all tasks are returned by default for backward compatibility
+        boolean paging = lastId != null || pageSize != null;
+        int validPageSize = QueryParamValidator.validatePageSize(Optional.fromNullable(pageSize), MAX_TASKS_PAGE_SIZE, DEFAULT_TASKS_PAGE_SIZE);
+
+        return tm.<RestTaskCollection, ResourceNotFoundException, AccessControlException>beginReadOnly(() -> {
             final StoredSessionAttemptWithSession attempt = sm.getSessionStore(getSiteId())
                     .getAttemptById(id); // NotFound
             final StoredProject proj = rm.getProjectStore(getSiteId())
@@ -227,8 +238,15 @@ public class AttemptResource
                     WorkflowTarget.of(getSiteId(), attempt.getSession().getWorkflowName(), proj.getName()),
                     getAuthenticatedUser());
 
-            List<ArchivedTask> tasks = sm.getSessionStore(getSiteId())
-                    .getTasksOfAttempt(id);
+            List<ArchivedTask> tasks;
+            if (paging) {
+                tasks = sm.getSessionStore(getSiteId())
+                        .getTasksOfAttempt(id, validPageSize, Optional.fromNullable(lastId));
+            }
+            else {
+                tasks = sm.getSessionStore(getSiteId())
+                        .getTasksOfAttempt(id);
+            }
             return RestModels.taskCollection(tasks);
         }, ResourceNotFoundException.class, AccessControlException.class);
     }
@@ -2,18 +2,31 @@ package io.digdag.server.rs;
 
 import java.util.List;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.ServiceUnavailableException;
 import javax.ws.rs.GET;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import com.google.common.annotations.VisibleForTesting;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.Inject;
 import com.google.common.base.Optional;
+import com.google.common.io.ByteStreams;
 import io.digdag.core.database.TransactionManager;
 import io.digdag.core.session.SessionStoreManager;
 import io.digdag.core.session.*;
 import io.digdag.core.repository.*;
 import io.digdag.core.log.LogServerManager;
+import io.digdag.core.log.LogTailBuffer;
 import io.digdag.client.api.*;
 import io.digdag.metrics.DigdagTimed;
 import io.digdag.spi.*;
@@ -26,6 +39,7 @@ import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
 
 import static io.digdag.core.log.LogServerManager.logFilePrefixFromSessionAttempt;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 @Api("Log")
 @Path("/")
@@ -35,12 +49,22 @@ public class LogResource
 {
     // GET  /api/logs/{attempt_id}/files[?task=<name>]
     // GET  /api/logs/{attempt_id}/files/{file_name}
+    // GET  /api/logs/{attempt_id}/tail[?task=<name>][&last_id=<id>]
+
+    // a tail stream is closed after this duration so that a client reconnects
+    // and server threads are not held by clients forever. The number of
+    // concurrent streams is also limited by log-server.tail.max_streams.
+    private static final long TAIL_STREAM_DURATION_MILLIS = 60 * 1000;
+    private static final long TAIL_KEEPALIVE_INTERVAL_MILLIS = 10 * 1000;
+    private static final long TAIL_RETRY_AFTER_SECONDS = 10;
 
     private final ProjectStoreManager rm;
     private final SessionStoreManager sm;
     private final TransactionManager tm;
     private final AccessController ac;
     private final LogServer logServer;
+    private final LogTailBuffer tailBuffer;
+    private final ObjectMapper mapper;
     private final DigdagMetrics metrics;
 
 
@@ -51,6 +75,7 @@ public class LogResource
             TransactionManager tm,
             AccessController ac,
             LogServerManager lm,
+            ObjectMapper mapper,
             DigdagMetrics metrics)
     {
         this.rm = rm;
@@ -58,6 +83,8 @@ public class LogResource
         this.tm = tm;
         this.ac = ac;
         this.logServer = lm.getLogServer();
+        this.tailBuffer = lm.getTailBuffer();
+        this.mapper = mapper;
         this.metrics = metrics;
     }
 
@@ -78,7 +105,7 @@ public class LogResource
         // some clients including digdag-client package use the link automatically when
         // it's set) if ?direct_download=false is given.
         boolean enableDirectDownload = (directDownloadAllowed == null) || (boolean) directDownloadAllowed;
-        return tm.<RestLogFileHandleCollection, ResourceNotFoundException, AccessControlException>begin(() -> {
+        return tm.<RestLogFileHandleCollection, ResourceNotFoundException, AccessControlException>beginReadOnly(() -> {
             final LogFilePrefix prefix = getPrefix(attemptId, // NotFound, AccessControl
                     (p, a) -> ac.checkGetLogFiles(
                             WorkflowTarget.of(getSiteId(), a.getSession().getWorkflowName(), p.getName()),
@@ -93,20 +120,242 @@ public class LogResource
     @Produces("application/gzip")
     @Path("/api/logs/{attempt_id}/files/{file_name}")
     @ApiOperation("Download a log file")
-    public byte[] getFile(
+    public Response getFile(
             @ApiParam(value="attempt id", required=true)
             @PathParam("attempt_id") long attemptId,
             @ApiParam(value="log file name", required=true)
-            @PathParam("file_name") String fileName)
+            @PathParam("file_name") String fileName,
+            @ApiParam(value="single byte range to download (e.g. bytes=0-1023)", required=false)
+            @HeaderParam("Range") String range)
             throws ResourceNotFoundException, IOException, StorageFileNotFoundException, AccessControlException
     {
-        return tm.<byte[], ResourceNotFoundException, IOException, StorageFileNotFoundException, AccessControlException>begin(() -> {
-            final LogFilePrefix prefix = getPrefix(attemptId, // NotFound, AccessControl
+        final LogFilePrefix prefix = tm.<LogFilePrefix, ResourceNotFoundException, AccessControlException>beginReadOnly(() ->
+                getPrefix(attemptId, // NotFound, AccessControl
                     (p, a) -> ac.checkGetLogFiles(
                             WorkflowTarget.of(getSiteId(), a.getSession().getWorkflowName(), p.getName()),
-                            getAuthenticatedUser()));
-            return logServer.getFile(prefix, fileName);
-        }, ResourceNotFoundException.class, IOException.class, StorageFileNotFoundException.class, AccessControlException.class);
+                            getAuthenticatedUser())),
+                ResourceNotFoundException.class, AccessControlException.class);
+
+        // log files can be large. Open the file outside of the transaction
+        // and stream it to the client instead of reading it into memory.
+        StorageObject obj = logServer.openFile(prefix, fileName);
+        long total = obj.getContentLength();
+
+        Optional<ByteRange> byteRange;
+        try {
+            byteRange = ByteRange.parse(range, total);
+        }
+        catch (WebApplicationException ex) {
+            obj.getContentInputStream().close();
+            throw ex;
+        }
+
+        long offset = byteRange.transform(r -> r.offset).or(0L);
+        long length = byteRange.transform(r -> r.length).or(total);
+
+        StreamingOutput body = (out) -> {
+            try (InputStream in = obj.getContentInputStream()) {
+                ByteStreams.skipFully(in, offset);
+                ByteStreams.copy(ByteStreams.limit(in, length), out);
+            }
+        };
+
+        Response.ResponseBuilder builder;
+        if (byteRange.isPresent()) {
+            builder = Response.status(206)
+                .header("Content-Range", "bytes " + offset + "-" + (offset + length - 1) + "/" + total);
+        }
+        else {
+            builder = Response.ok();
+        }
+        return builder.entity(body)
+            .header("Accept-Ranges", "bytes")
+            .header("Content-Length", length)
+            .build();
+    }
+
+    @DigdagTimed(category = "api", appendMethodName = true)
+    @GET
+    @Produces("text/event-stream")
+    @Path("/api/logs/{attempt_id}/tail")
+    @ApiOperation("Stream logs of running tasks of an attempt as server-sent events")
+    public Response tailLogs(
+            @ApiParam(value="attempt id", required=true)
+            @PathParam("attempt_id") long attemptId,
+            @ApiParam(value="partial prefix match filter on task name", required=false)
+            @QueryParam("task") String taskName,
+            @ApiParam(value="stream logs after this event id. Logs after now are streamed if not set", required=false)
+            @QueryParam("last_id") Long lastId,
+            @ApiParam(value="same with last_id. Sent by EventSource on reconnect", required=false)
+            @HeaderParam("Last-Event-ID") Long lastEventId)
+            throws ResourceNotFoundException, AccessControlException
+    {
+        if (!tailBuffer.isEnabled()) {
+            throw new ResourceNotFoundException("Log tailing is not enabled on this server");
+        }
+
+        tm.<LogFilePrefix, ResourceNotFoundException, AccessControlException>beginReadOnly(() ->
+                getPrefix(attemptId, // NotFound, AccessControl
+                    (p, a) -> ac.checkGetLogFiles(
+                            WorkflowTarget.of(getSiteId(), a.getSession().getWorkflowName(), p.getName()),
+                            getAuthenticatedUser())),
+                ResourceNotFoundException.class, AccessControlException.class);
+
+        Optional<String> taskNamePrefix = Optional.fromNullable(taskName);
+        long startId = lastId != null ? lastId : lastEventId != null ? lastEventId : tailBuffer.getLastId();
+
+        // Each stream holds a worker thread. Clients fall back to polling log files if this is rejected.
+        if (!tailBuffer.tryAcquireStream()) {
+            throw new ServiceUnavailableException("Too many log tail streams on this server", TAIL_RETRY_AFTER_SECONDS);
+        }
+
+        StreamingOutput body = (out) -> {
+            try {
+                writeTailStream(out, attemptId, taskNamePrefix, startId);
+            }
+            finally {
+                tailBuffer.releaseStream();
+            }
+        };
+
+        return Response.ok(body)
+            .header("Cache-Control", "no-cache")
+            .build();
+    }
+
+    private void writeTailStream(OutputStream out, long attemptId, Optional<String> taskNamePrefix, long startId)
+        throws IOException
+    {
+        Writer writer = new OutputStreamWriter(out, UTF_8);
+        long after = startId;
+        writeTailEvent(writer, RestLogTailEvent.builder().type("head").id(after).build());
+        writer.flush();
+
+        long deadline = System.currentTimeMillis() + TAIL_STREAM_DURATION_MILLIS;
+        while (true) {
+            long wait = Math.min(deadline - System.currentTimeMillis(), TAIL_KEEPALIVE_INTERVAL_MILLIS);
+            if (wait <= 0) {
+                break;
+            }
+            LogTailBuffer.Chunks chunks;
+            try {
+                chunks = tailBuffer.read(attemptId, after, taskNamePrefix, wait);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (chunks.isTruncated()) {
+                long truncatedId = chunks.getChunks().isEmpty() ? chunks.getLastId() : chunks.getChunks().get(0).getId() - 1;
+                writeTailEvent(writer, RestLogTailEvent.builder().type("truncated").id(truncatedId).build());
+            }
+            for (LogTailBuffer.Chunk chunk : chunks.getChunks()) {
+                writeTailEvent(writer, RestLogTailEvent.builder()
+                        .type("log")
+                        .id(chunk.getId())
+                        .taskName(chunk.getTaskName())
+                        .offset(chunk.getOffset())
+                        .data(new String(chunk.getData(), UTF_8))
+                        .build());
+            }
+            if (chunks.getChunks().isEmpty() && !chunks.isTruncated()) {
+                if (chunks.isIdle()) {
+                    break;
+                }
+                // keep-alive comment. This also detects disconnected clients.
+                writer.write(":\n\n");
+            }
+            writer.flush();
+            after = chunks.getLastId();
+        }
+        writer.flush();
+    }
+
+    private void writeTailEvent(Writer writer, RestLogTailEvent event)
+        throws IOException
+    {
+        // JSON doesn't include line breaks. So data is always a single line.
+        writer.write("event: " + event.getType() + "\n");
+        writer.write("id: " + event.getId() + "\n");
+        writer.write("data: " + mapper.writeValueAsString(event) + "\n\n");
+    }
+
+    @VisibleForTesting
+    static class ByteRange
+    {
+        final long offset;
+        final long length;
+
+        ByteRange(long offset, long length)
+        {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        // Parses a Range header. Returns absent if the whole file should be sent.
+        // Only a single range is supported. Multiple ranges and malformed headers
+        // are ignored as RFC 7233 allows.
+        static Optional<ByteRange> parse(String header, long total)
+        {
+            if (header == null) {
+                return Optional.absent();
+            }
+            header = header.trim();
+            if (!header.startsWith("bytes=") || header.contains(",")) {
+                return Optional.absent();
+            }
+            String spec = header.substring("bytes=".length()).trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return Optional.absent();
+            }
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+
+            long start;
+            long end;
+            try {
+                if (first.isEmpty()) {
+                    // suffix range: last N bytes
+                    if (last.isEmpty()) {
+                        return Optional.absent();
+                    }
+                    long suffix = Long.parseLong(last);
+                    if (suffix <= 0) {
+                        throw notSatisfiable(total);
+                    }
+                    start = Math.max(0, total - suffix);
+                    end = total - 1;
+                }
+                else {
+                    start = Long.parseLong(first);
+                    end = total - 1;
+                    if (!last.isEmpty()) {
+                        long lastPos = Long.parseLong(last);
+                        if (lastPos < start) {
+                            return Optional.absent();
+                        }
+                        end = Math.min(lastPos, end);
+                    }
+                }
+            }
+            catch (NumberFormatException ex) {
+                return Optional.absent();
+            }
+
+            if (start < 0 || start >= total) {
+                throw notSatisfiable(total);
+            }
+            return Optional.of(new ByteRange(start, end - start + 1));
+        }
+
+        private static WebApplicationException notSatisfiable(long total)
+        {
+            return new WebApplicationException(
+                    Response.status(416)
+                        .header("Content-Range", "bytes */" + total)
+                        .build());
+        }
     }
 
     private LogFilePrefix getPrefix(final long attemptId, final AccessControlAction acAction)
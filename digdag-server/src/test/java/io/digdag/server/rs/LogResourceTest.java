@@ -0,0 +1,214 @@
+package io.digdag.server.rs;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import io.digdag.core.database.TransactionManager;
+import io.digdag.core.database.TransactionManager.SupplierInTransaction;
+import io.digdag.core.log.LogServerManager;
+import io.digdag.core.repository.ProjectStoreManager;
+import io.digdag.core.repository.ResourceNotFoundException;
+import io.digdag.core.session.SessionStoreManager;
+import io.digdag.server.rs.LogResource.ByteRange;
+import io.digdag.spi.LogFilePrefix;
+import io.digdag.spi.LogServer;
+import io.digdag.spi.StorageObject;
+import io.digdag.spi.ac.AccessControlException;
+import io.digdag.spi.ac.AccessController;
+import io.digdag.spi.metrics.DigdagMetrics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static io.digdag.commons.AssertUtil.assertException;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LogResourceTest
+{
+    private static final String CONTENT = "0123456789";
+
+    @Mock ProjectStoreManager rm;
+    @Mock SessionStoreManager sm;
+    @Mock TransactionManager tm;
+    @Mock AccessController ac;
+    @Mock LogServerManager lm;
+    @Mock LogServer logServer;
+    @Mock DigdagMetrics metrics;
+
+    private LogResource resource;
+    private TrackingInputStream fileStream;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp()
+            throws Exception
+    {
+        LogFilePrefix prefix = mock(LogFilePrefix.class);
+        when(tm.beginReadOnly(any(SupplierInTransaction.class), eq(ResourceNotFoundException.class), eq(AccessControlException.class)))
+            .thenReturn(prefix);
+        fileStream = new TrackingInputStream(CONTENT.getBytes(UTF_8));
+        when(logServer.openFile(prefix, "file.log.gz"))
+            .thenReturn(new StorageObject(fileStream, CONTENT.length()));
+        when(lm.getLogServer()).thenReturn(logServer);
+        resource = new LogResource(rm, sm, tm, ac, lm, new ObjectMapper(), metrics);
+    }
+
+    @Test
+    public void parseRange()
+    {
+        assertRange(ByteRange.parse("bytes=0-3", 10), 0, 4);
+        assertRange(ByteRange.parse("bytes=2-", 10), 2, 8);
+        assertRange(ByteRange.parse(" bytes= 2 - 5 ", 10), 2, 4);
+        // last position larger than the file is truncated
+        assertRange(ByteRange.parse("bytes=5-100", 10), 5, 5);
+    }
+
+    @Test
+    public void parseSuffixRange()
+    {
+        assertRange(ByteRange.parse("bytes=-3", 10), 7, 3);
+        // suffix larger than the file means the whole file
+        assertRange(ByteRange.parse("bytes=-100", 10), 0, 10);
+    }
+
+    @Test
+    public void parseIgnoresMultipleOrMalformedRanges()
+    {
+        assertThat(ByteRange.parse(null, 10).isPresent(), is(false));
+        assertThat(ByteRange.parse("bytes=0-1,3-4", 10).isPresent(), is(false));
+        assertThat(ByteRange.parse("items=0-1", 10).isPresent(), is(false));
+        assertThat(ByteRange.parse("bytes=3", 10).isPresent(), is(false));
+        assertThat(ByteRange.parse("bytes=-", 10).isPresent(), is(false));
+        assertThat(ByteRange.parse("bytes=a-b", 10).isPresent(), is(false));
+        assertThat(ByteRange.parse("bytes=5-2", 10).isPresent(), is(false));
+    }
+
+    @Test
+    public void parseUnsatisfiableRange()
+    {
+        assertNotSatisfiable(() -> ByteRange.parse("bytes=10-", 10));
+        assertNotSatisfiable(() -> ByteRange.parse("bytes=20-30", 10));
+        assertNotSatisfiable(() -> ByteRange.parse("bytes=-0", 10));
+        assertNotSatisfiable(() -> ByteRange.parse("bytes=0-", 0));
+    }
+
+    @Test
+    public void getWholeFile()
+            throws Exception
+    {
+        Response response = resource.getFile(1, "file.log.gz", null);
+        assertThat(response.getStatus(), is(200));
+        assertThat(response.getHeaderString("Accept-Ranges"), is("bytes"));
+        assertThat(response.getHeaderString("Content-Length"), is("10"));
+        assertThat(response.getHeaderString("Content-Range"), is((String) null));
+        assertThat(readBody(response), is(CONTENT));
+        assertThat(fileStream.closed, is(true));
+    }
+
+    @Test
+    public void getPartialFile()
+            throws Exception
+    {
+        Response response = resource.getFile(1, "file.log.gz", "bytes=2-5");
+        assertThat(response.getStatus(), is(206));
+        assertThat(response.getHeaderString("Content-Range"), is("bytes 2-5/10"));
+        assertThat(response.getHeaderString("Content-Length"), is("4"));
+        assertThat(readBody(response), is("2345"));
+        assertThat(fileStream.closed, is(true));
+    }
+
+    @Test
+    public void getSuffixOfFile()
+            throws Exception
+    {
+        Response response = resource.getFile(1, "file.log.gz", "bytes=-3");
+        assertThat(response.getStatus(), is(206));
+        assertThat(response.getHeaderString("Content-Range"), is("bytes 7-9/10"));
+        assertThat(readBody(response), is("789"));
+    }
+
+    @Test
+    public void getFileWithMultipleRanges()
+            throws Exception
+    {
+        Response response = resource.getFile(1, "file.log.gz", "bytes=0-1,3-4");
+        assertThat(response.getStatus(), is(200));
+        assertThat(readBody(response), is(CONTENT));
+    }
+
+    @Test
+    public void getFileWithUnsatisfiableRange()
+            throws Exception
+    {
+        try {
+            resource.getFile(1, "file.log.gz", "bytes=10-");
+            throw new AssertionError("416 is expected");
+        }
+        catch (WebApplicationException ex) {
+            assertThat(ex.getResponse().getStatus(), is(416));
+            assertThat(ex.getResponse().getHeaderString("Content-Range"), is("bytes */10"));
+        }
+        assertThat(fileStream.closed, is(true));
+    }
+
+    private static void assertRange(Optional<ByteRange> range, long offset, long length)
+    {
+        assertThat(range.isPresent(), is(true));
+        assertThat(range.get().offset, is(offset));
+        assertThat(range.get().length, is(length));
+    }
+
+    private static void assertNotSatisfiable(Runnable func)
+    {
+        assertException(func, WebApplicationException.class, "416 is expected");
+        try {
+            func.run();
+        }
+        catch (WebApplicationException ex) {
+            assertThat(ex.getResponse().getStatus(), is(416));
+        }
+    }
+
+    private static String readBody(Response response)
+            throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+        return new String(out.toByteArray(), UTF_8);
+    }
+
+    private static class TrackingInputStream
+            extends ByteArrayInputStream
+    {
+        boolean closed = false;
+
+        TrackingInputStream(byte[] data)
+        {
+            super(data);
+        }
+
+        @Override
+        public void close()
+                throws IOException
+        {
+            closed = true;
+            super.close();
+        }
+    }
+}
@@ -1,18 +1,48 @@
 package io.digdag.spi;
 
 import java.util.List;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.IOException;
 import java.time.Instant;
 import java.time.ZoneId;
 import com.google.common.base.Optional;
+import com.google.common.io.ByteStreams;
 
 public interface LogServer
 {
     String putFile(LogFilePrefix prefix, String taskName, Instant firstLogTime, String agentId, byte[] gzData);
 
+    /**
+     * Stores a log file reading gzData from the stream. gzData can be opened more
+     * than once if the upload is retried.
+     */
+    default String putFile(LogFilePrefix prefix, String taskName, Instant firstLogTime, String agentId,
+            long gzDataLength, Storage.UploadStreamProvider gzData)
+        throws IOException
+    {
+        byte[] data;
+        try (InputStream in = gzData.open()) {
+            data = ByteStreams.toByteArray(in);
+        }
+        return putFile(prefix, taskName, firstLogTime, agentId, data);
+    }
+
     Optional<DirectUploadHandle> getDirectUploadHandle(LogFilePrefix prefix, String taskName, Instant firstLogTime, String agentId);
 
     List<LogFileHandle> getFileHandles(LogFilePrefix prefix, Optional<String> taskName, boolean enableDirectDownload);
 
     byte[] getFile(LogFilePrefix prefix, String fileName)
         throws StorageFileNotFoundException;
+
+    /**
+     * Opens a log file. Content length of the returned object is the size of
+     * the whole file. Caller must close the input stream.
+     */
+    default StorageObject openFile(LogFilePrefix prefix, String fileName)
+        throws StorageFileNotFoundException
+    {
+        byte[] data = getFile(prefix, fileName);
+        return new StorageObject(new ByteArrayInputStream(data), data.length);
+    }
 }
@@ -16,4 +16,9 @@ public interface ParamServerClient
     void doTransaction(Consumer<ParamServerClient> consumer);
 
     void commit();
+
+    // Releases the connection without committing. This does nothing if commit() already released it.
+    default void close()
+    {
+    }
 }
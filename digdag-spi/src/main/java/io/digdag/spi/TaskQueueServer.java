@@ -1,8 +1,10 @@
 package io.digdag.spi;
 
 import java.util.List;
+import java.util.Map;
 import java.util.function.Function;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import io.digdag.client.config.Config;
 
 public interface TaskQueueServer
@@ -18,6 +20,26 @@ public interface TaskQueueServer
     void enqueueQueueBoundTask(int queueId, TaskQueueRequest request)
         throws TaskConflictException;
 
+    /**
+     * Enqueues tasks to the default queue of sites at once. Key of the map is site id.
+     * Returns unique names of requests that are not enqueued because they're already queued.
+     */
+    default List<String> enqueueDefaultQueueTasks(Map<Integer, List<TaskQueueRequest>> requests)
+    {
+        ImmutableList.Builder<String> conflicts = ImmutableList.builder();
+        for (Map.Entry<Integer, List<TaskQueueRequest>> pair : requests.entrySet()) {
+            for (TaskQueueRequest request : pair.getValue()) {
+                try {
+                    enqueueDefaultQueueTask(pair.getKey(), request);
+                }
+                catch (TaskConflictException ex) {
+                    conflicts.add(request.getUniqueName());
+                }
+            }
+        }
+        return conflicts.build();
+    }
+
     void deleteTask(int siteId, String lockId, String agentId)
         throws TaskNotFoundException, TaskConflictException;
 
@@ -0,0 +1,324 @@
+package io.digdag.standards.operator;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import io.digdag.client.config.Config;
+import io.digdag.metrics.StdDigdagMetrics;
+import io.digdag.spi.metrics.DigdagMetrics;
+import io.micrometer.core.instrument.Tags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static io.digdag.spi.metrics.DigdagMetrics.Category;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Shares clients of external services across task executions in an agent.
+ *
+ * An operator acquires a client with a key that consists of the endpoint,
+ * credentials and options of the client, and releases it when the task
+ * execution finishes. Following executions with the same key reuse the
+ * client instead of building a new one (and doing TLS handshakes again).
+ * A client is closed once it's unused for agent.client-pool-idle-timeout
+ * seconds. Idle clients are checked when clients are acquired or released,
+ * and also periodically in background so that they are closed on an idle
+ * agent. If the timeout is 0 (default), every acquisition creates a new
+ * client and releasing it closes the client immediately.
+ *
+ * Clients must be thread-safe because concurrent tasks share them.
+ */
+public class ClientPool
+{
+    private static final Logger logger = LoggerFactory.getLogger(ClientPool.class);
+
+    public interface Lease<C>
+            extends AutoCloseable
+    {
+        C get();
+
+        @Override
+        void close();
+    }
+
+    private static class Entry<C>
+    {
+        private final String type;
+        private final C client;
+        private final Consumer<C> closer;
+        private int references = 1;
+        private long releasedAt;
+
+        Entry(String type, C client, Consumer<C> closer)
+        {
+            this.type = type;
+            this.client = client;
+            this.closer = closer;
+        }
+    }
+
+    private final long idleTimeoutNanos;
+    private final Map<String, Entry<?>> entries = new HashMap<>();
+    private final Map<String, AtomicLong> sizeGauges = new HashMap<>();  // keyed by type
+    private Optional<ScheduledExecutorService> sweeper = Optional.absent();
+
+    @Inject(optional = true)
+    private DigdagMetrics metrics = StdDigdagMetrics.empty();
+
+    @Inject
+    public ClientPool(Config systemConfig)
+    {
+        this(systemConfig.get("agent.client-pool-idle-timeout", int.class, 0));
+        if (isEnabled()) {
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("client-pool-sweeper-%d")
+                    .build()
+                    );
+            executor.scheduleWithFixedDelay(this::evictIdleClients,
+                    idleTimeoutNanos, idleTimeoutNanos, TimeUnit.NANOSECONDS);
+            this.sweeper = Optional.of(executor);
+        }
+    }
+
+    @VisibleForTesting
+    ClientPool(int idleTimeoutSeconds)
+    {
+        this.idleTimeoutNanos = TimeUnit.SECONDS.toNanos(Math.max(idleTimeoutSeconds, 0));
+    }
+
+    public static ClientPool disabled()
+    {
+        return new ClientPool(0);
+    }
+
+    public boolean isEnabled()
+    {
+        return idleTimeoutNanos > 0;
+    }
+
+    /**
+     * Returns a client of the type built with the key. The key must contain
+     * everything that makes a client different from others, such as the
+     * endpoint, credentials and options. Secrets in it are hashed and aren't
+     * kept by the pool.
+     */
+    public <C> Lease<C> acquire(String type, List<?> key, Supplier<C> factory, Consumer<C> closer)
+    {
+        if (!isEnabled()) {
+            C client = factory.get();
+            AtomicBoolean closed = new AtomicBoolean(false);
+            return new Lease<C>()
+            {
+                @Override
+                public C get()
+                {
+                    return client;
+                }
+
+                @Override
+                public void close()
+                {
+                    if (closed.compareAndSet(false, true)) {
+                        closeClient(type, client, closer);
+                    }
+                }
+            };
+        }
+
+        String id = type + ":" + Hashing.sha256().hashString(Joiner.on('\0').useForNull("").join(key), UTF_8);
+
+        Entry<C> entry;
+        List<Entry<?>> evicted;
+        synchronized (this) {
+            evicted = removeIdleEntries();
+            entry = getEntry(id);
+            if (entry != null) {
+                entry.references++;
+            }
+        }
+        closeEntries(evicted);
+
+        if (entry != null) {
+            metrics.increment(Category.AGENT, "clientPoolHits", Tags.of("type", type));
+            return new PooledLease<>(entry);
+        }
+
+        metrics.increment(Category.AGENT, "clientPoolMisses", Tags.of("type", type));
+        C client = factory.get();
+
+        Entry<C> created = new Entry<>(type, client, closer);
+        synchronized (this) {
+            entry = getEntry(id);
+            if (entry != null) {
+                // another thread created the same client meanwhile
+                entry.references++;
+            }
+            else {
+                entries.put(id, created);
+                reportSize(type);
+            }
+        }
+
+        if (entry != null) {
+            closeClient(type, client, closer);
+            return new PooledLease<>(entry);
+        }
+        return new PooledLease<>(created);
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        if (sweeper.isPresent()) {
+            sweeper.get().shutdown();
+        }
+        List<Entry<?>> all;
+        synchronized (this) {
+            all = new ArrayList<>(entries.values());
+            entries.clear();
+        }
+        closeEntries(all);
+    }
+
+    @VisibleForTesting
+    void evictIdleClients()
+    {
+        try {
+            List<Entry<?>> evicted;
+            synchronized (this) {
+                evicted = removeIdleEntries();
+            }
+            closeEntries(evicted);
+        }
+        catch (RuntimeException ex) {
+            // don't stop the scheduled sweep
+            logger.warn("Failed to evict idle clients", ex);
+        }
+    }
+
+    @VisibleForTesting
+    synchronized int size()
+    {
+        return entries.size();
+    }
+
+    @VisibleForTesting
+    long nanoTime()
+    {
+        return System.nanoTime();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <C> Entry<C> getEntry(String id)
+    {
+        return (Entry<C>) entries.get(id);
+    }
+
+    private void release(Entry<?> entry)
+    {
+        List<Entry<?>> evicted;
+        synchronized (this) {
+            entry.references--;
+            entry.releasedAt = nanoTime();
+            evicted = removeIdleEntries();
+        }
+        closeEntries(evicted);
+    }
+
+    private List<Entry<?>> removeIdleEntries()
+    {
+        long now = nanoTime();
+        List<Entry<?>> evicted = new ArrayList<>();
+        Iterator<Entry<?>> ite = entries.values().iterator();
+        while (ite.hasNext()) {
+            Entry<?> entry = ite.next();
+            if (entry.references <= 0 && now - entry.releasedAt >= idleTimeoutNanos) {
+                ite.remove();
+                evicted.add(entry);
+            }
+        }
+        for (Entry<?> entry : evicted) {
+            reportSize(entry.type);
+        }
+        return evicted;
+    }
+
+    private void reportSize(String type)
+    {
+        long size = entries.values().stream().filter(entry -> entry.type.equals(type)).count();
+        // micrometer keeps only a weak reference to the number. Register it once per type and keep updating it.
+        sizeGauges.computeIfAbsent(type, t ->
+                metrics.getRegistry(Category.AGENT).gauge(
+                    metrics.mkMetricsName(Category.AGENT, "clientPoolSize"), Tags.of("type", t), new AtomicLong(0)))
+            .set(size);
+    }
+
+    private void closeEntries(List<Entry<?>> evicted)
+    {
+        for (Entry<?> entry : evicted) {
+            metrics.increment(Category.AGENT, "clientPoolEvictions", Tags.of("type", entry.type));
+            closeEntry(entry);
+        }
+    }
+
+    private static <C> void closeEntry(Entry<C> entry)
+    {
+        closeClient(entry.type, entry.client, entry.closer);
+    }
+
+    private static <C> void closeClient(String type, C client, Consumer<C> closer)
+    {
+        try {
+            closer.accept(client);
+        }
+        catch (RuntimeException ex) {
+            logger.warn("Failed to close {} client", type, ex);
+        }
+    }
+
+    private class PooledLease<C>
+            implements Lease<C>
+    {
+        private final Entry<C> entry;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        PooledLease(Entry<C> entry)
+        {
+            this.entry = entry;
+        }
+
+        @Override
+        public C get()
+        {
+            return entry.client;
+        }
+
+        @Override
+        public void close()
+        {
+            if (released.compareAndSet(false, true)) {
+                release(entry);
+            }
+        }
+    }
+}
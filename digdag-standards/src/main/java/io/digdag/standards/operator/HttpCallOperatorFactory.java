@@ -51,9 +51,9 @@ public class HttpCallOperatorFactory
 
     @Inject
     public HttpCallOperatorFactory(ConfigFactory cf,
-            Config systemConfig, @Environment Map<String, String> env)
+            Config systemConfig, @Environment Map<String, String> env, ClientPool clientPool)
     {
-        super(systemConfig, env);
+        super(systemConfig, env, clientPool);
         this.cf = cf;
         this.mapper = new ObjectMapper();
         this.yaml = new YAMLFactory()
@@ -95,12 +95,8 @@ public class HttpCallOperatorFactory
 
             ContentResponse response;
 
-            HttpClient httpClient = client();
-            try {
-                response = runHttp(httpClient, uri, uriIsSecret);
-            }
-            finally {
-                stop(httpClient);
+            try (ClientPool.Lease<HttpClient> httpClient = acquireClient()) {
+                response = runHttp(httpClient.get(), uri, uriIsSecret);
             }
 
             String content;
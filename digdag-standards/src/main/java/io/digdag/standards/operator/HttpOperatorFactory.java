@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.TextNode;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.LinkedHashMultimap;
 import com.google.inject.Inject;
 import com.treasuredata.client.ProxyConfig;
@@ -45,6 +46,7 @@ import org.eclipse.jetty.client.util.StringContentProvider;
 import org.eclipse.jetty.http.HttpField;
 import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.util.Fields;
+import org.eclipse.jetty.util.HttpCookieStore;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -74,9 +76,10 @@ public class HttpOperatorFactory
     private final int maxRedirects;
     private final String userAgent;
     private final int maxStoredResponseContentSize;
+    private final ClientPool clientPool;
 
     @Inject
-    public HttpOperatorFactory(Config systemConfig, @Environment Map<String, String> env)
+    public HttpOperatorFactory(Config systemConfig, @Environment Map<String, String> env, ClientPool clientPool)
     {
         this.allowUserProxy = systemConfig.get("config.http.allow_user_proxy", boolean.class, true);
         this.systemProxy = systemProxy(systemConfig);
@@ -84,6 +87,7 @@ public class HttpOperatorFactory
         this.maxStoredResponseContentSize = systemConfig.get("config.http.max_stored_response_content_size", int.class, 64 * 1024);
         this.env = env;
         this.userAgent = systemConfig.get("config.http.user_agent", String.class, "Digdag/" + DigdagVersion.buildVersion());
+        this.clientPool = clientPool;
     }
 
     private static Optional<ProxyConfiguration.Proxy> systemProxy(Config systemConfig)
@@ -137,12 +141,8 @@ public class HttpOperatorFactory
         @Override
         public TaskResult runTask()
         {
-            HttpClient client = client();
-            try {
-                return run(client);
-            }
-            finally {
-                stop(client);
+            try (ClientPool.Lease<HttpClient> client = acquireClient()) {
+                return run(client.get());
             }
         }
 
@@ -424,12 +424,32 @@ public class HttpOperatorFactory
                     .build();
         }
 
+        ClientPool.Lease<HttpClient> acquireClient()
+        {
+            // Basic authentication results are stored in the client. Thus
+            // tasks with different credentials don't share a client.
+            return clientPool.acquire("http",
+                    ImmutableList.of(
+                        params.get("insecure", boolean.class, false),
+                        params.get("follow_redirects", boolean.class, true),
+                        allowUserProxy ? params.getNestedOrGetEmpty("proxy").toString() : "",
+                        httpSecrets.getSecretOptional("user"),
+                        httpSecrets.getSecretOptional("password")),
+                    this::client,
+                    HttpOperatorFactory::stop);
+        }
+
         HttpClient client()
         {
             boolean insecure = params.get("insecure", boolean.class, false);
 
             HttpClient httpClient = new HttpClient(new SslContextFactory(insecure));
 
+            if (clientPool.isEnabled()) {
+                // don't send cookies set by a task to other tasks sharing the client
+                httpClient.setCookieStore(new HttpCookieStore.Empty());
+            }
+
             configureProxy(httpClient);
 
             boolean followRedirects = params.get("follow_redirects", boolean.class, true);
@@ -471,14 +491,15 @@ public class HttpOperatorFactory
             }
         }
 
-        void stop(HttpClient httpClient)
-        {
-            try {
-                httpClient.stop();
-            }
-            catch (Exception e) {
-                logger.warn("Failed to stop http client", e);
-            }
+    }
+
+    private static void stop(HttpClient httpClient)
+    {
+        try {
+            httpClient.stop();
+        }
+        catch (Exception e) {
+            logger.warn("Failed to stop http client", e);
         }
     }
 
@@ -13,6 +13,7 @@ import io.digdag.standards.operator.pg.PgOperatorFactory;
 import io.digdag.standards.operator.redshift.RedshiftLoadOperatorFactory;
 import io.digdag.standards.operator.redshift.RedshiftOperatorFactory;
 import io.digdag.standards.operator.redshift.RedshiftUnloadOperatorFactory;
+import io.digdag.standards.operator.state.PollingProbeRegistry;
 import io.digdag.standards.operator.td.TDResultExportOperatorFactory;
 import io.digdag.standards.operator.td.TdDdlOperatorFactory;
 import io.digdag.standards.operator.td.TdForEachOperatorFactory;
@@ -30,6 +31,9 @@ public class OperatorModule
     @Override
     public void configure(Binder binder)
     {
+        binder.bind(ClientPool.class).in(Scopes.SINGLETON);
+        binder.bind(PollingProbeRegistry.class).in(Scopes.SINGLETON);
+
         addStandardOperatorFactory(binder, PyOperatorFactory.class);
         addStandardOperatorFactory(binder, RbOperatorFactory.class);
         addStandardOperatorFactory(binder, ShOperatorFactory.class);
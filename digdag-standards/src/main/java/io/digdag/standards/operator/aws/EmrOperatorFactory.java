@@ -3,6 +3,7 @@ package io.digdag.standards.operator.aws;
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSSessionCredentials;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.auth.BasicSessionCredentials;
 import com.amazonaws.services.elasticmapreduce.AmazonElasticMapReduce;
@@ -81,6 +82,7 @@ import io.digdag.spi.TaskExecutionException;
 import io.digdag.spi.TaskResult;
 import io.digdag.spi.TemplateEngine;
 import io.digdag.spi.TemplateException;
+import io.digdag.standards.operator.ClientPool;
 import io.digdag.standards.operator.DurationInterval;
 import io.digdag.standards.operator.state.TaskState;
 import io.digdag.util.BaseOperator;
@@ -140,14 +142,16 @@ public class EmrOperatorFactory
     private final ObjectMapper objectMapper;
     private final ConfigFactory cf;
     private final Map<String, String> environment;
+    private final ClientPool clientPool;
 
     @Inject
-    public EmrOperatorFactory(TemplateEngine templateEngine, ObjectMapper objectMapper, ConfigFactory cf, @Environment Map<String, String> environment)
+    public EmrOperatorFactory(TemplateEngine templateEngine, ObjectMapper objectMapper, ConfigFactory cf, @Environment Map<String, String> environment, ClientPool clientPool)
     {
         this.templateEngine = templateEngine;
         this.objectMapper = objectMapper;
         this.cf = cf;
         this.environment = environment;
+        this.clientPool = clientPool;
     }
 
     @Override
@@ -223,14 +227,6 @@ public class EmrOperatorFactory
             Aws.configureProxy(s3ClientConfiguration, s3Endpoint, environment);
             Aws.configureProxy(kmsClientConfiguration, kmsEndpoint, environment);
 
-            AmazonElasticMapReduceClient emr = new AmazonElasticMapReduceClient(credentials, emrClientConfiguration);
-            AmazonS3Client s3 = new AmazonS3Client(credentials, s3ClientConfiguration);
-            AWSKMSClient kms = new AWSKMSClient(credentials, kmsClientConfiguration);
-
-            Aws.configureServiceClient(s3, s3Endpoint, s3RegionName);
-            Aws.configureServiceClient(emr, emrEndpoint, emrRegionName);
-            Aws.configureServiceClient(kms, kmsEndpoint, kmsRegionName);
-
             // Set up file stager
             Optional<AmazonS3URI> staging = params.getOptional("staging", String.class).transform(s -> {
                 try {
@@ -240,6 +236,36 @@ public class EmrOperatorFactory
                     throw new ConfigException("Invalid staging uri: '" + s + "'", ex);
                 }
             });
+
+            ClientPool.Lease<AmazonElasticMapReduceClient> emrLease = clientPool.acquire("emr",
+                    clientKey(credentials, emrEndpoint, emrRegionName),
+                    () -> {
+                        AmazonElasticMapReduceClient client = new AmazonElasticMapReduceClient(credentials, emrClientConfiguration);
+                        Aws.configureServiceClient(client, emrEndpoint, emrRegionName);
+                        return client;
+                    },
+                    AmazonElasticMapReduceClient::shutdown);
+            ClientPool.Lease<AmazonS3Client> s3Lease = clientPool.acquire("emr_s3",
+                    clientKey(credentials, s3Endpoint, s3RegionName),
+                    () -> {
+                        AmazonS3Client client = new AmazonS3Client(credentials, s3ClientConfiguration);
+                        Aws.configureServiceClient(client, s3Endpoint, s3RegionName);
+                        return client;
+                    },
+                    AmazonS3Client::shutdown);
+            ClientPool.Lease<AWSKMSClient> kmsLease = clientPool.acquire("emr_kms",
+                    clientKey(credentials, kmsEndpoint, kmsRegionName),
+                    () -> {
+                        AWSKMSClient client = new AWSKMSClient(credentials, kmsClientConfiguration);
+                        Aws.configureServiceClient(client, kmsEndpoint, kmsRegionName);
+                        return client;
+                    },
+                    AWSKMSClient::shutdown);
+
+            AmazonElasticMapReduceClient emr = emrLease.get();
+            AmazonS3Client s3 = s3Lease.get();
+            AWSKMSClient kms = kmsLease.get();
+
             Filer filer = new Filer(s3, staging, workspace, templateEngine, params);
 
             // TODO: make it possible for operators to _reliably_ clean up
@@ -266,9 +292,21 @@ public class EmrOperatorFactory
                         logger.warn("Failed to clean up staging: {}", staging, t);
                     }
                 }
-                s3.shutdown();
-                emr.shutdown();
+                s3Lease.close();
+                emrLease.close();
+                kmsLease.close();
+            }
+        }
+
+        private List<Object> clientKey(AWSCredentials credentials, Optional<String> endpoint, Optional<String> regionName)
+        {
+            String sessionToken = "";
+            if (credentials instanceof AWSSessionCredentials) {
+                sessionToken = ((AWSSessionCredentials) credentials).getSessionToken();
             }
+            return ImmutableList.of(
+                    credentials.getAWSAccessKeyId(), credentials.getAWSSecretKey(), sessionToken,
+                    endpoint, regionName);
         }
 
         private AWSCredentials credentials(String tag)
@@ -8,7 +8,10 @@ import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.S3ClientOptions;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.amazonaws.services.s3.model.SSECustomerKey;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
@@ -25,7 +28,9 @@ import io.digdag.spi.SecretProvider;
 import io.digdag.spi.OperatorContext;
 import io.digdag.spi.TaskRequest;
 import io.digdag.spi.TaskResult;
+import io.digdag.standards.operator.ClientPool;
 import io.digdag.standards.operator.DurationInterval;
+import io.digdag.standards.operator.state.PollingProbeRegistry;
 import io.digdag.standards.operator.state.PollingTimeoutException;
 import io.digdag.standards.operator.state.TaskState;
 import io.digdag.util.DurationParam;
@@ -35,6 +40,8 @@ import org.slf4j.LoggerFactory;
 import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static io.digdag.standards.operator.state.PollingRetryExecutor.pollingRetryExecutor;
 import static io.digdag.standards.operator.state.PollingWaiter.pollingWaiter;
@@ -46,22 +53,32 @@ public class S3WaitOperatorFactory
 
     private static final DurationInterval POLL_INTERVAL = DurationInterval.of(Duration.ofSeconds(5), Duration.ofMinutes(5));
 
+    // A LIST request costs as much as about 12 HEAD requests. Listing a prefix
+    // instead of checking each object pays when more objects are waited.
+    private static final int LIST_THRESHOLD = 12;
+
     private final AmazonS3ClientFactory s3ClientFactory;
     private final Map<String, String> environment;
+    private final ClientPool clientPool;
+    private final PollingProbeRegistry probes;
 
     @Inject
-    public S3WaitOperatorFactory(@Environment Map<String, String> environment)
+    public S3WaitOperatorFactory(@Environment Map<String, String> environment, ClientPool clientPool, PollingProbeRegistry probes)
     {
-        this(AmazonS3Client::new, environment);
+        this(AmazonS3Client::new, environment, clientPool, probes);
     }
 
     @VisibleForTesting
     S3WaitOperatorFactory(
             AmazonS3ClientFactory s3ClientFactory,
-            Map<String, String> environment)
+            Map<String, String> environment,
+            ClientPool clientPool,
+            PollingProbeRegistry probes)
     {
         this.s3ClientFactory = s3ClientFactory;
         this.environment = environment;
+        this.clientPool = clientPool;
+        this.probes = probes;
     }
 
     public String getType()
@@ -138,6 +155,17 @@ public class S3WaitOperatorFactory
                     .or(() -> awsSecrets.getSecret("secret_access_key"));
 
             // Create S3 Client
+            List<Object> clientKey = ImmutableList.of(endpoint, regionName, accessKey, secretKey, pathStyleAccess);
+            try (ClientPool.Lease<AmazonS3Client> lease = clientPool.acquire("s3", clientKey,
+                        () -> createS3Client(endpoint, regionName, accessKey, secretKey, pathStyleAccess),
+                        AmazonS3Client::shutdown)) {
+                return run(lease.get(), clientKey, bucket, key, versionId, timeout, continueOnTimeout, s3Secrets);
+            }
+        }
+
+        private AmazonS3Client createS3Client(Optional<String> endpoint, Optional<String> regionName,
+                String accessKey, String secretKey, Optional<Boolean> pathStyleAccess)
+        {
             ClientConfiguration configuration = new ClientConfiguration();
             Aws.configureProxy(configuration, endpoint, environment);
             AWSCredentials credentials = new BasicAWSCredentials(accessKey, secretKey);
@@ -152,7 +180,12 @@ public class S3WaitOperatorFactory
                 }
                 s3Client.setS3ClientOptions(builder.build());
             }
+            return s3Client;
+        }
 
+        private TaskResult run(AmazonS3Client s3Client, List<Object> clientKey, Optional<String> bucket, Optional<String> key, Optional<String> versionId,
+                Optional<Duration> timeout, boolean continueOnTimeout, SecretProvider s3Secrets)
+        {
             GetObjectMetadataRequest req = new GetObjectMetadataRequest(bucket.get(), key.get());
 
             if (versionId.isPresent()) {
@@ -173,6 +206,13 @@ public class S3WaitOperatorFactory
                 req.setSSECustomerKey(sseKey);
             }
 
+            // tasks waiting for the same object share the result
+            List<Object> objectKey = ImmutableList.builder()
+                    .addAll(clientKey)
+                    .add(bucket.get(), key.get(), versionId, sseCustomerKey)
+                    .build();
+            boolean canList = !versionId.isPresent() && !sseCustomerKey.isPresent();
+
             try {
                 ObjectMetadata objectMetadata = pollingWaiter(state, "EXISTS")
                         .withPollInterval(POLL_INTERVAL)
@@ -181,14 +221,10 @@ public class S3WaitOperatorFactory
                         .await(pollState -> pollingRetryExecutor(pollState, "POLL")
                                 .retryUnless(AmazonServiceException.class, Aws::isDeterministicException)
                                 .run(s -> {
-                                    try {
-                                        return Optional.of(s3Client.getObjectMetadata(req));
-                                    } catch (AmazonS3Exception e) {
-                                        if (e.getStatusCode() == 404) {
-                                            return Optional.absent();
-                                        }
-                                        throw e;
+                                    if (canList && isAbsentInListing(s3Client, clientKey, bucket.get(), key.get())) {
+                                        return Optional.absent();
                                     }
+                                    return probes.probe("s3", objectKey, () -> getObjectMetadata(s3Client, req));
                                 }));
                 return TaskResult.defaultBuilder(request)
                         .resetStoreParams(ImmutableList.of(ConfigKey.of("s3", "last_object")))
@@ -207,6 +243,59 @@ public class S3WaitOperatorFactory
             }
         }
 
+        private Optional<ObjectMetadata> getObjectMetadata(AmazonS3Client s3Client, GetObjectMetadataRequest req)
+        {
+            try {
+                return Optional.of(s3Client.getObjectMetadata(req));
+            } catch (AmazonS3Exception e) {
+                if (e.getStatusCode() == 404) {
+                    return Optional.absent();
+                }
+                throw e;
+            }
+        }
+
+        private boolean isAbsentInListing(AmazonS3Client s3Client, List<Object> clientKey, String bucket, String key)
+                throws Exception
+        {
+            String prefix = key.substring(0, key.lastIndexOf('/') + 1);
+            List<Object> prefixKey = ImmutableList.builder()
+                    .addAll(clientKey)
+                    .add(bucket, prefix)
+                    .build();
+            if (probes.watch("s3_prefix", prefixKey, key) < LIST_THRESHOLD) {
+                return false;
+            }
+            Optional<Set<String>> keys = probes.probe("s3_list", prefixKey, () -> listKeys(s3Client, bucket, prefix));
+            return keys.isPresent() && !keys.get().contains(key);
+        }
+
+        private Optional<Set<String>> listKeys(AmazonS3Client s3Client, String bucket, String prefix)
+        {
+            ObjectListing listing;
+            try {
+                listing = s3Client.listObjects(new ListObjectsRequest()
+                        .withBucketName(bucket)
+                        .withPrefix(prefix)
+                        .withDelimiter("/"));
+            }
+            catch (AmazonS3Exception e) {
+                if (e.getStatusCode() == 403 || e.getStatusCode() == 404) {
+                    // s3:ListBucket is not granted, or the bucket doesn't exist yet (NoSuchBucket).
+                    // Check each object instead.
+                    return Optional.absent();
+                }
+                throw e;
+            }
+            if (listing.isTruncated()) {
+                // too many objects to list at once
+                return Optional.absent();
+            }
+            return Optional.of(listing.getObjectSummaries().stream()
+                    .map(S3ObjectSummary::getKey)
+                    .collect(Collectors.toSet()));
+        }
+
         private Config storeParams(Optional<ObjectMetadata> objectMetadata)
         {
             Config params = request.getConfig().getFactory().create();
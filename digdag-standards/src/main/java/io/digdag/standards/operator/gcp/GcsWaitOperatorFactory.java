@@ -12,8 +12,10 @@ import io.digdag.spi.Operator;
 import io.digdag.spi.OperatorFactory;
 import io.digdag.spi.OperatorContext;
 import io.digdag.spi.TaskResult;
+import io.digdag.standards.operator.state.PollingProbeRegistry;
 import io.digdag.standards.operator.state.TaskState;
 
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -25,14 +27,17 @@ class GcsWaitOperatorFactory
 {
     private final GcsClient.Factory clientFactory;
     private final GcpCredentialProvider credentialProvider;
+    private final PollingProbeRegistry probes;
 
     @Inject
     GcsWaitOperatorFactory(
             GcsClient.Factory clientFactory,
-            GcpCredentialProvider credentialProvider)
+            GcpCredentialProvider credentialProvider,
+            PollingProbeRegistry probes)
     {
         this.clientFactory = clientFactory;
         this.credentialProvider = credentialProvider;
+        this.probes = probes;
     }
 
     public String getType()
@@ -83,16 +88,20 @@ class GcsWaitOperatorFactory
                 object = Optional.of(m.group("object"));
             }
 
-            return await(gcs, bucket.get(), object.get());
+            return await(gcs, projectId, bucket.get(), object.get());
         }
 
-        private TaskResult await(GcsClient gcs, String bucket, String object)
+        private TaskResult await(GcsClient gcs, String projectId, String bucket, String object)
         {
+            // tasks waiting for the same object with the same credential share the result
+            List<Object> objectKey = ImmutableList.of(
+                    context.getSecrets().getSecretOptional("gcp.credential"), projectId, bucket, object);
+
             StorageObject metadata = pollingWaiter(state, "exists")
                     .withWaitMessage("Object '%s/%s' does not yet exist", bucket, object)
                     .await(pollState -> pollingRetryExecutor(pollState, "poll")
                             .retryUnless(GoogleJsonResponseException.class, Gcp::isDeterministicException)
-                            .run(s -> gcs.stat(bucket, object)));
+                            .run(s -> probes.probe("gcs", objectKey, () -> gcs.stat(bucket, object))));
 
             return TaskResult.defaultBuilder(request)
                     .resetStoreParams(ImmutableList.of(ConfigKey.of("gcs_wait", "last_object")))
@@ -63,37 +63,43 @@ public class ParamGetOperatorFactory
         @Override
         public TaskResult runTask()
         {
-            Optional<String> paramServerType = systemConfig.getOptional("param_server.type", String.class);
-            if (!paramServerType.isPresent()) {
-                throw new ConfigException("param_server.type is required to use this operator.");
-            }
+            try {
+                Optional<String> paramServerType = systemConfig.getOptional("param_server.type", String.class);
+                if (!paramServerType.isPresent()) {
+                    throw new ConfigException("param_server.type is required to use this operator.");
+                }
 
-            Config params = request.getLocalConfig();
-            List<String> keys = params.getKeys();
-            if (keys.size() == 0) {
-                throw new ConfigException("no key is set.");
-            }
+                Config params = request.getLocalConfig();
+                List<String> keys = params.getKeys();
+                if (keys.size() == 0) {
+                    throw new ConfigException("no key is set.");
+                }
 
-            TaskResult taskResult = TaskResult.empty(request);
-            Config storeParams = taskResult.getStoreParams();
+                TaskResult taskResult = TaskResult.empty(request);
+                Config storeParams = taskResult.getStoreParams();
 
-            for (String key : keys) {
-                Optional<String> destKey = params.getOptional(key, String.class);
-                if (destKey.isPresent()) {
-                    Optional<Record> record = paramServerClient.get(key, request.getSiteId());
-                    storeParams.set(
-                            destKey.get(),
-                            // In this operator, we expect that record.get().value().get("value")
-                            // returns only String class value.
-                            record.isPresent() ? record.get().value().get("value") : ""
-                    );
+                for (String key : keys) {
+                    Optional<String> destKey = params.getOptional(key, String.class);
+                    if (destKey.isPresent()) {
+                        Optional<Record> record = paramServerClient.get(key, request.getSiteId());
+                        storeParams.set(
+                                destKey.get(),
+                                // In this operator, we expect that record.get().value().get("value")
+                                // returns only String class value.
+                                record.isPresent() ? record.get().value().get("value") : ""
+                        );
+                    }
                 }
-            }
 
-            // To close connection
-            paramServerClient.commit();
+                // To close connection
+                paramServerClient.commit();
 
-            return taskResult;
+                return taskResult;
+            }
+            finally {
+                // Returns the connection even if the task fails. This does nothing if it's already committed.
+                paramServerClient.close();
+            }
         }
     }
 }
@@ -62,35 +62,41 @@ public class ParamSetOperatorFactory
         @Override
         public TaskResult runTask()
         {
-            Optional<String> paramServerType = systemConfig.getOptional("param_server.type", String.class);
-            if (!paramServerType.isPresent()) {
-                throw new ConfigException("param_server.type is required to use this operator.");
-            }
-            Config localParams = request.getLocalConfig();
+            try {
+                Optional<String> paramServerType = systemConfig.getOptional("param_server.type", String.class);
+                if (!paramServerType.isPresent()) {
+                    throw new ConfigException("param_server.type is required to use this operator.");
+                }
+                Config localParams = request.getLocalConfig();
 
-            List<String> keys = localParams.getKeys();
-            if (keys.size() == 0) {
-                throw new ConfigException("no key is set.");
-            }
+                List<String> keys = localParams.getKeys();
+                if (keys.size() == 0) {
+                    throw new ConfigException("no key is set.");
+                }
 
-            paramServerClient.doTransaction(client -> {
-                for (String key : keys) {
-                    // This operator expected to take a String like scalar value as parameters.
-                    // e.g.
-                    //   param_set>:
-                    //   key1: value1
-                    //   key2: value2
-                    //
-                    // So if user specified Array like value, `localParams.getOptional(key, String.class)` throws Error.
-                    // If we about to support Array like value, we need to create an another operator.
-                    Optional<String> value = localParams.getOptional(key, String.class);
-                    if (value.isPresent()) {
-                        paramServerClient.set(key, value.get(), request.getSiteId());
+                paramServerClient.doTransaction(client -> {
+                    for (String key : keys) {
+                        // This operator expected to take a String like scalar value as parameters.
+                        // e.g.
+                        //   param_set>:
+                        //   key1: value1
+                        //   key2: value2
+                        //
+                        // So if user specified Array like value, `localParams.getOptional(key, String.class)` throws Error.
+                        // If we about to support Array like value, we need to create an another operator.
+                        Optional<String> value = localParams.getOptional(key, String.class);
+                        if (value.isPresent()) {
+                            paramServerClient.set(key, value.get(), request.getSiteId());
+                        }
                     }
-                }
-            });
+                });
 
-            return TaskResult.empty(request);
+                return TaskResult.empty(request);
+            }
+            finally {
+                // returns the connection if doTransaction fails or isn't reached
+                paramServerClient.close();
+            }
         }
     }
 }
@@ -103,6 +103,20 @@ public class PostgresqlParamServerClient
         }
     }
 
+    @Override
+    public void close()
+    {
+        if (handle != null) {
+            try {
+                handle.rollback();
+            }
+            finally {
+                handle.close();
+                this.handle = null;
+            }
+        }
+    }
+
     private String jsonizeValue(String originalValue)
             throws JsonProcessingException
     {
@@ -112,6 +112,16 @@ public class RedisParamServerClient
         }
     }
 
+    @Override
+    public void close()
+    {
+        if (connection != null) {
+            msetTarget.clear();
+            connection.close();
+            this.connection = null;
+        }
+    }
+
     private String formattedKey(String key, int siteId)
     {
         return String.valueOf(siteId) + ":" + key;
@@ -5,37 +5,50 @@ import io.digdag.client.config.Config;
 import io.digdag.spi.ParamServerClientConnection;
 import io.digdag.spi.ParamServerClientConnectionManager;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Protocol;
 
 public class RedisServerClientConnectionManager
         implements ParamServerClientConnectionManager
 {
-    private final String host;
-    private final Integer port;
-    private final Boolean ssl;
-    private final Optional<String> password;
+    private final JedisPool pool;
 
     public RedisServerClientConnectionManager(Config systemConfig)
     {
-        host = systemConfig.get("param_server.host", String.class, "localhost");
-        port = systemConfig.get("param_server.port", Integer.class, 6379);
-        ssl = systemConfig.get("param_server.ssl", Boolean.class, false);
-        password = systemConfig.getOptional("param_server.password", String.class);
+        String host = systemConfig.get("param_server.host", String.class, "localhost");
+        Integer port = systemConfig.get("param_server.port", Integer.class, 6379);
+        Boolean ssl = systemConfig.get("param_server.ssl", Boolean.class, false);
+        Optional<String> password = systemConfig.getOptional("param_server.password", String.class);
+
+        // same defaults as PostgresqlServerClientConnectionManager
+        int maximumPoolSize = systemConfig.get("param_server.maximumPoolSize", int.class,
+                Runtime.getRuntime().availableProcessors() * 32);
+        int idleTimeout = systemConfig.get("param_server.idleTimeout", int.class, 600);
+        int connectionTimeout = systemConfig.get("param_server.connectionTimeout", int.class, 30);
+
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(maximumPoolSize);
+        poolConfig.setMaxIdle(maximumPoolSize);
+        poolConfig.setMinIdle(0);
+        poolConfig.setMinEvictableIdleTimeMillis(idleTimeout * 1000L);
+        // getResource fails instead of blocking a task thread forever if all connections are in use
+        poolConfig.setMaxWaitMillis(connectionTimeout * 1000L);
+
+        pool = new JedisPool(poolConfig, host, port, Protocol.DEFAULT_TIMEOUT, password.orNull(), ssl);
     }
 
     @Override
     public ParamServerClientConnection getConnection()
     {
-        Jedis redisClient = new Jedis(host, port, ssl);
-        if (password.isPresent()) {
-            redisClient.auth(password.get());
-        }
-
-        redisClient.connect();
+        // Jedis.close() returns the connection to the pool
+        Jedis redisClient = pool.getResource();
         return new RedisServerClientConnection(redisClient);
     }
 
     @Override
     public void shutdown()
     {
+        pool.close();
     }
 }
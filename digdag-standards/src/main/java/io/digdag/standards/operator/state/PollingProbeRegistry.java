@@ -0,0 +1,200 @@
+package io.digdag.standards.operator.state;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.inject.Inject;
+import io.digdag.client.config.Config;
+import io.digdag.metrics.StdDigdagMetrics;
+import io.digdag.spi.metrics.DigdagMetrics;
+import io.micrometer.core.instrument.Tags;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static io.digdag.spi.metrics.DigdagMetrics.Category;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Shares results of polling operators across tasks in an agent.
+ *
+ * Tasks waiting for the same condition (e.g. s3_wait tasks waiting for the
+ * same object with the same credentials) get the result of a probe made by
+ * another task within the last agent.polling-result-ttl seconds instead of
+ * calling the external service again. Concurrent probes with the same key
+ * are made only once. Failures are not shared.
+ *
+ * If the ttl is 0 (default), every probe calls the service.
+ */
+public class PollingProbeRegistry
+{
+    private static final int MAX_RESULTS = 10000;
+
+    private static class Result
+    {
+        private final Object value;
+
+        Result(Object value)
+        {
+            this.value = value;
+        }
+    }
+
+    private final long ttlNanos;
+    private final Ticker ticker;
+    private final Cache<String, Result> results;
+    private final Cache<String, Map<Object, Long>> watchers;
+
+    @Inject(optional = true)
+    private DigdagMetrics metrics = StdDigdagMetrics.empty();
+
+    @Inject
+    public PollingProbeRegistry(Config systemConfig)
+    {
+        this(systemConfig.get("agent.polling-result-ttl", int.class, 0), Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    PollingProbeRegistry(int ttlSeconds, Ticker ticker)
+    {
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(ttlSeconds, 0));
+        this.ticker = ticker;
+        if (ttlNanos > 0) {
+            this.results = CacheBuilder.newBuilder()
+                    .ticker(ticker)
+                    .expireAfterWrite(ttlNanos, TimeUnit.NANOSECONDS)
+                    .maximumSize(MAX_RESULTS)
+                    .build();
+            this.watchers = CacheBuilder.newBuilder()
+                    .ticker(ticker)
+                    .expireAfterAccess(ttlNanos, TimeUnit.NANOSECONDS)
+                    .maximumSize(MAX_RESULTS)
+                    .build();
+        }
+        else {
+            this.results = null;
+            this.watchers = null;
+        }
+    }
+
+    public static PollingProbeRegistry disabled()
+    {
+        return new PollingProbeRegistry(0, Ticker.systemTicker());
+    }
+
+    public boolean isEnabled()
+    {
+        return results != null;
+    }
+
+    /**
+     * Returns the result of the probe shared by tasks polling the same key.
+     * The key must contain everything that can change the result, such as
+     * the endpoint, credentials and the target. Secrets in it are hashed.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T probe(String type, Iterable<?> key, Callable<T> probe)
+            throws Exception
+    {
+        if (!isEnabled()) {
+            return probe.call();
+        }
+
+        AtomicBoolean probed = new AtomicBoolean(false);
+        Result result;
+        try {
+            result = results.get(id(type, key), () -> {
+                probed.set(true);
+                return new Result(probe.call());
+            });
+        }
+        catch (ExecutionException | UncheckedExecutionException | ExecutionError ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+        countProbe(type, probed.get());
+        return (T) result.value;
+    }
+
+    /**
+     * Returns a result stored by {@link #put} if it's not older than the ttl.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Optional<T> getIfPresent(String type, Iterable<?> key)
+    {
+        if (!isEnabled()) {
+            return Optional.absent();
+        }
+        Result result = results.getIfPresent(id(type, key));
+        if (result == null) {
+            return Optional.absent();
+        }
+        countProbe(type, false);
+        return Optional.of((T) result.value);
+    }
+
+    /**
+     * Stores a result of a probe that is too long to share with
+     * {@link #probe}, such as a query job.
+     */
+    public void put(String type, Iterable<?> key, Object value)
+    {
+        if (!isEnabled()) {
+            return;
+        }
+        results.put(id(type, key), new Result(value));
+        countProbe(type, true);
+    }
+
+    /**
+     * Records that a task is waiting for the member in the group, and
+     * returns the number of distinct members waited in the group within
+     * the ttl. A caller uses this to decide whether probing the whole group
+     * at once (e.g. listing a prefix) is cheaper than probing each member.
+     */
+    public int watch(String type, Iterable<?> group, Object member)
+    {
+        if (!isEnabled()) {
+            return 1;
+        }
+        Map<Object, Long> members;
+        try {
+            members = watchers.get(id(type, group), ConcurrentHashMap::new);
+        }
+        catch (ExecutionException ex) {
+            throw new AssertionError(ex);
+        }
+        long now = ticker.read();
+        members.put(member, now);
+        members.values().removeIf(watchedAt -> now - watchedAt >= ttlNanos);
+        return members.size();
+    }
+
+    private void countProbe(String type, boolean probed)
+    {
+        if (probed) {
+            metrics.increment(Category.AGENT, "pollingProbes", Tags.of("type", type));
+        }
+        else {
+            metrics.increment(Category.AGENT, "pollingProbesSaved", Tags.of("type", type));
+        }
+    }
+
+    private static String id(String type, Iterable<?> key)
+    {
+        return type + ":" + Hashing.sha256().hashString(Joiner.on('\0').useForNull("").join(key), UTF_8);
+    }
+}
@@ -2,18 +2,24 @@ package io.digdag.standards.operator.td;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Inject;
 import com.treasuredata.client.ProxyConfig;
 import com.treasuredata.client.TDClient;
 import com.treasuredata.client.TDClientBuilder;
+import com.treasuredata.client.TDClientConfig;
+import com.treasuredata.client.TDHttpClient;
 import io.digdag.client.config.Config;
 import io.digdag.client.config.ConfigException;
 import io.digdag.spi.SecretProvider;
 import io.digdag.standards.Proxies;
+import io.digdag.standards.operator.ClientPool;
 import io.digdag.standards.operator.td.TDOperator.SystemDefaultConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Map;
+import java.util.TreeMap;
 
 import static org.jboss.resteasy.util.Encode.decode;
 
@@ -22,10 +28,57 @@ public class TDClientFactory implements BaseTDClientFactory
 
     private static Logger logger = LoggerFactory.getLogger(TDClientFactory.class);
 
+    private final ClientPool clientPool;
+
+    public TDClientFactory()
+    {
+        this(ClientPool.disabled());
+    }
+
+    @Inject
+    public TDClientFactory(ClientPool clientPool)
+    {
+        this.clientPool = clientPool;
+    }
+
     @Override
     public TDClient createClient(SystemDefaultConfig systemDefaultConfig, Map<String, String> env, Config params, SecretProvider secrets)
     {
-        return clientFromConfig(systemDefaultConfig, env, params, secrets);
+        if (!clientPool.isEnabled()) {
+            return clientFromConfig(systemDefaultConfig, env, params, secrets);
+        }
+        // TDClient itself is cheap. Share TDHttpClient which keeps connections.
+        TDClientConfig config = clientBuilderFromConfig(systemDefaultConfig, env, params, secrets).buildConfig();
+        ClientPool.Lease<TDHttpClient> lease = clientPool.acquire("td",
+                ImmutableList.of(new TreeMap<>(config.toProperties())),
+                () -> new TDHttpClient(config),
+                TDHttpClient::close);
+        return new PooledTDClient(config, lease, config.apiKey);
+    }
+
+    private static class PooledTDClient
+            extends TDClient
+    {
+        private final ClientPool.Lease<TDHttpClient> lease;
+
+        PooledTDClient(TDClientConfig config, ClientPool.Lease<TDHttpClient> lease, Optional<String> apiKeyCache)
+        {
+            super(config, lease.get(), apiKeyCache);
+            this.lease = lease;
+        }
+
+        @Override
+        public TDClient withApiKey(String newApiKey)
+        {
+            return new PooledTDClient(config, lease, Optional.of(newApiKey));
+        }
+
+        @Override
+        public void close()
+        {
+            // returns the http client to the pool instead of closing it
+            lease.close();
+        }
     }
 
     protected static TDClientBuilder clientBuilderFromConfig(SystemDefaultConfig systemDefaultConfig, Map<String, String> env, Config params, SecretProvider secrets)
@@ -2,6 +2,7 @@ package io.digdag.standards.operator.td;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.inject.Inject;
 import com.treasuredata.client.TDClientException;
 import com.treasuredata.client.model.TDJob;
@@ -13,9 +14,11 @@ import io.digdag.core.Environment;
 import io.digdag.spi.Operator;
 import io.digdag.spi.OperatorFactory;
 import io.digdag.spi.OperatorContext;
+import io.digdag.spi.SecretProvider;
 import io.digdag.spi.TaskExecutionException;
 import io.digdag.spi.TaskResult;
 import io.digdag.standards.operator.DurationInterval;
+import io.digdag.standards.operator.state.PollingProbeRegistry;
 import io.digdag.standards.operator.state.TaskState;
 import io.digdag.standards.operator.td.TDOperator.SystemDefaultConfig;
 import io.digdag.util.AbstractWaitOperatorFactory;
@@ -28,6 +31,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import static io.digdag.standards.operator.state.PollingRetryExecutor.pollingRetryExecutor;
@@ -53,9 +58,10 @@ public class TdWaitTableOperatorFactory
     private final DurationInterval retryInterval;
     private final SystemDefaultConfig systemDefaultConfig;
     private final BaseTDClientFactory clientFactory;
+    private final PollingProbeRegistry probes;
 
     @Inject
-    public TdWaitTableOperatorFactory(Config systemConfig, @Environment Map<String, String> env, BaseTDClientFactory clientFactory)
+    public TdWaitTableOperatorFactory(Config systemConfig, @Environment Map<String, String> env, BaseTDClientFactory clientFactory, PollingProbeRegistry probes)
     {
         super("td.wait", systemConfig);
         this.pollInterval = TDOperator.pollInterval(systemConfig);
@@ -63,6 +69,7 @@ public class TdWaitTableOperatorFactory
         this.systemDefaultConfig = TDOperator.systemDefaultConfig(systemConfig);
         this.env = env;
         this.clientFactory = clientFactory;
+        this.probes = probes;
     }
 
     public String getType()
@@ -136,17 +143,31 @@ public class TdWaitTableOperatorFactory
                     state.params().set(TABLE_EXISTS, true);
                 }
 
+                // Tasks waiting for the same table share the count
+                List<Object> countKey = probeKey(op, createQuery());
+                if (!state.params().has(POLL_JOB)) {
+                    Optional<BigInteger> sharedCount = probes.getIfPresent("td_count", countKey);
+                    if (sharedCount.isPresent()) {
+                        logger.debug("using row count of table {} counted by another task: {}", table, sharedCount.get());
+                        if (BigInteger.valueOf(rows).compareTo(sharedCount.get()) > 0) {
+                            throw state.pollingTaskExecutionException(tablePollInterval);
+                        }
+                        return TaskResult.empty(request);
+                    }
+                }
+
                 TDJobOperator job = op.runJob(state, POLL_JOB, pollInterval, retryInterval, this::startJob);
 
                 // Fetch the job output to see if the row count condition was fulfilled
                 logger.debug("fetching poll job result: {}", job.getJobId());
-                boolean done = fetchJobResult(rows, job);
+                BigInteger count = fetchJobResult(job);
+                probes.put("td_count", countKey, count);
 
                 // Remove the poll job state _after_ fetching the result so that the result fetch can be retried without resubmitting the job.
                 state.params().remove(POLL_JOB);
 
                 // Go back to sleep if the row count condition was not fulfilled
-                if (!done) {
+                if (BigInteger.valueOf(rows).compareTo(count) > 0) {
                     throw state.pollingTaskExecutionException(tablePollInterval);
                 }
                 logger.info("Finished. Last job id={}", job.getJobId());
@@ -160,15 +181,26 @@ public class TdWaitTableOperatorFactory
 
         private boolean tableExists(TDOperator op)
         {
-
+            List<Object> existsKey = probeKey(op, table.getTable());
             return pollingRetryExecutor(state, EXISTS)
                     .retryUnless(TDOperator::isDeterministicClientException)
                     .withErrorMessage("Failed to check existence of table '%s.%s'", op.getDatabase(), table.getTable())
                     .withRetryInterval(retryInterval)
-                    .run(s -> op.tableExists(table.getTable()));
+                    .run(s -> probes.probe("td_table", existsKey, () -> op.tableExists(table.getTable())));
+        }
+
+        private List<Object> probeKey(TDOperator op, String target)
+        {
+            if (!probes.isEnabled()) {
+                return ImmutableList.of();
+            }
+            SecretProvider secrets = context.getSecrets().getSecrets("td");
+            String endpoint = secrets.getSecretOptional("endpoint")
+                    .or(() -> params.get("endpoint", String.class, systemDefaultConfig.getEndpoint()));
+            return Arrays.asList(endpoint, TDClientFactory.getApikey(secrets), op.getDatabase(), target);
         }
 
-        private boolean fetchJobResult(int rows, TDJobOperator job)
+        private BigInteger fetchJobResult(TDJobOperator job)
         {
             Optional<ArrayValue> firstRow = pollingRetryExecutor(state, RESULT)
                     .retryUnless(TDOperator::isDeterministicClientException)
@@ -195,7 +227,7 @@ public class TdWaitTableOperatorFactory
                 throw new TaskExecutionException("Got unexpected value type count job: " + count.getValueType());
             }
 
-            return BigInteger.valueOf(rows).compareTo(actualRows.asBigInteger()) <= 0;
+            return actualRows.asBigInteger();
         }
 
         @VisibleForTesting
@@ -0,0 +1,395 @@
+package io.digdag.standards.scheduler;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.zone.ZoneOffsetTransition;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.digdag.client.config.ConfigException;
+import it.sauronsoftware.cron4j.SchedulingPattern;
+
+/**
+ * A cron pattern compiled to bitsets of matching minutes, hours, days,
+ * months and days of week.
+ *
+ * Syntax is parsed by cron4j's SchedulingPattern so that patterns such as
+ * "L", ranges, aliases and "|" behave exactly same with cron4j. The bitsets
+ * are built by matching each value of each field with a single-field
+ * pattern.
+ *
+ * next() and previous() jump field by field on local date-times instead of
+ * scanning minutes. Local times are converted to instants with
+ * ZonedDateTime.of. Thus, a time in a DST gap runs after the gap (e.g. 02:30
+ * runs at 03:30), and a time repeated in a DST overlap runs only once, at
+ * the earlier offset.
+ */
+class CronPattern
+{
+    // a safety limit. isSatisfiable ensures that a pattern matches at least once in 28 years,
+    // which is much shorter than 400 years.
+    private static final int MAX_SEARCH_YEARS = 400;
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private static final Cache<String, CronPattern> cache = CacheBuilder.newBuilder()
+        .maximumSize(1000)
+        .build();
+
+    private final List<Fields> fieldsList;
+
+    private CronPattern(List<Fields> fieldsList)
+    {
+        this.fieldsList = fieldsList;
+    }
+
+    static CronPattern compile(String pattern)
+    {
+        try {
+            return cache.get(pattern, () -> new CronPattern(parse(pattern)));
+        }
+        catch (ExecutionException | UncheckedExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    private static List<Fields> parse(String pattern)
+    {
+        // validates syntax and throws InvalidPatternException
+        new SchedulingPattern(pattern);
+
+        ImmutableList.Builder<Fields> builder = ImmutableList.builder();
+        StringTokenizer patterns = new StringTokenizer(pattern, "|");
+        while (patterns.hasMoreTokens()) {
+            StringTokenizer tokens = new StringTokenizer(patterns.nextToken(), " \t");
+            String[] f = new String[5];
+            for (int i = 0; i < 5; i++) {
+                f[i] = tokens.nextToken();
+            }
+            Fields fields = new Fields(f[0], f[1], f[2], f[3], f[4]);
+            // an alternative that never matches (e.g. Feb 30) is ignored as cron4j does
+            if (fields.isSatisfiable()) {
+                builder.add(fields);
+            }
+        }
+        List<Fields> fieldsList = builder.build();
+        if (fieldsList.isEmpty()) {
+            throw new ConfigException("Cron pattern never matches: " + pattern);
+        }
+        return fieldsList;
+    }
+
+    /**
+     * Returns the first time that matches this pattern after the given time.
+     */
+    Instant next(Instant time, ZoneId zone)
+    {
+        Instant min = null;
+        for (Fields fields : fieldsList) {
+            Instant next = fields.next(time, zone);
+            if (min == null || next.isBefore(min)) {
+                min = next;
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Returns the last time that matches this pattern before the given time.
+     */
+    Instant previous(Instant time, ZoneId zone)
+    {
+        Instant max = null;
+        for (Fields fields : fieldsList) {
+            Instant prev = fields.previous(time, zone);
+            if (max == null || prev.isAfter(max)) {
+                max = prev;
+            }
+        }
+        return max;
+    }
+
+    private static class Fields
+    {
+        private final long minutes;  // bit 0-59
+        private final long hours;  // bit 0-23
+        private final long days;  // bit 1-31
+        private final boolean lastDay;  // "L"
+        private final long months;  // bit 1-12
+        private final long daysOfWeek;  // bit 0-6. 0 is Sunday
+
+        Fields(String minute, String hour, String dayOfMonth, String month, String dayOfWeek)
+        {
+            SchedulingPattern m = new SchedulingPattern(minute + " * * * *");
+            SchedulingPattern h = new SchedulingPattern("* " + hour + " * * *");
+            SchedulingPattern d = new SchedulingPattern("* * " + dayOfMonth + " * *");
+            SchedulingPattern mo = new SchedulingPattern("* * * " + month + " *");
+            SchedulingPattern w = new SchedulingPattern("* * * * " + dayOfWeek);
+
+            LocalDateTime epoch = LocalDateTime.of(1970, 1, 1, 0, 0);
+            this.minutes = bits(m, 0, 59, i -> epoch.plusMinutes(i));
+            this.hours = bits(h, 0, 23, i -> epoch.plusHours(i));
+            // 1970-01 has 31 days. day 31 matches if it's included or "L" is set.
+            this.days = bits(d, 1, 31, i -> epoch.withDayOfMonth(i));
+            // "L" is set if the last day of a shorter month matches but the day itself is not included.
+            this.lastDay =
+                (!isSet(days, 28) && matches(d, LocalDateTime.of(1970, 2, 28, 0, 0))) ||
+                (!isSet(days, 29) && matches(d, LocalDateTime.of(2000, 2, 29, 0, 0))) ||
+                (!isSet(days, 30) && matches(d, LocalDateTime.of(1970, 4, 30, 0, 0)));
+            this.months = bits(mo, 1, 12, i -> epoch.withMonth(i));
+            // 1970-01-04 is Sunday
+            this.daysOfWeek = bits(w, 0, 6, i -> epoch.withDayOfMonth(4 + i));
+        }
+
+        private interface TimeOf
+        {
+            LocalDateTime of(int value);
+        }
+
+        private static long bits(SchedulingPattern pattern, int from, int to, TimeOf timeOf)
+        {
+            long bits = 0;
+            for (int i = from; i <= to; i++) {
+                if (matches(pattern, timeOf.of(i))) {
+                    bits |= 1L << i;
+                }
+            }
+            return bits;
+        }
+
+        private static boolean matches(SchedulingPattern pattern, LocalDateTime time)
+        {
+            return pattern.match(UTC, time.toInstant(ZoneOffset.UTC).toEpochMilli());
+        }
+
+        private static boolean isSet(long bits, int i)
+        {
+            return (bits & (1L << i)) != 0;
+        }
+
+        // Returns the smallest set bit that is equal to or larger than i, or -1.
+        private static int nextSetBit(long bits, int i)
+        {
+            if (i > 63) {
+                return -1;
+            }
+            long masked = bits & (-1L << i);
+            return masked == 0 ? -1 : Long.numberOfTrailingZeros(masked);
+        }
+
+        // Returns the largest set bit that is equal to or smaller than i, or -1.
+        private static int previousSetBit(long bits, int i)
+        {
+            if (i < 0) {
+                return -1;
+            }
+            long masked = i >= 63 ? bits : bits & ((1L << (i + 1)) - 1);
+            return masked == 0 ? -1 : 63 - Long.numberOfLeadingZeros(masked);
+        }
+
+        boolean isSatisfiable()
+        {
+            if (minutes == 0 || hours == 0 || months == 0 || daysOfWeek == 0 || (days == 0 && !lastDay)) {
+                return false;
+            }
+            // Every day of week appears on every day of month in 28 years
+            // including Feb 29. Thus only day of month and month matter.
+            for (int month = 1; month <= 12; month++) {
+                if (isSet(months, month) && (lastDay || nextSetBit(days, 1) <= LocalDate.of(2000, month, 1).lengthOfMonth())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean matchesDay(LocalDate date)
+        {
+            int day = date.getDayOfMonth();
+            return (isSet(days, day) || (lastDay && day == date.lengthOfMonth())) &&
+                isSet(daysOfWeek, date.getDayOfWeek().getValue() % 7);
+        }
+
+        // Returns the next day that matches day of month, or the first day of the next month.
+        private LocalDate nextDay(LocalDate date)
+        {
+            int day = date.getDayOfMonth();
+            int length = date.lengthOfMonth();
+            int next = nextSetBit(days, day + 1);
+            if (next < 0 || next > length) {
+                next = (lastDay && day < length) ? length : -1;
+            }
+            return next < 0 ? date.withDayOfMonth(1).plusMonths(1) : date.withDayOfMonth(next);
+        }
+
+        // Returns the previous day that matches day of month, or the last day of the previous month.
+        private LocalDate previousDay(LocalDate date)
+        {
+            int prev = previousSetBit(days, date.getDayOfMonth() - 1);
+            return prev < 1 ? date.withDayOfMonth(1).minusDays(1) : date.withDayOfMonth(prev);
+        }
+
+        // Returns the first matching local time equal to or after the given time.
+        LocalDateTime nextLocal(LocalDateTime from)
+        {
+            LocalDate date = from.toLocalDate();
+            int hour = from.getHour();
+            int minute = from.getMinute();
+            LocalDate limit = date.plusYears(MAX_SEARCH_YEARS);
+            while (date.isBefore(limit)) {
+                if (!isSet(months, date.getMonthValue())) {
+                    int month = nextSetBit(months, date.getMonthValue());
+                    date = month < 0
+                        ? LocalDate.of(date.getYear() + 1, nextSetBit(months, 1), 1)
+                        : LocalDate.of(date.getYear(), month, 1);
+                    hour = 0;
+                    minute = 0;
+                    continue;
+                }
+                if (!matchesDay(date)) {
+                    date = nextDay(date);
+                    hour = 0;
+                    minute = 0;
+                    continue;
+                }
+                int h = nextSetBit(hours, hour);
+                if (h < 0) {
+                    date = date.plusDays(1);
+                    hour = 0;
+                    minute = 0;
+                    continue;
+                }
+                if (h != hour) {
+                    minute = 0;
+                }
+                int m = nextSetBit(minutes, minute);
+                if (m < 0) {
+                    hour = h + 1;
+                    minute = 0;
+                    if (hour > 23) {
+                        date = date.plusDays(1);
+                        hour = 0;
+                    }
+                    continue;
+                }
+                return date.atTime(h, m);
+            }
+            throw new IllegalStateException("Cron pattern doesn't match in " + MAX_SEARCH_YEARS + " years from " + from);
+        }
+
+        // Returns the last matching local time equal to or before the given time.
+        LocalDateTime previousLocal(LocalDateTime from)
+        {
+            LocalDate date = from.toLocalDate();
+            int hour = from.getHour();
+            int minute = from.getMinute();
+            LocalDate limit = date.minusYears(MAX_SEARCH_YEARS);
+            while (date.isAfter(limit)) {
+                if (!isSet(months, date.getMonthValue())) {
+                    int month = previousSetBit(months, date.getMonthValue());
+                    LocalDate first = month < 0
+                        ? LocalDate.of(date.getYear() - 1, previousSetBit(months, 12), 1)
+                        : LocalDate.of(date.getYear(), month, 1);
+                    date = first.withDayOfMonth(first.lengthOfMonth());
+                    hour = 23;
+                    minute = 59;
+                    continue;
+                }
+                if (!matchesDay(date)) {
+                    date = previousDay(date);
+                    hour = 23;
+                    minute = 59;
+                    continue;
+                }
+                int h = previousSetBit(hours, hour);
+                if (h < 0) {
+                    date = date.minusDays(1);
+                    hour = 23;
+                    minute = 59;
+                    continue;
+                }
+                if (h != hour) {
+                    minute = 59;
+                }
+                int m = previousSetBit(minutes, minute);
+                if (m < 0) {
+                    hour = h - 1;
+                    minute = 59;
+                    if (hour < 0) {
+                        date = date.minusDays(1);
+                        hour = 23;
+                    }
+                    continue;
+                }
+                return date.atTime(h, m);
+            }
+            throw new IllegalStateException("Cron pattern doesn't match in " + MAX_SEARCH_YEARS + " years before " + from);
+        }
+
+        Instant next(Instant time, ZoneId zone)
+        {
+            LocalDateTime start = LocalDateTime.ofInstant(time, zone).truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+            LocalDateTime local = start;
+            ZoneOffsetTransition last = zone.getRules().previousTransition(time.plusSeconds(1));
+            if (last != null && last.isGap() && time.isBefore(last.getInstant().plus(last.getDuration()))) {
+                // times in the last gap are moved to after the gap and may be after the given time
+                local = last.getDateTimeBefore();
+            }
+            while (true) {
+                LocalDateTime candidate = nextLocal(local);
+                Instant instant = ZonedDateTime.of(candidate, zone).toInstant();
+                if (instant.isAfter(time)) {
+                    ZoneOffsetTransition gap = zone.getRules().getTransition(candidate);
+                    if (gap != null && gap.isGap()) {
+                        // candidate doesn't exist and is moved to after the gap.
+                        // a time right after the gap may be earlier than that.
+                        LocalDateTime afterGap = gap.getDateTimeAfter().isAfter(start) ? gap.getDateTimeAfter() : start;
+                        Instant afterGapInstant = ZonedDateTime.of(nextLocal(afterGap), zone).toInstant();
+                        if (afterGapInstant.isBefore(instant)) {
+                            return afterGapInstant;
+                        }
+                    }
+                    return instant;
+                }
+                // the candidate is before the given time. This happens if the given
+                // time is in a DST overlap or right after a DST gap.
+                local = candidate.plusMinutes(1);
+            }
+        }
+
+        Instant previous(Instant time, ZoneId zone)
+        {
+            LocalDateTime local = LocalDateTime.ofInstant(time, zone).truncatedTo(ChronoUnit.MINUTES);
+            Instant prev;
+            while (true) {
+                LocalDateTime candidate = previousLocal(local);
+                prev = ZonedDateTime.of(candidate, zone).toInstant();
+                if (prev.isBefore(time)) {
+                    break;
+                }
+                local = candidate.minusMinutes(1);
+            }
+            // Local times around a DST transition are not in the same order as
+            // instants. Move forward until the next one is not before the given time.
+            Instant next = next(prev, zone);
+            while (next.isBefore(time)) {
+                prev = next;
+                next = next(prev, zone);
+            }
+            return prev;
+        }
+    }
+}
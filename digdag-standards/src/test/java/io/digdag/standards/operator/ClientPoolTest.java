@@ -0,0 +1,141 @@
+package io.digdag.standards.operator;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class ClientPoolTest
+{
+    private static class TestPool
+            extends ClientPool
+    {
+        long now = 0;
+
+        TestPool(int idleTimeoutSeconds)
+        {
+            super(idleTimeoutSeconds);
+        }
+
+        @Override
+        long nanoTime()
+        {
+            return now;
+        }
+
+        void advance(int seconds)
+        {
+            now += TimeUnit.SECONDS.toNanos(seconds);
+        }
+    }
+
+    private final AtomicInteger created = new AtomicInteger();
+    private final List<String> closed = new ArrayList<>();
+
+    private ClientPool.Lease<String> acquire(ClientPool pool, String endpoint, String secret)
+    {
+        return pool.acquire("test", ImmutableList.of(endpoint, secret),
+                () -> endpoint + "#" + created.incrementAndGet(),
+                closed::add);
+    }
+
+    @Test
+    public void closeImmediatelyIfDisabled()
+    {
+        ClientPool pool = ClientPool.disabled();
+        assertThat(pool.isEnabled(), is(false));
+
+        ClientPool.Lease<String> a = acquire(pool, "a", "s");
+        ClientPool.Lease<String> b = acquire(pool, "a", "s");
+        assertThat(a.get(), not(b.get()));
+
+        a.close();
+        a.close();
+        assertThat(closed, contains("a#1"));
+        b.close();
+        assertThat(closed, contains("a#1", "a#2"));
+    }
+
+    @Test
+    public void shareClientsWithSameKey()
+    {
+        TestPool pool = new TestPool(60);
+
+        ClientPool.Lease<String> a1 = acquire(pool, "a", "s");
+        ClientPool.Lease<String> a2 = acquire(pool, "a", "s");
+        ClientPool.Lease<String> b = acquire(pool, "b", "s");
+        ClientPool.Lease<String> a3 = acquire(pool, "a", "t");
+
+        assertThat(a1.get(), sameInstance(a2.get()));
+        assertThat(b.get(), is("b#2"));
+        assertThat(a3.get(), is("a#3"));
+        assertThat(pool.size(), is(3));
+
+        a1.close();
+        a2.close();
+        pool.advance(59);
+        try (ClientPool.Lease<String> a4 = acquire(pool, "a", "s")) {
+            assertThat(a4.get(), is("a#1"));
+        }
+        assertThat(closed, empty());
+        assertThat(created.get(), is(3));
+    }
+
+    @Test
+    public void evictIdleClients()
+    {
+        TestPool pool = new TestPool(60);
+
+        ClientPool.Lease<String> a = acquire(pool, "a", "s");
+        ClientPool.Lease<String> b = acquire(pool, "b", "s");
+        a.close();
+
+        pool.advance(60);
+        // b is still in use
+        acquire(pool, "c", "s").close();
+        assertThat(closed, contains("a#1"));
+        assertThat(pool.size(), is(2));
+
+        b.close();
+        pool.advance(60);
+        try (ClientPool.Lease<String> a2 = acquire(pool, "a", "s")) {
+            assertThat(a2.get(), is("a#4"));
+        }
+        assertThat(closed, containsInAnyOrder("a#1", "b#2", "c#3"));
+
+        pool.shutdown();
+        assertThat(closed, containsInAnyOrder("a#1", "b#2", "c#3", "a#4"));
+        assertThat(pool.size(), is(0));
+    }
+
+    @Test
+    public void evictIdleClientsWithoutAcquisition()
+    {
+        TestPool pool = new TestPool(60);
+
+        acquire(pool, "a", "s").close();
+        ClientPool.Lease<String> b = acquire(pool, "b", "s");
+
+        pool.advance(59);
+        pool.evictIdleClients();
+        assertThat(closed, empty());
+
+        pool.advance(1);
+        pool.evictIdleClients();
+        assertThat(closed, contains("a#1"));
+        assertThat(pool.size(), is(1));
+
+        b.close();
+    }
+}
@@ -7,6 +7,8 @@ import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.S3ClientOptions;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
@@ -19,6 +21,8 @@ import io.digdag.spi.OperatorContext;
 import io.digdag.spi.TaskExecutionException;
 import io.digdag.spi.TaskRequest;
 import io.digdag.spi.TaskResult;
+import io.digdag.standards.operator.ClientPool;
+import io.digdag.standards.operator.state.PollingProbeRegistry;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -45,6 +49,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -121,7 +126,7 @@ public class S3WaitOperatorFactoryTest
 
         when(s3ClientFactory.create(any(AWSCredentials.class), any(ClientConfiguration.class))).thenReturn(s3Client);
         projectPath = temporaryFolder.newFolder().toPath();
-        factory = new S3WaitOperatorFactory(s3ClientFactory, environment);
+        factory = new S3WaitOperatorFactory(s3ClientFactory, environment, ClientPool.disabled(), PollingProbeRegistry.disabled());
     }
 
     @Test
@@ -359,6 +364,75 @@ public class S3WaitOperatorFactoryTest
         assertThat(clientConfiguration.getProxyPassword(), is("bar"));
     }
 
+    @Test
+    public void testSharedPolling()
+            throws Exception
+    {
+        Config systemConfig = newConfig().set("agent.polling-result-ttl", 60);
+        factory = new S3WaitOperatorFactory(s3ClientFactory, environment, ClientPool.disabled(), new PollingProbeRegistry(systemConfig));
+
+        when(s3Client.getObjectMetadata(any(GetObjectMetadataRequest.class))).thenThrow(NOT_FOUND_EXCEPTION);
+        when(s3Client.listObjects(any(ListObjectsRequest.class))).thenReturn(new ObjectListing());
+
+        for (int i = 0; i < 12; i++) {
+            // two tasks wait for each object
+            for (int j = 0; j < 2; j++) {
+                Config config = newConfig();
+                config.set("_command", BUCKET + "/dir/key-" + i);
+                when(taskRequest.getConfig()).thenReturn(config);
+
+                Operator operator = factory.newOperator(newContext(projectPath, taskRequest));
+                try {
+                    operator.run();
+                    fail();
+                }
+                catch (TaskExecutionException e) {
+                    assertThat(e.getRetryInterval().isPresent(), is(true));
+                }
+            }
+        }
+
+        // the first 11 objects are checked one by one. The 12th object is
+        // known to be absent by listing the prefix.
+        verify(s3Client, times(11)).getObjectMetadata(any(GetObjectMetadataRequest.class));
+        verify(s3Client, times(1)).listObjects(any(ListObjectsRequest.class));
+    }
+
+    @Test
+    public void testSharedPollingOfNonExistentBucket()
+            throws Exception
+    {
+        Config systemConfig = newConfig().set("agent.polling-result-ttl", 60);
+        factory = new S3WaitOperatorFactory(s3ClientFactory, environment, ClientPool.disabled(), new PollingProbeRegistry(systemConfig));
+
+        AmazonS3Exception noSuchBucket = new AmazonS3Exception("The specified bucket does not exist");
+        noSuchBucket.setStatusCode(404);
+        noSuchBucket.setErrorCode("NoSuchBucket");
+
+        when(s3Client.getObjectMetadata(any(GetObjectMetadataRequest.class))).thenThrow(NOT_FOUND_EXCEPTION);
+        when(s3Client.listObjects(any(ListObjectsRequest.class))).thenThrow(noSuchBucket);
+
+        for (int i = 0; i < 12; i++) {
+            Config config = newConfig();
+            config.set("_command", BUCKET + "/dir/key-" + i);
+            when(taskRequest.getConfig()).thenReturn(config);
+
+            Operator operator = factory.newOperator(newContext(projectPath, taskRequest));
+            try {
+                operator.run();
+                fail();
+            }
+            catch (TaskExecutionException e) {
+                // the task keeps waiting for the bucket to be created
+                assertThat(e.getRetryInterval().isPresent(), is(true));
+            }
+        }
+
+        // listing fails for the 12th object. It falls back to checking the object.
+        verify(s3Client, times(12)).getObjectMetadata(any(GetObjectMetadataRequest.class));
+        verify(s3Client, times(1)).listObjects(any(ListObjectsRequest.class));
+    }
+
     private OperatorContext newContext(final Path projectPath, final TaskRequest taskRequest)
     {
         return new OperatorContext()
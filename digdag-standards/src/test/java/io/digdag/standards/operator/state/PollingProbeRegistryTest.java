@@ -0,0 +1,128 @@
+package io.digdag.standards.operator.state;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+public class PollingProbeRegistryTest
+{
+    private static class TestTicker
+            extends Ticker
+    {
+        long now = 0;
+
+        @Override
+        public long read()
+        {
+            return now;
+        }
+
+        void advance(int seconds)
+        {
+            now += TimeUnit.SECONDS.toNanos(seconds);
+        }
+    }
+
+    private final TestTicker ticker = new TestTicker();
+    private final AtomicInteger probed = new AtomicInteger();
+
+    private Optional<String> probe(PollingProbeRegistry probes, String target)
+            throws Exception
+    {
+        return probes.probe("test", ImmutableList.of("secret", target), () -> {
+            probed.incrementAndGet();
+            return target.startsWith("found") ? Optional.of(target) : Optional.absent();
+        });
+    }
+
+    @Test
+    public void probeEveryTimeIfDisabled()
+            throws Exception
+    {
+        PollingProbeRegistry probes = PollingProbeRegistry.disabled();
+        assertThat(probe(probes, "a"), is(Optional.absent()));
+        assertThat(probe(probes, "a"), is(Optional.absent()));
+        assertThat(probed.get(), is(2));
+
+        probes.put("test", ImmutableList.of("a"), 1);
+        assertThat(probes.getIfPresent("test", ImmutableList.of("a")), is(Optional.absent()));
+        assertThat(probes.watch("test", ImmutableList.of("p"), "b"), is(1));
+    }
+
+    @Test
+    public void shareResultsWithinTtl()
+            throws Exception
+    {
+        PollingProbeRegistry probes = new PollingProbeRegistry(30, ticker);
+
+        assertThat(probe(probes, "a"), is(Optional.absent()));
+        assertThat(probe(probes, "found_b"), is(Optional.of("found_b")));
+        ticker.advance(29);
+        assertThat(probe(probes, "a"), is(Optional.absent()));
+        assertThat(probe(probes, "found_b"), is(Optional.of("found_b")));
+        assertThat(probed.get(), is(2));
+
+        ticker.advance(1);
+        assertThat(probe(probes, "a"), is(Optional.absent()));
+        assertThat(probed.get(), is(3));
+    }
+
+    @Test
+    public void failuresAreNotShared()
+            throws Exception
+    {
+        PollingProbeRegistry probes = new PollingProbeRegistry(30, ticker);
+
+        try {
+            probes.probe("test", ImmutableList.of("a"), () -> {
+                throw new IOException("failed");
+            });
+            fail();
+        }
+        catch (IOException ex) {
+            assertThat(ex.getMessage(), is("failed"));
+        }
+        assertThat(probes.probe("test", ImmutableList.of("a"), () -> 1), is(1));
+    }
+
+    @Test
+    public void putAndGet()
+    {
+        PollingProbeRegistry probes = new PollingProbeRegistry(30, ticker);
+
+        assertThat(probes.getIfPresent("test", ImmutableList.of("a")), is(Optional.absent()));
+        probes.put("test", ImmutableList.of("a"), 10);
+        assertThat(probes.getIfPresent("test", ImmutableList.of("a")), is(Optional.of(10)));
+        assertThat(probes.getIfPresent("other", ImmutableList.of("a")), is(Optional.absent()));
+
+        ticker.advance(30);
+        assertThat(probes.getIfPresent("test", ImmutableList.of("a")), is(Optional.absent()));
+    }
+
+    @Test
+    public void countWatchedMembers()
+    {
+        PollingProbeRegistry probes = new PollingProbeRegistry(30, ticker);
+
+        assertThat(probes.watch("test", ImmutableList.of("p"), "a"), is(1));
+        assertThat(probes.watch("test", ImmutableList.of("p"), "a"), is(1));
+        assertThat(probes.watch("test", ImmutableList.of("p"), "b"), is(2));
+        assertThat(probes.watch("test", ImmutableList.of("q"), "a"), is(1));
+
+        ticker.advance(20);
+        assertThat(probes.watch("test", ImmutableList.of("p"), "c"), is(3));
+
+        // a and b are not waited in the last 30 seconds
+        ticker.advance(10);
+        assertThat(probes.watch("test", ImmutableList.of("p"), "c"), is(1));
+    }
+}
@@ -0,0 +1,184 @@
+package io.digdag.standards.scheduler;
+
+import io.digdag.client.config.ConfigException;
+import it.sauronsoftware.cron4j.InvalidPatternException;
+import it.sauronsoftware.cron4j.Predictor;
+import it.sauronsoftware.cron4j.SchedulingPattern;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static io.digdag.standards.scheduler.SchedulerTestHelper.instant;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class CronPatternTest
+{
+    private static final String[] MINUTES = {"*", "0", "5", "*/15", "10-20", "50-10", "0,30", "7-40/11"};
+    private static final String[] HOURS = {"*", "0", "3", "*/6", "9-17", "22-2", "1,13"};
+    private static final String[] DAYS = {"*", "1", "15", "29", "31", "L", "1,L", "10-20/3"};
+    private static final String[] MONTHS = {"*", "2", "feb", "*/3", "jan-mar", "11-2", "4,6,9,11"};
+    private static final String[] DAYS_OF_WEEK = {"*", "0", "7", "sun", "mon-fri", "fri-mon", "1,3,5"};
+
+    @Test
+    public void sameWithCron4j()
+    {
+        Random random = new Random(1);
+        Instant base = instant("2015-06-01 00:00:00 +0000");
+        for (String zone : new String[] {"UTC", "Asia/Tokyo"}) {
+            for (int i = 0; i < 2000; i++) {
+                String pattern = String.join(" ",
+                        pick(random, MINUTES), pick(random, HOURS), pick(random, DAYS),
+                        pick(random, MONTHS), pick(random, DAYS_OF_WEEK));
+                if (random.nextInt(10) == 0) {
+                    pattern = pattern + "|" + "30 12 * * *";
+                }
+                CronPattern cron;
+                try {
+                    cron = CronPattern.compile(pattern);
+                }
+                catch (ConfigException ex) {
+                    // never matches (e.g. Feb 31). cron4j doesn't return.
+                    continue;
+                }
+                Instant time = base.plusSeconds(random.nextInt(10 * 365 * 24 * 60) * 60L + random.nextInt(3) * 30);
+
+                Instant next = cron.next(time, ZoneId.of(zone));
+                assertThat(pattern + " after " + time, next, is(predict(pattern, zone, time)));
+
+                Instant prev = cron.previous(time, ZoneId.of(zone));
+                assertThat(pattern + " before " + time, prev.isBefore(time), is(true));
+                assertThat(pattern + " before " + time, predict(pattern, zone, prev).isBefore(time), is(false));
+            }
+        }
+    }
+
+    @Test
+    public void sparsePattern()
+    {
+        CronPattern cron = CronPattern.compile("0 3 29 2 *");
+        assertThat(cron.next(instant("2021-03-01 00:00:00 +0000"), ZoneId.of("UTC")),
+                is(instant("2024-02-29 03:00:00 +0000")));
+        assertThat(cron.previous(instant("2024-02-29 03:00:00 +0000"), ZoneId.of("UTC")),
+                is(instant("2020-02-29 03:00:00 +0000")));
+
+        // Feb 29 on Monday
+        cron = CronPattern.compile("0 0 29 2 mon");
+        assertThat(cron.next(instant("2016-03-01 00:00:00 +0000"), ZoneId.of("UTC")),
+                is(instant("2044-02-29 00:00:00 +0000")));
+        assertThat(cron.previous(instant("2044-02-29 00:00:00 +0000"), ZoneId.of("UTC")),
+                is(instant("2016-02-29 00:00:00 +0000")));
+    }
+
+    @Test
+    public void dstGap()
+    {
+        // America/Los_Angeles begins DST at 2020-03-08 03:00:00 -0700
+        // (== 2020-03-08 02:00:00 -0800)
+        ZoneId zone = ZoneId.of("America/Los_Angeles");
+
+        // 02:30 doesn't exist and runs at 03:30 -0700
+        CronPattern cron = CronPattern.compile("30 2 * * *");
+        assertThat(cron.next(instant("2020-03-07 12:00:00 -0800"), zone),
+                is(instant("2020-03-08 03:30:00 -0700")));
+        assertThat(cron.next(instant("2020-03-08 03:30:00 -0700"), zone),
+                is(instant("2020-03-09 02:30:00 -0700")));
+        assertThat(cron.previous(instant("2020-03-09 02:30:00 -0700"), zone),
+                is(instant("2020-03-08 03:30:00 -0700")));
+
+        // 02:00, 02:20 and 02:40 run at 03:00, 03:20 and 03:40 -0700 only once
+        cron = CronPattern.compile("*/20 * * * *");
+        assertThat(cron.next(instant("2020-03-08 01:40:00 -0800"), zone),
+                is(instant("2020-03-08 03:00:00 -0700")));
+        assertThat(cron.next(instant("2020-03-08 03:00:00 -0700"), zone),
+                is(instant("2020-03-08 03:20:00 -0700")));
+        assertThat(cron.previous(instant("2020-03-08 03:00:00 -0700"), zone),
+                is(instant("2020-03-08 01:40:00 -0800")));
+
+        // 03:00 is earlier than 02:40 moved to 03:40
+        cron = CronPattern.compile("40 2 * * *|0 3 * * *");
+        assertThat(cron.next(instant("2020-03-08 01:50:00 -0800"), zone),
+                is(instant("2020-03-08 03:00:00 -0700")));
+        assertThat(cron.next(instant("2020-03-08 03:00:00 -0700"), zone),
+                is(instant("2020-03-08 03:40:00 -0700")));
+        assertThat(cron.previous(instant("2020-03-08 03:50:00 -0700"), zone),
+                is(instant("2020-03-08 03:40:00 -0700")));
+    }
+
+    @Test
+    public void dstOverlap()
+    {
+        // America/Los_Angeles ends DST at 2020-11-01 01:00:00 -0800
+        // (== 2020-11-01 02:00:00 -0700)
+        ZoneId zone = ZoneId.of("America/Los_Angeles");
+
+        // 01:30 runs only once at the earlier offset
+        CronPattern cron = CronPattern.compile("30 1 * * *");
+        assertThat(cron.next(instant("2020-10-31 12:00:00 -0700"), zone),
+                is(instant("2020-11-01 01:30:00 -0700")));
+        assertThat(cron.next(instant("2020-11-01 01:30:00 -0700"), zone),
+                is(instant("2020-11-02 01:30:00 -0800")));
+        assertThat(cron.previous(instant("2020-11-02 01:30:00 -0800"), zone),
+                is(instant("2020-11-01 01:30:00 -0700")));
+
+        cron = CronPattern.compile("*/20 * * * *");
+        assertThat(cron.next(instant("2020-11-01 01:40:00 -0700"), zone),
+                is(instant("2020-11-01 02:00:00 -0800")));
+        assertThat(cron.next(instant("2020-11-01 01:10:00 -0800"), zone),
+                is(instant("2020-11-01 02:00:00 -0800")));
+        assertThat(cron.previous(instant("2020-11-01 01:10:00 -0800"), zone),
+                is(instant("2020-11-01 01:40:00 -0700")));
+    }
+
+    @Test(expected = InvalidPatternException.class)
+    public void invalidPattern()
+    {
+        CronPattern.compile("0 25 * * *");
+    }
+
+    @Test(expected = ConfigException.class)
+    public void neverMatchingPattern()
+    {
+        CronPattern.compile("0 0 30 2 *");
+    }
+
+    @Test(expected = ConfigException.class)
+    public void neverMatchingAlternatives()
+    {
+        CronPattern.compile("0 0 30 2 *|0 0 31 4 *");
+    }
+
+    @Test
+    public void neverMatchingAlternativeIsIgnored()
+    {
+        CronPattern cron = CronPattern.compile("0 0 30 2 *|0 0 1 * *");
+        assertThat(cron.next(instant("2021-02-15 00:00:00 +0000"), ZoneId.of("UTC")),
+                is(instant("2021-03-01 00:00:00 +0000")));
+        assertThat(cron.previous(instant("2021-02-15 00:00:00 +0000"), ZoneId.of("UTC")),
+                is(instant("2021-02-01 00:00:00 +0000")));
+    }
+
+    private static String pick(Random random, String[] values)
+    {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static Instant predict(String pattern, String zone, Instant time)
+    {
+        TimeZone timeZone = TimeZone.getTimeZone(zone);
+        SchedulingPattern sp = new SchedulingPattern(pattern) {
+            @Override
+            public boolean match(long millis)
+            {
+                return match(timeZone, millis);
+            }
+        };
+        Predictor predictor = new Predictor(sp, Date.from(time));
+        predictor.setTimeZone(timeZone);
+        return Instant.ofEpochMilli(predictor.nextMatchingTime());
+    }
+}
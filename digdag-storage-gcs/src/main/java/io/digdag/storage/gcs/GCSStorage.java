@@ -1,6 +1,7 @@
 package io.digdag.storage.gcs;
 
 import com.google.api.gax.paging.Page;
+import com.google.cloud.ReadChannel;
 import com.google.cloud.WriteChannel;
 import com.google.cloud.storage.Blob;
 import com.google.cloud.storage.BlobInfo;
@@ -9,18 +10,21 @@ import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.Storage.BlobListOption;
 import com.google.cloud.storage.StorageException;
 import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.digdag.client.config.Config;
 import io.digdag.commons.ThrowablesUtil;
 import io.digdag.spi.DirectDownloadHandle;
 import io.digdag.spi.DirectUploadHandle;
 import io.digdag.spi.StorageObject;
 import io.digdag.spi.StorageObjectSummary;
+import io.digdag.util.ParallelRangeInputStream;
 import io.digdag.util.RetryExecutor;
 import io.digdag.util.RetryExecutor.RetryGiveupException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -29,6 +33,8 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -42,6 +48,9 @@ public class GCSStorage
     private final Config config;
     private final com.google.cloud.storage.Storage storage;
     private final String bucket;
+    private final int downloadParallelism;
+    private final int downloadPartSize;
+    private final ExecutorService downloadExecutor;
 
     public GCSStorage(final Config config, com.google.cloud.storage.Storage storage, String bucket)
     {
@@ -49,6 +58,13 @@ public class GCSStorage
         this.config = config;
         this.storage = storage;
         this.bucket = bucket;
+        this.downloadParallelism = config.get("download.parallelism", int.class, 1);
+        this.downloadPartSize = config.get("download.part_size", int.class, 8 * 1024 * 1024);
+        this.downloadExecutor = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder()
+                    .setNameFormat("storage-gcs-download-transfer-%d")
+                    .setDaemon(true)
+                    .build());
     }
 
     private RetryExecutor uploadRetryExecutor()
@@ -66,11 +82,39 @@ public class GCSStorage
     {
         checkArgument(object != null, "object is null");
         String errorMessage = "opening file bucket " + bucket + " key " + object;
+        if (downloadParallelism > 1) {
+            Blob blob = getWithRetry(errorMessage, () -> storage.get(bucket, object));
+            if (blob != null && blob.getSize() > downloadPartSize) {
+                return openParallel(object, blob.getSize(), errorMessage);
+            }
+        }
         byte[] content = getWithRetry(errorMessage, () -> storage.get(bucket, object).getContent());
         InputStream byteStream = new ByteArrayInputStream(content);
         return new StorageObject(byteStream, content.length);
     }
 
+    private StorageObject openParallel(String object, long size, String errorMessage)
+    {
+        InputStream in = new ParallelRangeInputStream("gs://" + bucket + "/" + object, size,
+                downloadPartSize, downloadParallelism, downloadExecutor,
+                (offset, buffer, length) -> {
+                    getWithRetry(errorMessage, () -> {
+                        try (ReadChannel reader = storage.reader(bucket, object)) {
+                            reader.setChunkSize(length);
+                            reader.seek(offset);
+                            ByteBuffer buf = ByteBuffer.wrap(buffer, 0, length);
+                            while (buf.hasRemaining()) {
+                                if (reader.read(buf) < 0) {
+                                    throw new EOFException("Unexpected end of " + object + " at offset " + (offset + buf.position()));
+                                }
+                            }
+                        }
+                        return null;
+                    });
+                });
+        return new StorageObject(in, size);
+    }
+
     @Override
     public String put(String object, long contentLength,
             UploadStreamProvider payload)
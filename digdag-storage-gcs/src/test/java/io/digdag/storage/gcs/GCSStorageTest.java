@@ -76,6 +76,23 @@ public class GCSStorageTest
         assertThat(readString(storage.open("key/file/3").getContentInputStream()), is("data"));
     }
 
+    @Test
+    public void putGetParallel()
+            throws Exception
+    {
+        com.google.cloud.storage.Storage gcsStorage = LocalStorageHelper.getOptions().getService();
+        Config config = new ConfigFactory(objectMapper()).create()
+                .set("bucket", UUID.randomUUID().toString())
+                .set("download.parallelism", 3)
+                .set("download.part_size", 4);
+        Storage parallelStorage = new GCSStorageFactory().newStorage(gcsStorage, config);
+
+        parallelStorage.put("key/file/1", 3, contents("xxx"));
+        parallelStorage.put("key/file/2", 26, contents("abcdefghijklmnopqrstuvwxyz"));
+        assertThat(readString(parallelStorage.open("key/file/1").getContentInputStream()), is("xxx"));
+        assertThat(readString(parallelStorage.open("key/file/2").getContentInputStream()), is("abcdefghijklmnopqrstuvwxyz"));
+    }
+
     @Test
     public void listAll()
             throws Exception
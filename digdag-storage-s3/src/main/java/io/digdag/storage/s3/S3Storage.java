@@ -10,6 +10,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Callable;
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.amazonaws.HttpMethod;
 import com.amazonaws.AmazonServiceException;
@@ -36,6 +37,7 @@ import io.digdag.spi.DirectDownloadHandle;
 import io.digdag.spi.DirectUploadHandle;
 import io.digdag.util.RetryExecutor;
 import io.digdag.util.RetryExecutor.RetryGiveupException;
+import io.digdag.util.ParallelRangeInputStream;
 import io.digdag.util.ResumableInputStream;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Strings.isNullOrEmpty;
@@ -50,6 +52,9 @@ public class S3Storage
     private final String bucket;
     private final ExecutorService uploadExecutor;
     private final TransferManager transferManager;
+    private final int downloadParallelism;
+    private final int downloadPartSize;
+    private final ExecutorService downloadExecutor;
 
     public S3Storage(final Config config, AmazonS3Client client, String bucket)
     {
@@ -62,6 +67,13 @@ public class S3Storage
                     .setNameFormat("storage-s3-upload-transfer-%d")
                     .build());
         this.transferManager = new TransferManager(client, uploadExecutor);
+        this.downloadParallelism = config.get("download.parallelism", int.class, 1);
+        this.downloadPartSize = config.get("download.part_size", int.class, 8 * 1024 * 1024);
+        this.downloadExecutor = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder()
+                    .setNameFormat("storage-s3-download-transfer-%d")
+                    .setDaemon(true)
+                    .build());
         // TODO check the existence of the bucket so that following
         //      any GET or PUT don't get 404 Not Found error.
     }
@@ -85,6 +97,14 @@ public class S3Storage
         String errorMessage = "opening file bucket " + bucket + " key " + key;
         GetObjectRequest req = new GetObjectRequest(bucket, key);
 
+        if (downloadParallelism > 1) {
+            ObjectMetadata meta = getWithRetry(errorMessage, () -> client.getObjectMetadata(bucket, key));
+            long size = meta.getContentLength();
+            if (size > downloadPartSize) {
+                return openParallel(key, size, errorMessage);
+            }
+        }
+
         S3Object obj = getWithRetry(errorMessage, () -> client.getObject(req));
 
         final long actualSize = obj.getObjectMetadata().getContentLength();
@@ -112,6 +132,29 @@ public class S3Storage
         return new StorageObject(resumable, actualSize);
     }
 
+    private StorageObject openParallel(String key, long size, String errorMessage)
+    {
+        InputStream in = new ParallelRangeInputStream("s3://" + bucket + "/" + key, size,
+                downloadPartSize, downloadParallelism, downloadExecutor,
+                (offset, buffer, length) -> {
+                    try {
+                        getWithRetry(errorMessage, () -> {
+                            GetObjectRequest req = new GetObjectRequest(bucket, key);
+                            req.setRange(offset, offset + length - 1);
+                            try (S3ObjectInputStream raw = client.getObject(req).getObjectContent()) {
+                                ByteStreams.readFully(raw, buffer, 0, length);
+                            }
+                            return null;
+                        });
+                    }
+                    catch (StorageFileNotFoundException ex) {
+                        // deleted after the metadata is fetched
+                        throw new IOException(ex);
+                    }
+                });
+        return new StorageObject(in, size);
+    }
+
     private InputStream overrideCloseToAbort(final S3ObjectInputStream raw)
     {
         return new FilterInputStream(raw)
@@ -36,6 +36,7 @@ public class S3StorageTest
     private static final String TEST_S3_ACCESS_KEY_ID = System.getenv().getOrDefault("TEST_S3_ACCESS_KEY_ID", "test");
     private static final String TEST_S3_SECRET_ACCESS_KEY = System.getenv().getOrDefault("TEST_S3_SECRET_ACCESS_KEY", "test");
 
+    private Config config;
     private Storage storage;
 
     @Before
@@ -52,7 +53,7 @@ public class S3StorageTest
         s3.createBucket(bucket);
 
         ConfigFactory cf = new ConfigFactory(objectMapper());
-        Config config = cf.create()
+        config = cf.create()
             .set("endpoint", TEST_S3_ENDPOINT)
             .set("bucket", bucket)  // use unique bucket name
             .set("credentials.access-key-id", TEST_S3_ACCESS_KEY_ID)
@@ -83,6 +84,20 @@ public class S3StorageTest
         assertThat(readString(storage.open("key/file/3").getContentInputStream()), is("data"));
     }
 
+    @Test
+    public void putGetParallel()
+        throws Exception
+    {
+        Storage parallelStorage = new S3StorageFactory().newStorage(config.deepCopy()
+                .set("download.parallelism", 3)
+                .set("download.part_size", 4));
+
+        parallelStorage.put("key/file/1", 3, contents("xxx"));
+        parallelStorage.put("key/file/2", 26, contents("abcdefghijklmnopqrstuvwxyz"));
+        assertThat(readString(parallelStorage.open("key/file/1").getContentInputStream()), is("xxx"));
+        assertThat(readString(parallelStorage.open("key/file/2").getContentInputStream()), is("abcdefghijklmnopqrstuvwxyz"));
+    }
+
     @Test
     public void listAll()
         throws Exception